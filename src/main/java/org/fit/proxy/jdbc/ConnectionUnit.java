@@ -1,13 +1,20 @@
 package org.fit.proxy.jdbc;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
 /**
  * 
@@ -24,6 +31,21 @@ public class ConnectionUnit {
 	private Pattern pattern;
 	private String name;
 	
+	/**
+	 * Connection of distributed transactions, null when the database is connected by its driver
+	 */
+	private XAConnection xaConnection;
+	
+	/**
+	 * Known values of session attributes of the connection, an attribute is missing when its value is unknown
+	 */
+	private final Map<ProxyProperty, Object> sessionState = new EnumMap<>(ProxyProperty.class);
+	
+	/**
+	 * Time of the last successful task in the connection, 0 when there was none
+	 */
+	private volatile long lastAlive;
+	
 	public ConnectionUnit(String name, String regexp, Connection connection) {
 		this.name = name;
 		this.connection = connection;
@@ -32,14 +54,110 @@ public class ConnectionUnit {
 		log.log(Level.INFO, "Connection unit " + name + " set up.");
 	}
 	
+	/**
+	 * Creates a unit of a database that takes part in distributed transactions
+	 * @param name name of connection
+	 * @param regexp regular expression associated to the connection
+	 * @param connection connection handle of the XA connection, statements are executed in it
+	 * @param xaConnection connection of XA data source
+	 */
+	public ConnectionUnit(String name, String regexp, Connection connection, XAConnection xaConnection) {
+		this(name, regexp, connection);
+		this.xaConnection = xaConnection;
+	}
+	
 	public Connection getConnection() {
 		return connection;
 	}
 	
+	/**
+	 * Returns whether the database can take part in distributed transactions
+	 * @return whether the unit has XA resource
+	 */
+	public boolean isXA() {
+		return xaConnection != null;
+	}
+	
+	/**
+	 * Returns XA resource of the database
+	 * @return XA resource or null when the database is connected by its driver
+	 * @throws SQLException when the XA connection is closed
+	 */
+	public XAResource getXAResource() throws SQLException {
+		return (xaConnection == null) ? null : xaConnection.getXAResource();
+	}
+	
+	/**
+	 * Closes the connection, XA connection is closed too
+	 * @throws SQLException when the connection cannot be closed
+	 */
+	public void close() throws SQLException {
+		try {
+			connection.close();
+		} finally {
+			if (xaConnection != null) {
+				xaConnection.close();
+			}
+		}
+	}
+	
 	public String getName() {
 		return name;
 	}
 	
+	/**
+	 * Records that a statement or a validation succeeded in the connection, so the database was reachable
+	 */
+	public void markAlive() {
+		lastAlive = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns whether a statement or a validation succeeded in the connection recently
+	 * @param millis length of the period in milliseconds
+	 * @return whether the connection was alive during the period
+	 */
+	public boolean isAliveWithin(long millis) {
+		long last = lastAlive;
+		
+		return last != 0L && System.currentTimeMillis() - last < millis;
+	}
+	
+	/**
+	 * Returns whether the value of a session attribute of the connection is known
+	 * @param property session attribute
+	 * @return whether the value is cached
+	 */
+	public synchronized boolean isSessionStateKnown(ProxyProperty property) {
+		return sessionState.containsKey(property);
+	}
+	
+	/**
+	 * Returns the cached value of a session attribute of the connection
+	 * @param property session attribute
+	 * @return cached value, null when it is unknown
+	 */
+	public synchronized Object getSessionState(ProxyProperty property) {
+		return sessionState.get(property);
+	}
+	
+	/**
+	 * Caches the value of a session attribute that was read from or set in the connection
+	 * @param property session attribute
+	 * @param value value of the attribute
+	 */
+	public synchronized void setSessionState(ProxyProperty property, Object value) {
+		sessionState.put(property, value);
+	}
+	
+	/**
+	 * Forgets the value of a session attribute, when setting of the attribute fails, its value is unknown
+	 * @param property session attribute
+	 */
+	public synchronized void forgetSessionState(ProxyProperty property) {
+		sessionState.remove(property);
+	}
+	
 	
 	/**
 	 * This method returns whether the SQL query suits to the SQL query
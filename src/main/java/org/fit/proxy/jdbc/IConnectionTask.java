@@ -0,0 +1,21 @@
+package org.fit.proxy.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Task that is run in a single connection. Tasks of different connections may be run concurrently by ProxyExecutor.
+ * @author Ondřej Marek
+ */
+public interface IConnectionTask {
+	/**
+	 * Returns the connection where the task runs
+	 * @return connection
+	 */
+	public ConnectionUnit getConnection();
+	
+	/**
+	 * Runs the task
+	 * @throws SQLException if something goes wrong
+	 */
+	public void run() throws SQLException;
+}
@@ -3,16 +3,28 @@ package org.fit.proxy.jdbc;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+
+import org.fit.proxy.jdbc.replication.AsyncReplicator;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.sharding.IShardStrategy;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+import org.fit.proxy.jdbc.sharding.ShardStrategyFactory;
+import org.fit.proxy.jdbc.xa.TransactionLog;
 
 /**
  * 
@@ -41,7 +53,63 @@ import java.util.logging.Logger;
  * dbX_user (optional) - database user
  * dbX_password (optional) - database password
  * dbX_regexp (compulsory) - regular expression associated to the connection
+ * dbX_xa_datasource (optional) - class of XA data source of the database, the database is connected by it instead of the driver
+ *   and its url, user and password are set to the data source
  * default (optional) - name of database to which should be oriented all sql queries that are not associated
+ * batch_size (optional) - maximal number of batched sql queries sent to one database at once, a prepared statement sends a full batch at once and clearBatch cannot remove it
+ * parallel_threads (optional) - maximal number of threads that work with databases concurrently
+ * parallel_batch (optional) - whether batches of different databases are executed concurrently
+ * parallel_commit (optional) - whether commits, rollbacks and releases of savepoints of different databases are executed concurrently
+ * parallel_actions (optional) - whether settings such as auto commit or read only are applied to different databases concurrently
+ * deferred_actions (optional) - whether settings such as auto commit or read only are applied to a database only before its next statement
+ * multi_row_insert (optional) - whether batched single row inserts of prepared statement are sent as one multi row insert
+ * scatter_buffer (optional) - maximal number of rows buffered per database when rows of a broadcast query are merged
+ * distinct_memory (optional) - maximal number of distinct rows of a broadcast query held in memory, further rows are spilled to temporary files
+ * validation_window (optional) - milliseconds after a successful statement or validation in a database during which validation does not check the database
+ * xa (optional) - whether transactions over several databases are committed by two-phase commit, all databases need dbX_xa_datasource (default false)
+ * xa_log (optional) - directory of the log of commit decisions, it must not be shared with other journals (default proxy-xa-log in temporary directory)
+ * xa_segment_size (optional) - size of log segment files in bytes (default 1048576)
+ * 
+ * Sharded tables are described by shard rules:
+ * shards=1
+ * shard0_name=customers
+ * shard0_regexp=customers
+ * shard0_connections=MyDatabase1,MyDatabase2
+ * shard0_column=ID
+ * 
+ * shards (optional) - number of shard rules
+ * shardX_name (compulsory) - name of the rule
+ * shardX_regexp (compulsory) - regular expression of sql queries that belong to the rule
+ * shardX_connections (compulsory) - comma separated names of databases which are the shards
+ * shardX_strategy (optional) - how to choose the shard from shard key: hash (default), consistent_hash, range, directory
+ * shardX_virtual_nodes (optional) - number of virtual nodes of every shard on consistent hash ring (default 160)
+ * shardX_ranges (compulsory for range) - comma separated ascending bounds of key ranges, one less than the number of shards
+ * shardX_directory (compulsory for directory) - name of database that holds the directory table
+ * shardX_directory_query (optional) - query that returns key and name of its shard (default SELECT shard_key, shard_name FROM shard_directory)
+ * shardX_directory_size (optional) - maximal number of keys cached from the directory (default 100000)
+ * shardX_directory_refresh (optional) - period of reloading the directory in seconds, 0 means never (default 60)
+ * shardX_column (optional) - column that holds shard key, its value is taken from sql literal or prepared statement parameter
+ * shardX_parameter (optional) - index of prepared statement parameter that holds shard key (overrides the column)
+ * shardX_broadcast (optional) - whether select without shard key is sent to all shards and their rows are merged (default true)
+ * 
+ * Replicated tables are described by replica groups, writes are executed in all replicas and queries are sent to the primary:
+ * replicas=1
+ * replica0_name=accounts
+ * replica0_regexp=accounts
+ * replica0_connections=MyDatabase1,MyDatabase2
+ * 
+ * replicas (optional) - number of replica groups
+ * replicaX_name (compulsory) - name of the group
+ * replicaX_regexp (compulsory) - regular expression of sql statements that belong to the group
+ * replicaX_connections (compulsory) - comma separated names of databases which are the replicas, the first one is the primary
+ * replicaX_mode (optional) - sync executes writes in all replicas, async executes them in the primary and replays committed writes
+ *   to the other replicas in background from a journal (default sync)
+ * replicaX_journal (optional) - directory of the journal of async group, it must not be shared with other groups (default proxy-journal/name in temporary directory)
+ * replicaX_segment_size (optional) - size of journal segment files in bytes (default 16777216)
+ * replicaX_replay_batch (optional) - maximal number of journaled writes replayed to a replica in one transaction (default 500)
+ * replicaX_read_replicas (optional) - whether queries are spread over the replicas other than the primary (default false)
+ * replicaX_affinity_window (optional) - how long in milliseconds after a commit the queries of a proxy connection that wrote to async group stay
+ *   on the primary, unless the replica has already applied the writes (default 1000)
  * 
  * It is not allowed to have two database connections with the same name
  */
@@ -153,7 +221,31 @@ public class Loader {
 			exc = e.getMessage();
 		}
 		
-		log.log(Level.FINE, "Adding connections to map completed. Resolving default connections");
+		log.log(Level.FINE, "Adding connections to map completed. Loading shard rules");
+		
+		List<ShardRule> shardRules = new ArrayList<ShardRule>();
+		
+		if (exc.isEmpty()) {
+			try {
+				shardRules = getShardRules(prop, loaded);
+			} catch (SQLException e) {
+				exc = e.getMessage();
+			}
+		}
+		
+		log.log(Level.FINE, "Loading shard rules completed. Loading replica groups");
+		
+		List<ReplicaGroup> replicaGroups = new ArrayList<ReplicaGroup>();
+		
+		if (exc.isEmpty()) {
+			try {
+				replicaGroups = getReplicaGroups(prop, loaded);
+			} catch (SQLException e) {
+				exc = e.getMessage();
+			}
+		}
+		
+		log.log(Level.FINE, "Loading replica groups completed. Resolving default connections");
 		
 		String defaultConn = prop.getProperty("default");
 		ConnectionUnit def = null;
@@ -171,9 +263,24 @@ public class Loader {
 			}
 		}
 		
+		log.log(Level.FINE, "Resolving default connection completed. Opening transaction log");
+		
+		TransactionLog transactionLog = null;
+		
+		if (exc.isEmpty() && Boolean.parseBoolean(prop.getProperty("xa", "false").trim())) {
+			try {
+				transactionLog = getTransactionLog(prop, loaded);
+			} catch (SQLException e) {
+				exc = e.getMessage();
+			}
+		}
+		
 		if (!exc.isEmpty()) {
 			log.log(Level.SEVERE, "Error occured when loading data from properties. Closing opened connections.");
 			
+			closeShardRules(shardRules);
+			closeReplicaGroups(replicaGroups);
+			
 			try {
 				closeOpenedConnections(loaded);
 			} catch (SQLException e) {
@@ -185,7 +292,222 @@ public class Loader {
 		}
 		
 		log.log(Level.INFO, "Loding data from properties and connecting to databases was succesfull.");
-		return new Switcher(loaded, def, prop);
+		return new Switcher(loaded, def, prop, shardRules, replicaGroups, transactionLog);
+	}
+	
+	/**
+	 * Private method, that opens the log of two-phase commits and resolves in-doubt transactions left in databases
+	 * @param prop - properties
+	 * @param loaded - loaded connections
+	 * @return - transaction log
+	 * @throws SQLException - if a database does not support distributed transactions or the log cannot be opened
+	 */
+	private static TransactionLog getTransactionLog(Properties prop, Map<String, ConnectionUnit> loaded) throws SQLException {
+		for (ConnectionUnit unit : loaded.values()) {
+			if (!unit.isXA()) {
+				throw new SQLException("Connection " + unit.getName() + " has no XA data source, it cannot take part in two-phase commit.");
+			}
+		}
+		
+		TransactionLog res = TransactionLog.open(prop);
+		res.recover(new ArrayList<ConnectionUnit>(loaded.values()));
+		
+		return res;
+	}
+	
+	/**
+	 * Private method, that obtains shard rules from property file
+	 * @param prop - properties
+	 * @param loaded - loaded connections
+	 * @return - list of shard rules, empty if there are none
+	 * @throws SQLException - if data about shard rules are incomplete or invalid
+	 */
+	private static List<ShardRule> getShardRules(Properties prop, Map<String, ConnectionUnit> loaded) throws SQLException {
+		List<ShardRule> res = new ArrayList<ShardRule>();
+		String shardsString = prop.getProperty("shards");
+		
+		if (shardsString == null) {
+			return res;
+		}
+		
+		int shards;
+		
+		try {
+			shards = Integer.parseInt(shardsString.trim());
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid number of shard rules: " + shardsString);
+		}
+		
+		try {
+			for (int i = 0; i < shards; i++) {
+				res.add(getShardRule(prop, loaded, i));
+			}
+		} catch (SQLException e) {
+			closeShardRules(res);
+			throw e;
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Private method, that obtains shard rule from property file by a specified number
+	 * @param prop - properties
+	 * @param loaded - loaded connections
+	 * @param i - specified number
+	 * @return - shard rule
+	 * @throws SQLException - if data about shard rule are incomplete or invalid
+	 */
+	private static ShardRule getShardRule(Properties prop, Map<String, ConnectionUnit> loaded, int i) throws SQLException {
+		String prefix = "shard" + i + "_";
+		String name = prop.getProperty(prefix + "name");
+		String regexp = prop.getProperty(prefix + "regexp");
+		String connections = prop.getProperty(prefix + "connections");
+		String parameter = prop.getProperty(prefix + "parameter");
+		
+		if (name == null || regexp == null || connections == null) {
+			throw new SQLException("Unable to read data about shard" + i + " rule. Some properties are missing");
+		}
+		
+		List<ConnectionUnit> units = getUnits(loaded, connections, "shard rule " + name);
+		
+		int parameterIndex = ShardRule.NO_PARAMETER;
+		
+		if (parameter != null) {
+			try {
+				parameterIndex = Integer.parseInt(parameter.trim());
+			} catch (NumberFormatException e) {
+				throw new SQLException("Invalid shard key parameter in shard rule " + name + ": " + parameter);
+			}
+		}
+		
+		String broadcast = prop.getProperty(prefix + "broadcast");
+		
+		IShardStrategy strategy = ShardStrategyFactory.createStrategy(prop.getProperty(prefix + "strategy"), units, prop, prefix);
+		return new ShardRule(name, regexp, parameterIndex, prop.getProperty(prefix + "column"), strategy, units, (broadcast == null) || Boolean.parseBoolean(broadcast.trim()));
+	}
+	
+	/**
+	 * Private method, that obtains replica groups from property file
+	 * @param prop - properties
+	 * @param loaded - loaded connections
+	 * @return - list of replica groups, empty if there are none
+	 * @throws SQLException - if data about replica groups are incomplete or invalid
+	 */
+	private static List<ReplicaGroup> getReplicaGroups(Properties prop, Map<String, ConnectionUnit> loaded) throws SQLException {
+		List<ReplicaGroup> res = new ArrayList<ReplicaGroup>();
+		String groupsString = prop.getProperty("replicas");
+		
+		if (groupsString == null) {
+			return res;
+		}
+		
+		int groups;
+		
+		try {
+			groups = Integer.parseInt(groupsString.trim());
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid number of replica groups: " + groupsString);
+		}
+		
+		try {
+			for (int i = 0; i < groups; i++) {
+				res.add(getReplicaGroup(prop, loaded, i));
+			}
+		} catch (SQLException e) {
+			closeReplicaGroups(res);
+			throw e;
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Private method, that obtains a single replica group from property file
+	 * @param prop - properties
+	 * @param loaded - loaded connections
+	 * @param i - number of the group
+	 * @return - replica group, asynchronous group has its replicator started
+	 * @throws SQLException - if data about the group are incomplete or invalid
+	 */
+	private static ReplicaGroup getReplicaGroup(Properties prop, Map<String, ConnectionUnit> loaded, int i) throws SQLException {
+		String prefix = "replica" + i + "_";
+		String name = prop.getProperty(prefix + "name");
+		String regexp = prop.getProperty(prefix + "regexp");
+		String connections = prop.getProperty(prefix + "connections");
+		
+		if (name == null || regexp == null || connections == null) {
+			throw new SQLException("Unable to read data about replica" + i + " group. Some properties are missing");
+		}
+		
+		List<ConnectionUnit> units = getUnits(loaded, connections, "replica group " + name);
+		String mode = prop.getProperty(prefix + "mode");
+		String readReplicas = prop.getProperty(prefix + "read_replicas");
+		String window = prop.getProperty(prefix + "affinity_window");
+		boolean read = (readReplicas != null) && Boolean.parseBoolean(readReplicas.trim());
+		long affinityMillis = ReplicaGroup.DEFAULT_AFFINITY_MILLIS;
+		
+		if (window != null) {
+			try {
+				affinityMillis = Long.parseLong(window.trim());
+			} catch (NumberFormatException e) {
+				affinityMillis = -1L;
+			}
+			
+			if (affinityMillis < 0L) {
+				throw new SQLException("Invalid affinity window of replica group " + name + ": " + window);
+			}
+		}
+		
+		if (mode == null || mode.trim().equalsIgnoreCase("sync")) {
+			return new ReplicaGroup(name, regexp, units, null, read, affinityMillis);
+		} else if (!mode.trim().equalsIgnoreCase("async")) {
+			throw new SQLException("Unknown mode of replica group " + name + ": " + mode);
+		}
+		
+		List<String> replicas = new ArrayList<String>();
+		
+		for (ConnectionUnit unit : units.subList(1, units.size())) {
+			replicas.add(unit.getName());
+		}
+		
+		return new ReplicaGroup(name, regexp, units, AsyncReplicator.open(name, prop, prefix, replicas), read, affinityMillis);
+	}
+	
+	private static void closeReplicaGroups(List<ReplicaGroup> groups) {
+		for (ReplicaGroup group : groups) {
+			group.close();
+		}
+	}
+	
+	/**
+	 * Private method, that resolves comma separated names of connections
+	 * @param loaded - loaded connections
+	 * @param connections - comma separated names
+	 * @param owner - description of the rule that uses the connections
+	 * @return - connections in the order of names
+	 * @throws SQLException - if a connection is unknown
+	 */
+	private static List<ConnectionUnit> getUnits(Map<String, ConnectionUnit> loaded, String connections, String owner) throws SQLException {
+		List<ConnectionUnit> units = new ArrayList<ConnectionUnit>();
+		
+		for (String connection : connections.split(",")) {
+			ConnectionUnit unit = loaded.get(connection.trim());
+			
+			if (unit == null) {
+				throw new SQLException("Unknown connection " + connection.trim() + " in " + owner);
+			}
+			
+			units.add(unit);
+		}
+		
+		return units;
+	}
+	
+	private static void closeShardRules(List<ShardRule> rules) {
+		for (ShardRule rule : rules) {
+			rule.close();
+		}
 	}
 	
 	/**
@@ -198,50 +520,195 @@ public class Loader {
 	private static ConnectionUnit getUnit(Properties prop, int i) throws SQLException {
 		log.log(Level.INFO, "Connecting to database with number " + i);
 		
-		ConnectionUnit res = null;
+		String name = prop.getProperty("db" + i + "_name");
+		String regexp = prop.getProperty("db" + i + "_regexp");
+		
+		if (regexp == null) {
+			String exc = "Unable to read data about db" + i + " connection. Some properties are missing";
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		}
+		
+		ConnectionUnit res;
 		
+		if (prop.getProperty("db" + i + "_xa_datasource") != null) {
+			XAConnection xaConnection = openXAConnection(prop, i);
+			
+			try {
+				res = new ConnectionUnit(name, regexp, xaConnection.getConnection(), xaConnection);
+			} catch (SQLException e) {
+				xaConnection.close();
+				throw e;
+			}
+		} else {
+			res = new ConnectionUnit(name, regexp, openConnection(prop, i));
+		}
+		
+		log.log(Level.INFO, "Connecting to database with number " + i + " (" + name + ") was succesful.");
+		return res;
+	}
+	
+	/**
+	 * Opens a new connection to database specified by its name. The connection is independent of the connection used by proxy connection,
+	 * so it can be used by background tasks.
+	 * @param prop - properties
+	 * @param name - name of database
+	 * @return - new connection
+	 * @throws SQLException - if there is no such database or it is not possible to connect to it
+	 */
+	public static Connection openConnection(Properties prop, String name) throws SQLException {
+		return openConnection(prop, findDatabase(prop, name));
+	}
+	
+	/**
+	 * Returns url of database specified by its name
+	 * @param prop - properties
+	 * @param name - name of database
+	 * @return - url of database
+	 * @throws SQLException - if there is no such database
+	 */
+	public static String getDatabaseUrl(Properties prop, String name) throws SQLException {
+		return prop.getProperty("db" + findDatabase(prop, name) + "_url");
+	}
+	
+	private static int findDatabase(Properties prop, String name) throws SQLException {
+		int items;
+		
+		try {
+			items = Integer.parseInt(prop.getProperty("items"));
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid number of connections: " + prop.getProperty("items"));
+		}
+		
+		for (int i = 0; i < items; i++) {
+			if (name.equals(prop.getProperty("db" + i + "_name"))) {
+				return i;
+			}
+		}
+		
+		throw new SQLException("Unknown database: " + name);
+	}
+	
+	/**
+	 * Private method, that opens a connection to database specified by a number
+	 * @param prop - properties
+	 * @param i - specified number
+	 * @return - connection
+	 * @throws SQLException - if data are incomplete or it is not possible to connect to a database, an exception is thrown
+	 */
+	private static Connection openConnection(Properties prop, int i) throws SQLException {
 		String driver = prop.getProperty("db" + i + "_driver");
 		String url = prop.getProperty("db" + i + "_url");
 		String name = prop.getProperty("db" + i + "_name");
 		String user = prop.getProperty("db" + i + "_user");
 		String password = prop.getProperty("db" + i + "_password");
-		String regexp = prop.getProperty("db" + i + "_regexp");
 		
-		if (driver != null && url != null && regexp != null && name != null) {
-			try {
-				Class.forName(driver);
-				Connection c;
-				
-				if (user == null || password == null) {
-					log.log(Level.FINE, "Connecting to database " + i + " (" + name + "). User name or password is null, conecting by given url");
-					
-					c = DriverManager.getConnection(url);
-				} else {
-					log.log(Level.FINE, "Connecting to database " + i + " (" + name + ").");
-					c = DriverManager.getConnection(url, user, password);
-				}
-				
-				res = new ConnectionUnit(name, regexp, c);
-			} catch (SQLException e) {
-				String exc = "Cannot open a connection to a " + name + " database. Original message: " + e.getMessage();
-				
-				log.log(Level.SEVERE, exc);
-				throw new SQLException(exc);
-			} catch (ClassNotFoundException e) {
-				String exc = "The driver in connection " + name + " was not found. The class is: " + driver;
+		if (driver == null || url == null || name == null) {
+			String exc = "Unable to read data about db" + i + " connection. Some properties are missing";
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		}
+		
+		try {
+			Class.forName(driver);
+			
+			if (user == null || password == null) {
+				log.log(Level.FINE, "Connecting to database " + i + " (" + name + "). User name or password is null, conecting by given url");
 				
-				log.log(Level.SEVERE, exc);
-				throw new SQLException(exc);
+				return DriverManager.getConnection(url);
+			} else {
+				log.log(Level.FINE, "Connecting to database " + i + " (" + name + ").");
+				return DriverManager.getConnection(url, user, password);
 			}
-		} else {
+		} catch (SQLException e) {
+			String exc = "Cannot open a connection to a " + name + " database. Original message: " + e.getMessage();
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		} catch (ClassNotFoundException e) {
+			String exc = "The driver in connection " + name + " was not found. The class is: " + driver;
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		}
+	}
+	
+	/**
+	 * Private method, that opens a connection of XA data source of a database specified by a number
+	 * @param prop - properties
+	 * @param i - specified number
+	 * @return - XA connection
+	 * @throws SQLException - if data are incomplete, the data source cannot be created or it is not possible to connect to a database
+	 */
+	private static XAConnection openXAConnection(Properties prop, int i) throws SQLException {
+		String dataSource = prop.getProperty("db" + i + "_xa_datasource").trim();
+		String url = prop.getProperty("db" + i + "_url");
+		String name = prop.getProperty("db" + i + "_name");
+		String user = prop.getProperty("db" + i + "_user");
+		String password = prop.getProperty("db" + i + "_password");
+		
+		if (url == null || name == null) {
 			String exc = "Unable to read data about db" + i + " connection. Some properties are missing";
 			
 			log.log(Level.SEVERE, exc);
 			throw new SQLException(exc);
 		}
 		
-		log.log(Level.INFO, "Connecting to database with number " + i + " (" + name + ") was succesful.");
-		return res;
+		XADataSource source;
+		
+		try {
+			source = (XADataSource) Class.forName(dataSource).getDeclaredConstructor().newInstance();
+			setProperty(source, url, "setURL", "setUrl");
+			
+			if (user != null) {
+				setProperty(source, user, "setUser");
+			}
+			
+			if (password != null) {
+				setProperty(source, password, "setPassword");
+			}
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			String exc = "The XA data source in connection " + name + " cannot be created. The class is: " + dataSource;
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc, e);
+		}
+		
+		try {
+			log.log(Level.FINE, "Connecting to database " + i + " (" + name + ") by XA data source.");
+			return source.getXAConnection();
+		} catch (SQLException e) {
+			String exc = "Cannot open a connection to a " + name + " database. Original message: " + e.getMessage();
+			
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		}
+	}
+	
+	/**
+	 * Private method, that sets a string property of a data source by the first of its setters that exists
+	 * @param source - data source
+	 * @param value - value of the property
+	 * @param setters - names of setters
+	 * @throws ReflectiveOperationException - if there is no such setter or it fails
+	 */
+	private static void setProperty(Object source, String value, String... setters) throws ReflectiveOperationException {
+		NoSuchMethodException missing = null;
+		
+		for (String setter : setters) {
+			try {
+				Method method = source.getClass().getMethod(setter, String.class);
+				method.invoke(source, value);
+				
+				return;
+			} catch (NoSuchMethodException e) {
+				missing = e;
+			}
+		}
+		
+		throw missing;
 	}
 	
 	/**
@@ -257,7 +724,7 @@ public class Loader {
 			try {
 				log.log(Level.FINE, "Closing connection " + entry.getKey());
 				
-				entry.getValue().getConnection().close();
+				entry.getValue().close();
 			} catch (SQLException e) {
 				if (error) {
 					exc += '\n';
@@ -0,0 +1,315 @@
+package org.fit.proxy.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * This class keeps parameters of proxy prepared statement. It holds the row of parameters that is being bound and rows that were added to batch.
+ * Parameters are stored in flat arrays (row after row): type tag, primitive value and object value. Numeric and boolean values
+ * are stored as primitives, so binding a row does not create any objects.
+ * @author Ondřej Marek
+ */
+public class ParameterBuffer {
+	public static final byte UNSET = 0;
+	public static final byte NULL = 1;
+	public static final byte BOOLEAN = 2;
+	public static final byte BYTE = 3;
+	public static final byte SHORT = 4;
+	public static final byte INT = 5;
+	public static final byte LONG = 6;
+	public static final byte FLOAT = 7;
+	public static final byte DOUBLE = 8;
+	public static final byte STRING = 9;
+	public static final byte BIG_DECIMAL = 10;
+	public static final byte BYTES = 11;
+	public static final byte DATE = 12;
+	public static final byte TIME = 13;
+	public static final byte TIMESTAMP = 14;
+	public static final byte OBJECT = 15;
+	public static final byte SETTER = 16;
+
+	private int width;
+	private int rows = 0;
+	private byte[] types;
+	private long[] primitives;
+	private Object[] objects;
+
+	/**
+	 * Creates a buffer
+	 * @param width expected number of parameters in a row
+	 */
+	public ParameterBuffer(int width) {
+		this.width = Math.max(width, 1);
+
+		types = new byte[this.width];
+		primitives = new long[this.width];
+		objects = new Object[this.width];
+	}
+
+	/**
+	 * Returns number of parameters in a row
+	 * @return width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns number of rows added to batch. The row that is being bound has the index equal to this number.
+	 * @return number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	private int slot(int parameterIndex) throws SQLException {
+		if (parameterIndex < 1) {
+			throw new SQLException("Invalid parameter index: " + parameterIndex);
+		}
+
+		if (parameterIndex > width) {
+			widen(parameterIndex);
+		}
+
+		return rows * width + parameterIndex - 1;
+	}
+
+	/**
+	 * Changes number of parameters in a row, all rows are moved to their new positions.
+	 */
+	private void widen(int newWidth) {
+		int count = rows + 1;
+		byte[] newTypes = new byte[count * newWidth];
+		long[] newPrimitives = new long[count * newWidth];
+		Object[] newObjects = new Object[count * newWidth];
+
+		for (int row = 0; row < count; row++) {
+			System.arraycopy(types, row * width, newTypes, row * newWidth, width);
+			System.arraycopy(primitives, row * width, newPrimitives, row * newWidth, width);
+			System.arraycopy(objects, row * width, newObjects, row * newWidth, width);
+		}
+
+		width = newWidth;
+		types = newTypes;
+		primitives = newPrimitives;
+		objects = newObjects;
+	}
+
+	private void ensureCapacity(int rowCount) {
+		int size = rowCount * width;
+
+		if (size > types.length) {
+			int newSize = Math.max(size, types.length * 2);
+
+			types = Arrays.copyOf(types, newSize);
+			primitives = Arrays.copyOf(primitives, newSize);
+			objects = Arrays.copyOf(objects, newSize);
+		}
+	}
+
+	private void setPrimitive(int parameterIndex, byte type, long value) throws SQLException {
+		int slot = slot(parameterIndex);
+
+		types[slot] = type;
+		primitives[slot] = value;
+		objects[slot] = null;
+	}
+
+	/**
+	 * Sets object parameter
+	 * @param parameterIndex index of parameter
+	 * @param type type tag of the value
+	 * @param value value
+	 * @throws SQLException if index is invalid
+	 */
+	public void setObject(int parameterIndex, byte type, Object value) throws SQLException {
+		int slot = slot(parameterIndex);
+
+		types[slot] = type;
+		objects[slot] = value;
+	}
+
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		setPrimitive(parameterIndex, NULL, sqlType);
+	}
+
+	public void setBoolean(int parameterIndex, boolean value) throws SQLException {
+		setPrimitive(parameterIndex, BOOLEAN, value ? 1L : 0L);
+	}
+
+	public void setByte(int parameterIndex, byte value) throws SQLException {
+		setPrimitive(parameterIndex, BYTE, value);
+	}
+
+	public void setShort(int parameterIndex, short value) throws SQLException {
+		setPrimitive(parameterIndex, SHORT, value);
+	}
+
+	public void setInt(int parameterIndex, int value) throws SQLException {
+		setPrimitive(parameterIndex, INT, value);
+	}
+
+	public void setLong(int parameterIndex, long value) throws SQLException {
+		setPrimitive(parameterIndex, LONG, value);
+	}
+
+	public void setFloat(int parameterIndex, float value) throws SQLException {
+		setPrimitive(parameterIndex, FLOAT, Float.floatToRawIntBits(value));
+	}
+
+	public void setDouble(int parameterIndex, double value) throws SQLException {
+		setPrimitive(parameterIndex, DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	public void setSetter(int parameterIndex, ParameterSetter setter) throws SQLException {
+		setObject(parameterIndex, SETTER, setter);
+	}
+
+	/**
+	 * Adds the row that is being bound to batch. Values of the row stay bound for the next row.
+	 */
+	public void addRow() {
+		ensureCapacity(rows + 2);
+
+		int from = rows * width;
+		System.arraycopy(types, from, types, from + width, width);
+		System.arraycopy(primitives, from, primitives, from + width, width);
+		System.arraycopy(objects, from, objects, from + width, width);
+
+		rows++;
+	}
+
+	/**
+	 * Unbinds all parameters of the row that is being bound
+	 */
+	public void clearParameters() {
+		int from = rows * width;
+
+		Arrays.fill(types, from, from + width, UNSET);
+		Arrays.fill(objects, from, from + width, null);
+	}
+
+	/**
+	 * Removes all rows that were added to batch. The row that is being bound stays bound.
+	 */
+	public void clearRows() {
+		if (rows == 0) {
+			return;
+		}
+
+		int from = rows * width;
+		System.arraycopy(types, from, types, 0, width);
+		System.arraycopy(primitives, from, primitives, 0, width);
+		System.arraycopy(objects, from, objects, 0, width);
+		Arrays.fill(objects, width, from + width, null);
+
+		rows = 0;
+	}
+
+	/**
+	 * Returns type tag of a parameter
+	 * @param row row index
+	 * @param parameterIndex index of parameter
+	 * @return type tag
+	 */
+	public byte getType(int row, int parameterIndex) {
+		if (parameterIndex < 1 || parameterIndex > width) {
+			return UNSET;
+		}
+
+		return types[row * width + parameterIndex - 1];
+	}
+
+	/**
+	 * Returns a parameter value as an object
+	 * @param row row index
+	 * @param parameterIndex index of parameter
+	 * @return value or null when unset or null
+	 */
+	public Object getValue(int row, int parameterIndex) {
+		if (parameterIndex < 1 || parameterIndex > width) {
+			return null;
+		}
+
+		int slot = row * width + parameterIndex - 1;
+		long primitive = primitives[slot];
+
+		switch (types[slot]) {
+		case BOOLEAN: return primitive != 0L;
+		case BYTE: return (byte) primitive;
+		case SHORT: return (short) primitive;
+		case INT: return (int) primitive;
+		case LONG: return primitive;
+		case FLOAT: return Float.intBitsToFloat((int) primitive);
+		case DOUBLE: return Double.longBitsToDouble(primitive);
+		case SETTER: return ((ParameterSetter) objects[slot]).getValue();
+		default: return objects[slot];
+		}
+	}
+
+	/**
+	 * Returns sql type of a parameter that is set to null
+	 * @param row row index
+	 * @param parameterIndex index of parameter
+	 * @return sql type given to setNull or 0 when the parameter is not null
+	 */
+	public int getNullType(int row, int parameterIndex) {
+		if (getType(row, parameterIndex) != NULL) {
+			return 0;
+		}
+
+		return (int) primitives[row * width + parameterIndex - 1];
+	}
+
+	/**
+	 * Sets parameters of a row to prepared statement
+	 * @param statement prepared statement
+	 * @param row row index
+	 * @param offset number that is added to every parameter index (used when more rows are bound to a single statement)
+	 * @throws SQLException when statement refuses the parameter
+	 */
+	public void apply(PreparedStatement statement, int row, int offset) throws SQLException {
+		int base = row * width;
+
+		for (int i = 0; i < width; i++) {
+			int slot = base + i;
+			int index = offset + i + 1;
+			long primitive = primitives[slot];
+			Object object = objects[slot];
+
+			switch (types[slot]) {
+			case NULL: statement.setNull(index, (int) primitive); break;
+			case BOOLEAN: statement.setBoolean(index, primitive != 0L); break;
+			case BYTE: statement.setByte(index, (byte) primitive); break;
+			case SHORT: statement.setShort(index, (short) primitive); break;
+			case INT: statement.setInt(index, (int) primitive); break;
+			case LONG: statement.setLong(index, primitive); break;
+			case FLOAT: statement.setFloat(index, Float.intBitsToFloat((int) primitive)); break;
+			case DOUBLE: statement.setDouble(index, Double.longBitsToDouble(primitive)); break;
+			case STRING: statement.setString(index, (String) object); break;
+			case BIG_DECIMAL: statement.setBigDecimal(index, (BigDecimal) object); break;
+			case BYTES: statement.setBytes(index, (byte[]) object); break;
+			case DATE: statement.setDate(index, (Date) object); break;
+			case TIME: statement.setTime(index, (Time) object); break;
+			case TIMESTAMP: statement.setTimestamp(index, (Timestamp) object); break;
+			case OBJECT: statement.setObject(index, object); break;
+			case SETTER: ((ParameterSetter) object).apply(statement, index); break;
+			default: break;
+			}
+		}
+	}
+
+	/**
+	 * Sets parameters of the row that is being bound to prepared statement
+	 * @param statement prepared statement
+	 * @throws SQLException when statement refuses the parameter
+	 */
+	public void applyCurrent(PreparedStatement statement) throws SQLException {
+		apply(statement, rows, 0);
+	}
+}
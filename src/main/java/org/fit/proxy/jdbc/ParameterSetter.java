@@ -0,0 +1,119 @@
+package org.fit.proxy.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * This class holds a parameter of prepared statement that is not kept in primitive form by ParameterBuffer
+ * (streams, LOBs, values with calendar etc.) and knows how to set it to a prepared statement.
+ * @author Ondřej Marek
+ */
+public class ParameterSetter {
+	/**
+	 * The setter of prepared statement that is called
+	 */
+	public enum Kind {
+		ASCII_STREAM, ASCII_STREAM_INT, ASCII_STREAM_LONG,
+		BINARY_STREAM, BINARY_STREAM_INT, BINARY_STREAM_LONG,
+		CHARACTER_STREAM, CHARACTER_STREAM_INT, CHARACTER_STREAM_LONG,
+		NCHARACTER_STREAM, NCHARACTER_STREAM_LONG,
+		UNICODE_STREAM_INT,
+		BLOB, BLOB_STREAM, BLOB_STREAM_LONG,
+		CLOB, CLOB_READER, CLOB_READER_LONG,
+		NCLOB, NCLOB_READER, NCLOB_READER_LONG,
+		OBJECT_TYPE, OBJECT_TYPE_SCALE,
+		DATE_CALENDAR, TIME_CALENDAR, TIMESTAMP_CALENDAR,
+		NULL_TYPE_NAME, NSTRING, ARRAY, REF, URL, ROW_ID, SQLXML
+	}
+
+	private final Kind kind;
+	private final Object value;
+	private final Object extra;
+	private final long length;
+
+	/**
+	 * Creates a parameter
+	 * @param kind setter to call
+	 * @param value value of the parameter
+	 * @param extra additional object argument of the setter (calendar, type name), may be null
+	 * @param length additional numeric argument of the setter (length, sql type), ignored if the setter does not have one
+	 */
+	public ParameterSetter(Kind kind, Object value, Object extra, long length) {
+		this.kind = kind;
+		this.value = value;
+		this.extra = extra;
+		this.length = length;
+	}
+
+	public ParameterSetter(Kind kind, Object value) {
+		this(kind, value, null, 0L);
+	}
+
+	public ParameterSetter(Kind kind, Object value, long length) {
+		this(kind, value, null, length);
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * Sets the parameter to prepared statement
+	 * @param statement prepared statement
+	 * @param index parameter index
+	 * @throws SQLException when the statement refuses the parameter
+	 */
+	@SuppressWarnings("deprecation")
+	public void apply(PreparedStatement statement, int index) throws SQLException {
+		switch (kind) {
+		case ASCII_STREAM: statement.setAsciiStream(index, (InputStream) value); break;
+		case ASCII_STREAM_INT: statement.setAsciiStream(index, (InputStream) value, (int) length); break;
+		case ASCII_STREAM_LONG: statement.setAsciiStream(index, (InputStream) value, length); break;
+		case BINARY_STREAM: statement.setBinaryStream(index, (InputStream) value); break;
+		case BINARY_STREAM_INT: statement.setBinaryStream(index, (InputStream) value, (int) length); break;
+		case BINARY_STREAM_LONG: statement.setBinaryStream(index, (InputStream) value, length); break;
+		case CHARACTER_STREAM: statement.setCharacterStream(index, (Reader) value); break;
+		case CHARACTER_STREAM_INT: statement.setCharacterStream(index, (Reader) value, (int) length); break;
+		case CHARACTER_STREAM_LONG: statement.setCharacterStream(index, (Reader) value, length); break;
+		case NCHARACTER_STREAM: statement.setNCharacterStream(index, (Reader) value); break;
+		case NCHARACTER_STREAM_LONG: statement.setNCharacterStream(index, (Reader) value, length); break;
+		case UNICODE_STREAM_INT: statement.setUnicodeStream(index, (InputStream) value, (int) length); break;
+		case BLOB: statement.setBlob(index, (Blob) value); break;
+		case BLOB_STREAM: statement.setBlob(index, (InputStream) value); break;
+		case BLOB_STREAM_LONG: statement.setBlob(index, (InputStream) value, length); break;
+		case CLOB: statement.setClob(index, (Clob) value); break;
+		case CLOB_READER: statement.setClob(index, (Reader) value); break;
+		case CLOB_READER_LONG: statement.setClob(index, (Reader) value, length); break;
+		case NCLOB: statement.setNClob(index, (NClob) value); break;
+		case NCLOB_READER: statement.setNClob(index, (Reader) value); break;
+		case NCLOB_READER_LONG: statement.setNClob(index, (Reader) value, length); break;
+		case OBJECT_TYPE: statement.setObject(index, value, (int) length); break;
+		case OBJECT_TYPE_SCALE: statement.setObject(index, value, (int) length, (Integer) extra); break;
+		case DATE_CALENDAR: statement.setDate(index, (Date) value, (Calendar) extra); break;
+		case TIME_CALENDAR: statement.setTime(index, (Time) value, (Calendar) extra); break;
+		case TIMESTAMP_CALENDAR: statement.setTimestamp(index, (Timestamp) value, (Calendar) extra); break;
+		case NULL_TYPE_NAME: statement.setNull(index, (int) length, (String) extra); break;
+		case NSTRING: statement.setNString(index, (String) value); break;
+		case ARRAY: statement.setArray(index, (Array) value); break;
+		case REF: statement.setRef(index, (Ref) value); break;
+		case URL: statement.setURL(index, (URL) value); break;
+		case ROW_ID: statement.setRowId(index, (RowId) value); break;
+		case SQLXML: statement.setSQLXML(index, (SQLXML) value); break;
+		default: throw new SQLException("Unknown kind of parameter: " + kind);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.fit.proxy.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.fit.proxy.jdbc.exception.ProxyException;
+
+/**
+ * This class collects arguments of prepareStatement method and creates prepared statements with the same arguments in given connection
+ * @author Ondřej Marek
+ */
+public class PreparedStatementFactory {
+	/**
+	 * Variant of prepareStatement method that is called
+	 */
+	private enum Variant {
+		PLAIN, RESULT_SET, RESULT_SET_HOLDABILITY, GENERATED_KEYS, COLUMN_INDEXES, COLUMN_NAMES
+	}
+
+	private final Variant variant;
+	private final int resultSetType;
+	private final int resultSetConcurrency;
+	private final int resultSetHoldability;
+	private final int autoGeneratedKeys;
+	private final int[] columnIndexes;
+	private final String[] columnNames;
+
+	private PreparedStatementFactory(Variant variant, int resultSetType, int resultSetConcurrency, int resultSetHoldability, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) {
+		this.variant = variant;
+		this.resultSetType = resultSetType;
+		this.resultSetConcurrency = resultSetConcurrency;
+		this.resultSetHoldability = resultSetHoldability;
+		this.autoGeneratedKeys = autoGeneratedKeys;
+		this.columnIndexes = columnIndexes;
+		this.columnNames = columnNames;
+	}
+
+	public PreparedStatementFactory() {
+		this(Variant.PLAIN, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, Statement.NO_GENERATED_KEYS, null, null);
+	}
+
+	public PreparedStatementFactory(int resultSetType, int resultSetConcurrency) {
+		this(Variant.RESULT_SET, resultSetType, resultSetConcurrency, StatementConstructorFactory.PROPERTY_UNSET, Statement.NO_GENERATED_KEYS, null, null);
+	}
+
+	public PreparedStatementFactory(int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+		this(Variant.RESULT_SET_HOLDABILITY, resultSetType, resultSetConcurrency, resultSetHoldability, Statement.NO_GENERATED_KEYS, null, null);
+	}
+
+	public PreparedStatementFactory(int autoGeneratedKeys) {
+		this(Variant.GENERATED_KEYS, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, autoGeneratedKeys, null, null);
+	}
+
+	public PreparedStatementFactory(int[] columnIndexes) {
+		this(Variant.COLUMN_INDEXES, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, Statement.NO_GENERATED_KEYS, columnIndexes, null);
+	}
+
+	public PreparedStatementFactory(String[] columnNames) {
+		this(Variant.COLUMN_NAMES, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, StatementConstructorFactory.PROPERTY_UNSET, Statement.NO_GENERATED_KEYS, null, columnNames);
+	}
+
+	/**
+	 * Creates prepared statement in given connection
+	 * @param connectionUnit connection where to create the statement
+	 * @param sql sql query of the statement
+	 * @return prepared statement
+	 * @throws SQLException when the statement cannot be created
+	 */
+	public PreparedStatement createStatement(ConnectionUnit connectionUnit, String sql) throws SQLException {
+		Connection connection = connectionUnit.getConnection();
+
+		try {
+			switch (variant) {
+			case RESULT_SET: return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+			case RESULT_SET_HOLDABILITY: return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+			case GENERATED_KEYS: return connection.prepareStatement(sql, autoGeneratedKeys);
+			case COLUMN_INDEXES: return connection.prepareStatement(sql, columnIndexes);
+			case COLUMN_NAMES: return connection.prepareStatement(sql, columnNames);
+			default: return connection.prepareStatement(sql);
+			}
+		} catch (SQLException e) {
+			throw new ProxyException("Unable to prepare statement in connection " + connectionUnit.getName(), e, connectionUnit);
+		}
+	}
+
+	/**
+	 * Returns whether created statements return generated keys
+	 * @return whether generated keys are requested
+	 */
+	public boolean isGeneratedKeysRequested() {
+		switch (variant) {
+		case GENERATED_KEYS: return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS;
+		case COLUMN_INDEXES:
+		case COLUMN_NAMES: return true;
+		default: return false;
+		}
+	}
+}
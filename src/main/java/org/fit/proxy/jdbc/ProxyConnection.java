@@ -1,5 +1,6 @@
 package org.fit.proxy.jdbc;
 
+import java.io.File;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -15,13 +16,15 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,7 +39,18 @@ import org.fit.proxy.jdbc.actions.NetworkTimeoutAction;
 import org.fit.proxy.jdbc.actions.ReadOnlyAction;
 import org.fit.proxy.jdbc.actions.SchemaAction;
 import org.fit.proxy.jdbc.actions.TypeMapAction;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.fit.proxy.jdbc.configuration.ProxySettings;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+import org.fit.proxy.jdbc.replication.MerkleReconciler;
+import org.fit.proxy.jdbc.replication.PendingWrites;
+import org.fit.proxy.jdbc.replication.ReconciliationReport;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.replication.ReplicaValidator;
+import org.fit.proxy.jdbc.replication.ValidationReport;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+import org.fit.proxy.jdbc.xa.XaCoordinator;
 
 /**
  * 
@@ -52,11 +66,31 @@ public class ProxyConnection implements Connection {
 	private Switcher switcher;
 	private final ProxyConnectionEngine engine;
 	
-	private ProxySavepoint currTransaction;
+	/**
+	 * Savepoints of the transaction in the order they were set, they are set in databases lazily when a statement is executed
+	 */
+	private final List<ProxySavepoint> savepoints = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Writes of asynchronous replica groups that wait for commit
+	 */
+	private final PendingWrites pendingWrites = new PendingWrites();
+	
+	/**
+	 * Connections where statements were executed since the last commit or rollback, only these are committed or rolled back.
+	 * Tasks of parallel executions mark their connections concurrently.
+	 */
+	private final Set<ConnectionUnit> touched = Collections.synchronizedSet(new LinkedHashSet<ConnectionUnit>());
+	
+	/**
+	 * Two-phase commit of transactions, null when connections are committed separately
+	 */
+	private final XaCoordinator xa;
 	
 	public ProxyConnection(Switcher switcher) throws SQLException {
 		this.switcher = switcher;
 		engine = new ProxyConnectionEngine(switcher);
+		xa = (switcher.getTransactionLog() == null) ? null : new XaCoordinator(switcher.getTransactionLog(), engine.getExecutor());
 	}
 	
 	/**
@@ -74,6 +108,236 @@ public class ProxyConnection implements Connection {
 		return engine.getConnection(sql);
 	}
 	
+	/**
+	 * Returns shard rule of the sql query
+	 * @param sql sql query
+	 * @return shard rule or null if the query does not belong to any sharded table
+	 * @throws SQLException - connection is closed
+	 */
+	public ShardRule getShardRule(String sql) throws SQLException {
+		return engine.getShardRule(sql);
+	}
+	
+	/**
+	 * Returns connections where a broadcast query is sent
+	 * @param sql sql query
+	 * @return connections or null if the query is not broadcast
+	 * @throws SQLException - connection is closed
+	 */
+	public List<ConnectionUnit> getBroadcastConnections(String sql) throws SQLException {
+		return engine.getBroadcastConnections(sql);
+	}
+	
+	/**
+	 * Returns shards where an update or delete of a sharded table is executed when it needs more shards
+	 * @param sql sql statement
+	 * @return shards or null if the statement is sent to a single connection
+	 * @throws SQLException - connection is closed or the statement cannot be sent to its shards
+	 */
+	public List<ConnectionUnit> getShardWriteConnections(String sql) throws SQLException {
+		return engine.getShardWriteConnections(sql);
+	}
+	
+	/**
+	 * Returns connections where a replicated write is executed
+	 * @param sql sql statement
+	 * @return replicas, the primary is the first one, or null if the statement is not a replicated write
+	 * @throws SQLException - connection is closed
+	 */
+	public List<ConnectionUnit> getReplicatedConnections(String sql) throws SQLException {
+		return engine.getReplicatedConnections(sql);
+	}
+	
+	/**
+	 * Returns replica group of a write of a replicated table
+	 * @param sql sql statement
+	 * @return replica group or null if the statement is not a replicated write
+	 * @throws SQLException - connection is closed
+	 */
+	public ReplicaGroup getReplicaWriteGroup(String sql) throws SQLException {
+		return engine.getReplicaWriteGroup(sql);
+	}
+	
+	/**
+	 * Validates that all replicas of the replica group of a query hold the same rows
+	 * @param sql query that belongs to a replica group, it has to be ordered by its first keyColumns columns which are a unique key
+	 * @param keyColumns number of key columns
+	 * @return report of keys whose rows are missing or differ
+	 * @throws SQLException when the query does not belong to any replica group or it fails in a replica
+	 */
+	public ValidationReport validateReplicas(String sql, int keyColumns) throws SQLException {
+		ReplicaGroup group = getSwitcher().getReplicaGroup(sql);
+		
+		if (group == null) {
+			throw new SQLException("Sql query does not belong to any replica group: " + sql);
+		}
+		
+		return validateReplicas(sql, keyColumns, group.getConnections());
+	}
+	
+	/**
+	 * Validates that connections hold the same rows. The query runs in all connections concurrently and rows are compared by their digests
+	 * as they arrive, so the validation needs the same memory for any number of rows.
+	 * @param sql query ordered by its first keyColumns columns which are a unique key
+	 * @param keyColumns number of key columns
+	 * @param connections connections to compare
+	 * @return report of keys whose rows are missing or differ
+	 * @throws SQLException when the connection is closed or the query fails in a connection
+	 */
+	public ValidationReport validateReplicas(String sql, int keyColumns, List<ConnectionUnit> connections) throws SQLException {
+		engine.ensureConnectionIsAlive();
+		
+		ReplicaValidator validator = new ReplicaValidator(engine.getExecutor(), engine.getSettings().getScatterBuffer(), ReplicaValidator.DEFAULT_MAX_REPORTED);
+		
+		return validator.validate(sql, keyColumns, connections);
+	}
+	
+	/**
+	 * Reconciles rows of a replicated table incrementally by range checksums, only ranges whose checksums differ are compared row by row.
+	 * @param table replicated table
+	 * @param keyColumn unique numeric key column
+	 * @param rowHash sql expression that hashes a row to an integer
+	 * @param minKey the lowest reconciled key (inclusive)
+	 * @param maxKey the highest reconciled key (exclusive)
+	 * @param treeFile file that keeps range checksums between runs
+	 * @return report of different ranges and rows
+	 * @throws SQLException when the table is not replicated or a query fails in a connection
+	 */
+	public ReconciliationReport reconcileReplicas(String table, String keyColumn, String rowHash, long minKey, long maxKey, File treeFile) throws SQLException {
+		String sql = "SELECT * FROM " + table;
+		ReplicaGroup group = getSwitcher().getReplicaGroup(sql);
+		
+		if (group == null) {
+			throw new SQLException("Table does not belong to any replica group: " + table);
+		}
+		
+		return reconcileReplicas(table, keyColumn, rowHash, minKey, maxKey, treeFile, group.getConnections());
+	}
+	
+	/**
+	 * Reconciles rows of a table in connections incrementally by range checksums.
+	 * @param table reconciled table
+	 * @param keyColumn unique numeric key column
+	 * @param rowHash sql expression that hashes a row to an integer
+	 * @param minKey the lowest reconciled key (inclusive)
+	 * @param maxKey the highest reconciled key (exclusive)
+	 * @param treeFile file that keeps range checksums between runs
+	 * @param connections connections to compare
+	 * @return report of different ranges and rows
+	 * @throws SQLException when the connection is closed or a query fails in a connection
+	 */
+	public ReconciliationReport reconcileReplicas(String table, String keyColumn, String rowHash, long minKey, long maxKey, File treeFile, List<ConnectionUnit> connections) throws SQLException {
+		engine.ensureConnectionIsAlive();
+		
+		MerkleReconciler reconciler = new MerkleReconciler(engine.getExecutor(), engine.getSettings().getScatterBuffer());
+		
+		return reconciler.reconcile(table, keyColumn, rowHash, minKey, maxKey, connections, treeFile, MerkleReconciler.DEFAULT_LEAF_KEYS);
+	}
+	
+	/**
+	 * Marks a connection where a statement is executed, the connection takes part in the next commit or rollback.
+	 * With two-phase commit, the connection becomes a branch of the transaction. Savepoints that the connection
+	 * does not have yet are set in it before the statement.
+	 * @param connection connection of the statement
+	 * @throws SQLException when the branch or a savepoint cannot be started
+	 */
+	public void markTouched(ConnectionUnit connection) throws SQLException {
+		engine.applyPendingActions(connection);
+		
+		if (xa != null && !getAutoCommit()) {
+			xa.enlist(connection);
+		}
+		
+		touched.add(connection);
+		
+		if (savepoints.isEmpty()) {
+			return;
+		}
+		
+		//a connection that has the last savepoint has all of them
+		List<ProxySavepoint> active = new ArrayList<>(savepoints);
+		
+		if (!active.get(active.size() - 1).isSet(connection)) {
+			for (ProxySavepoint savepoint : active) {
+				savepoint.set(connection);
+			}
+		}
+	}
+	
+	/**
+	 * Returns connections where statements were executed since the last commit or rollback
+	 * @return connections in the order of their first statement
+	 */
+	public List<ConnectionUnit> getTouchedConnections() {
+		synchronized (touched) {
+			return new ArrayList<>(touched);
+		}
+	}
+	
+	/**
+	 * Records writes that were executed in the primary of an asynchronous replica group. They are appended to the journal of the group
+	 * at once in auto-commit mode, otherwise when the transaction is committed.
+	 * @param group asynchronous replica group
+	 * @param entries encoded writes in the order of their execution
+	 * @throws SQLException when the journal cannot be written
+	 */
+	public void recordAsyncWrites(ReplicaGroup group, List<byte[]> entries) throws SQLException {
+		if (group.getPrimary().getConnection().getAutoCommit()) {
+			try {
+				group.getReplicator().append(entries);
+			} finally {
+				switcher.getReadAffinity().recordWrite(group, true);
+			}
+			
+			return;
+		}
+		
+		for (byte[] entry : entries) {
+			pendingWrites.add(group.getReplicator(), entry);
+		}
+		
+		switcher.getReadAffinity().recordWrite(group, false);
+	}
+	
+	/**
+	 * Returns replica group of a query that may be answered by replicas
+	 * @param sql sql query
+	 * @return replica group or null if the query is not a query of a group that reads from replicas
+	 * @throws SQLException - connection is closed
+	 */
+	public ReplicaGroup getReplicaReadGroup(String sql) throws SQLException {
+		return engine.getReplicaReadGroup(sql);
+	}
+	
+	/**
+	 * Returns the connection that answers the next query of a replica group
+	 * @param group replica group that reads from replicas
+	 * @return replica or the primary when replicas may miss writes of this connection
+	 */
+	public ConnectionUnit getReplicaReader(ReplicaGroup group) {
+		return switcher.getReadAffinity().getReader(group);
+	}
+	
+	/**
+	 * Appends committed writes of asynchronous replica groups to their journals, queries of written groups stay on primaries until replicas apply them
+	 * @throws SQLException when a journal cannot be written
+	 */
+	private void publishWrites() throws SQLException {
+		try {
+			pendingWrites.publish();
+		} finally {
+			switcher.getReadAffinity().commit();
+		}
+	}
+	
+	/**
+	 * Forgets writes of a transaction that was rolled back
+	 */
+	private void discardWrites() {
+		pendingWrites.clear();
+		switcher.getReadAffinity().rollback();
+	}
+	
 	/**
 	 * Sets default database connection specified by name. When an exception is thrown then the default connection will not change.
 	 * 
@@ -97,6 +361,22 @@ public class ProxyConnection implements Connection {
 		return engine.getDefaultConnection();
 	}
 	
+	/**
+	 * Returns settings of this proxy connection
+	 * @return settings
+	 */
+	public ProxySettings getSettings() {
+		return engine.getSettings();
+	}
+	
+	/**
+	 * Returns executor that runs tasks in connections concurrently
+	 * @return executor
+	 */
+	public ProxyExecutor getExecutor() {
+		return engine.getExecutor();
+	}
+	
 	public List<ConnectionUnit> getConnectionList() throws SQLException {
 		return engine.getConnectionList();
 	}
@@ -109,46 +389,6 @@ public class ProxyConnection implements Connection {
 		engine.unsetDefaultDatabase();
 	}
 	
-	/**
-	 * Releases all savepoints that were used during transactions
-	 * 
-	 * @param map of savepoints
-	 * @throws SQLException - message of unreleased savepoints.
-	 */
-	private void releaseSavepoint(Map<ConnectionUnit, Savepoint> save) throws SQLException {
-		String exc = new String();
-		boolean first = true;
-		
-		log.log(Level.FINE, "Releasing savepoints");
-		
-		for (Entry<ConnectionUnit, Savepoint> entry : save.entrySet()) {
-			ConnectionUnit u = entry.getKey();
-			Savepoint s = entry.getValue();
-			
-			log.log(Level.FINE, "Releasing savepoint with ID = " + s.getSavepointId() + "in connection " + u.getName());
-			
-			try {
-				u.getConnection().releaseSavepoint(s);
-			} catch (SQLException e) {
-				if (first) {
-					first = false;
-				} else {
-					exc += '\n';
-				}
-				
-				String message = "Unable to release savepoint to connection " + u.getName() + ". Original message: " + e.getMessage();
-				
-				log.log(Level.SEVERE, message);
-				exc += message;
-			}
-			
-		}
-		
-		if (! exc.isEmpty()) {
-			throw new SQLException(exc);
-		}
-	}
-	
 	@Deprecated
 	public Switcher getSwitcher() throws SQLException {
 		engine.ensureConnectionIsAlive();
@@ -161,15 +401,28 @@ public class ProxyConnection implements Connection {
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + ")");
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql);
 	}
 
+	/**
+	 * Returns the connection of a callable statement and marks it as touched by the current transaction
+	 * @param sql sql of the statement
+	 * @return connection of the statement
+	 * @throws SQLException when the connection cannot be chosen or joined to the transaction
+	 */
+	private ConnectionUnit getCallConnection(String sql) throws SQLException {
+		ConnectionUnit res = engine.getConnection(sql);
+		markTouched(res);
+		
+		return res;
+	}
+	
 	@Override
 	public CallableStatement prepareCall(String sql) throws SQLException {
 		log.log(Level.FINE, "Prepare call, sql(" + sql + ")");
 		
-		Connection c = engine.getConnection(sql).getConnection();
+		Connection c = getCallConnection(sql).getConnection();
 		return c.prepareCall(sql);
 	}
 	
@@ -177,15 +430,15 @@ public class ProxyConnection implements Connection {
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + "), resultSetType = " + resultSetType + ", resultSetConcurrency = " + resultSetConcurrency);
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql, new PreparedStatementFactory(resultSetType, resultSetConcurrency));
 	}
 
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
 		log.log(Level.FINE, "Prepare call, sql(" + sql + "), resultSetType = " + resultSetType + ", resultSetConcurrency = " + resultSetConcurrency);
 		
-		Connection c = engine.getConnection(sql).getConnection();
+		Connection c = getCallConnection(sql).getConnection();
 		return c.prepareCall(sql, resultSetType, resultSetConcurrency);
 	}
 	
@@ -193,15 +446,15 @@ public class ProxyConnection implements Connection {
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + "), resultSetType = " + resultSetType + ", resultSetConcurrency = " + resultSetConcurrency + ", resultSetHoldability = " + resultSetHoldability);		
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql, new PreparedStatementFactory(resultSetType, resultSetConcurrency, resultSetHoldability));
 	}
 
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		log.log(Level.FINE, "Prepare call, sql(" + sql + "), resultSetType = " + resultSetType + ", resultSetConcurrency = " + resultSetConcurrency + ", resultSetHoldability = " + resultSetHoldability);
 		
-		Connection c = engine.getConnection(sql).getConnection();
+		Connection c = getCallConnection(sql).getConnection();
 		return c.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
 	}
 
@@ -209,38 +462,51 @@ public class ProxyConnection implements Connection {
 	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + "), autoGeneratedKeys = " + autoGeneratedKeys);
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql, autoGeneratedKeys);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql, new PreparedStatementFactory(autoGeneratedKeys));
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + "), columnIndexes = " + columnIndexes);
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql, columnIndexes);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql, new PreparedStatementFactory(columnIndexes));
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
 		log.log(Level.FINE, "Prepare statement, sql(" + sql + "), columnNames = " + columnNames);
 		
-		Connection c = engine.getConnection(sql).getConnection();
-		return c.prepareStatement(sql, columnNames);
+		engine.ensureConnectionIsAlive();
+		return new ProxyPreparedStatement(this, sql, new PreparedStatementFactory(columnNames));
 	}
 	
 	@Override
 	public void close() throws SQLException {
 		try {
+			if (xa != null && xa.isActive()) {
+				try {
+					xa.rollback();
+				} catch (SQLException e) {
+					ProxyExceptionUtils.logExceptions(e, Level.WARNING);
+				}
+			}
+			
 			engine.runSimpleAction(new CloseConnectionAction());
 		} finally {
-			engine.getPropertiesHelper().setProperty(ProxyConstants.CLOSE_CONNECTION, null);
+			pendingWrites.clear();
+			touched.clear();
+			savepoints.clear();
+			engine.getPropertiesHelper().setBoolean(ProxyProperty.CLOSE_CONNECTION, true);
+			engine.getExecutor().shutdown();
+			switcher.close();
 		}
 	}
 	
 	@Override
 	public boolean isClosed() throws SQLException {
-		return engine.getPropertiesHelper().isPropertySet(ProxyConstants.CLOSE_CONNECTION);
+		return engine.getPropertiesHelper().isPropertySet(ProxyProperty.CLOSE_CONNECTION);
 	}
 	
 	@Override
@@ -274,54 +540,102 @@ public class ProxyConnection implements Connection {
 
 	@Override
 	public int getNetworkTimeout() throws SQLException {
-		return (Integer) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.NETWORK_TIMEOUT_ACTION);
+		return engine.getPropertiesHelper().getInt(ProxyProperty.NETWORK_TIMEOUT);
 	}
 	
+	/**
+	 * Checks all connections concurrently within the timeout, connections that were used successfully within the validation window
+	 * are not checked again. Connections that failed are returned by getInvalidConnections().
+	 */
 	@Override
 	public boolean isValid(int timeout) throws SQLException {
-		int proxyTimeout = (int) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.NETWORK_TIMEOUT_ACTION);
+		if (timeout < 0) {
+			throw new SQLException("Timeout of connection validation must not be negative.");
+		}
+		
+		if (isClosed()) {
+			return false;
+		}
 		
-		return timeout <= proxyTimeout;
+		return engine.validateConnections(timeout).isEmpty();
+	}
+	
+	/**
+	 * Returns connections that failed the last validation by isValid()
+	 * @return connections that were not valid
+	 */
+	public List<ConnectionUnit> getInvalidConnections() {
+		return engine.getInvalidConnections();
 	}
 	
 	@Override
 	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		if (autoCommit && xa != null && xa.isActive()) {
+			commit();
+		} else if (autoCommit && engine.getSettings().isDeferredActions() && !getAutoCommit() && !touched.isEmpty()) {
+			//a deferred change does not end the open transaction, so it is committed now as the driver would do it
+			commit();
+		}
+		
 		engine.runAction(new AutoCommitAction(autoCommit));
+		
+		if (autoCommit) {
+			touched.clear();
+			savepoints.clear();
+			publishWrites();
+		}
 	}
 
+	/**
+	 * Returns auto-commit mode of the connection. Connections are opened in auto-commit mode, so it is true until auto-commit is changed.
+	 */
 	@Override
 	public boolean getAutoCommit() throws SQLException {
-		return (Boolean) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.AUTO_COMMIT_ACTION);
+		ProxyProperiesHelper properties = engine.getPropertiesHelper();
+		
+		return !properties.isPropertySet(ProxyProperty.AUTO_COMMIT) || properties.getBoolean(ProxyProperty.AUTO_COMMIT);
 	}
 
 	@Override
 	public void commit() throws SQLException {
-		List<ConnectionUnit> l = switcher.getConnectionList();
-		//Map<ConnectionUnit, Savepoint> save = new HashMap<>();
-		ConnectionUnit u = null;
+		if (xa != null && xa.isActive()) {
+			commitDistributed();
+			return;
+		}
+		
+		List<ConnectionUnit> l = getTouchedConnections();
+		List<TransactionTask> tasks = new ArrayList<>(l.size());
+		
+		log.log(Level.INFO, "Commiting changes in " + l.size() + " touched connections.");
+		
+		for (ConnectionUnit u : l) {
+			tasks.add(new TransactionTask(u, TransactionTask.COMMIT, null));
+		}
+		
+		runTransactionTasks(tasks, "Unable to commit connections.");
 		
-		log.log(Level.INFO, "Commiting changes.");
+		savepoints.clear();
+		publishWrites();
+	}
+	
+	/**
+	 * Commits the transaction by two-phase commit, writes of asynchronous replica groups are discarded when it is rolled back
+	 * @throws SQLException when the transaction is rolled back
+	 */
+	private void commitDistributed() throws SQLException {
+		log.log(Level.INFO, "Commiting distributed transaction in " + xa.getBranches().size() + " connections.");
 		
 		try {
-			for (Iterator<ConnectionUnit> it = l.iterator(); it.hasNext();) {
-				u = it.next();
-				Connection c = u.getConnection();
-				
-				//save.put(u, c.setSavepoint());
-				
-				log.log(Level.FINE, "Commiting connection: " + u.getName());
-				c.commit();
-			}
-			
+			xa.commit();
 		} catch (SQLException e) {
-			//String rollBack = returnChanges(save);
-			String exc = "Unable to commit connection " + u.getName() + ". Original message: " + e.getMessage();
-			
-			log.log(Level.SEVERE, exc);
-			throw new SQLException(exc);
+			discardWrites();
+			throw e;
+		} finally {
+			touched.clear();
+			savepoints.clear();
 		}
 		
-		//releaseSavepoint(save);
+		publishWrites();
 	}
 	
 	@Override
@@ -331,7 +645,7 @@ public class ProxyConnection implements Connection {
 
 	@Override
 	public boolean isReadOnly() throws SQLException {
-		return (Boolean) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.READ_ONLY_ACTION);
+		return engine.getPropertiesHelper().getBoolean(ProxyProperty.READ_ONLY);
 	}
 	
 	@Override
@@ -341,62 +655,45 @@ public class ProxyConnection implements Connection {
 
 	@Override
 	public Savepoint setSavepoint(String name) throws SQLException {
-		List<ConnectionUnit> l = switcher.getConnectionList();
-		Map<ConnectionUnit, Savepoint> save = new HashMap<>();
-		ConnectionUnit u = null;
+		engine.ensureConnectionIsAlive();
 		
 		log.log(Level.INFO, "Setting savepoint with name = " + name);
 		
+		ProxySavepoint res = new ProxySavepoint(name, pendingWrites.size());
+		savepoints.add(res);
 		
-		try {
-			for (Iterator<ConnectionUnit> it = l.iterator(); it.hasNext();) {
-				u = it.next();
-				Connection c = u.getConnection();
-				
-				log.log(Level.FINE, "Setting savepoint to connection " + u.getName());
-				save.put(u, c.setSavepoint());
-			}
-			
-		} catch (SQLException e) {
-			//String rollBack = returnChanges(save);
-			String rollBack = new String();
-			
-			log.log(Level.SEVERE, "Setting savepoint failed in connection " + u.getName() + ". Releasing savepoints..");
+		return res;
+	}
+	
+	@Override
+	public void rollback() throws SQLException {
+		if (xa != null && xa.isActive()) {
+			log.log(Level.INFO, "Doing rollback of distributed transaction in " + xa.getBranches().size() + " connections.");
 			
 			try {
-				releaseSavepoint(save);
-			} catch (SQLException sqle) {
-				rollBack = sqle.getMessage();
+				xa.rollback();
+			} finally {
+				touched.clear();
+				savepoints.clear();
+				discardWrites();
 			}
 			
-			currTransaction = null;
-			
-			String exc = "Unable to set savepoint " + u.getName() + ". Original message: " + e.getMessage() + rollBack;
-			
-			
-			log.log(Level.SEVERE, "Whole message: " + exc);
-			throw new SQLException(exc);
+			return;
 		}
 		
-		ProxySavepoint res = new ProxySavepoint(name, save);
-		currTransaction = res;
+		List<ConnectionUnit> l = getTouchedConnections();
+		List<TransactionTask> tasks = new ArrayList<>(l.size());
 		
-		return res;
-	}
-	
-	@Override
-	public void rollback() throws SQLException {
-		log.log(Level.INFO, "Doing rollback.");
+		log.log(Level.INFO, "Doing rollback in " + l.size() + " touched connections.");
 		
-		if (currTransaction == null) {
-			String exc = "No available savepoints!";
-			
-			log.log(Level.SEVERE, exc);
-			throw new SQLException(exc);
+		for (ConnectionUnit u : l) {
+			tasks.add(new TransactionTask(u, TransactionTask.ROLLBACK, null));
 		}
 		
-		rollback(currTransaction);
+		runTransactionTasks(tasks, "Unable to rollback connections.");
 		
+		savepoints.clear();
+		discardWrites();
 	}
 	
 	@Override
@@ -414,29 +711,22 @@ public class ProxyConnection implements Connection {
 			throw new SQLException(exc);
 		}
 		
+		int index = getActiveIndex(ps);
 		Map<ConnectionUnit, Savepoint> saveList = ps.getSavepoints();
-		//Map<ConnectionUnit, Savepoint> saved = new HashMap<>();
-		ConnectionUnit u = null;
+		List<TransactionTask> tasks = new ArrayList<>(saveList.size());
 		
-		try {
-			for (Entry<ConnectionUnit, Savepoint> entry : saveList.entrySet()) {
-				u = entry.getKey();
-				Connection c = u.getConnection();
-				Savepoint s = entry.getValue();
-				
-				log.log(Level.FINE, "Doing rollback in connection " + u.getName());
-				c.rollback(s);
-			}
-		} catch (SQLException e) {
-			//String rollBack = returnChanges(saved);
-			String exc = "Unable rollback connection " + u.getName() + ". Original message: " + e.getMessage();
-			
-			log.log(Level.SEVERE, exc);
-			throw new SQLException(exc);
+		//connections without the savepoint executed no statement since it was set, nothing to undo
+		for (Entry<ConnectionUnit, Savepoint> entry : saveList.entrySet()) {
+			tasks.add(new TransactionTask(entry.getKey(), TransactionTask.ROLLBACK, entry.getValue()));
 		}
 		
-		//releaseSavepoint(saved);
+		runTransactionTasks(tasks, "Unable to rollback connections to savepoint.");
+		pendingWrites.truncate(ps.getPendingWrites());
 		
+		//later savepoints are discarded by the rollback
+		while (savepoints.size() > index + 1) {
+			savepoints.remove(savepoints.size() - 1);
+		}
 	}
 	
 	@Override
@@ -454,39 +744,63 @@ public class ProxyConnection implements Connection {
 			throw new SQLException(exc);
 		}
 		
+		getActiveIndex(ps);
 		Map<ConnectionUnit, Savepoint> saveList = ps.getSavepoints();
-		ConnectionUnit u = null;
-		String errMessage = new String();
-		boolean first = true;
+		List<TransactionTask> tasks = new ArrayList<>(saveList.size());
 		
 		for (Entry<ConnectionUnit, Savepoint> entry : saveList.entrySet()) {
-			u = entry.getKey();
-			Connection c = u.getConnection();
-			Savepoint s = entry.getValue();
+			tasks.add(new TransactionTask(entry.getKey(), TransactionTask.RELEASE, entry.getValue()));
+		}
+		
+		savepoints.remove(ps);
+		runTransactionTasks(tasks, "Unable to release savepoint in connections.");
+	}
+	
+	/**
+	 * Returns position of a savepoint among savepoints of the transaction
+	 * @param savepoint savepoint
+	 * @return position of the savepoint
+	 * @throws SQLException when the savepoint was released, rolled back or its transaction has ended
+	 */
+	private int getActiveIndex(ProxySavepoint savepoint) throws SQLException {
+		int res = savepoints.indexOf(savepoint);
+		
+		if (res < 0) {
+			String exc = "Savepoint " + savepoint.getSavepointName() + " is not valid in the current transaction.";
 			
-			log.log(Level.FINE, "Releasing savepoint in connection " + u.getName());
-			try {
-				c.releaseSavepoint(s);
-			} catch (SQLException e) {
-				
-				if (first) {
-					first = false;
-				} else {
-					errMessage += '\n';
-				}
-				
-				String exc = "Cannot release savepoint in connection " + u.getName() + ". Original message: " + e.getMessage();
-				
-				log.log(Level.SEVERE, exc);
-				errMessage += exc;
+			log.log(Level.SEVERE, exc);
+			throw new SQLException(exc);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Runs commits, rollbacks or releases of savepoints in connections, concurrently when parallel_commit is set.
+	 * A failure does not stop the other connections, all failures are chained to the thrown exception.
+	 * Connections where a commit or a rollback of the whole transaction succeeded are no longer touched.
+	 * @param tasks tasks of connections
+	 * @param message message of the thrown exception
+	 * @throws SQLException when the task fails in a connection
+	 */
+	private void runTransactionTasks(List<TransactionTask> tasks, String message) throws SQLException {
+		List<ProxyException> failures = engine.getExecutor().runAll(tasks, engine.getSettings().isParallelCommit());
+		
+		for (TransactionTask task : tasks) {
+			if (task.isDone() && task.isEnd()) {
+				touched.remove(task.getConnection());
 			}
-			
-			
 		}
 		
-		if (! errMessage.isEmpty()) {
-			log.log(Level.SEVERE, "Whole message: " + errMessage);
-			throw new SQLException(errMessage);
+		if (!failures.isEmpty()) {
+			SQLException toThrow = new SQLException(message);
+			
+			for (ProxyException failure : failures) {
+				toThrow.setNextException(failure);
+			}
+			
+			ProxyExceptionUtils.logExceptions(toThrow, Level.SEVERE);
+			throw toThrow;
 		}
 	}
 	
@@ -504,7 +818,7 @@ public class ProxyConnection implements Connection {
 
 	@Override
 	public String getCatalog() throws SQLException {
-		return (String) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.CATALOG_ACTION);
+		return (String) engine.getPropertiesHelper().getObject(ProxyProperty.CATALOG);
 	}
 	
 	@Override
@@ -514,7 +828,7 @@ public class ProxyConnection implements Connection {
 
 	@Override
 	public String getSchema() throws SQLException {
-		return (String) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.SCHEMA_ACTION);
+		return (String) engine.getPropertiesHelper().getObject(ProxyProperty.SCHEMA);
 	}
 	
 	@Override
@@ -534,13 +848,13 @@ public class ProxyConnection implements Connection {
 	@Override
 	public Map<String, Class<?>> getTypeMap() throws SQLException {
 		engine.ensureConnectionIsAlive();
-		boolean initiated = engine.getPropertiesHelper().isPropertyInitiated(ProxyConstants.TYPE_MAP_ACTION);
+		boolean initiated = engine.getPropertiesHelper().isPropertyInitiated(ProxyProperty.TYPE_MAP);
 		
 		if (!initiated) {
 			return Collections.emptyMap();
 		}
 		
-		return (Map<String, Class<?>>) engine.getPropertiesHelper().getPropertyValue(ProxyConstants.TYPE_MAP_ACTION);
+		return (Map<String, Class<?>>) engine.getPropertiesHelper().getObject(ProxyProperty.TYPE_MAP);
 	}
 
 	@Override
@@ -657,4 +971,66 @@ public class ProxyConnection implements Connection {
 	}
 	
 
+	/**
+	 * Commit, rollback or release of a savepoint in a single connection
+	 */
+	private static final class TransactionTask implements IConnectionTask {
+		private static final int COMMIT = 0;
+		private static final int ROLLBACK = 1;
+		private static final int RELEASE = 2;
+		
+		private final ConnectionUnit connection;
+		private final int operation;
+		private final Savepoint savepoint;
+		private volatile boolean done = false;
+		
+		private TransactionTask(ConnectionUnit connection, int operation, Savepoint savepoint) {
+			this.connection = connection;
+			this.operation = operation;
+			this.savepoint = savepoint;
+		}
+		
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+		
+		@Override
+		public void run() throws SQLException {
+			Connection c = connection.getConnection();
+			
+			switch (operation) {
+			case COMMIT:
+				log.log(Level.FINE, "Commiting connection: " + connection.getName());
+				c.commit();
+				break;
+			case ROLLBACK:
+				log.log(Level.FINE, "Doing rollback in connection " + connection.getName());
+				
+				if (savepoint == null) {
+					c.rollback();
+				} else {
+					c.rollback(savepoint);
+				}
+				
+				break;
+			default:
+				log.log(Level.FINE, "Releasing savepoint in connection " + connection.getName());
+				c.releaseSavepoint(savepoint);
+			}
+			
+			done = true;
+		}
+		
+		/**
+		 * Returns whether the task ends the transaction of its connection
+		 */
+		private boolean isEnd() {
+			return operation == COMMIT || (operation == ROLLBACK && savepoint == null);
+		}
+		
+		private boolean isDone() {
+			return done;
+		}
+	}
 }
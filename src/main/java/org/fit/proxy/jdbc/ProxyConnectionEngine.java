@@ -1,18 +1,28 @@
 package org.fit.proxy.jdbc;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.fit.proxy.jdbc.actions.IAction;
+import org.fit.proxy.jdbc.actions.IDeferrableAction;
+import org.fit.proxy.jdbc.actions.ISessionAction;
 import org.fit.proxy.jdbc.actions.ISimpleAction;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.fit.proxy.jdbc.configuration.ProxySettings;
 import org.fit.proxy.jdbc.exception.ProxyException;
 import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.sharding.ShardRule;
 
 /**
  * This class provides actions for ProxyConnection.java
@@ -22,9 +32,23 @@ import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
 public class ProxyConnectionEngine implements IConnectionEnsure {
 	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
 	private final Switcher switcher;
+	private final ProxySettings settings;
+	private final ProxyExecutor executor;
+	
+	/**
+	 * Connections that failed the last validation
+	 */
+	private volatile List<ConnectionUnit> invalidConnections = Collections.emptyList();
+	
+	/**
+	 * Deferred actions that were not applied to connections yet, only the last action of a property is kept
+	 */
+	private final Map<ConnectionUnit, Map<ProxyProperty, IDeferrableAction>> pendingActions = new HashMap<>();
 	
 	public ProxyConnectionEngine(Switcher switcher) {
 		this.switcher = switcher;
+		this.settings = new ProxySettings(switcher.getProperties());
+		this.executor = new ProxyExecutor(settings.getParallelThreads());
 	}
 	
 	private final ProxyProperiesHelper propertiesHelper = new ProxyProperiesHelper(this);
@@ -33,13 +57,21 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 		return propertiesHelper;
 	}
 	
+	public ProxySettings getSettings() {
+		return settings;
+	}
+	
+	public ProxyExecutor getExecutor() {
+		return executor;
+	}
+	
 	/**
 	 * method that throws an exception when connections are closed
 	 * @throws SQLException if connections are closed
 	 */
 	@Override
 	public void ensureConnectionIsAlive() throws SQLException {
-		if (propertiesHelper.isPropertySet(ProxyConstants.CLOSE_CONNECTION)) {
+		if (propertiesHelper.isPropertySet(ProxyProperty.CLOSE_CONNECTION)) {
 			throw new SQLException("Proxy connection has been already closed!");
 		}
 	}
@@ -74,32 +106,185 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 		return switcher.getConnection(sql);
 	}
 	
+	public ShardRule getShardRule(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getShardRule(sql);
+	}
+	
+	public List<ConnectionUnit> getBroadcastConnections(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getBroadcastConnections(sql);
+	}
+	
+	public List<ConnectionUnit> getShardWriteConnections(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getShardWriteConnections(sql);
+	}
+	
+	public List<ConnectionUnit> getReplicatedConnections(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getReplicatedConnections(sql);
+	}
+	
+	public ReplicaGroup getReplicaWriteGroup(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getReplicaWriteGroup(sql);
+	}
+	
+	public ReplicaGroup getReplicaReadGroup(String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		return switcher.getReplicaReadGroup(sql);
+	}
+	
 	public ConnectionUnit getDefaultConnection() throws SQLException {
 		ensureConnectionIsAlive();
 		return switcher.getDefaultConnection();
 	}
 	
 	/**
-	 * Runs action for Proxy Connection
+	 * Runs action for Proxy Connection. Values of the connections are saved and the action is run in all connections,
+	 * concurrently when parallel actions are enabled. When the action fails in a connection, saved values are restored
+	 * in all connections where they were saved.
 	 * @param action
 	 * @throws ProxyException if something goes wrong
 	 */
 	public void runAction(IAction action) throws SQLException {
 		ensureConnectionIsAlive();
 		
-		ActionUnit actionInfo = new ActionUnit(switcher);
+		if (settings.isDeferredActions() && action instanceof IDeferrableAction) {
+			deferAction((IDeferrableAction) action);
+			return;
+		}
+		
+		ActionUnit actionInfo = new ActionUnit(switcher.getConnectionList());
+		List<ProxyException> failures = runActionInstance(action, actionInfo);
+		
+		if (failures.isEmpty()) {
+			propertiesHelper.setProperty(action.getProperty(), action.getPropertyValue());
+			log.fine(action.getOkMessage());
+			
+			return;
+		}
+		
+		ProxyException toThrow = failures.get(0);
+		
+		for (int i = 1; i < failures.size(); i++) {
+			toThrow.setNextException(failures.get(i));
+		}
+		
+		revertActionInstance(action, actionInfo, toThrow, toThrow.getCause());
+		checkRevertingAction(action, actionInfo);
+		
+		ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+		throw toThrow;
+	}
+	
+	/**
+	 * Records an action that is applied to connections before their next statement
+	 * @param action deferred action
+	 */
+	private void deferAction(IDeferrableAction action) {
+		synchronized (pendingActions) {
+			for (ConnectionUnit connection : switcher.getConnectionList()) {
+				Map<ProxyProperty, IDeferrableAction> pending = pendingActions.get(connection);
+				
+				if (pending == null) {
+					pending = new EnumMap<>(ProxyProperty.class);
+					pendingActions.put(connection, pending);
+				}
+				
+				pending.put(action.getProperty(), action);
+			}
+		}
+		
+		propertiesHelper.setProperty(action.getProperty(), action.getPropertyValue());
+		log.fine(new StringBuilder("Action is deferred: ").append(action.getOkMessage()).toString());
+	}
+	
+	/**
+	 * Applies deferred actions to a connection before a statement is executed in it. All pending actions of the connection are applied
+	 * in one pass, actions that already match the cached state of the connection are not sent to it.
+	 * @param connection connection where a statement is executed
+	 * @throws SQLException when an action fails, the failed action and the following ones stay pending
+	 */
+	public void applyPendingActions(ConnectionUnit connection) throws SQLException {
+		List<IDeferrableAction> actions;
+		
+		synchronized (pendingActions) {
+			Map<ProxyProperty, IDeferrableAction> pending = pendingActions.get(connection);
+			
+			if (pending == null) {
+				return;
+			}
+			
+			actions = new ArrayList<>(pending.values());
+		}
+		
+		ActionUnit info = new ActionUnit(Collections.singletonList(connection));
+		
+		for (IDeferrableAction action : actions) {
+			new ActionTask(action, info, connection).run();
+			
+			synchronized (pendingActions) {
+				Map<ProxyProperty, IDeferrableAction> pending = pendingActions.get(connection);
+				
+				//a newer action of the property stays pending
+				if (pending != null && pending.get(action.getProperty()) == action) {
+					pending.remove(action.getProperty());
+					
+					if (pending.isEmpty()) {
+						pendingActions.remove(connection);
+					}
+				}
+			}
+		}
+		
+		log.fine(new StringBuilder("Deferred actions applied to connection ").append(connection.getName()).append('.').toString());
+	}
+	
+	/**
+	 * Checks connections concurrently, all checks share one deadline. Connections where a task succeeded within the validation window
+	 * are not checked.
+	 * @param timeout timeout of the validation in seconds, 0 when there is no timeout
+	 * @return connections that are not valid or that were not checked before the deadline
+	 * @throws SQLException when the calling thread is interrupted
+	 */
+	public List<ConnectionUnit> validateConnections(int timeout) throws SQLException {
+		long deadline = (timeout == 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout * 1000L;
+		List<ValidationTask> tasks = new ArrayList<>();
 		
-		try {
-			runActionInstance(action, actionInfo);
-		} catch (SQLException e) {
-			ProxyException toThrow = new ProxyException(action.getErrMessage(), e, actionInfo.getCurrent());
+		for (ConnectionUnit connection : switcher.getConnectionList()) {
+			if (!connection.isAliveWithin(settings.getValidationWindow())) {
+				tasks.add(new ValidationTask(connection, deadline));
+			}
+		}
+		
+		List<ProxyException> failures = executor.runAllUntil(tasks, deadline);
+		List<ConnectionUnit> res = new ArrayList<>(failures.size());
+		
+		if (!failures.isEmpty()) {
+			SQLException toLog = new SQLException("Validation of connections failed.");
 			
-			revertActionInstance(action, actionInfo, toThrow, e);
-			checkRevertingAction(action, actionInfo);
+			for (ProxyException failure : failures) {
+				res.add(failure.getFailConnection());
+				toLog.setNextException(failure);
+			}
 			
-			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
-			throw toThrow;
+			ProxyExceptionUtils.logExceptions(toLog, Level.WARNING);
 		}
+		
+		invalidConnections = Collections.unmodifiableList(res);
+		log.fine(new StringBuilder("Validated ").append(tasks.size()).append(" connections, ").append(res.size()).append(" of them are not valid.").toString());
+		
+		return invalidConnections;
+	}
+	
+	/**
+	 * Returns connections that failed the last validation
+	 * @return connections that were not valid, empty when all were valid or there was no validation yet
+	 */
+	public List<ConnectionUnit> getInvalidConnections() {
+		return invalidConnections;
 	}
 	
 	public void runSimpleAction(ISimpleAction action) throws SQLException {
@@ -107,31 +292,26 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 		runSimpleActionInstance(action);
 	}
 	
-	private void runActionInstance(IAction action, ActionUnit info) throws SQLException {
+	private List<ProxyException> runActionInstance(IAction action, ActionUnit info) throws SQLException {
+		List<ActionTask> tasks = new ArrayList<>();
+		
 		for (ConnectionUnit connection : info.getConnectionList()) {
-			info.setCurrent(connection);
-			
-			info.saveValue(connection, action.getSaveValue(connection));
-			action.runAction(connection);
+			tasks.add(new ActionTask(action, info, connection));
 		}
 		
-		propertiesHelper.setProperty(action.getPropertyName(), action.getPropertyValue());
-		log.fine(action.getOkMessage());
+		return executor.runAll(tasks, settings.isParallelActions());
 	}
 	
 	private void runSimpleActionInstance(ISimpleAction action) throws SQLException {
 		SQLException inCaseOfFailure = new SQLException(action.getErrMessage());
+		List<SimpleActionTask> tasks = new ArrayList<>();
 		
 		for (ConnectionUnit connection : switcher.getConnectionList()) {
-			try {
-				action.runAction(connection);
-			} catch (SQLException e) {
-				String message = new StringBuilder("Unable to execute action in connection ").append(connection.getName()).append('.').toString();
-				ProxyException pe = new ProxyException(message, connection);
-				pe.initCause(e);
-				
-				inCaseOfFailure.setNextException(pe);
-			}
+			tasks.add(new SimpleActionTask(action, connection));
+		}
+		
+		for (ProxyException pe : executor.runAll(tasks, settings.isParallelActions())) {
+			inCaseOfFailure.setNextException(pe);
 		}
 		
 		if (ProxyExceptionUtils.actionRevertedSuccessfully(inCaseOfFailure)) {
@@ -143,17 +323,15 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 		
 	}
 	
-	private void revertActionInstance(IAction action, ActionUnit info, ProxyException toThrow, Exception toLog) {
+	private void revertActionInstance(IAction action, ActionUnit info, ProxyException toThrow, Throwable toLog) throws SQLException {
+		List<RevertTask> tasks = new ArrayList<>();
+		
 		for (Entry<ConnectionUnit, Object> entry : info.getSaveMap().entrySet()) {
-			ConnectionUnit connection = entry.getKey();
-			Object value = entry.getValue();
-			
-			try {
-				action.runReverseAction(connection, value);
-			} catch (SQLException reverseException) {
-				info.saveFailValue(connection, value);
-				toThrow.setNextException(reverseException);
-			}
+			tasks.add(new RevertTask(action, info, entry.getKey(), entry.getValue()));
+		}
+		
+		for (ProxyException reverseException : executor.runAll(tasks, settings.isParallelActions())) {
+			toThrow.setNextException(reverseException);
 		}
 		
 		log.log(Level.WARNING, action.getErrMessage(), toLog);
@@ -164,13 +342,13 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 		
 		if (! revertFail.isEmpty()) {
 			StringBuilder sb = new StringBuilder("An error occurred when attempting to recover former values of ").
-					append(action.getPropertyName()).append(" to values: ");
+					append(action.getProperty().getPropertyName()).append(" to values: ");
 		
 			for (Entry<ConnectionUnit, Object> entry : revertFail.entrySet()) {
 				sb.append('(').append(entry.getKey().getName()).append(',').append(entry.getValue().toString()).append(')');
 			}
 			
-			propertiesHelper.unsetProperty(action.getPropertyName());
+			propertiesHelper.unsetProperty(action.getProperty());
 			log.severe(sb.toString());
 		}
 	}
@@ -180,21 +358,21 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 	 * @author Ondřej Marek
 	 */
 	private static final class ActionUnit {
-		private ConnectionUnit current;
 		private final List<ConnectionUnit> connectionList;
-		private final Map<ConnectionUnit, Object> saveMap = new HashMap<>();
-		private final Map<ConnectionUnit, Object> revertFail = new HashMap<>();
+		private final Map<ConnectionUnit, Object> saveMap = Collections.synchronizedMap(new LinkedHashMap<ConnectionUnit, Object>());
+		private final Map<ConnectionUnit, Object> revertFail = Collections.synchronizedMap(new LinkedHashMap<ConnectionUnit, Object>());
+		private volatile boolean failed;
 		
-		private ActionUnit(Switcher switcher) {
-			connectionList = switcher.getConnectionList();
+		private ActionUnit(List<ConnectionUnit> connectionList) {
+			this.connectionList = connectionList;
 		}
 		
-		public ConnectionUnit getCurrent() {
-			return current;
+		public boolean isFailed() {
+			return failed;
 		}
 		
-		public void setCurrent(ConnectionUnit current) {
-			this.current = current;
+		public void setFailed() {
+			failed = true;
 		}
 		
 		public Map<ConnectionUnit, Object> getSaveMap() {
@@ -217,4 +395,172 @@ public class ProxyConnectionEngine implements IConnectionEnsure {
 			return connectionList;
 		}
 	}
+	
+	/**
+	 * Saves the value of a connection and runs an action in it. The action is not run in connections where it has not started
+	 * yet when it has already failed in another connection. A session action uses the cached value of the connection instead
+	 * of reading it and it is skipped when the connection already has the value.
+	 */
+	private static final class ActionTask implements IConnectionTask {
+		private final IAction action;
+		private final ActionUnit info;
+		private final ConnectionUnit connection;
+		
+		private ActionTask(IAction action, ActionUnit info, ConnectionUnit connection) {
+			this.action = action;
+			this.info = info;
+			this.connection = connection;
+		}
+		
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+		
+		@Override
+		public void run() throws SQLException {
+			if (info.isFailed()) {
+				return;
+			}
+			
+			boolean session = action instanceof ISessionAction;
+			ProxyProperty property = action.getProperty();
+			
+			try {
+				Object value;
+				
+				if (session && connection.isSessionStateKnown(property)) {
+					value = connection.getSessionState(property);
+				} else {
+					value = action.getSaveValue(connection);
+					
+					if (session) {
+						connection.setSessionState(property, value);
+					}
+				}
+				
+				if (session && Objects.equals(value, action.getPropertyValue())) {
+					return;
+				}
+				
+				info.saveValue(connection, value);
+				action.runAction(connection);
+				
+				if (session) {
+					connection.setSessionState(property, action.getPropertyValue());
+				}
+			} catch (SQLException e) {
+				connection.forgetSessionState(property);
+				info.setFailed();
+				throw new ProxyException(action.getErrMessage(), e, connection);
+			}
+		}
+	}
+	
+	/**
+	 * Restores the saved value of a connection after a failed action
+	 */
+	private static final class RevertTask implements IConnectionTask {
+		private final IAction action;
+		private final ActionUnit info;
+		private final ConnectionUnit connection;
+		private final Object value;
+		
+		private RevertTask(IAction action, ActionUnit info, ConnectionUnit connection, Object value) {
+			this.action = action;
+			this.info = info;
+			this.connection = connection;
+			this.value = value;
+		}
+		
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+		
+		@Override
+		public void run() throws SQLException {
+			try {
+				action.runReverseAction(connection, value);
+				
+				if (action instanceof ISessionAction) {
+					connection.setSessionState(action.getProperty(), value);
+				}
+			} catch (SQLException e) {
+				connection.forgetSessionState(action.getProperty());
+				info.saveFailValue(connection, value);
+				String message = new StringBuilder("Unable to recover former value in connection ").append(connection.getName()).append('.').toString();
+				throw new ProxyException(message, e, connection);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a simple action in a connection
+	 */
+	private static final class SimpleActionTask implements IConnectionTask {
+		private final ISimpleAction action;
+		private final ConnectionUnit connection;
+		
+		private SimpleActionTask(ISimpleAction action, ConnectionUnit connection) {
+			this.action = action;
+			this.connection = connection;
+		}
+		
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+		
+		@Override
+		public void run() throws SQLException {
+			try {
+				action.runAction(connection);
+			} catch (SQLException e) {
+				String message = new StringBuilder("Unable to execute action in connection ").append(connection.getName()).append('.').toString();
+				throw new ProxyException(message, e, connection);
+			}
+		}
+	}
+	
+	/**
+	 * Checks a connection with the time that remains until the shared deadline
+	 */
+	private static final class ValidationTask implements IConnectionTask {
+		private final ConnectionUnit connection;
+		private final long deadline;
+		
+		private ValidationTask(ConnectionUnit connection, long deadline) {
+			this.connection = connection;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+		
+		@Override
+		public void run() throws SQLException {
+			int seconds = 0;
+			
+			if (deadline != Long.MAX_VALUE) {
+				long remaining = deadline - System.currentTimeMillis();
+				
+				if (remaining <= 0L) {
+					String message = new StringBuilder("Connection ").append(connection.getName()).append(" was not checked before the deadline.").toString();
+					throw new ProxyException(message, connection);
+				}
+				
+				seconds = (int) ((remaining + 999L) / 1000L);
+			}
+			
+			if (!connection.getConnection().isValid(seconds)) {
+				String message = new StringBuilder("Connection ").append(connection.getName()).append(" is not valid.").toString();
+				throw new ProxyException(message, connection);
+			}
+			
+			connection.markAlive();
+		}
+	}
 }
@@ -0,0 +1,248 @@
+package org.fit.proxy.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.exception.ProxyException;
+
+/**
+ * This class runs tasks of multiple connections concurrently on a bounded pool of threads. Threads are created lazily
+ * and they are released when they are idle for a while.
+ * @author Ondřej Marek
+ */
+public class ProxyExecutor {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+	private final static AtomicInteger threadCounter = new AtomicInteger();
+	private final static long KEEP_ALIVE_SECONDS = 60L;
+
+	private final int threads;
+	private ThreadPoolExecutor pool;
+	private ThreadPoolExecutor streamPool;
+	private boolean shutdown = false;
+
+	/**
+	 * Creates an executor
+	 * @param threads maximal number of threads
+	 */
+	public ProxyExecutor(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs all tasks and waits until all of them finish. Failure of a task does not stop other tasks.
+	 * When parallel is false or there is a single task only, tasks are run one after another in the calling thread.
+	 * @param tasks tasks to run
+	 * @param parallel whether to run tasks concurrently
+	 * @return failures of tasks in the order of tasks, empty when all tasks succeeded
+	 * @throws SQLException when the calling thread is interrupted
+	 */
+	public List<ProxyException> runAll(Collection<? extends IConnectionTask> tasks, boolean parallel) throws SQLException {
+		List<ProxyException> failures = new ArrayList<>();
+		ThreadPoolExecutor executor = (parallel && tasks.size() > 1) ? getPool() : null;
+
+		if (executor == null) {
+			for (IConnectionTask task : tasks) {
+				addFailure(failures, runTask(task));
+			}
+
+			return failures;
+		}
+
+		List<Future<ProxyException>> futures = new ArrayList<>(tasks.size());
+		Iterator<? extends IConnectionTask> iterator = tasks.iterator();
+		IConnectionTask own = null;
+
+		while (iterator.hasNext()) {
+			IConnectionTask task = iterator.next();
+
+			if (iterator.hasNext()) {
+				futures.add(executor.submit(new TaskCallable(task)));
+			} else {
+				own = task;
+			}
+		}
+
+		ProxyException ownFailure = runTask(own);
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				addFailure(failures, futures.get(i).get());
+			} catch (InterruptedException e) {
+				cancel(futures, true);
+				Thread.currentThread().interrupt();
+
+				throw new SQLException("Interrupted while waiting for tasks in connections.", e);
+			} catch (ExecutionException e) {
+				// tasks do not throw, failures are returned
+				log.log(Level.SEVERE, "Unexpected failure of connection task.", e);
+			}
+		}
+
+		addFailure(failures, ownFailure);
+
+		return failures;
+	}
+
+	/**
+	 * Runs all tasks concurrently and waits for them until a deadline. Tasks that do not finish in time are reported as failures.
+	 * A task that has not started yet is dropped, a running task is not interrupted, because an interrupted driver may close its connection.
+	 * Running tasks have to bound their own time (e.g. by the timeout of isValid), so that they do not occupy threads of the pool.
+	 * When the executor has been shut down, tasks are run one after another in the calling thread.
+	 * @param tasks tasks to run
+	 * @param deadline time in milliseconds when waiting for tasks ends
+	 * @return failures of tasks in the order of tasks, empty when all tasks succeeded
+	 * @throws SQLException when the calling thread is interrupted
+	 */
+	public List<ProxyException> runAllUntil(Collection<? extends IConnectionTask> tasks, long deadline) throws SQLException {
+		ThreadPoolExecutor executor = tasks.isEmpty() ? null : getPool();
+
+		if (executor == null) {
+			return runAll(tasks, false);
+		}
+
+		List<ProxyException> failures = new ArrayList<>();
+		List<Future<ProxyException>> futures = new ArrayList<>(tasks.size());
+
+		for (IConnectionTask task : tasks) {
+			futures.add(executor.submit(new TaskCallable(task)));
+		}
+
+		Iterator<? extends IConnectionTask> iterator = tasks.iterator();
+
+		for (Future<ProxyException> future : futures) {
+			ConnectionUnit connection = iterator.next().getConnection();
+
+			try {
+				addFailure(failures, future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				future.cancel(false);
+				String message = new StringBuilder("Task did not finish in time in connection ").append(connection.getName()).append('.').toString();
+
+				failures.add(new ProxyException(message, connection));
+			} catch (InterruptedException e) {
+				cancel(futures, false);
+				Thread.currentThread().interrupt();
+
+				throw new SQLException("Interrupted while waiting for tasks in connections.", e);
+			} catch (ExecutionException e) {
+				// tasks do not throw, failures are returned
+				log.log(Level.SEVERE, "Unexpected failure of connection task.", e);
+			}
+		}
+
+		return failures;
+	}
+
+	private static void addFailure(List<ProxyException> failures, ProxyException failure) {
+		if (failure != null) {
+			failures.add(failure);
+		}
+	}
+
+	private static void cancel(List<Future<ProxyException>> futures, boolean interrupt) {
+		for (Future<ProxyException> future : futures) {
+			future.cancel(interrupt);
+		}
+	}
+
+	private static ProxyException runTask(IConnectionTask task) {
+		ConnectionUnit connection = task.getConnection();
+
+		try {
+			task.run();
+			return null;
+		} catch (ProxyException e) {
+			return e;
+		} catch (SQLException | RuntimeException e) {
+			String message = new StringBuilder("Task failed in connection ").append(connection.getName()).append('.').toString();
+
+			return new ProxyException(message, e, connection);
+		}
+	}
+
+	private synchronized ThreadPoolExecutor getPool() {
+		if (shutdown) {
+			return null;
+		}
+
+		if (pool == null) {
+			pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+			pool.allowCoreThreadTimeOut(true);
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Starts a long running task that streams data to the calling thread. Streaming tasks may block until their data are consumed,
+	 * so they run on their own unbounded pool and never hold threads of connection tasks.
+	 * @param task task to start
+	 * @throws SQLException when the executor has been shut down
+	 */
+	public synchronized void stream(Runnable task) throws SQLException {
+		if (shutdown) {
+			throw new SQLException("Proxy executor has been shut down.");
+		}
+
+		if (streamPool == null) {
+			streamPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DaemonThreadFactory());
+		}
+
+		streamPool.execute(task);
+	}
+
+	/**
+	 * Stops all threads of the executor. Tasks that are run afterwards are run in the calling thread.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+
+		if (streamPool != null) {
+			streamPool.shutdown();
+			streamPool = null;
+		}
+	}
+
+	private static final class TaskCallable implements Callable<ProxyException> {
+		private final IConnectionTask task;
+
+		private TaskCallable(IConnectionTask task) {
+			this.task = task;
+		}
+
+		@Override
+		public ProxyException call() {
+			return runTask(task);
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "proxy-driver-worker-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
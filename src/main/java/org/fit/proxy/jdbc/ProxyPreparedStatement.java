@@ -0,0 +1,663 @@
+package org.fit.proxy.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ParameterSetter.Kind;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+
+/**
+ * @author Ondřej Marek
+ *
+ * Object ProxyPreparedStatement is used when someone calls prepareStatement() in proxy connection. Parameters are kept by the proxy
+ * and bound to the prepared statement of the routed connection when the statement is executed, batched rows are sent in chunks.
+ *
+ */
+public class ProxyPreparedStatement implements PreparedStatement {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private final ProxyPreparedStatementEngine engine;
+
+	public ProxyPreparedStatement(ProxyConnection pc, String sql) throws SQLException {
+		this(pc, sql, new PreparedStatementFactory());
+	}
+
+	public ProxyPreparedStatement(ProxyConnection pc, String sql, PreparedStatementFactory factory) throws SQLException {
+		this.engine = new ProxyPreparedStatementEngine(pc, factory, sql);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return engine.getStatement().unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return engine.getStatement().isWrapperFor(iface);
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		log.fine("Execute query in proxy prepared statement.");
+
+		ResultSet broadcast = engine.executeBroadcast(this);
+
+		if (broadcast != null) {
+			return broadcast;
+		}
+
+		ResultSet res = engine.prepare().executeQuery();
+		engine.markExecuted();
+
+		return res;
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		log.fine("Execute update in proxy prepared statement.");
+
+		if (engine.executeWrite() != null) {
+			return engine.getUpdateCount();
+		}
+
+		int res = engine.prepare().executeUpdate();
+		engine.markExecuted();
+
+		return res;
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		log.fine("Execute in proxy prepared statement.");
+
+		if (engine.executeBroadcast(this) != null) {
+			return true;
+		}
+
+		Boolean written = engine.executeWrite();
+
+		if (written != null) {
+			return written;
+		}
+
+		boolean res = engine.prepare().execute();
+		engine.markExecuted();
+
+		return res;
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		engine.addBatch();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		engine.clearBatch();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return engine.executeBatch();
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		engine.clearParameters();
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		engine.getParameters().setNull(parameterIndex, sqlType);
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		engine.getParameters().setBoolean(parameterIndex, x);
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		engine.getParameters().setByte(parameterIndex, x);
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		engine.getParameters().setShort(parameterIndex, x);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		engine.getParameters().setInt(parameterIndex, x);
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		engine.getParameters().setLong(parameterIndex, x);
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		engine.getParameters().setFloat(parameterIndex, x);
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		engine.getParameters().setDouble(parameterIndex, x);
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.BIG_DECIMAL, x);
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.STRING, x);
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.BYTES, x);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.DATE, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.TIME, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.TIMESTAMP, x);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		engine.getParameters().setObject(parameterIndex, ParameterBuffer.OBJECT, x);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.OBJECT_TYPE, x, targetSqlType));
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.OBJECT_TYPE_SCALE, x, scaleOrLength, targetSqlType));
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.ASCII_STREAM_INT, x, length));
+	}
+
+	@Override
+	@Deprecated
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.UNICODE_STREAM_INT, x, length));
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BINARY_STREAM_INT, x, length));
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CHARACTER_STREAM_INT, reader, length));
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.REF, x));
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BLOB, x));
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CLOB, x));
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.ARRAY, x));
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.DATE_CALENDAR, x, cal, 0L));
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.TIME_CALENDAR, x, cal, 0L));
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.TIMESTAMP_CALENDAR, x, cal, 0L));
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NULL_TYPE_NAME, null, typeName, sqlType));
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.URL, x));
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.ROW_ID, x));
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String value) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NSTRING, value));
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NCHARACTER_STREAM_LONG, value, length));
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob value) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NCLOB, value));
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CLOB_READER_LONG, reader, length));
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BLOB_STREAM_LONG, inputStream, length));
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NCLOB_READER_LONG, reader, length));
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.SQLXML, xmlObject));
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.ASCII_STREAM_LONG, x, length));
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BINARY_STREAM_LONG, x, length));
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CHARACTER_STREAM_LONG, reader, length));
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.ASCII_STREAM, x));
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BINARY_STREAM, x));
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CHARACTER_STREAM, reader));
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NCHARACTER_STREAM, value));
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.CLOB_READER, reader));
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.BLOB_STREAM, inputStream));
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+		engine.getParameters().setSetter(parameterIndex, new ParameterSetter(Kind.NCLOB_READER, reader));
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return engine.getStatement().getMetaData();
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return engine.getStatement().getParameterMetaData();
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		throw new SQLException("Method executeQuery(String) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		throw new SQLException("Method executeUpdate(String) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		throw new SQLException("Method execute(String) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		throw new SQLException("Method addBatch(String) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		throw new SQLException("Method executeUpdate(String, int) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		throw new SQLException("Method executeUpdate(String, int[]) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		throw new SQLException("Method executeUpdate(String, String[]) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		throw new SQLException("Method execute(String, int) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		throw new SQLException("Method execute(String, int[]) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		throw new SQLException("Method execute(String, String[]) cannot be called on prepared statement.");
+	}
+
+	@Override
+	public void close() throws SQLException {
+		log.fine("Closing proxy prepared statement.");
+
+		engine.close();
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.MAX_FIELD_SIZE) ? provider.getInt(ProxyProperty.MAX_FIELD_SIZE) : engine.getStatement().getMaxFieldSize();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setMaxFieldSize(max);
+		}
+
+		engine.getPropertiesHelper().setInt(ProxyProperty.MAX_FIELD_SIZE, max);
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.MAX_ROWS) ? provider.getInt(ProxyProperty.MAX_ROWS) : engine.getStatement().getMaxRows();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setMaxRows(max);
+		}
+
+		engine.getPropertiesHelper().setInt(ProxyProperty.MAX_ROWS, max);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setEscapeProcessing(enable);
+		}
+
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.ESCAPE_PROCESSING, enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.QUERY_TIMEOUT) ? provider.getInt(ProxyProperty.QUERY_TIMEOUT) : engine.getStatement().getQueryTimeout();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setQueryTimeout(seconds);
+		}
+
+		engine.getPropertiesHelper().setInt(ProxyProperty.QUERY_TIMEOUT, seconds);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		log.info("Cancelling proxy prepared statement.");
+
+		try {
+			engine.getStatement().cancel();
+		} catch (SQLException e) {
+			log.log(Level.SEVERE, "Unable to cancel proxy prepared statement.", e);
+			throw e;
+		}
+
+		log.info("Proxy prepared statement canceled successfully.");
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return engine.getStatement().getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		log.fine("Clearing warnings");
+
+		engine.getStatement().clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		log.fine("Setting cursor name to val = " + name);
+
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setCursorName(name);
+		}
+
+		engine.getPropertiesHelper().setObject(ProxyProperty.CURSOR_NAME, name);
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		ResultSet broadcast = engine.getBroadcastResult();
+
+		if (broadcast != null) {
+			return broadcast.isClosed() ? null : broadcast;
+		}
+
+		return engine.getStatement().getResultSet();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return engine.getUpdateCount();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		ResultSet broadcast = engine.getBroadcastResult();
+
+		if (broadcast != null) {
+			broadcast.close();
+			return false;
+		}
+
+		return engine.getStatement().getMoreResults();
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		log.fine("Setting fetch direction = " + direction);
+
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setFetchDirection(direction);
+		}
+
+		engine.getPropertiesHelper().setInt(ProxyProperty.FETCH_DIR, direction);
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.FETCH_DIR) ? provider.getInt(ProxyProperty.FETCH_DIR) : engine.getStatement().getFetchDirection();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		log.fine("Setting fetch size = " + rows);
+
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setFetchSize(rows);
+		}
+
+		engine.getPropertiesHelper().setInt(ProxyProperty.FETCH_SIZE, rows);
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.FETCH_SIZE) ? provider.getInt(ProxyProperty.FETCH_SIZE) : engine.getStatement().getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return engine.getStatement().getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return engine.getStatement().getResultSetType();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return engine.getConnection();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return engine.getStatement().getMoreResults(current);
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return engine.getStatement().getGeneratedKeys();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return engine.getStatement().getResultSetHoldability();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return engine.isStatementClosed();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.setPoolable(poolable);
+		}
+
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.POOLABLE, poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.POOLABLE) ? provider.getBoolean(ProxyProperty.POOLABLE) : engine.getStatement().isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		for (PreparedStatement statement : engine.getCreatedStatements()) {
+			statement.closeOnCompletion();
+		}
+
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.CLOSE_ON_COMPLETION, true);
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+
+		return provider.isPropertySet(ProxyProperty.CLOSE_ON_COMPLETION) ? provider.getBoolean(ProxyProperty.CLOSE_ON_COMPLETION) : engine.getStatement().isCloseOnCompletion();
+	}
+}
@@ -0,0 +1,1138 @@
+package org.fit.proxy.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.fit.proxy.jdbc.distributed.DistributedQuery;
+import org.fit.proxy.jdbc.distributed.IShardQuery;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+import org.fit.proxy.jdbc.replication.JournalEntry;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.sharding.KeyRestriction;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+
+/**
+ * This class is used by proxy prepared statement as its engine. It keeps bound parameters in a parameter buffer and binds them
+ * to the prepared statement of the routed connection when the statement is executed.
+ * When the sql statement belongs to a sharded table, the shard is chosen on execution from the bound values of its shard key
+ * and prepared statements are cached per shard. An update or delete whose bound values span more shards is executed in all of them
+ * when the shard rule allows broadcasting, a statement that spans shards otherwise is refused. A broadcast query is executed in all its connections and their rows are merged,
+ * when its shard key is restricted by parameters (key IN (?, ?)), it is executed only in the shards that hold the bound values.
+ * A write of a replicated table is executed (and batched) in all replicas of its group concurrently and the replicas have to report
+ * the same update counts as the primary. A write of an asynchronous group is executed only in the primary and its rows are journaled
+ * for the other replicas.
+ * Batched rows are sent to database in chunks of configured size. A chunk of a single row insert may be sent as one multi row insert,
+ * otherwise it is sent as a JDBC batch which runs in a single transaction when the connection is in auto-commit mode.
+ * @author Ondřej Marek
+ */
+public class ProxyPreparedStatementEngine implements IConnectionEnsure {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private final ProxyConnection proxyConnection;
+	private final PreparedStatementFactory statementFactory;
+	private final String sql;
+	private final ParameterBuffer parameters;
+	private final ProxyProperiesHelper propertiesHelper = new ProxyProperiesHelper(this);
+
+	/**
+	 * Shard rule of the statement, null when the connection is chosen by sql
+	 */
+	private final ShardRule shardRule;
+
+	/**
+	 * Values of shard key that choose the shard on execution, null when the statement is executed in all shards
+	 */
+	private final KeyRestriction shardKeys;
+
+	/**
+	 * Whether a statement of shard rule may be executed in more shards
+	 */
+	private final boolean spread;
+
+	/**
+	 * Statements of connections, indexed by shard (a single one when the query is not sharded)
+	 */
+	private final StatementTarget[] targets;
+
+	/**
+	 * Whether the query is executed in all targets
+	 */
+	private final boolean broadcast;
+
+	/**
+	 * Whether the statement is a write that is executed in all targets, the primary is the first one
+	 */
+	private final boolean replicated;
+
+	/**
+	 * Replica group of replicated write, null when the statement is not replicated
+	 */
+	private final ReplicaGroup replicaGroup;
+
+	/**
+	 * Replica group of a query that is answered by replicas, its targets are the replicas of the group. Null when the query goes to one connection.
+	 */
+	private final ReplicaGroup readGroup;
+
+	/**
+	 * Shard rule of broadcast query, null when it does not belong to any sharded table
+	 */
+	private final ShardRule broadcastRule;
+
+	/**
+	 * Values of shard key that are bound on execution, null when the broadcast query is not restricted by parameters
+	 */
+	private final KeyRestriction pruningKeys;
+
+	/**
+	 * Analysis of broadcast query, its statements are prepared with rewritten sql
+	 */
+	private final DistributedQuery distributedQuery;
+
+	/**
+	 * Result set of the last execution of broadcast query
+	 */
+	private ResultSet broadcastResult;
+
+	/**
+	 * Target of the last execution
+	 */
+	private StatementTarget current;
+
+	/**
+	 * Total update count of the last write executed in more shards, -1 when the write went to a single connection
+	 */
+	private int writeCount = -1;
+
+	/**
+	 * Position of the values tuple in sql of a single row insert, null when the query cannot be sent as multi row insert
+	 */
+	private final int[] insertValues;
+
+	/**
+	 * Update counts of chunks that have been already sent in current batch
+	 */
+	private int[] counts = new int[16];
+	private int countSize = 0;
+	private boolean closed = false;
+
+	public ProxyPreparedStatementEngine(ProxyConnection connection, PreparedStatementFactory statementFactory, String sql) throws SQLException {
+		this.proxyConnection = connection;
+		this.statementFactory = statementFactory;
+		this.sql = sql;
+
+		int parameterCount = ProxyTools.countParameters(sql);
+		this.parameters = new ParameterBuffer(parameterCount);
+		this.insertValues = findMultiRowInsert(sql, parameterCount);
+
+		ShardRule rule = connection.getShardRule(sql);
+		boolean routed = rule != null && ShardRule.isRoutedByKey(sql);
+		boolean query = ProxyTools.isQuery(sql);
+		KeyRestriction keys = routed ? rule.findKeys(sql) : null;
+		this.spread = rule != null && (rule.isBroadcast() || ProxyTools.hasHint(sql, Switcher.BROADCAST_HINT));
+
+		//writes choose their shards from bound values, a query is routed by sql unless its shard key is bound by parameters,
+		//a query restricted to more parameters is broadcast and pruned on execution when it may spread over shards
+		boolean keyed = routed && (!query || (keys != null && keys.hasParameters() && (keys.size() == 1 || !spread)));
+
+		if (keyed) {
+			rule.checkWrite(sql, keys);
+		}
+
+		List<ConnectionUnit> broadcastConnections = keyed ? null : connection.getBroadcastConnections(sql);
+		this.replicaGroup = keyed ? null : connection.getReplicaWriteGroup(sql);
+		List<ConnectionUnit> replicas = (replicaGroup == null) ? null : replicaGroup.getWriteConnections();
+		this.readGroup = (keyed || broadcastConnections != null) ? null : connection.getReplicaReadGroup(sql);
+
+		this.broadcast = broadcastConnections != null;
+		this.replicated = replicas != null;
+		this.broadcastRule = broadcast ? rule : null;
+		this.pruningKeys = (broadcast && rule != null && keys != null && keys.hasParameters()) ? keys : null;
+		this.distributedQuery = broadcast ? DistributedQuery.parse(sql) : null;
+
+		if (keyed) {
+			this.shardRule = rule;
+			this.shardKeys = keys;
+			this.targets = new StatementTarget[rule.getShardCount()];
+		} else if (broadcast) {
+			this.shardRule = null;
+			this.shardKeys = null;
+			this.targets = new StatementTarget[broadcastConnections.size()];
+
+			for (int i = 0; i < targets.length; i++) {
+				targets[i] = new StatementTarget(broadcastConnections.get(i), i);
+			}
+
+			this.current = targets[0];
+		} else if (replicated) {
+			this.shardRule = null;
+			this.shardKeys = null;
+			this.targets = new StatementTarget[replicas.size()];
+
+			for (int i = 0; i < targets.length; i++) {
+				targets[i] = new StatementTarget(replicas.get(i), i);
+			}
+
+			this.current = targets[0];
+			current.getStatement();
+		} else if (readGroup != null) {
+			this.shardRule = null;
+			this.shardKeys = null;
+			this.targets = new StatementTarget[readGroup.getConnections().size()];
+
+			for (int i = 0; i < targets.length; i++) {
+				targets[i] = new StatementTarget(readGroup.getConnections().get(i), i);
+			}
+
+			this.current = routeRead();
+			current.getStatement();
+		} else {
+			this.shardRule = null;
+			this.shardKeys = null;
+			this.targets = new StatementTarget[] {new StatementTarget(connection.getConnectionBySql(sql), 0)};
+			this.current = targets[0];
+
+			current.getStatement();
+		}
+	}
+
+	private int[] findMultiRowInsert(String sql, int parameterCount) {
+		if (!proxyConnection.getSettings().isMultiRowInsert() || statementFactory.isGeneratedKeysRequested()) {
+			return null;
+		}
+
+		int[] values = ProxyTools.findInsertValues(sql);
+
+		if (values == null || ProxyTools.countParameters(sql.substring(values[0], values[1])) != parameterCount) {
+			return null;
+		}
+
+		return values;
+	}
+
+	@Override
+	public void ensureConnectionIsAlive() throws SQLException {
+		if (isClosed()) {
+			throw new SQLException("Proxy prepared statement is already closed!");
+		}
+	}
+
+	private boolean isClosed() {
+		try {
+			return closed || proxyConnection.isClosed() || isStatementClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	public boolean isStatementClosed() throws SQLException {
+		return closed || (current != null && current.statement != null && current.statement.isClosed());
+	}
+
+	/**
+	 * Returns prepared statement of the last execution. When the statement has not been executed yet, statement of the first shard is returned.
+	 * @return prepared statement
+	 * @throws SQLException when the statement is closed
+	 */
+	public PreparedStatement getStatement() throws SQLException {
+		ensureConnectionIsAlive();
+
+		if (current == null) {
+			current = getTarget(0);
+		}
+
+		return current.getStatement();
+	}
+
+	/**
+	 * Returns prepared statements that have been already created. Statements created later take properties from properties helper.
+	 * @return created prepared statements
+	 * @throws SQLException when the statement is closed
+	 */
+	public List<PreparedStatement> getCreatedStatements() throws SQLException {
+		ensureConnectionIsAlive();
+
+		List<PreparedStatement> res = new ArrayList<>(targets.length);
+
+		for (StatementTarget target : targets) {
+			if (target != null && target.statement != null) {
+				res.add(target.statement);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Chooses the connection and binds current parameters to its prepared statement
+	 * @return prepared statement ready to execute
+	 * @throws SQLException when the statement is closed, shard key is missing or the statement refuses a parameter
+	 */
+	public PreparedStatement prepare() throws SQLException {
+		ensureConnectionIsAlive();
+
+		StatementTarget target = route(parameters.getRows());
+		PreparedStatement statement = target.touch();
+		writeCount = -1;
+
+		if (shardRule != null) {
+			shardRule.recordFanOut(1);
+		}
+
+		parameters.applyCurrent(statement);
+		current = target;
+
+		return statement;
+	}
+
+	/**
+	 * Records that the statement returned by the last prepare was executed, so its database is reachable
+	 */
+	public void markExecuted() {
+		if (current != null) {
+			current.unit.markAlive();
+		}
+	}
+
+	/**
+	 * Binds current parameters to prepared statements of all connections of broadcast query and executes them concurrently.
+	 * When the shard key is restricted by parameters, only the shards that hold the bound values are queried.
+	 * @param owner proxy prepared statement
+	 * @return result set that merges rows of all connections or null when the query is not a broadcast query
+	 * @throws SQLException when the statement is closed, a statement refuses a parameter or a parameter of shard key is not set
+	 */
+	public ResultSet executeBroadcast(PreparedStatement owner) throws SQLException {
+		ensureConnectionIsAlive();
+
+		if (!broadcast) {
+			return null;
+		}
+
+		closeBroadcastResult();
+		boolean[] shards = (pruningKeys == null) ? null : pruningKeys.getShards(broadcastRule, parameters);
+		List<IShardQuery> queries = new ArrayList<>(targets.length);
+
+		for (StatementTarget target : targets) {
+			if (shards == null || shards[target.shard]) {
+				parameters.applyCurrent(target.touch());
+				queries.add(new BroadcastQuery(target));
+			}
+		}
+
+		if (queries.isEmpty()) {
+			//no row matches, a single shard answers the query
+			parameters.applyCurrent(targets[0].touch());
+			queries.add(new BroadcastQuery(targets[0]));
+		}
+
+		if (broadcastRule != null) {
+			broadcastRule.recordFanOut(queries.size());
+		}
+
+		broadcastResult = distributedQuery.execute(owner, queries, proxyConnection.getExecutor(), proxyConnection.getSettings(), parameters);
+
+		return broadcastResult;
+	}
+
+	/**
+	 * Executes a write that goes to more connections: an update or delete whose bound values of shard key span more shards,
+	 * or a write of a replicated table.
+	 * @return result of execution in the first connection or null when the write goes to a single connection
+	 * @throws SQLException when the statement is closed, the write spans shards of a rule that does not allow broadcasting
+	 * or it fails in a connection
+	 */
+	public Boolean executeWrite() throws SQLException {
+		ensureConnectionIsAlive();
+
+		Boolean res = executeShardWrite();
+		return (res != null) ? res : executeReplicated();
+	}
+
+	/**
+	 * Executes an update or delete in all shards that hold its bound values of shard key, update counts of the shards are summed
+	 * @return result of execution in the first shard or null when the write goes to a single shard
+	 */
+	private Boolean executeShardWrite() throws SQLException {
+		if (shardRule == null || !(ProxyTools.isStatement(sql, "UPDATE") || ProxyTools.isStatement(sql, "DELETE"))) {
+			return null;
+		}
+
+		boolean[] shards = (shardKeys == null) ? null : shardKeys.getShards(shardRule, parameters);
+		List<StatementTarget> chosen = new ArrayList<>(targets.length);
+
+		for (int i = 0; i < targets.length; i++) {
+			if (shards == null || shards[i]) {
+				chosen.add(getTarget(i));
+			}
+		}
+
+		if (chosen.size() <= 1) {
+			return null;
+		}
+
+		if (!spread) {
+			throw shardRule.createSpanException(sql, chosen.size());
+		}
+
+		List<ReplicaWrite> writes = new ArrayList<>(chosen.size());
+
+		for (StatementTarget target : chosen) {
+			parameters.applyCurrent(target.touch());
+			writes.add(new ReplicaWrite(target));
+		}
+
+		shardRule.recordFanOut(writes.size());
+		runWrites(writes, "Unable to execute prepared statement in its shards: ");
+
+		int total = 0;
+
+		for (ReplicaWrite write : writes) {
+			total += Math.max(write.updateCount, 0);
+		}
+
+		writeCount = total;
+
+		return writes.get(0).result;
+	}
+
+	/**
+	 * Binds current parameters to prepared statements of all replicas of a replicated write and executes them concurrently.
+	 * The primary becomes the current statement, update count and generated keys are read from it.
+	 * A write of an asynchronous group is journaled when the primary executes it.
+	 * @return result of execution in the primary or null when the statement is not a replicated write
+	 * @throws SQLException when the statement is closed, the write fails in a replica or replicas report different update counts
+	 */
+	private Boolean executeReplicated() throws SQLException {
+		if (!replicated) {
+			return null;
+		}
+
+		byte[] entry = replicaGroup.isAsync() ? JournalEntry.encode(sql, parameters, new int[] {parameters.getRows()}) : null;
+		List<ReplicaWrite> writes = new ArrayList<>(targets.length);
+
+		for (StatementTarget target : targets) {
+			parameters.applyCurrent(target.touch());
+			writes.add(new ReplicaWrite(target));
+		}
+
+		runWrites(writes, "Unable to execute replicated prepared statement: ");
+
+		int[][] counts = new int[writes.size()][];
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new int[] {writes.get(i).updateCount};
+		}
+
+		ReplicaGroup.checkUpdateCounts(sql, getReplicas(), counts);
+
+		if (entry != null) {
+			proxyConnection.recordAsyncWrites(replicaGroup, Collections.singletonList(entry));
+		}
+
+		return writes.get(0).result;
+	}
+
+	/**
+	 * Executes bound writes concurrently, the first one becomes the current statement
+	 */
+	private void runWrites(List<ReplicaWrite> writes, String errorMessage) throws SQLException {
+		current = writes.get(0).target;
+		writeCount = -1;
+		List<ProxyException> failures = proxyConnection.getExecutor().runAll(writes, true);
+
+		if (!failures.isEmpty()) {
+			SQLException toThrow = new SQLException(new StringBuilder(errorMessage).append(sql).toString());
+
+			for (ProxyException failure : failures) {
+				toThrow.setNextException(failure);
+			}
+
+			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+			throw toThrow;
+		}
+	}
+
+	/**
+	 * Returns update count of the last execution, a write executed in more shards reports the sum of their update counts
+	 * @return update count or -1 when the last execution returned result set
+	 * @throws SQLException when the statement is closed
+	 */
+	public int getUpdateCount() throws SQLException {
+		if (broadcastResult != null) {
+			return -1;
+		}
+
+		return (writeCount >= 0) ? writeCount : getStatement().getUpdateCount();
+	}
+
+	private List<ConnectionUnit> getReplicas() {
+		List<ConnectionUnit> res = new ArrayList<>(targets.length);
+
+		for (StatementTarget target : targets) {
+			res.add(target.unit);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Returns result set of the last execution when the query is a broadcast query
+	 * @return result set or null
+	 */
+	public ResultSet getBroadcastResult() {
+		return broadcastResult;
+	}
+
+	private void closeBroadcastResult() {
+		if (broadcastResult == null) {
+			return;
+		}
+
+		try {
+			broadcastResult.close();
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem closing result set of broadcast query", e);
+		}
+
+		broadcastResult = null;
+	}
+
+	/**
+	 * Returns target of a row of parameters
+	 */
+	private StatementTarget route(int row) throws SQLException {
+		if (readGroup != null) {
+			return routeRead();
+		}
+
+		if (shardRule == null) {
+			return targets[0];
+		}
+
+		boolean[] shards = (shardKeys == null) ? null : shardKeys.getShards(shardRule, parameters, row);
+		int shard = 0;
+		int count = 0;
+
+		for (int i = 0; i < targets.length; i++) {
+			if (shards == null || shards[i]) {
+				shard = i;
+				count++;
+			}
+		}
+
+		if (count > 1) {
+			throw shardRule.createSpanException(sql, count);
+		}
+
+		if (count == 0 && ProxyTools.isStatement(sql, "INSERT")) {
+			throw new SQLException(new StringBuilder("Shard key of row inserted by prepared statement of shard rule ").append(shardRule.getName()).append(" is null.").toString());
+		}
+
+		//no row matches a null key, a single shard answers
+		return (count == 0) ? getTarget(0) : getTarget(shard);
+	}
+
+	/**
+	 * Returns target of the replica that answers the next execution of the query
+	 */
+	private StatementTarget routeRead() {
+		return targets[readGroup.getConnections().indexOf(proxyConnection.getReplicaReader(readGroup))];
+	}
+
+	private StatementTarget getTarget(int shard) {
+		StatementTarget res = targets[shard];
+
+		if (res == null) {
+			res = new StatementTarget(shardRule.getConnection(shard), shard);
+			targets[shard] = res;
+		}
+
+		return res;
+	}
+
+	public ParameterBuffer getParameters() throws SQLException {
+		ensureConnectionIsAlive();
+		return parameters;
+	}
+
+	public ProxyProperiesHelper getPropertiesHelper() throws SQLException {
+		ensureConnectionIsAlive();
+		return propertiesHelper;
+	}
+
+	public ProxyConnection getConnection() throws SQLException {
+		ensureConnectionIsAlive();
+		return proxyConnection;
+	}
+
+	public void clearParameters() throws SQLException {
+		ensureConnectionIsAlive();
+
+		parameters.clearParameters();
+
+		for (StatementTarget target : targets) {
+			if (target != null && target.statement != null) {
+				target.statement.clearParameters();
+			}
+		}
+	}
+
+	/**
+	 * Adds current parameters to batch. When the batch reaches configured size, it is sent to database.
+	 * Rows that have been sent cannot be removed by {@link #clearBatch()}, in auto-commit mode they are already committed.
+	 * @throws SQLException when the full batch cannot be executed
+	 */
+	public void addBatch() throws SQLException {
+		ensureConnectionIsAlive();
+		parameters.addRow();
+
+		if (parameters.getRows() >= proxyConnection.getSettings().getBatchSize()) {
+			try {
+				flush();
+			} catch (SQLException e) {
+				resetCounts();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Removes rows that have not been sent to database yet. Chunks that were sent when the batch reached configured size stay executed.
+	 * @throws SQLException when the statement is closed
+	 */
+	public void clearBatch() throws SQLException {
+		ensureConnectionIsAlive();
+
+		if (countSize > 0) {
+			log.log(Level.WARNING, new StringBuilder("Clearing batch of prepared statement, ").append(countSize).append(" rows were already sent to database and stay executed.").toString());
+		}
+
+		parameters.clearRows();
+		resetCounts();
+	}
+
+	/**
+	 * Sends rows that remain in batch to database and returns update counts of the whole batch
+	 * @return update counts
+	 * @throws SQLException when a chunk of batch cannot be executed
+	 */
+	public int[] executeBatch() throws SQLException {
+		ensureConnectionIsAlive();
+
+		try {
+			flush();
+			return Arrays.copyOf(counts, countSize);
+		} finally {
+			resetCounts();
+		}
+	}
+
+	private void resetCounts() {
+		countSize = 0;
+
+		if (counts.length > 1024) {
+			counts = new int[16];
+		}
+	}
+
+	private void appendCounts(int[] chunk) {
+		if (countSize + chunk.length > counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(countSize + chunk.length, counts.length * 2));
+		}
+
+		System.arraycopy(chunk, 0, counts, countSize, chunk.length);
+		countSize += chunk.length;
+	}
+
+	/**
+	 * Sends batched rows to database. Rows are grouped by their targets, groups of different connections may be sent concurrently.
+	 */
+	private void flush() throws SQLException {
+		int rows = parameters.getRows();
+
+		if (rows == 0) {
+			return;
+		}
+
+		int[] res = new int[rows];
+		Arrays.fill(res, Statement.EXECUTE_FAILED);
+
+		//every replica gets all rows, so it needs its own update counts
+		int[][] replicaCounts = replicated ? new int[targets.length][] : null;
+		List<ProxyException> failures;
+		byte[] entry;
+
+		try {
+			//rows are encoded before execution, so a parameter that cannot be journaled is refused before the primary executes it
+			entry = (replicated && replicaGroup.isAsync()) ? JournalEntry.encode(sql, parameters, allRows(rows)) : null;
+			List<FlushTask> tasks = new ArrayList<>();
+
+			for (RowGroup group : groupRows(rows)) {
+				int[] groupCounts = res;
+
+				if (replicated) {
+					groupCounts = new int[rows];
+					Arrays.fill(groupCounts, Statement.EXECUTE_FAILED);
+					replicaCounts[group.target.shard] = groupCounts;
+				}
+
+				tasks.add(new FlushTask(group, groupCounts));
+			}
+
+			failures = proxyConnection.getExecutor().runAll(tasks, replicated || proxyConnection.getSettings().isParallelBatch());
+
+			if (entry != null && !failures.isEmpty()) {
+				entry = encodeExecuted(replicaCounts[0]);
+			}
+		} finally {
+			parameters.clearRows();
+		}
+
+		if (replicated) {
+			System.arraycopy(replicaCounts[0], 0, res, 0, rows);
+		}
+
+		appendCounts(res);
+
+		if (entry != null) {
+			proxyConnection.recordAsyncWrites(replicaGroup, Collections.singletonList(entry));
+		}
+
+		if (!failures.isEmpty()) {
+			BatchUpdateException toThrow = new BatchUpdateException("Unable to execute batch of proxy prepared statement.", Arrays.copyOf(counts, countSize));
+
+			for (ProxyException failure : failures) {
+				toThrow.setNextException(failure);
+			}
+
+			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+			throw toThrow;
+		}
+
+		if (replicated) {
+			ReplicaGroup.checkUpdateCounts(sql, getReplicas(), replicaCounts);
+		}
+	}
+
+	private static int[] allRows(int rows) {
+		int[] res = new int[rows];
+
+		for (int row = 0; row < rows; row++) {
+			res[row] = row;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Encodes batched rows that the primary executed before its batch failed
+	 * @return encoded rows or null when no row was executed
+	 */
+	private byte[] encodeExecuted(int[] primaryCounts) throws SQLException {
+		int[] executed = new int[primaryCounts.length];
+		int size = 0;
+
+		for (int row = 0; row < primaryCounts.length; row++) {
+			if (primaryCounts[row] != Statement.EXECUTE_FAILED) {
+				executed[size++] = row;
+			}
+		}
+
+		return (size == 0) ? null : JournalEntry.encode(sql, parameters, Arrays.copyOf(executed, size));
+	}
+
+	private List<RowGroup> groupRows(int rows) throws SQLException {
+		List<RowGroup> res = new ArrayList<>();
+
+		if (replicated) {
+			for (StatementTarget target : targets) {
+				RowGroup group = new RowGroup(target, rows);
+
+				for (int row = 0; row < rows; row++) {
+					group.add(row);
+				}
+
+				res.add(group);
+			}
+		} else if (shardRule == null) {
+			RowGroup group = new RowGroup(targets[0], rows);
+
+			for (int row = 0; row < rows; row++) {
+				group.add(row);
+			}
+
+			res.add(group);
+		} else {
+			RowGroup[] groups = new RowGroup[targets.length];
+
+			for (int row = 0; row < rows; row++) {
+				StatementTarget target = route(row);
+				RowGroup group = groups[target.shard];
+
+				if (group == null) {
+					group = new RowGroup(target, 16);
+					groups[target.shard] = group;
+					res.add(group);
+				}
+
+				group.add(row);
+			}
+		}
+
+		for (RowGroup group : res) {
+			group.target.touch();
+		}
+
+		return res;
+	}
+
+	/**
+	 * Sends rows of a single connection and writes update counts to their positions in batch
+	 */
+	private final class FlushTask implements IConnectionTask {
+		private final RowGroup group;
+		private final int[] res;
+
+		private FlushTask(RowGroup group, int[] res) {
+			this.group = group;
+			this.res = res;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return group.target.unit;
+		}
+
+		@Override
+		public void run() throws SQLException {
+			try {
+				int[] chunk = (insertValues != null && group.size > 1) ? executeMultiRow(group) : executeJdbcBatch(group);
+				group.target.unit.markAlive();
+				scatter(chunk);
+			} catch (BatchUpdateException e) {
+				scatter(e.getUpdateCounts());
+				throw wrap(e);
+			} catch (SQLException e) {
+				throw wrap(e);
+			}
+		}
+
+		private void scatter(int[] chunk) {
+			if (chunk == null) {
+				return;
+			}
+
+			for (int i = 0; i < chunk.length && i < group.size; i++) {
+				res[group.rows[i]] = chunk[i];
+			}
+		}
+
+		private ProxyException wrap(SQLException e) {
+			ConnectionUnit unit = group.target.unit;
+			String message = new StringBuilder("Unable to execute batch of prepared statement in connection ").append(unit.getName()).append('.').toString();
+
+			return new ProxyException(message, e, unit);
+		}
+	}
+
+	/**
+	 * Sends rows as JDBC batch. When the connection is in auto-commit mode, the whole chunk is committed at once.
+	 * Auto-commit is read and switched through the session state of the connection, so cached session attributes stay correct.
+	 */
+	private int[] executeJdbcBatch(RowGroup group) throws SQLException {
+		PreparedStatement statement = group.target.getStatement();
+
+		for (int i = 0; i < group.size; i++) {
+			parameters.apply(statement, group.rows[i], 0);
+			statement.addBatch();
+		}
+
+		ConnectionUnit unit = group.target.unit;
+		Connection target = unit.getConnection();
+		boolean autoCommit = group.size > 1 && isAutoCommit(unit);
+
+		if (!autoCommit) {
+			return statement.executeBatch();
+		}
+
+		setAutoCommit(unit, false);
+
+		try {
+			int[] res = statement.executeBatch();
+			target.commit();
+
+			return res;
+		} catch (SQLException e) {
+			try {
+				target.rollback();
+			} catch (SQLException ex) {
+				e.setNextException(ex);
+			}
+
+			statement.clearBatch();
+			throw new BatchUpdateException("Batch was rolled back.", new int[0], e);
+		} finally {
+			setAutoCommit(unit, true);
+		}
+	}
+
+	private static boolean isAutoCommit(ConnectionUnit unit) throws SQLException {
+		Object known = unit.getSessionState(ProxyProperty.AUTO_COMMIT);
+
+		if (known != null) {
+			return (Boolean) known;
+		}
+
+		boolean res = unit.getConnection().getAutoCommit();
+		unit.setSessionState(ProxyProperty.AUTO_COMMIT, res);
+
+		return res;
+	}
+
+	private static void setAutoCommit(ConnectionUnit unit, boolean autoCommit) throws SQLException {
+		try {
+			unit.getConnection().setAutoCommit(autoCommit);
+			unit.setSessionState(ProxyProperty.AUTO_COMMIT, autoCommit);
+		} catch (SQLException e) {
+			unit.forgetSessionState(ProxyProperty.AUTO_COMMIT);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends rows as one multi row insert
+	 */
+	private int[] executeMultiRow(RowGroup group) throws SQLException {
+		StatementTarget owner = group.target;
+		int rows = group.size;
+		boolean cached = owner.multiRowStatement != null && owner.multiRowCount == rows;
+		PreparedStatement target = cached ? owner.multiRowStatement : statementFactory.createStatement(owner.unit, getMultiRowSql(rows));
+
+		propertiesHelper.applyStatementProperties(target);
+
+		try {
+			int width = parameters.getWidth();
+
+			for (int i = 0; i < rows; i++) {
+				parameters.apply(target, group.rows[i], i * width);
+			}
+
+			int total = target.executeUpdate();
+			int[] res = new int[rows];
+			Arrays.fill(res, (total == rows) ? 1 : Statement.SUCCESS_NO_INFO);
+
+			return res;
+		} finally {
+			if (!cached) {
+				owner.cacheMultiRow(target, rows);
+			}
+		}
+	}
+
+	private String getMultiRowSql(int rows) {
+		String tuple = sql.substring(insertValues[0], insertValues[1]);
+		StringBuilder sb = new StringBuilder(sql.length() + (tuple.length() + 2) * rows);
+
+		sb.append(sql, 0, insertValues[1]);
+
+		for (int i = 1; i < rows; i++) {
+			sb.append(", ").append(tuple);
+		}
+
+		sb.append(sql, insertValues[1], sql.length());
+
+		return sb.toString();
+	}
+
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		closeBroadcastResult();
+		parameters.clearRows();
+		parameters.clearParameters();
+		resetCounts();
+
+		for (StatementTarget target : targets) {
+			if (target != null) {
+				target.close();
+			}
+		}
+	}
+
+	/**
+	 * Prepared statements of a single connection. Statements are created when they are needed for the first time.
+	 */
+	private final class StatementTarget {
+		private final ConnectionUnit unit;
+		private final int shard;
+		private PreparedStatement statement;
+
+		/**
+		 * Multi row insert of the most common chunk size
+		 */
+		private PreparedStatement multiRowStatement;
+		private int multiRowCount;
+
+		private StatementTarget(ConnectionUnit unit, int shard) {
+			this.unit = unit;
+			this.shard = shard;
+		}
+
+		private PreparedStatement getStatement() throws SQLException {
+			if (statement == null) {
+				statement = statementFactory.createStatement(unit, (distributedQuery == null) ? sql : distributedQuery.getShardSql());
+
+				try {
+					propertiesHelper.applyStatementProperties(statement);
+				} catch (SQLException e) {
+					throw new SQLException("An error occured when reflecting proxy statement properties to new statement." +
+						"Statement will work but it does not have to have the same behavior.", e);
+				}
+			}
+
+			return statement;
+		}
+
+		/**
+		 * Returns prepared statement that is going to be executed, its connection joins the current transaction
+		 */
+		private PreparedStatement touch() throws SQLException {
+			proxyConnection.markTouched(unit);
+			return getStatement();
+		}
+
+		/**
+		 * Keeps multi row statement of a full chunk for next time, other statements are closed
+		 */
+		private void cacheMultiRow(PreparedStatement multiRow, int rows) throws SQLException {
+			if (rows == proxyConnection.getSettings().getBatchSize() || multiRowStatement == null) {
+				if (multiRowStatement != null) {
+					multiRowStatement.close();
+				}
+
+				multiRowStatement = multiRow;
+				multiRowCount = rows;
+			} else {
+				multiRow.close();
+			}
+		}
+
+		private void close() {
+			try {
+				if (multiRowStatement != null) {
+					multiRowStatement.close();
+				}
+			} catch (SQLException e) {
+				log.log(Level.WARNING, "Problem closing multi row statement", e);
+			}
+
+			try {
+				if (statement != null) {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				log.log(Level.WARNING, "Problem closing prepared statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Replicated write of prepared statement in a single replica, parameters are already bound
+	 */
+	private static final class ReplicaWrite implements IConnectionTask {
+		private final StatementTarget target;
+		private boolean result;
+		private int updateCount;
+
+		private ReplicaWrite(StatementTarget target) {
+			this.target = target;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return target.unit;
+		}
+
+		@Override
+		public void run() throws SQLException {
+			result = target.statement.execute();
+			updateCount = target.statement.getUpdateCount();
+			target.unit.markAlive();
+		}
+	}
+
+	/**
+	 * Query of broadcast prepared statement in a single connection. The statement stays cached in its target when the query ends.
+	 */
+	private static final class BroadcastQuery implements IShardQuery {
+		private final StatementTarget target;
+
+		private BroadcastQuery(StatementTarget target) {
+			this.target = target;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return target.unit;
+		}
+
+		@Override
+		public ResultSet execute() throws SQLException {
+			ResultSet res = target.statement.executeQuery();
+			target.unit.markAlive();
+
+			return res;
+		}
+
+		@Override
+		public void cancel() {
+			try {
+				target.statement.cancel();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem cancelling broadcast query", e);
+			}
+		}
+
+		@Override
+		public void close() {
+			//statement is closed with its target
+		}
+	}
+
+	/**
+	 * Positions of batched rows that belong to a single target
+	 */
+	private static final class RowGroup {
+		private final StatementTarget target;
+		private int[] rows;
+		private int size = 0;
+
+		private RowGroup(StatementTarget target, int capacity) {
+			this.target = target;
+			this.rows = new int[Math.max(capacity, 1)];
+		}
+
+		private void add(int row) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, size * 2);
+			}
+
+			rows[size++] = row;
+		}
+	}
+}
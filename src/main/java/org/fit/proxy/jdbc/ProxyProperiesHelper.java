@@ -1,95 +1,251 @@
 package org.fit.proxy.jdbc;
 
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
 /**
- * This class provides access connection properties unit.
+ * This class provides access to properties that are set in proxy connection or proxy statement.
+ * Every property has its own slot indexed by property ordinal. Boolean and int values are kept in primitive fields,
+ * so reading them does not need any hashing or unboxing.
  * @author Ondřej Marek
  */
-public class ProxyProperiesHelper implements Iterable<ConnectionPropertiesUnit> {
+public class ProxyProperiesHelper {
+	private static final ProxyProperty[] PROPERTIES = ProxyProperty.values();
+	private static final int SLOTS = PROPERTIES.length;
+
 	private final IConnectionEnsure connectionEnsure;
-	
+
+	/**
+	 * Bit set of properties which have a value set
+	 */
+	private long setMask = 0L;
+
+	/**
+	 * Bit set of properties which have been set at least once
+	 */
+	private long initiatedMask = 0L;
+
+	/**
+	 * Bit set of values of boolean properties
+	 */
+	private long booleanValues = 0L;
+
+	private final int[] intValues = new int[SLOTS];
+	private final Object[] objectValues = new Object[SLOTS];
+
 	public ProxyProperiesHelper(IConnectionEnsure connectionEnsure) {
 		this.connectionEnsure = connectionEnsure;
 	}
 
+	private static long bit(ProxyProperty property) {
+		return 1L << property.ordinal();
+	}
+
+	private static void checkType(ProxyProperty property, ProxyProperty.Type type) {
+		if (property.getType() != type) {
+			throw new IllegalArgumentException(new StringBuilder("Property ").append(property.getPropertyName()).append(" is not of type ").append(type).toString());
+		}
+	}
+
+	private void markSet(ProxyProperty property) {
+		long bit = bit(property);
+
+		setMask |= bit;
+		initiatedMask |= bit;
+	}
+
+	/**
+	 * Sets boolean property
+	 * @param property property
+	 * @param value property value
+	 */
+	public void setBoolean(ProxyProperty property, boolean value) {
+		checkType(property, ProxyProperty.Type.BOOLEAN);
+
+		if (value) {
+			booleanValues |= bit(property);
+		} else {
+			booleanValues &= ~bit(property);
+		}
+
+		markSet(property);
+	}
+
 	/**
-	 * Map, that contains properties that are set in proxy connection
+	 * Sets int property
+	 * @param property property
+	 * @param value property value
 	 */
-	private Map<String, ConnectionPropertiesUnit> proxyProperties = new HashMap<>();
-	
+	public void setInt(ProxyProperty property, int value) {
+		checkType(property, ProxyProperty.Type.INT);
+
+		intValues[property.ordinal()] = value;
+		markSet(property);
+	}
+
 	/**
-	 * Sets property
-	 * @param name property name
+	 * Sets object property
+	 * @param property property
 	 * @param value property value
 	 */
-	public void setProperty(String name, Object value) {
-		ConnectionPropertiesUnit property = proxyProperties.get(name);
-		
-		if (property == null) {
-			property = new ConnectionPropertiesUnit(name);
-			proxyProperties.put(name, property);
+	public void setObject(ProxyProperty property, Object value) {
+		checkType(property, ProxyProperty.Type.OBJECT);
+
+		objectValues[property.ordinal()] = value;
+		markSet(property);
+	}
+
+	/**
+	 * Sets property of any type. Boolean and int values are unboxed.
+	 * @param property property
+	 * @param value property value
+	 */
+	public void setProperty(ProxyProperty property, Object value) {
+		switch (property.getType()) {
+		case BOOLEAN: setBoolean(property, (Boolean) value); break;
+		case INT: setInt(property, (Integer) value); break;
+		default: setObject(property, value);
 		}
-		
-		property.setValue(value);
-		
 	}
-	
+
 	/**
 	 * Unsets property
-	 * @param name property name
+	 * @param property property
 	 */
-	public void unsetProperty(String name) {
-		ConnectionPropertiesUnit property = proxyProperties.get(name);
-		
-		if (property != null) {
-			property.unsetValueSet();
-		}
+	public void unsetProperty(ProxyProperty property) {
+		setMask &= ~bit(property);
+		objectValues[property.ordinal()] = null;
 	}
-	
+
 	/**
 	 * Checks whether property is set
-	 * @param name property name
+	 * @param property property
 	 * @return whether is property set
 	 */
-	public boolean isPropertySet(String name){		
-		ConnectionPropertiesUnit property = proxyProperties.get(name);
-		
-		return property != null && property.isValueSet();
+	public boolean isPropertySet(ProxyProperty property) {
+		return (setMask & bit(property)) != 0L;
 	}
-	
+
 	/**
 	 * Checks if the property was even initiated
-	 * @param name property name
+	 * @param property property
 	 * @return whether property was initiated
 	 */
-	public boolean isPropertyInitiated(String name) {
-		return proxyProperties.containsKey(name);
+	public boolean isPropertyInitiated(ProxyProperty property) {
+		return (initiatedMask & bit(property)) != 0L;
 	}
-	
+
 	/**
-	 * Returns a value by given name
-	 * @param name property name
-	 * @return property value
-	 * @throws SQLException if property has not been set, yet.
+	 * Checks whether there is no property set
+	 * @return whether no property is set
+	 */
+	public boolean isEmpty() {
+		return setMask == 0L;
+	}
+
+	/**
+	 * Unsets all properties at once, e.g. when the object is going to be reused.
 	 */
-	public Object getPropertyValue(String name) throws SQLException {	
+	public void clear() {
+		setMask = 0L;
+		initiatedMask = 0L;
+		booleanValues = 0L;
+		Arrays.fill(objectValues, null);
+	}
+
+	private void ensureSet(ProxyProperty property) throws SQLException {
 		connectionEnsure.ensureConnectionIsAlive();
-		
-		if (!isPropertySet(name)) {
-			String message = new StringBuilder("Attempting to get property named ").append(name).append(" which has not been set, yet!").toString();
-			
+
+		if (!isPropertySet(property)) {
+			String message = new StringBuilder("Attempting to get property named ").append(property.getPropertyName()).append(" which has not been set, yet!").toString();
+
 			throw new SQLException(message);
 		}
-		
-		return proxyProperties.get(name).getValue();
 	}
 
-	@Override
-	public Iterator<ConnectionPropertiesUnit> iterator() {
-		return proxyProperties.values().iterator();
+	/**
+	 * Returns a value of boolean property
+	 * @param property property
+	 * @return property value
+	 * @throws SQLException if property has not been set, yet.
+	 */
+	public boolean getBoolean(ProxyProperty property) throws SQLException {
+		checkType(property, ProxyProperty.Type.BOOLEAN);
+		ensureSet(property);
+
+		return (booleanValues & bit(property)) != 0L;
+	}
+
+	/**
+	 * Returns a value of int property
+	 * @param property property
+	 * @return property value
+	 * @throws SQLException if property has not been set, yet.
+	 */
+	public int getInt(ProxyProperty property) throws SQLException {
+		checkType(property, ProxyProperty.Type.INT);
+		ensureSet(property);
+
+		return intValues[property.ordinal()];
+	}
+
+	/**
+	 * Returns a value of object property
+	 * @param property property
+	 * @return property value
+	 * @throws SQLException if property has not been set, yet.
+	 */
+	public Object getObject(ProxyProperty property) throws SQLException {
+		checkType(property, ProxyProperty.Type.OBJECT);
+		ensureSet(property);
+
+		return objectValues[property.ordinal()];
+	}
+
+	/**
+	 * Returns a value of property of any type. Boolean and int values are boxed.
+	 * @param property property
+	 * @return property value
+	 * @throws SQLException if property has not been set, yet.
+	 */
+	public Object getPropertyValue(ProxyProperty property) throws SQLException {
+		switch (property.getType()) {
+		case BOOLEAN: return getBoolean(property);
+		case INT: return getInt(property);
+		default: return getObject(property);
+		}
+	}
+
+	/**
+	 * Sets all properties that were set in proxy statement (or proxy prepared statement) to the given statement
+	 * @param target statement
+	 * @throws SQLException when the property cannot be set
+	 */
+	public void applyStatementProperties(Statement target) throws SQLException {
+		if (isEmpty()) {
+			return;
+		}
+		
+		for (ProxyProperty property : PROPERTIES) {
+			if (!isPropertySet(property)) {
+				continue;
+			}
+			
+			switch (property) {
+			case MAX_FIELD_SIZE: target.setMaxFieldSize(getInt(property)); break;
+			case MAX_ROWS: target.setMaxRows(getInt(property)); break;
+			case ESCAPE_PROCESSING: target.setEscapeProcessing(getBoolean(property)); break;
+			case QUERY_TIMEOUT: target.setQueryTimeout(getInt(property)); break;
+			case CURSOR_NAME: target.setCursorName((String) getObject(property)); break;
+			case FETCH_DIR: target.setFetchDirection(getInt(property)); break;
+			case FETCH_SIZE: target.setFetchSize(getInt(property)); break;
+			case POOLABLE: target.setPoolable(getBoolean(property)); break;
+			case CLOSE_ON_COMPLETION: target.closeOnCompletion(); break;
+			default: break;
+			}
+		}
 	}
 }
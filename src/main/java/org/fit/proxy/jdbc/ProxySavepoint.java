@@ -2,7 +2,8 @@ package org.fit.proxy.jdbc;
 
 import java.sql.SQLException;
 import java.sql.Savepoint;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -11,6 +12,7 @@ import java.util.logging.Logger;
  * @author Ondřej Marek
  * 
  * This class represents save point to a proxy database connections. It collects save points to multiple databases.
+ * The save point is logical, a save point of a database is set only when a statement is executed in the database after the proxy save point.
  */
 public class ProxySavepoint implements Savepoint{
 	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
@@ -18,9 +20,10 @@ public class ProxySavepoint implements Savepoint{
 	private static int currID = 0;
 	private int id;
 	private String name;
-	private Map<ConnectionUnit, Savepoint> saveList;
+	private final Map<ConnectionUnit, Savepoint> saveList = Collections.synchronizedMap(new LinkedHashMap<ConnectionUnit, Savepoint>());
+	private int pendingWrites;
 	
-	public ProxySavepoint(String name, Map<ConnectionUnit, Savepoint> saveList) {
+	public ProxySavepoint(String name, int pendingWrites) {
 		id = currID++;
 		
 		if (name == null) {
@@ -29,7 +32,7 @@ public class ProxySavepoint implements Savepoint{
 			this.name = name;
 		}
 		
-		this.saveList = saveList;
+		this.pendingWrites = pendingWrites;
 		
 		log.log(Level.INFO, "Setting proxy savepoint " + name + " with ID = " + id);
 	}
@@ -46,10 +49,43 @@ public class ProxySavepoint implements Savepoint{
 	
 	/**
 	 * Getter for a map of save points
-	 * @return
+	 * @return save points of databases where a statement was executed after the proxy save point
 	 */
 	public Map<ConnectionUnit, Savepoint> getSavepoints() {
-		return new HashMap<>(saveList);
+		synchronized (saveList) {
+			return new LinkedHashMap<>(saveList);
+		}
+	}
+	
+	/**
+	 * Returns whether the save point is set in a database
+	 * @param connection connection of the database
+	 * @return whether the database has the save point
+	 */
+	public boolean isSet(ConnectionUnit connection) {
+		return saveList.containsKey(connection);
+	}
+	
+	/**
+	 * Sets the save point in a database, nothing is done when the database already has it
+	 * @param connection connection of the database
+	 * @throws SQLException when the save point cannot be set
+	 */
+	public void set(ConnectionUnit connection) throws SQLException {
+		if (isSet(connection)) {
+			return;
+		}
+		
+		log.log(Level.FINE, "Setting savepoint " + name + " to connection " + connection.getName());
+		saveList.put(connection, connection.getConnection().setSavepoint());
+	}
+	
+	/**
+	 * Returns the number of asynchronously replicated writes that were pending when the save point was set
+	 * @return number of pending writes
+	 */
+	public int getPendingWrites() {
+		return pendingWrites;
 	}
 
 }
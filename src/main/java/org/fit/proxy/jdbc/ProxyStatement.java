@@ -1,7 +1,5 @@
 package org.fit.proxy.jdbc;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -10,8 +8,7 @@ import java.sql.Statement;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.StringUtils;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
 /**
  * @author Ondřej Marek
@@ -43,29 +40,6 @@ public class ProxyStatement implements Statement {
 		this.engine = new ProxyStatementEngine(pc, factory);
 	}
 	
-	@SuppressWarnings("unchecked")
-	private <T> T retrieveStatementProperty(String type, boolean isBoolean) throws SQLException {
-		ProxyProperiesHelper provider = engine.getPropertiesHelper();
-		
-		if (provider.isPropertySet(type)) {
-			return (T) provider.getPropertyValue(type);
-		}
-		
-		Statement statement = engine.getStatement();
-		String prefix = (isBoolean) ? "is" : "get";
-		
-		try {
-			String getterName = prefix + StringUtils.capitalize(type);
-			Method getterMethod = statement.getClass().getMethod(getterName);
-			Object res = getterMethod.invoke(engine.getStatement());
-			
-			return (T) res;
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
-			throw new SQLException("Unable to get statement property: " + type, e);
-		}
-		
-	}
-	
 	@Override
 	public <T> T unwrap(Class<T> iface) throws SQLException {
 		return engine.getStatement().unwrap(iface);
@@ -80,14 +54,30 @@ public class ProxyStatement implements Statement {
 	public ResultSet executeQuery(String sql) throws SQLException {
 		log.fine("Execute query in proxy statement: " + sql);
 		
-		return engine.getStatement(sql).executeQuery(sql);
+		ResultSet broadcast = engine.executeBroadcast(this, sql);
+		
+		if (broadcast != null) {
+			return broadcast;
+		}
+		
+		ResultSet res = engine.getStatement(sql).executeQuery(sql);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public int executeUpdate(String sql) throws SQLException {	
 		log.fine("Execute update in proxy statement: " + sql);
 		
-		return engine.getStatement(sql).executeUpdate(sql);
+		if (engine.executeWrite(sql, Statement.NO_GENERATED_KEYS, null, null) != null) {
+			return engine.getUpdateCount();
+		}
+		
+		int res = engine.getStatement(sql).executeUpdate(sql);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
@@ -99,44 +89,47 @@ public class ProxyStatement implements Statement {
 
 	@Override
 	public int getMaxFieldSize() throws SQLException {
-		Integer fieldSize = retrieveStatementProperty(ProxyConstants.MAX_FIELD_SIZE, false);
-		return fieldSize.intValue();
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.MAX_FIELD_SIZE) ? provider.getInt(ProxyProperty.MAX_FIELD_SIZE) : engine.getStatement().getMaxFieldSize();
 	}
 
 	@Override
 	public void setMaxFieldSize(int max) throws SQLException {
-		engine.getStatement().setFetchSize(max);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.MAX_FIELD_SIZE, max);		
+		engine.getStatement().setMaxFieldSize(max);
+		engine.getPropertiesHelper().setInt(ProxyProperty.MAX_FIELD_SIZE, max);
 	}
 
 	@Override
 	public int getMaxRows() throws SQLException {
-		Integer maxRows = retrieveStatementProperty(ProxyConstants.MAX_ROWS, false);
-		return maxRows.intValue();
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.MAX_ROWS) ? provider.getInt(ProxyProperty.MAX_ROWS) : engine.getStatement().getMaxRows();
 	}
 
 	@Override
 	public void setMaxRows(int max) throws SQLException {
 		engine.getStatement().setMaxRows(max);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.MAX_ROWS, max);
+		engine.getPropertiesHelper().setInt(ProxyProperty.MAX_ROWS, max);
 	}
 
 	@Override
 	public void setEscapeProcessing(boolean enable) throws SQLException {
 		engine.getStatement().setEscapeProcessing(enable);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.ESCAPE_PROCESSING, enable);
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.ESCAPE_PROCESSING, enable);
 	}
 
 	@Override
 	public int getQueryTimeout() throws SQLException {
-		Integer timeout = retrieveStatementProperty(ProxyConstants.QUERY_TIMEOUT, false);
-		return timeout.intValue();
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.QUERY_TIMEOUT) ? provider.getInt(ProxyProperty.QUERY_TIMEOUT) : engine.getStatement().getQueryTimeout();
 	}
 
 	@Override
 	public void setQueryTimeout(int seconds) throws SQLException {
 		engine.getStatement().setQueryTimeout(seconds);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.QUERY_TIMEOUT, seconds);
+		engine.getPropertiesHelper().setInt(ProxyProperty.QUERY_TIMEOUT, seconds);
 	}
 
 	@Override
@@ -170,28 +163,54 @@ public class ProxyStatement implements Statement {
 		log.fine("Setting cursor name to val = " + name);
 		
 		engine.getStatement().setCursorName(name);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.CURSOR_NAME, name);
+		engine.getPropertiesHelper().setObject(ProxyProperty.CURSOR_NAME, name);
 	}
 
 	@Override
 	public boolean execute(String sql) throws SQLException {
 		log.fine(new StringBuilder("Executing query: (").append(sql).append(").").toString());
 		
-		return engine.getStatement(sql).execute(sql);
+		if (engine.executeBroadcast(this, sql) != null) {
+			return true;
+		}
+		
+		Boolean written = engine.executeWrite(sql, Statement.NO_GENERATED_KEYS, null, null);
+		
+		if (written != null) {
+			return written;
+		}
+		
+		boolean res = engine.getStatement(sql).execute(sql);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public ResultSet getResultSet() throws SQLException {
+		ResultSet broadcast = engine.getBroadcastResult();
+		
+		if (broadcast != null) {
+			return broadcast.isClosed() ? null : broadcast;
+		}
+		
 		return engine.getStatement().getResultSet();
 	}
 
 	@Override
 	public int getUpdateCount() throws SQLException {
-		return engine.getStatement().getUpdateCount();
+		return engine.getUpdateCount();
 	}
 
 	@Override
 	public boolean getMoreResults() throws SQLException {
+		ResultSet broadcast = engine.getBroadcastResult();
+		
+		if (broadcast != null) {
+			broadcast.close();
+			return false;
+		}
+		
 		return engine.getStatement().getMoreResults();
 	}
 
@@ -200,12 +219,14 @@ public class ProxyStatement implements Statement {
 		log.fine("Setting fetch direction = " + direction);
 		
 		engine.getStatement().setFetchDirection(direction);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.FETCH_DIR, direction);
+		engine.getPropertiesHelper().setInt(ProxyProperty.FETCH_DIR, direction);
 	}
 
 	@Override
 	public int getFetchDirection() throws SQLException {
-		return retrieveStatementProperty(ProxyConstants.FETCH_DIR, false);
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.FETCH_DIR) ? provider.getInt(ProxyProperty.FETCH_DIR) : engine.getStatement().getFetchDirection();
 	}
 
 	@Override
@@ -213,13 +234,15 @@ public class ProxyStatement implements Statement {
 		log.fine("Setting fetch size = " + rows);
 		
 		engine.getStatement().setFetchSize(rows);
-		engine.getPropertiesHelper().setProperty(ProxyConstants.FETCH_SIZE, rows);
+		engine.getPropertiesHelper().setInt(ProxyProperty.FETCH_SIZE, rows);
 		
 	}
 
 	@Override
 	public int getFetchSize() throws SQLException {
-		return retrieveStatementProperty(ProxyConstants.FETCH_SIZE, false);
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.FETCH_SIZE) ? provider.getInt(ProxyProperty.FETCH_SIZE) : engine.getStatement().getFetchSize();
 	}
 
 	@Override
@@ -270,21 +293,43 @@ public class ProxyStatement implements Statement {
 		description.append(key).append('.');
 		
 		log.fine(description.toString());
-		return engine.getStatement(sql).executeUpdate(sql, autoGeneratedKeys);
+		
+		if (engine.executeWrite(sql, autoGeneratedKeys, null, null) != null) {
+			return engine.getUpdateCount();
+		}
+		
+		int res = engine.getStatement(sql).executeUpdate(sql, autoGeneratedKeys);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
 		log.fine("Executing update with columnIndexes = " + columnIndexes);
 		
-		return engine.getStatement(sql).executeUpdate(sql, columnIndexes);
+		if (engine.executeWrite(sql, Statement.RETURN_GENERATED_KEYS, columnIndexes, null) != null) {
+			return engine.getUpdateCount();
+		}
+		
+		int res = engine.getStatement(sql).executeUpdate(sql, columnIndexes);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
 		log.fine("Executing update with columnNames = " + columnNames);
 		
-		return engine.getStatement(sql).executeUpdate(sql, columnNames);
+		if (engine.executeWrite(sql, Statement.RETURN_GENERATED_KEYS, null, columnNames) != null) {
+			return engine.getUpdateCount();
+		}
+		
+		int res = engine.getStatement(sql).executeUpdate(sql, columnNames);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
@@ -292,30 +337,56 @@ public class ProxyStatement implements Statement {
 		String key = ProxyTools.getAutoGeneratedKeysDescription(autoGeneratedKeys);
 		
 		log.fine("Executing query with autoGeneratedKeys = " + key);
-		return engine.getStatement(sql).execute(sql, autoGeneratedKeys);
+		
+		Boolean written = engine.executeWrite(sql, autoGeneratedKeys, null, null);
+		
+		if (written != null) {
+			return written;
+		}
+		
+		boolean res = engine.getStatement(sql).execute(sql, autoGeneratedKeys);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
 		log.fine("Executing query with columnIndexes = " + columnIndexes);
 		
-		return engine.getStatement(sql).execute(sql, columnIndexes);
+		Boolean written = engine.executeWrite(sql, Statement.RETURN_GENERATED_KEYS, columnIndexes, null);
+		
+		if (written != null) {
+			return written;
+		}
+		
+		boolean res = engine.getStatement(sql).execute(sql, columnIndexes);
+		engine.markExecuted();
+		
+		return res;
 	}
 
 	@Override
 	public boolean execute(String sql, String[] columnNames) throws SQLException {
 		log.fine("Executing query '" + sql + "'with columnNames = " + columnNames);
 		
-		Statement statement = engine.getStatement(sql);
+		Boolean written = engine.executeWrite(sql, Statement.RETURN_GENERATED_KEYS, null, columnNames);
+		
+		if (written != null) {
+			return written;
+		}
+		
+		boolean res = engine.getStatement(sql).execute(sql, columnNames);
+		engine.markExecuted();
 		
-		return statement.execute(sql, columnNames);
+		return res;
 	}
 
 	@Override
 	public int getResultSetHoldability() throws SQLException {
-		Integer holdability = retrieveStatementProperty(ProxyConstants.RESULT_SET_HOLDABILITY, false);
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
 		
-		return holdability;
+		return provider.isPropertySet(ProxyProperty.RESULT_SET_HOLDABILITY) ? provider.getInt(ProxyProperty.RESULT_SET_HOLDABILITY) : engine.getStatement().getResultSetHoldability();
 	}
 
 	@Override
@@ -328,28 +399,29 @@ public class ProxyStatement implements Statement {
 		Statement statement = engine.getStatement();
 		statement.setPoolable(poolable);
 		
-		engine.getPropertiesHelper().setProperty(ProxyConstants.POOLABLE, poolable);
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.POOLABLE, poolable);
 	}
 
 	@Override
 	public boolean isPoolable() throws SQLException {
-		Boolean poolable = retrieveStatementProperty(ProxyConstants.POOLABLE, true);
-		return poolable;
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
+		
+		return provider.isPropertySet(ProxyProperty.POOLABLE) ? provider.getBoolean(ProxyProperty.POOLABLE) : engine.getStatement().isPoolable();
 	}
 
 	@Override
 	public void closeOnCompletion() throws SQLException {
 		engine.getStatement().closeOnCompletion();
 		
-		engine.getPropertiesHelper().setProperty(ProxyConstants.CLOSE_ON_COMPLETION, Boolean.TRUE);
+		engine.getPropertiesHelper().setBoolean(ProxyProperty.CLOSE_ON_COMPLETION, true);
 		
 	}
 
 	@Override
 	public boolean isCloseOnCompletion() throws SQLException {
-		Boolean closeOnCompletition = retrieveStatementProperty(ProxyConstants.CLOSE_ON_COMPLETION, true);
+		ProxyProperiesHelper provider = engine.getPropertiesHelper();
 		
-		return closeOnCompletition;
+		return provider.isPropertySet(ProxyProperty.CLOSE_ON_COMPLETION) ? provider.getBoolean(ProxyProperty.CLOSE_ON_COMPLETION) : engine.getStatement().isCloseOnCompletion();
 	}
 
 }
@@ -1,18 +1,47 @@
 package org.fit.proxy.jdbc;
 
-import java.sql.CallableStatement;
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+import org.fit.proxy.jdbc.replication.JournalEntry;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+
+/**
+ * This class collects batched sql queries of proxy statement. Every query is routed to its connection when it is added.
+ * On execution the queries are grouped by connection, so every connection gets a single batch (split to chunks of configured size).
+ * Batches of different connections may be executed concurrently, queries of one connection keep their order.
+ * A write of a replicated table is added to batches of all replicas, update counts of the primary are returned
+ * and all replicas have to agree with them. A write of an asynchronous group is added only to the batch of its primary and it is
+ * journaled for the other replicas when the primary executes it.
+ * @author Ondřej Marek
+ */
 public class ProxyStatementBatcher {
     private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
 
     private final ProxyConnection connection;
-    private final  StatementConstructorFactory constructorFactory;
-    private List<CallableStatement> statements = new LinkedList<>();
+    private final StatementConstructorFactory constructorFactory;
+    private final List<String> queries = new ArrayList<>();
+    private final List<ConnectionUnit> targets = new ArrayList<>();
+
+    /**
+     * Replicas of queries, null for queries that are not replicated
+     */
+    private final List<List<ConnectionUnit>> replicas = new ArrayList<>();
+
+    /**
+     * Replica groups of queries, null for queries that are not replicated
+     */
+    private final List<ReplicaGroup> replicaGroups = new ArrayList<>();
 
     public ProxyStatementBatcher(ProxyConnection connection, StatementConstructorFactory constructorFactory) {
         this.connection = connection;
@@ -20,35 +49,273 @@ public class ProxyStatementBatcher {
     }
 
     public void addBatch(String sql) throws SQLException {
-        CallableStatement statement = constructorFactory.createBatchStatement(connection, sql);
-        statements.add(statement);
+        ConnectionUnit target = connection.getConnectionBySql(sql);
+        ReplicaGroup group = connection.getReplicaWriteGroup(sql);
+
+        queries.add(sql);
+        targets.add(target);
+        replicas.add((group == null) ? null : group.getWriteConnections());
+        replicaGroups.add(group);
     }
 
     public void clearBatch() {
-        safeClose();
-
-        statements.clear();
+        queries.clear();
+        targets.clear();
+        replicas.clear();
+        replicaGroups.clear();
     }
 
     public int[] executeBatch() throws SQLException {
-        int[] res = new int[statements.size()];
-        int i = 0;
+        int[] res = new int[queries.size()];
+        Arrays.fill(res, Statement.EXECUTE_FAILED);
+
+        List<ProxyException> failures;
+        ProxyException disagreement;
+        Map<ReplicaGroup, List<byte[]>> asyncWrites;
+
+        try {
+            List<BatchTask> tasks = new ArrayList<>();
+            Map<ConnectionUnit, BatchGroup> groups = groupByConnection();
+
+            for (BatchGroup group : groups.values()) {
+                connection.markTouched(group.getConnection());
+                tasks.add(new BatchTask(group));
+            }
+
+            failures = connection.getExecutor().runAll(tasks, connection.getSettings().isParallelBatch());
+            disagreement = gather(groups, res);
+            asyncWrites = collectAsyncWrites(res);
+        } finally {
+            clearBatch();
+        }
 
-        for (CallableStatement statement : statements) {
-            res[i++] = statement.executeUpdate();
+        for (Map.Entry<ReplicaGroup, List<byte[]>> writes : asyncWrites.entrySet()) {
+            connection.recordAsyncWrites(writes.getKey(), writes.getValue());
+        }
+
+        if (!failures.isEmpty()) {
+            BatchUpdateException toThrow = new BatchUpdateException("Unable to execute proxy batch.", res);
+
+            for (ProxyException failure : failures) {
+                toThrow.setNextException(failure);
+            }
+
+            ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+            throw toThrow;
+        }
+
+        if (disagreement != null) {
+            ProxyExceptionUtils.logExceptions(disagreement, Level.WARNING);
+            throw disagreement;
         }
 
         return res;
     }
 
-    public void safeClose() {
-        for (CallableStatement statement : statements) {
+    /**
+     * Writes update counts of primary connections to their positions in proxy batch and checks that replicas agree with them
+     * @return exception of the first replicated query whose replicas disagree, null when all agree
+     */
+    private ProxyException gather(Map<ConnectionUnit, BatchGroup> groups, int[] res) {
+        int[][][] replicaCounts = new int[queries.size()][][];
+
+        for (BatchGroup group : groups.values()) {
+            for (int i = 0; i < group.size(); i++) {
+                int position = group.get(i);
+                List<ConnectionUnit> queryReplicas = replicas.get(position);
+
+                if (group.getConnection().equals(targets.get(position))) {
+                    res[position] = group.getCount(i);
+                }
+
+                if (queryReplicas != null) {
+                    if (replicaCounts[position] == null) {
+                        replicaCounts[position] = new int[queryReplicas.size()][];
+                    }
+
+                    replicaCounts[position][queryReplicas.indexOf(group.getConnection())] = new int[] {group.getCount(i)};
+                }
+            }
+        }
+
+        for (int position = 0; position < replicaCounts.length; position++) {
+            if (replicaCounts[position] != null) {
+                try {
+                    ReplicaGroup.checkUpdateCounts(queries.get(position), replicas.get(position), replicaCounts[position]);
+                } catch (ProxyException e) {
+                    return e;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Encodes writes of asynchronous groups that were executed in their primaries, so they are journaled even when the batch failed later
+     * @return writes by group in the order of proxy batch
+     */
+    private Map<ReplicaGroup, List<byte[]>> collectAsyncWrites(int[] res) throws SQLException {
+        Map<ReplicaGroup, List<byte[]>> writes = new LinkedHashMap<>();
+
+        for (int position = 0; position < res.length; position++) {
+            ReplicaGroup group = replicaGroups.get(position);
+
+            if (group == null || !group.isAsync() || res[position] == Statement.EXECUTE_FAILED) {
+                continue;
+            }
+
+            List<byte[]> groupWrites = writes.get(group);
+
+            if (groupWrites == null) {
+                groupWrites = new ArrayList<>();
+                writes.put(group, groupWrites);
+            }
+
+            groupWrites.add(JournalEntry.encode(queries.get(position), null, null));
+        }
+
+        return writes;
+    }
+
+    private Map<ConnectionUnit, BatchGroup> groupByConnection() {
+        Map<ConnectionUnit, BatchGroup> groups = new LinkedHashMap<>();
+
+        for (int i = 0; i < targets.size(); i++) {
+            List<ConnectionUnit> queryReplicas = replicas.get(i);
+
+            if (queryReplicas == null) {
+                addToGroup(groups, targets.get(i), i);
+            } else {
+                for (ConnectionUnit replica : queryReplicas) {
+                    addToGroup(groups, replica, i);
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    private static void addToGroup(Map<ConnectionUnit, BatchGroup> groups, ConnectionUnit target, int position) {
+        BatchGroup group = groups.get(target);
+
+        if (group == null) {
+            group = new BatchGroup(target);
+            groups.put(target, group);
+        }
+
+        group.add(position);
+    }
+
+    /**
+     * Executes all queries of a single connection and keeps update counts in its group.
+     * Tasks of different connections write to different groups, so they may run concurrently.
+     */
+    private final class BatchTask implements IConnectionTask {
+        private final BatchGroup group;
+
+        private BatchTask(BatchGroup group) {
+            this.group = group;
+        }
+
+        @Override
+        public ConnectionUnit getConnection() {
+            return group.getConnection();
+        }
+
+        @Override
+        public void run() throws SQLException {
+            int chunkSize = connection.getSettings().getBatchSize();
+            ConnectionUnit unit = group.getConnection();
+            Statement statement = null;
+
             try {
-                statement.close();
+                statement = constructorFactory.createStatement(unit);
+
+                for (int from = 0; from < group.size(); from += chunkSize) {
+                    int to = Math.min(from + chunkSize, group.size());
+
+                    for (int i = from; i < to; i++) {
+                        statement.addBatch(queries.get(group.get(i)));
+                    }
+
+                    try {
+                        group.setCounts(from, statement.executeBatch());
+                        unit.markAlive();
+                    } catch (BatchUpdateException e) {
+                        group.setCounts(from, e.getUpdateCounts());
+                        throw e;
+                    }
+                }
             } catch (SQLException e) {
-                log.log(Level.WARNING, "Problem closing batch statement.", e);
+                String message = new StringBuilder("Unable to execute batch in connection ").append(unit.getName()).append('.').toString();
+                throw new ProxyException(message, e, unit);
+            } finally {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        log.log(Level.WARNING, "Problem closing batch statement.", e);
+                    }
+                }
             }
         }
     }
 
+    public void safeClose() {
+        clearBatch();
+    }
+
+    /**
+     * Positions of queries in proxy batch that belong to a single connection and their update counts
+     */
+    private static final class BatchGroup {
+        private final ConnectionUnit connection;
+        private int[] positions = new int[16];
+        private int[] counts;
+        private int size = 0;
+
+        private BatchGroup(ConnectionUnit connection) {
+            this.connection = connection;
+        }
+
+        public ConnectionUnit getConnection() {
+            return connection;
+        }
+
+        public void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+
+            positions[size++] = position;
+        }
+
+        public int get(int i) {
+            return positions[i];
+        }
+
+        public void setCounts(int from, int[] chunk) {
+            if (counts == null) {
+                counts = new int[size];
+                Arrays.fill(counts, Statement.EXECUTE_FAILED);
+            }
+
+            if (chunk == null) {
+                return;
+            }
+
+            for (int i = 0; i < chunk.length && from + i < size; i++) {
+                counts[from + i] = chunk[i];
+            }
+        }
+
+        public int getCount(int i) {
+            return (counts == null) ? Statement.EXECUTE_FAILED : counts[i];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
 }
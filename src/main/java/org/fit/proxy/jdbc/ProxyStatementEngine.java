@@ -1,14 +1,21 @@
 package org.fit.proxy.jdbc;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.StringUtils;
+import org.fit.proxy.jdbc.distributed.DistributedQuery;
+import org.fit.proxy.jdbc.distributed.IShardQuery;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+import org.fit.proxy.jdbc.replication.JournalEntry;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.sharding.ShardRule;
 
 /**
  * This classed is used by proxy statement as its engine.
@@ -22,6 +29,21 @@ public class ProxyStatementEngine implements IConnectionEnsure {
 	private final ProxyStatementBatcher batcher;
 	private Statement statement;
 
+	/**
+	 * Connection of the statement created for the last sql, null when there is none
+	 */
+	private ConnectionUnit current;
+
+	/**
+	 * Result set of the last broadcast query, null when the last query was sent to a single connection
+	 */
+	private ResultSet broadcastResult;
+
+	/**
+	 * Sum of update counts of the last write when it was executed in more shards, -1 otherwise
+	 */
+	private int writeCount = -1;
+
 	private final ProxyProperiesHelper propertiesHelper = new ProxyProperiesHelper(this);
 
 	public ProxyStatementEngine(ProxyConnection connection, StatementConstructorFactory statementFactory) throws SQLException {
@@ -65,29 +87,245 @@ public class ProxyStatementEngine implements IConnectionEnsure {
 	 */
 	public Statement getStatement(String sql) throws SQLException {
 		ensureConnectionIsAlive();
+		closeBroadcastResult();
+		writeCount = -1;
+		
+		//a statement that cannot be routed leaves the previous statement usable
+		ConnectionUnit connection = proxyConnection.getConnectionBySql(sql);
 		
 		if (statement != null) {
 			statement.close();
 		}
 		
-		statement = statementFactory.createStatement(proxyConnection.getConnectionBySql(sql));
+		current = connection;
+		statement = createStatement(current);
 
-		try {
-			for (Iterator<ConnectionPropertiesUnit> iterator = propertiesHelper.iterator(); iterator.hasNext();) {
-				ConnectionPropertiesUnit property = iterator.next();
+		return statement;
+	}
 
-				String setMethodName = "set" + StringUtils.capitalize(property.getName());
-				Method setMethod = statement.getClass().getMethod(setMethodName, property.getValue().getClass());
+	/**
+	 * Records that the statement returned for the last sql was executed, so its database is reachable
+	 */
+	public void markExecuted() {
+		if (current != null) {
+			current.markAlive();
+		}
+	}
+	
+	private Statement createStatement(ConnectionUnit connection) throws SQLException {
+		Statement res = statementFactory.createStatement(connection);
+		proxyConnection.markTouched(connection);
 
-				setMethod.invoke(statement, property.getValue());
-			}
-		} catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException
-				| InvocationTargetException e) {
+		try {
+			propertiesHelper.applyStatementProperties(res);
+		} catch (SQLException e) {
+			res.close();
 			throw new SQLException("An error occured when reflecting proxy statement properties to new statement." +
 				"Statement will work but it does not have to have the same behavior.", e);
 		}
 
-		return statement;
+		return res;
+	}
+	
+	/**
+	 * Executes a broadcast query in all its connections concurrently
+	 * @param owner proxy statement that executes the query
+	 * @param sql sql query
+	 * @return result set that merges rows of all connections or null when the query is not a broadcast query
+	 * @throws SQLException when statements cannot be created
+	 */
+	public ResultSet executeBroadcast(Statement owner, String sql) throws SQLException {
+		ensureConnectionIsAlive();
+		
+		List<ConnectionUnit> connections = proxyConnection.getBroadcastConnections(sql);
+		
+		if (connections == null) {
+			return null;
+		}
+		
+		closeBroadcastResult();
+		writeCount = -1;
+		ShardRule rule = proxyConnection.getShardRule(sql);
+		
+		if (rule != null) {
+			rule.recordFanOut(connections.size());
+		}
+		
+		DistributedQuery distributed = DistributedQuery.parse(sql);
+		List<IShardQuery> queries = new ArrayList<>(connections.size());
+		
+		try {
+			for (ConnectionUnit connection : connections) {
+				queries.add(new BroadcastQuery(connection, createStatement(connection), distributed.getShardSql()));
+			}
+		} catch (SQLException e) {
+			for (IShardQuery query : queries) {
+				query.close();
+			}
+			
+			throw e;
+		}
+		
+		broadcastResult = distributed.execute(owner, queries, proxyConnection.getExecutor(), proxyConnection.getSettings(), null);
+		
+		return broadcastResult;
+	}
+	
+	/**
+	 * Executes a write in more connections when it is an update or delete that needs more shards of a sharded table
+	 * or when it is a write of a replicated table
+	 * @param sql sql statement
+	 * @param autoGeneratedKeys whether generated keys are returned, used when both column arrays are null
+	 * @param columnIndexes indexes of generated key columns or null
+	 * @param columnNames names of generated key columns or null
+	 * @return result of execution in the first connection or null when the statement is executed in a single connection
+	 * @throws SQLException when the write fails in a connection, it cannot be sent to its shards or replicas report different update counts
+	 */
+	public Boolean executeWrite(String sql, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) throws SQLException {
+		ensureConnectionIsAlive();
+		
+		List<ConnectionUnit> shards = proxyConnection.getShardWriteConnections(sql);
+		
+		if (shards != null) {
+			return executeShardWrite(sql, shards, autoGeneratedKeys, columnIndexes, columnNames);
+		}
+		
+		return executeReplicated(sql, autoGeneratedKeys, columnIndexes, columnNames);
+	}
+	
+	/**
+	 * Executes an update or delete in all its shards concurrently, update count of the statement is the sum of update counts of the shards.
+	 * In auto-commit mode every shard commits its part on its own.
+	 */
+	private Boolean executeShardWrite(String sql, List<ConnectionUnit> shards, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) throws SQLException {
+		closeBroadcastResult();
+		proxyConnection.getShardRule(sql).recordFanOut(shards.size());
+		
+		List<ReplicaWrite> writes = executeWrites(sql, shards, autoGeneratedKeys, columnIndexes, columnNames, "Unable to execute sql statement in its shards: ");
+		int total = 0;
+		
+		for (ReplicaWrite write : writes) {
+			total += Math.max(write.updateCount, 0);
+		}
+		
+		writeCount = total;
+		
+		return writes.get(0).result;
+	}
+	
+	/**
+	 * Executes a write of a replicated table in all replicas of its group concurrently, so the write takes about as long as in the slowest replica.
+	 * Statement of the primary becomes the current statement, update count and generated keys are read from it.
+	 * A write of an asynchronous group is executed only in the primary and it is journaled for the other replicas.
+	 * @return result of execution in the primary or null when the statement is not a replicated write
+	 */
+	private Boolean executeReplicated(String sql, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) throws SQLException {
+		ReplicaGroup group = proxyConnection.getReplicaWriteGroup(sql);
+		
+		if (group == null) {
+			return null;
+		}
+		
+		closeBroadcastResult();
+		List<ConnectionUnit> connections = group.getWriteConnections();
+		byte[] entry = group.isAsync() ? JournalEntry.encode(sql, null, null) : null;
+		List<ReplicaWrite> writes = executeWrites(sql, connections, autoGeneratedKeys, columnIndexes, columnNames, "Unable to execute replicated sql statement: ");
+		int[][] counts = new int[writes.size()][];
+		
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new int[] {writes.get(i).updateCount};
+		}
+		
+		ReplicaGroup.checkUpdateCounts(sql, connections, counts);
+		
+		if (entry != null) {
+			proxyConnection.recordAsyncWrites(group, Collections.singletonList(entry));
+		}
+		
+		return writes.get(0).result;
+	}
+	
+	/**
+	 * Executes a write in connections concurrently, statement of the first connection becomes the current statement
+	 */
+	private List<ReplicaWrite> executeWrites(String sql, List<ConnectionUnit> connections, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames, String errMessage) throws SQLException {
+		List<ReplicaWrite> writes = new ArrayList<>(connections.size());
+		
+		try {
+			for (ConnectionUnit connection : connections) {
+				writes.add(new ReplicaWrite(connection, createStatement(connection), sql, autoGeneratedKeys, columnIndexes, columnNames));
+			}
+		} catch (SQLException e) {
+			for (ReplicaWrite write : writes) {
+				write.close();
+			}
+			
+			throw e;
+		}
+		
+		statement.close();
+		statement = writes.get(0).statement;
+		writeCount = -1;
+		
+		List<ProxyException> failures;
+		
+		try {
+			failures = proxyConnection.getExecutor().runAll(writes, true);
+		} finally {
+			for (int i = 1; i < writes.size(); i++) {
+				writes.get(i).close();
+			}
+		}
+		
+		if (!failures.isEmpty()) {
+			SQLException toThrow = new SQLException(new StringBuilder(errMessage).append(sql).toString());
+			
+			for (ProxyException failure : failures) {
+				toThrow.setNextException(failure);
+			}
+			
+			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+			throw toThrow;
+		}
+		
+		return writes;
+	}
+	
+	/**
+	 * Returns update count of the last statement, a write executed in more shards returns the sum of update counts of the shards
+	 * @return update count or -1 when the last statement was a query
+	 * @throws SQLException when the statement is closed
+	 */
+	public int getUpdateCount() throws SQLException {
+		ensureConnectionIsAlive();
+		
+		if (broadcastResult != null) {
+			return -1;
+		}
+		
+		return (writeCount >= 0) ? writeCount : statement.getUpdateCount();
+	}
+	
+	/**
+	 * Returns result set of the last query when it was a broadcast query
+	 * @return result set or null
+	 */
+	public ResultSet getBroadcastResult() {
+		return broadcastResult;
+	}
+	
+	private void closeBroadcastResult() {
+		if (broadcastResult == null) {
+			return;
+		}
+		
+		try {
+			broadcastResult.close();
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem closing result set of broadcast query", e);
+		}
+		
+		broadcastResult = null;
 	}
 	
 	private final void initiateStatement() throws SQLException {
@@ -131,6 +369,7 @@ public class ProxyStatementEngine implements IConnectionEnsure {
         }
 
 		batcher.safeClose();
+		closeBroadcastResult();
 
 		try {
 			statement.close();
@@ -138,4 +377,100 @@ public class ProxyStatementEngine implements IConnectionEnsure {
 			log.log(Level.WARNING, "Problem closing statement", e);
 		}
 	}
+
+	/**
+	 * Replicated write in a single replica
+	 */
+	private static final class ReplicaWrite implements IConnectionTask {
+		private final ConnectionUnit connection;
+		private final Statement statement;
+		private final String sql;
+		private final int autoGeneratedKeys;
+		private final int[] columnIndexes;
+		private final String[] columnNames;
+		private boolean result;
+		private int updateCount;
+
+		private ReplicaWrite(ConnectionUnit connection, Statement statement, String sql, int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) {
+			this.connection = connection;
+			this.statement = statement;
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+			this.columnIndexes = columnIndexes;
+			this.columnNames = columnNames;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+
+		@Override
+		public void run() throws SQLException {
+			if (columnIndexes != null) {
+				result = statement.execute(sql, columnIndexes);
+			} else if (columnNames != null) {
+				result = statement.execute(sql, columnNames);
+			} else {
+				result = statement.execute(sql, autoGeneratedKeys);
+			}
+			
+			updateCount = statement.getUpdateCount();
+			connection.markAlive();
+		}
+
+		private void close() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				log.log(Level.WARNING, "Problem closing statement of replicated write", e);
+			}
+		}
+	}
+
+	/**
+	 * Query of broadcast statement in a single connection
+	 */
+	private static final class BroadcastQuery implements IShardQuery {
+		private final ConnectionUnit connection;
+		private final Statement statement;
+		private final String sql;
+
+		private BroadcastQuery(ConnectionUnit connection, Statement statement, String sql) {
+			this.connection = connection;
+			this.statement = statement;
+			this.sql = sql;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+
+		@Override
+		public ResultSet execute() throws SQLException {
+			ResultSet res = statement.executeQuery(sql);
+			connection.markAlive();
+
+			return res;
+		}
+
+		@Override
+		public void cancel() {
+			try {
+				statement.cancel();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem cancelling broadcast query", e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				log.log(Level.WARNING, "Problem closing statement of broadcast query", e);
+			}
+		}
+	}
 }
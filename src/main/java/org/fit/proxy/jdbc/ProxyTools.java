@@ -2,6 +2,8 @@ package org.fit.proxy.jdbc;
 
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 
@@ -22,4 +24,327 @@ public class ProxyTools {
 		
 		return sb.toString();
 	}
+	
+	/**
+	 * Returns the position of the first character after a quoted string or a comment that starts at given position.
+	 * If there is no quoted string or comment at given position, the position itself is returned.
+	 * @param sql sql query
+	 * @param i position
+	 * @return position after quoted string or comment
+	 */
+	public static int skipQuoted(String sql, int i) {
+		char c = sql.charAt(i);
+
+		if (c == '\'' || c == '"' || c == '`') {
+			int end = sql.indexOf(c, i + 1);
+
+			//doubled quote is a quote inside of the string
+			while (end >= 0 && end + 1 < sql.length() && sql.charAt(end + 1) == c) {
+				end = sql.indexOf(c, end + 2);
+			}
+
+			return (end < 0) ? sql.length() : end + 1;
+		}
+
+		if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+			int end = sql.indexOf('\n', i);
+
+			return (end < 0) ? sql.length() : end + 1;
+		}
+
+		if (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+			int end = sql.indexOf("*/", i + 2);
+
+			return (end < 0) ? sql.length() : end + 2;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Counts parameter placeholders (question marks) of sql query. Placeholders in quoted strings and comments are ignored.
+	 * @param sql sql query
+	 * @return number of parameters
+	 */
+	public static int countParameters(String sql) {
+		int res = 0;
+		int i = 0;
+
+		while (i < sql.length()) {
+			int next = skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			if (sql.charAt(i) == '?') {
+				res++;
+			}
+
+			i++;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Finds the values tuple of a single row insert, e.g. "(?, ?, 'a')" in "INSERT INTO t (a, b, c) VALUES (?, ?, 'a')".
+	 * @param sql sql query
+	 * @return start and end (exclusive) position of the tuple or null if the query is not a single row insert
+	 */
+	public static int[] findInsertValues(String sql) {
+		String trimmed = sql.trim();
+
+		if (trimmed.length() < 6 || !trimmed.substring(0, 6).equalsIgnoreCase("INSERT")) {
+			return null;
+		}
+
+		int values = findKeyword(sql, "VALUES");
+
+		if (values < 0) {
+			return null;
+		}
+
+		int start = values + "VALUES".length();
+
+		while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+			start++;
+		}
+
+		if (start == sql.length() || sql.charAt(start) != '(') {
+			return null;
+		}
+
+		int depth = 0;
+		int i = start;
+
+		while (i < sql.length()) {
+			int next = skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			char c = sql.charAt(i++);
+
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				break;
+			}
+		}
+
+		if (depth != 0) {
+			return null;
+		}
+
+		for (int j = i; j < sql.length(); j++) {
+			char c = sql.charAt(j);
+
+			if (!Character.isWhitespace(c) && c != ';') {
+				return null;
+			}
+		}
+
+		return new int[] {start, i};
+	}
+
+	/**
+	 * Finds the first occurrence of a keyword that is not a part of another word, quoted string or comment
+	 * @param sql sql query
+	 * @param keyword keyword
+	 * @return position of the keyword or -1 if not found
+	 */
+	public static int findKeyword(String sql, String keyword) {
+		return findKeyword(sql, keyword, 0);
+	}
+
+	/**
+	 * Finds the first occurrence of a keyword that is not a part of another word, quoted string or comment
+	 * @param sql sql query
+	 * @param keyword keyword
+	 * @param from position where to start searching
+	 * @return position of the keyword or -1 if not found
+	 */
+	public static int findKeyword(String sql, String keyword, int from) {
+		int i = from;
+
+		while (i < sql.length()) {
+			int next = skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			if (sql.regionMatches(true, i, keyword, 0, keyword.length()) && isWordBoundary(sql, i - 1) && isWordBoundary(sql, i + keyword.length())) {
+				return i;
+			}
+
+			i++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the first occurrence of a keyword that is not a part of another word, quoted string, comment or parentheses
+	 * @param sql sql query
+	 * @param keyword keyword
+	 * @param from position where to start searching, it has to be outside of parentheses
+	 * @return position of the keyword or -1 if not found
+	 */
+	public static int findTopLevelKeyword(String sql, String keyword, int from) {
+		int depth = 0;
+		int i = from;
+
+		while (i < sql.length()) {
+			int next = skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			char c = sql.charAt(i);
+
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (depth == 0 && sql.regionMatches(true, i, keyword, 0, keyword.length()) && isWordBoundary(sql, i - 1) && isWordBoundary(sql, i + keyword.length())) {
+				return i;
+			}
+
+			i++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Splits a part of sql query by commas that are not in quoted strings, comments or parentheses
+	 * @param sql sql query
+	 * @param start start of the part
+	 * @param end end of the part (exclusive)
+	 * @return trimmed items
+	 */
+	public static List<String> splitTopLevel(String sql, int start, int end) {
+		List<String> res = new ArrayList<>();
+		int depth = 0;
+		int from = start;
+		int i = start;
+
+		while (i < end) {
+			int next = skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			char c = sql.charAt(i);
+
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				res.add(sql.substring(from, i).trim());
+				from = i + 1;
+			}
+
+			i++;
+		}
+
+		res.add(sql.substring(from, Math.min(end, sql.length())).trim());
+
+		return res;
+	}
+
+	/**
+	 * Returns whether sql query contains a hint. Hints are words of comments that start with a slash, an asterisk and a plus sign,
+	 * e.g. hint broadcast in query SELECT &#47;*+ broadcast *&#47; * FROM t
+	 * @param sql sql query
+	 * @param hint name of hint
+	 * @return whether the hint is present
+	 */
+	public static boolean hasHint(String sql, String hint) {
+		int start = sql.indexOf("/*+");
+
+		while (start >= 0) {
+			int end = sql.indexOf("*/", start + 3);
+
+			if (end < 0) {
+				end = sql.length();
+			}
+
+			String comment = sql.substring(start + 3, end);
+
+			if (findKeyword(comment, hint) >= 0) {
+				return true;
+			}
+
+			start = sql.indexOf("/*+", end);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns whether sql query returns rows, i.e. whether its first keyword is SELECT or WITH. Leading comments are skipped.
+	 * @param sql sql query
+	 * @return whether the query is a select
+	 */
+	public static boolean isQuery(String sql) {
+		return isStatement(sql, "SELECT") || isStatement(sql, "WITH");
+	}
+
+	/**
+	 * Returns whether the first keyword of sql statement is given keyword, e.g. INSERT. Leading comments and parentheses are skipped.
+	 * @param sql sql statement
+	 * @param keyword keyword
+	 * @return whether the statement starts with the keyword
+	 */
+	public static boolean isStatement(String sql, String keyword) {
+		int i = skipWhitespace(sql, 0);
+
+		while (i < sql.length()) {
+			int next = skipQuoted(sql, i);
+
+			if (next == i) {
+				break;
+			}
+
+			i = skipWhitespace(sql, next);
+		}
+
+		while (i < sql.length() && sql.charAt(i) == '(') {
+			i = skipWhitespace(sql, i + 1);
+		}
+
+		return sql.regionMatches(true, i, keyword, 0, keyword.length()) && isWordBoundary(sql, i + keyword.length());
+	}
+
+	private static int skipWhitespace(String sql, int i) {
+		int res = i;
+
+		while (res < sql.length() && Character.isWhitespace(sql.charAt(res))) {
+			res++;
+		}
+
+		return res;
+	}
+
+	private static boolean isWordBoundary(String sql, int i) {
+		if (i < 0 || i >= sql.length()) {
+			return true;
+		}
+
+		char c = sql.charAt(i);
+
+		return !Character.isLetterOrDigit(c) && c != '_';
+	}
 }
@@ -1,6 +1,8 @@
 package org.fit.proxy.jdbc;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +13,11 @@ import java.util.logging.Logger;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.replication.ReadAffinity;
+import org.fit.proxy.jdbc.replication.ReplicaGroup;
+import org.fit.proxy.jdbc.sharding.KeyRestriction;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+import org.fit.proxy.jdbc.xa.TransactionLog;
 
 /**
  * @author Ondřej Marek
@@ -21,16 +28,45 @@ import org.fit.proxy.jdbc.exception.ProxyException;
 public class Switcher {
 	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
 	
+	public static final String BROADCAST_HINT = "broadcast";
+	
 	private Map<String, ConnectionUnit> connectionList;
 	private ConnectionUnit defaultConnection;
+	private final List<ShardRule> shardRules;
+	private final List<ReplicaGroup> replicaGroups;
+	
+	/**
+	 * Log of two-phase commits, null when transactions are committed in every database separately
+	 */
+	private final TransactionLog transactionLog;
+	
+	/**
+	 * Routing of queries of groups that read from replicas, the switcher belongs to a single proxy connection
+	 */
+	private final ReadAffinity readAffinity = new ReadAffinity();
 	
 	@Deprecated //TODO move to engine
 	private Properties properties;
 	
 	public Switcher(Map<String, ConnectionUnit> connectionList, ConnectionUnit defaultConnection, Properties properties) {
+		this(connectionList, defaultConnection, properties, new ArrayList<ShardRule>());
+	}
+	
+	public Switcher(Map<String, ConnectionUnit> connectionList, ConnectionUnit defaultConnection, Properties properties, List<ShardRule> shardRules) {
+		this(connectionList, defaultConnection, properties, shardRules, new ArrayList<ReplicaGroup>());
+	}
+	
+	public Switcher(Map<String, ConnectionUnit> connectionList, ConnectionUnit defaultConnection, Properties properties, List<ShardRule> shardRules, List<ReplicaGroup> replicaGroups) {
+		this(connectionList, defaultConnection, properties, shardRules, replicaGroups, null);
+	}
+	
+	public Switcher(Map<String, ConnectionUnit> connectionList, ConnectionUnit defaultConnection, Properties properties, List<ShardRule> shardRules, List<ReplicaGroup> replicaGroups, TransactionLog transactionLog) {
 		this.connectionList = connectionList;
 		this.defaultConnection = defaultConnection;
 		this.properties = properties;
+		this.shardRules = shardRules;
+		this.replicaGroups = replicaGroups;
+		this.transactionLog = transactionLog;
 		
 		log.fine("Switcher established. Connections: " + connectionList + "\nDefault: " + defaultConnection);
 	}
@@ -50,6 +86,187 @@ public class Switcher {
 		return properties;
 	}
 	
+	public List<ShardRule> getShardRules() {
+		return shardRules;
+	}
+	
+	public List<ReplicaGroup> getReplicaGroups() {
+		return replicaGroups;
+	}
+	
+	/**
+	 * Returns the first replica group that matches to the sql statement
+	 * @param sql - string of a SQL statement
+	 * @return replica group or null if the statement does not belong to any replicated table
+	 */
+	public ReplicaGroup getReplicaGroup(String sql) {
+		for (ReplicaGroup group : replicaGroups) {
+			if (group.matches(sql)) {
+				log.fine(new StringBuilder("Replica group ").append(group.getName()).append(" matches to sql statement:").append(sql).toString());
+				return group;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns connections where the sql statement has to be executed when it is a write of a replicated table. Queries are not replicated,
+	 * they are sent to the primary of the group or to a replica chosen by read affinity. Shard rules take precedence over replica groups.
+	 * @param sql - string of a SQL statement
+	 * @return replicas of the group, the primary is the first one, or null when the statement is not a replicated write
+	 */
+	public List<ConnectionUnit> getReplicatedConnections(String sql) {
+		ReplicaGroup group = getReplicaWriteGroup(sql);
+		
+		if (group == null) {
+			return null;
+		}
+		
+		log.fine(new StringBuilder("Sql statement is replicated to ").append(group.isAsync() ? "the primary" : "all replicas").append(" of group ").append(group.getName()).append(": ").append(sql).toString());
+		
+		return group.getWriteConnections();
+	}
+	
+	/**
+	 * Returns replica group of the sql statement when it is a write of a replicated table
+	 * @param sql - string of a SQL statement
+	 * @return replica group or null when the statement is a query, it belongs to a shard rule or it does not belong to any replica group
+	 */
+	public ReplicaGroup getReplicaWriteGroup(String sql) {
+		if (ProxyTools.isQuery(sql) || getShardRule(sql) != null) {
+			return null;
+		}
+		
+		return getReplicaGroup(sql);
+	}
+	
+	/**
+	 * Returns replica group of the sql statement when it is a query of a group that reads from replicas
+	 * @param sql - string of a SQL statement
+	 * @return replica group or null when the statement is not a query, it belongs to a shard rule or its group reads only from the primary
+	 */
+	public ReplicaGroup getReplicaReadGroup(String sql) {
+		if (!ProxyTools.isQuery(sql) || getShardRule(sql) != null) {
+			return null;
+		}
+		
+		ReplicaGroup group = getReplicaGroup(sql);
+		
+		return (group == null || !group.isReadReplicas()) ? null : group;
+	}
+	
+	/**
+	 * Returns read affinity of the proxy connection
+	 * @return read affinity
+	 */
+	public ReadAffinity getReadAffinity() {
+		return readAffinity;
+	}
+	
+	/**
+	 * Returns the first shard rule that matches to the sql query
+	 * @param sql - string of a SQL query
+	 * @return shard rule or null if the query does not belong to any sharded table
+	 */
+	public ShardRule getShardRule(String sql) {
+		for (ShardRule rule : shardRules) {
+			if (rule.matches(sql)) {
+				log.fine(new StringBuilder("Shard rule ").append(rule.getName()).append(" matches to sql query:").append(sql).toString());
+				return rule;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns connections where the sql query has to be sent when it is a broadcast query. A query is broadcast when it is marked by
+	 * hint broadcast or when it is a select of a sharded table that needs more shards. A query marked by hint is sent to all connections
+	 * when it does not belong to any sharded table.
+	 * When WHERE clause restricts shard key to some values (key = 1 OR key = 2, key IN (1, 2)), the query is sent only to the shards
+	 * that hold them, otherwise it is sent to all shards of its rule. Restrictions by prepared statement parameters are resolved on execution,
+	 * all shards of the rule are returned.
+	 * @param sql - string of a SQL query
+	 * @return connections of broadcast query or null when the query is sent to a single connection
+	 * @throws SQLException - if the query needs more shards and its rule does not allow broadcasting or if no shard holds a value of shard key
+	 */
+	public List<ConnectionUnit> getBroadcastConnections(String sql) throws SQLException {
+		if (!ProxyTools.isQuery(sql)) {
+			return null;
+		}
+		
+		ShardRule rule = getShardRule(sql);
+		
+		if (rule != null) {
+			return getSpreadConnections(sql, rule);
+		}
+		
+		if (!ProxyTools.hasHint(sql, BROADCAST_HINT)) {
+			return null;
+		}
+		
+		log.fine(new StringBuilder("Sql query is broadcast by hint to all connections: ").append(sql).toString());
+		
+		return getConnectionList();
+	}
+	
+	/**
+	 * Returns shards where an UPDATE or DELETE statement of a sharded table has to be executed when it needs more shards.
+	 * The shards are chosen by values of shard key in WHERE clause, all shards of the rule are used when the statement is not restricted.
+	 * @param sql - string of a SQL statement
+	 * @return shards of the statement or null when the statement is sent to a single connection
+	 * @throws SQLException - if the statement needs more shards and its rule does not allow broadcasting, if it updates shard key
+	 * or if no shard holds a value of shard key
+	 */
+	public List<ConnectionUnit> getShardWriteConnections(String sql) throws SQLException {
+		if (!ProxyTools.isStatement(sql, "UPDATE") && !ProxyTools.isStatement(sql, "DELETE")) {
+			return null;
+		}
+		
+		ShardRule rule = getShardRule(sql);
+		
+		return (rule == null) ? null : getSpreadConnections(sql, rule);
+	}
+	
+	/**
+	 * Returns shards of a statement of a shard rule when it needs more of them. A statement that needs more shards is sent to them
+	 * only when broadcasting is allowed by the rule or by hint.
+	 */
+	private List<ConnectionUnit> getSpreadConnections(String sql, ShardRule rule) throws SQLException {
+		KeyRestriction keys = rule.findKeys(sql);
+		List<ConnectionUnit> result = getShards(sql, rule, keys);
+		
+		if (result.size() == 1) {
+			return null;
+		}
+		
+		if (!rule.isBroadcast() && !ProxyTools.hasHint(sql, BROADCAST_HINT)) {
+			throw rule.createSpanException(sql, result.size());
+		}
+		
+		log.fine(new StringBuilder("Sql statement is sent to ").append(result.size()).append(" of ").append(rule.getShardCount()).append(" shards of rule ").append(rule.getName()).append(" by values of shard key (").append(keys).append("): ").append(sql).toString());
+		
+		return result;
+	}
+	
+	/**
+	 * Returns shards that hold values of shard key of a statement. All shards are returned when the statement is not restricted
+	 * or when it is restricted by prepared statement parameters, which are not known yet.
+	 */
+	private List<ConnectionUnit> getShards(String sql, ShardRule rule, KeyRestriction keys) throws SQLException {
+		rule.checkWrite(sql, keys);
+		
+		if (keys == null || keys.hasParameters()) {
+			return rule.getConnections();
+		}
+		
+		List<ConnectionUnit> result = rule.getConnections(keys.getShards(rule, null));
+		
+		//no row matches, a single shard answers the query
+		return result.isEmpty() ? Collections.singletonList(rule.getConnection(0)) : result;
+	}
+	
 	/**
 	 * This method is used by Driver. It iterates through list of database and checks if they matches to the SQL query. Ideally it finds only one match.
 	 * If there is no match then it returns default connection or an exception is thrown if there is no default connection set.
@@ -63,12 +280,68 @@ public class Switcher {
 	public ConnectionUnit getConnection(String sql) throws SQLException {
 		log.fine(new StringBuilder().append("Starting to associate connection to sql :").append(sql).toString());
 		
-		ConnectionUnit result = associateConnection(sql);
+		ConnectionUnit result = associateShard(sql);
+		
+		if (result == null) {
+			result = associateReplica(sql);
+		}
+		
+		if (result == null) {
+			result = associateConnection(sql);
+		}
+		
 		result = checkResult(result, sql);
 		
 		return result;
 	}
 	
+	/**
+	 * Returns the shard that holds the shard key of sql statement. Shard key is taken from sql literals of WHERE clause or of inserted rows,
+	 * the statement is routed to a single shard only when all the values belong to it.
+	 * @param sql - string of a SQL statement
+	 * @return shard or null if the statement does not belong to any shard rule or it is not routed by shard key
+	 * @throws SQLException - if the statement needs more shards or no shard holds the key
+	 */
+	private ConnectionUnit associateShard(String sql) throws SQLException {
+		ShardRule rule = getShardRule(sql);
+		
+		if (rule == null || !ShardRule.isRoutedByKey(sql)) {
+			return null;
+		}
+		
+		KeyRestriction keys = rule.findKeys(sql);
+		List<ConnectionUnit> shards = getShards(sql, rule, keys);
+		
+		if (shards.size() > 1) {
+			throw rule.createSpanException(sql, shards.size());
+		}
+		
+		ConnectionUnit result = shards.get(0);
+		rule.recordFanOut(1);
+		log.fine(new StringBuilder("Shard ").append(result.getName()).append(" of rule ").append(rule.getName()).append(" holds keys (").append(keys).append(")").toString());
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the primary of the replica group of sql statement, a query of a group that reads from replicas gets the replica chosen by read affinity
+	 * @param sql - string of a SQL statement
+	 * @return replica or null if the statement belongs to a shard rule or it does not belong to any replica group
+	 */
+	private ConnectionUnit associateReplica(String sql) {
+		if (getShardRule(sql) != null) {
+			return null;
+		}
+		
+		ReplicaGroup group = getReplicaGroup(sql);
+		
+		if (group == null) {
+			return null;
+		}
+		
+		return ProxyTools.isQuery(sql) ? readAffinity.getReader(group) : group.getPrimary();
+	}
+	
 	private ConnectionUnit associateConnection(String sql) throws SQLException {
 		ConnectionUnit result = null;
 		
@@ -165,6 +438,31 @@ public class Switcher {
 		defaultConnection = null;
 	}
 	
+	/**
+	 * Returns log of two-phase commits
+	 * @return transaction log or null when two-phase commit is not used
+	 */
+	public TransactionLog getTransactionLog() {
+		return transactionLog;
+	}
+	
+	/**
+	 * Releases resources held by shard rules, replica groups and transaction log
+	 */
+	public void close() {
+		for (ShardRule rule : shardRules) {
+			rule.close();
+		}
+		
+		for (ReplicaGroup group : replicaGroups) {
+			group.close();
+		}
+		
+		if (transactionLog != null) {
+			transactionLog.close();
+		}
+	}
+	
 	@Override
 	public String toString() {
 		return connectionList.toString() + "/nDefault: " + ((defaultConnection == null) ? "null" : defaultConnection.toString());
@@ -3,9 +3,9 @@ package org.fit.proxy.jdbc.actions;
 import java.sql.SQLException;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class AutoCommitAction implements IAction {
+public class AutoCommitAction implements ISessionAction {
 	private final boolean autoCommit;
 	
 	public AutoCommitAction(boolean autoCommit) {
@@ -38,8 +38,8 @@ public class AutoCommitAction implements IAction {
 	}
 	
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.AUTO_COMMIT_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.AUTO_COMMIT;
 	}
 
 	@Override
@@ -3,9 +3,9 @@ package org.fit.proxy.jdbc.actions;
 import java.sql.SQLException;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class CatalogAction implements IAction {
+public class CatalogAction implements ISessionAction {
 	private final String catalog;
 	public CatalogAction(String catalog) {
 		this.catalog = catalog;
@@ -32,8 +32,8 @@ public class CatalogAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.CATALOG_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.CATALOG;
 	}
 
 	@Override
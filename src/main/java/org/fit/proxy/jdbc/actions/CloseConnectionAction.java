@@ -8,7 +8,7 @@ public class CloseConnectionAction implements ISimpleAction {
 
 	@Override
 	public void runAction(ConnectionUnit connection) throws SQLException {
-		connection.getConnection().close();
+		connection.close();
 	}
 
 	@Override
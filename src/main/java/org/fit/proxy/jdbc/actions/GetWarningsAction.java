@@ -13,7 +13,7 @@ public class GetWarningsAction implements ISimpleAction {
 		appendWarnings(connection.getConnection().getWarnings());
 	}
 	
-	private void appendWarnings(SQLWarning append) {
+	private synchronized void appendWarnings(SQLWarning append) {
 		if (resultWarning == null) {
 			resultWarning = append;
 		} else {
@@ -31,7 +31,7 @@ public class GetWarningsAction implements ISimpleAction {
 		return "Unable to collect all SQL warnings.";
 	}
 
-	public SQLWarning getResult() {
+	public synchronized SQLWarning getResult() {
 		return resultWarning;
 	}
 
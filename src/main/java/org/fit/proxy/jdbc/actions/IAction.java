@@ -3,6 +3,7 @@ package org.fit.proxy.jdbc.actions;
 import java.sql.SQLException;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 import org.fit.proxy.jdbc.exception.ProxyException;
 
 /**
@@ -27,10 +28,10 @@ public interface IAction extends ISimpleAction {
 	public Object getSaveValue(ConnectionUnit connection) throws SQLException;
 	
 	/**
-	 * Returns the name of the property that is changed
-	 * @return name
+	 * Returns the property that is changed
+	 * @return property
 	 */
-	public String getPropertyName();
+	public ProxyProperty getProperty();
 	
 	/**
 	 * Returns the value of the property that is changed
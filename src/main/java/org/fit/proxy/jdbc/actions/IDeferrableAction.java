@@ -0,0 +1,10 @@
+package org.fit.proxy.jdbc.actions;
+
+/**
+ * Interface of actions whose effect is needed only when a statement is executed in a connection. When deferred actions are enabled,
+ * such an action is only recorded and it is run in a connection right before the next statement of the connection.
+ * @author Ondřej Marek
+ */
+public interface IDeferrableAction extends IAction {
+
+}
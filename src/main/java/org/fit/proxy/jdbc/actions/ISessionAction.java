@@ -0,0 +1,11 @@
+package org.fit.proxy.jdbc.actions;
+
+/**
+ * Interface of actions that change a session attribute of a connection, such as auto commit or read only.
+ * The value of the attribute is cached in the connection unit, so the action is not sent to connections that already have
+ * the value and the cached value is restored when the action fails.
+ * @author Ondřej Marek
+ */
+public interface ISessionAction extends IDeferrableAction {
+
+}
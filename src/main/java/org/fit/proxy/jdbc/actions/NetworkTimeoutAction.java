@@ -4,9 +4,9 @@ import java.sql.SQLException;
 import java.util.concurrent.Executor;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class NetworkTimeoutAction implements IAction {
+public class NetworkTimeoutAction implements ISessionAction {
 	private final Executor executor;
 	private final int timeout;
 	
@@ -36,8 +36,8 @@ public class NetworkTimeoutAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.NETWORK_TIMEOUT_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.NETWORK_TIMEOUT;
 	}
 
 	@Override
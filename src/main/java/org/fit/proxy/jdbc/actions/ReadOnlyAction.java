@@ -3,9 +3,9 @@ package org.fit.proxy.jdbc.actions;
 import java.sql.SQLException;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class ReadOnlyAction implements IAction {
+public class ReadOnlyAction implements ISessionAction {
 	private final boolean readOnly;
 
 	public ReadOnlyAction(boolean readOnly) {
@@ -33,8 +33,8 @@ public class ReadOnlyAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.READ_ONLY_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.READ_ONLY;
 	}
 
 	@Override
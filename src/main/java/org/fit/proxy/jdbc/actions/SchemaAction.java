@@ -3,9 +3,9 @@ package org.fit.proxy.jdbc.actions;
 import java.sql.SQLException;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class SchemaAction implements IAction {
+public class SchemaAction implements ISessionAction {
 	private final String schema;
 
 	public SchemaAction(String schema) {
@@ -33,8 +33,8 @@ public class SchemaAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.SCHEMA_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.SCHEMA;
 	}
 
 	@Override
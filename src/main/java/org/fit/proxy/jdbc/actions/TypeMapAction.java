@@ -4,9 +4,9 @@ import java.sql.SQLException;
 import java.util.Map;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
-import org.fit.proxy.jdbc.configuration.ProxyConstants;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 
-public class TypeMapAction implements IAction {
+public class TypeMapAction implements IDeferrableAction {
 	private final Map<String, Class<?>> map;
 	
 	public TypeMapAction(Map<String, Class<?>> map) {
@@ -40,8 +40,8 @@ public class TypeMapAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
-		return ProxyConstants.TYPE_MAP_ACTION;
+	public ProxyProperty getProperty() {
+		return ProxyProperty.TYPE_MAP;
 	}
 
 	@Override
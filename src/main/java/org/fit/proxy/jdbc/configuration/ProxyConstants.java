@@ -24,4 +24,15 @@ public class ProxyConstants {
 	public static final String RESULT_SET_HOLDABILITY = "resultSetHoldability";
 	public static final String POOLABLE = "poolable";
 	public static final String CLOSE_ON_COMPLETION = "closeOnCompletion";
+	
+	public static final String BATCH_SIZE = "batch_size";
+	public static final String PARALLEL_THREADS = "parallel_threads";
+	public static final String PARALLEL_BATCH = "parallel_batch";
+	public static final String PARALLEL_COMMIT = "parallel_commit";
+	public static final String PARALLEL_ACTIONS = "parallel_actions";
+	public static final String DEFERRED_ACTIONS = "deferred_actions";
+	public static final String MULTI_ROW_INSERT = "multi_row_insert";
+	public static final String SCATTER_BUFFER = "scatter_buffer";
+	public static final String DISTINCT_MEMORY = "distinct_memory";
+	public static final String VALIDATION_WINDOW = "validation_window";
 }
@@ -0,0 +1,51 @@
+package org.fit.proxy.jdbc.configuration;
+
+/**
+ * This enum lists all properties that are held by proxy connection and proxy statement.
+ * The ordinal of the property is used as an index of its slot in ProxyProperiesHelper.
+ * @author Ondřej Marek
+ */
+public enum ProxyProperty {
+	READ_ONLY(ProxyConstants.READ_ONLY_ACTION, Type.BOOLEAN),
+	SCHEMA(ProxyConstants.SCHEMA_ACTION, Type.OBJECT),
+	CATALOG(ProxyConstants.CATALOG_ACTION, Type.OBJECT),
+	NETWORK_TIMEOUT(ProxyConstants.NETWORK_TIMEOUT_ACTION, Type.INT),
+	AUTO_COMMIT(ProxyConstants.AUTO_COMMIT_ACTION, Type.BOOLEAN),
+	TYPE_MAP(ProxyConstants.TYPE_MAP_ACTION, Type.OBJECT),
+
+	CLOSE_CONNECTION(ProxyConstants.CLOSE_CONNECTION, Type.BOOLEAN),
+
+	MAX_FIELD_SIZE(ProxyConstants.MAX_FIELD_SIZE, Type.INT),
+	MAX_ROWS(ProxyConstants.MAX_ROWS, Type.INT),
+	ESCAPE_PROCESSING(ProxyConstants.ESCAPE_PROCESSING, Type.BOOLEAN),
+	QUERY_TIMEOUT(ProxyConstants.QUERY_TIMEOUT, Type.INT),
+	CURSOR_NAME(ProxyConstants.CURSOR_NAME, Type.OBJECT),
+	FETCH_DIR(ProxyConstants.FETCH_DIR, Type.INT),
+	FETCH_SIZE(ProxyConstants.FETCH_SIZE, Type.INT),
+	RESULT_SET_HOLDABILITY(ProxyConstants.RESULT_SET_HOLDABILITY, Type.INT),
+	POOLABLE(ProxyConstants.POOLABLE, Type.BOOLEAN),
+	CLOSE_ON_COMPLETION(ProxyConstants.CLOSE_ON_COMPLETION, Type.BOOLEAN);
+
+	/**
+	 * Type of the value that is stored in the property slot
+	 */
+	public enum Type {
+		BOOLEAN, INT, OBJECT
+	}
+
+	private final String propertyName;
+	private final Type type;
+
+	private ProxyProperty(String propertyName, Type type) {
+		this.propertyName = propertyName;
+		this.type = type;
+	}
+
+	public String getPropertyName() {
+		return propertyName;
+	}
+
+	public Type getType() {
+		return type;
+	}
+}
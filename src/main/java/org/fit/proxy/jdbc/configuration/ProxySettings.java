@@ -0,0 +1,164 @@
+package org.fit.proxy.jdbc.configuration;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * This class holds settings of a proxy connection. Settings are read from the same properties as the connections are.
+ * All settings are optional, when a setting is missing or invalid, its default value is used.
+ *
+ * @author Ondřej Marek
+ */
+public class ProxySettings {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_PARALLEL_THREADS = 8;
+	public static final int DEFAULT_SCATTER_BUFFER = 1000;
+	public static final int DEFAULT_DISTINCT_MEMORY = 100000;
+	public static final int DEFAULT_VALIDATION_WINDOW = 1000;
+
+	private final int batchSize;
+	private final int parallelThreads;
+	private final boolean parallelBatch;
+	private final boolean parallelCommit;
+	private final boolean parallelActions;
+	private final boolean deferredActions;
+	private final boolean multiRowInsert;
+	private final int scatterBuffer;
+	private final int distinctMemory;
+	private final int validationWindow;
+
+	/**
+	 * Reads settings from given properties
+	 * @param properties proxy properties, may be null
+	 */
+	public ProxySettings(Properties properties) {
+		Properties source = (properties == null) ? new Properties() : properties;
+
+		batchSize = readInt(source, ProxyConstants.BATCH_SIZE, DEFAULT_BATCH_SIZE, 1);
+		parallelThreads = readInt(source, ProxyConstants.PARALLEL_THREADS, DEFAULT_PARALLEL_THREADS, 1);
+		parallelBatch = readBoolean(source, ProxyConstants.PARALLEL_BATCH, false);
+		parallelCommit = readBoolean(source, ProxyConstants.PARALLEL_COMMIT, false);
+		parallelActions = readBoolean(source, ProxyConstants.PARALLEL_ACTIONS, false);
+		deferredActions = readBoolean(source, ProxyConstants.DEFERRED_ACTIONS, false);
+		multiRowInsert = readBoolean(source, ProxyConstants.MULTI_ROW_INSERT, false);
+		scatterBuffer = readInt(source, ProxyConstants.SCATTER_BUFFER, DEFAULT_SCATTER_BUFFER, 1);
+		distinctMemory = readInt(source, ProxyConstants.DISTINCT_MEMORY, DEFAULT_DISTINCT_MEMORY, 1);
+		validationWindow = readInt(source, ProxyConstants.VALIDATION_WINDOW, DEFAULT_VALIDATION_WINDOW, 0);
+	}
+
+	private static int readInt(Properties properties, String key, int defaultValue, int minimum) {
+		String value = properties.getProperty(key);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			int res = Integer.parseInt(value.trim());
+
+			if (res >= minimum) {
+				return res;
+			}
+		} catch (NumberFormatException e) {
+			//handled below
+		}
+
+		log.warning(new StringBuilder("Invalid value of setting ").append(key).append(": ").append(value).append(". Using default value ").append(defaultValue).toString());
+		return defaultValue;
+	}
+
+	private static boolean readBoolean(Properties properties, String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Returns the maximal number of statements that are sent to a database in one batch
+	 * @return batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Returns the maximal number of threads that run tasks in connections concurrently
+	 * @return number of threads
+	 */
+	public int getParallelThreads() {
+		return parallelThreads;
+	}
+
+	/**
+	 * Returns whether batches of different connections are executed concurrently
+	 * @return whether to execute batches concurrently
+	 */
+	public boolean isParallelBatch() {
+		return parallelBatch;
+	}
+
+	/**
+	 * Returns whether commits, rollbacks and releases of savepoints of different connections are executed concurrently
+	 * @return whether to end transactions concurrently
+	 */
+	public boolean isParallelCommit() {
+		return parallelCommit;
+	}
+
+	/**
+	 * Returns whether settings of the connection such as auto commit or read only are applied to different connections concurrently
+	 * @return whether to run connection-wide actions concurrently
+	 */
+	public boolean isParallelActions() {
+		return parallelActions;
+	}
+
+	/**
+	 * Returns whether settings of the connection are only recorded and applied to a connection when a statement is executed in it
+	 * @return whether to defer connection settings
+	 */
+	public boolean isDeferredActions() {
+		return deferredActions;
+	}
+
+	/**
+	 * Returns whether batched rows of a prepared single row insert are sent as one multi row insert
+	 * @return whether to rewrite batched inserts
+	 */
+	public boolean isMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	/**
+	 * Returns the maximal number of rows of a single shard that are buffered while a broadcast query is being read
+	 * @return number of rows
+	 */
+	public int getScatterBuffer() {
+		return scatterBuffer;
+	}
+
+	/**
+	 * Returns the maximal number of distinct rows that are held in memory when rows of a broadcast query are deduplicated,
+	 * further rows are spilled to temporary files
+	 * @return number of rows
+	 */
+	public int getDistinctMemory() {
+		return distinctMemory;
+	}
+
+	/**
+	 * Returns how long a successful task in a connection proves that the connection is alive, such connections are not checked by validation
+	 * @return time in milliseconds, 0 when connections are always checked
+	 */
+	public int getValidationWindow() {
+		return validationWindow;
+	}
+}
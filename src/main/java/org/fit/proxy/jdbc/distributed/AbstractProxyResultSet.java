@@ -0,0 +1,1328 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Read only, forward only result set whose rows are produced by the proxy driver, e.g. rows merged from result sets of more connections.
+ * Rows are arrays of column values, getters convert the values the same way as the common drivers do.
+ * @author Ondřej Marek
+ */
+public abstract class AbstractProxyResultSet implements ResultSet {
+	public static final long NO_LIMIT = -1L;
+
+	private final Statement statement;
+	private Object[] row;
+	private boolean wasNull = false;
+	private boolean closed = false;
+	private boolean released = false;
+	private long offset = 0L;
+	private long limit = NO_LIMIT;
+	private boolean afterLast = false;
+	private int rowNumber = 0;
+	private int fetchSize = 0;
+	private Map<String, Integer> columns;
+
+	/**
+	 * Creates a result set
+	 * @param statement proxy statement that created the result set, may be null
+	 */
+	protected AbstractProxyResultSet(Statement statement) {
+		this.statement = statement;
+	}
+
+	/**
+	 * Returns the next row
+	 * @return values of columns or null when there are no more rows
+	 * @throws SQLException when the row cannot be read
+	 */
+	protected abstract Object[] fetchRow() throws SQLException;
+
+	/**
+	 * Returns meta data of rows
+	 * @return meta data
+	 * @throws SQLException when meta data are not available
+	 */
+	protected abstract ProxyResultSetMetaData readMetaData() throws SQLException;
+
+	/**
+	 * Releases sources of rows. It is called once, when the last row is read or when the result set is closed.
+	 */
+	protected abstract void release();
+
+	/**
+	 * Sets the range of rows that are returned, like OFFSET and LIMIT clauses do. When the last row of the range is read, sources are released
+	 * and remaining rows are not read at all.
+	 * @param offset number of rows to skip
+	 * @param limit maximal number of rows to return or NO_LIMIT
+	 */
+	public void setRange(long offset, long limit) {
+		this.offset = Math.max(offset, 0L);
+		this.limit = limit;
+	}
+
+	private void finish() {
+		afterLast = true;
+		row = null;
+
+		if (!released) {
+			released = true;
+			release();
+		}
+	}
+
+	private void ensureOpen() throws SQLException {
+		if (closed) {
+			throw new SQLException("Proxy result set is already closed!");
+		}
+	}
+
+	@Override
+	public boolean next() throws SQLException {
+		ensureOpen();
+
+		if (afterLast) {
+			return false;
+		}
+
+		if (limit != NO_LIMIT && rowNumber >= limit) {
+			finish();
+			return false;
+		}
+
+		for (; offset > 0; offset--) {
+			if (fetchRow() == null) {
+				finish();
+				return false;
+			}
+		}
+
+		row = fetchRow();
+
+		if (row == null) {
+			finish();
+			return false;
+		}
+
+		rowNumber++;
+		return true;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+
+		finish();
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return closed;
+	}
+
+	@Override
+	public boolean wasNull() throws SQLException {
+		return wasNull;
+	}
+
+	/**
+	 * Returns value of a column of the current row
+	 * @param columnIndex index of column
+	 * @return value
+	 * @throws SQLException when there is no current row or the index is invalid
+	 */
+	protected Object getValue(int columnIndex) throws SQLException {
+		ensureOpen();
+
+		if (row == null) {
+			throw new SQLException("Proxy result set is not positioned on a row.");
+		}
+
+		if (columnIndex < 1 || columnIndex > row.length) {
+			throw new SQLException("Invalid column index: " + columnIndex);
+		}
+
+		Object res = row[columnIndex - 1];
+		wasNull = (res == null);
+
+		return res;
+	}
+
+	private static SQLException conversionError(Object value, String type) {
+		return new SQLException(new StringBuilder("Unable to convert value ").append(value).append(" of ").append(value.getClass().getName()).append(" to ").append(type).toString());
+	}
+
+	private static BigDecimal toBigDecimal(Object value) throws SQLException {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		}
+
+		if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		}
+
+		if (value instanceof Double || value instanceof Float) {
+			return BigDecimal.valueOf(((Number) value).doubleValue());
+		}
+
+		if (value instanceof Number) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		}
+
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? BigDecimal.ONE : BigDecimal.ZERO;
+		}
+
+		try {
+			return new BigDecimal(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw conversionError(value, "number");
+		}
+	}
+
+	private static Number toNumber(Object value) throws SQLException {
+		return (value instanceof Number) ? (Number) value : toBigDecimal(value);
+	}
+
+	@Override
+	public String getString(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? null : value.toString();
+	}
+
+	@Override
+	public boolean getBoolean(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null) {
+			return false;
+		}
+
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+
+		if (value instanceof String) {
+			String s = ((String) value).trim();
+			return s.equalsIgnoreCase("true") || s.equals("1");
+		}
+
+		return toBigDecimal(value).signum() != 0;
+	}
+
+	@Override
+	public byte getByte(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0 : toNumber(value).byteValue();
+	}
+
+	@Override
+	public short getShort(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0 : toNumber(value).shortValue();
+	}
+
+	@Override
+	public int getInt(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0 : toNumber(value).intValue();
+	}
+
+	@Override
+	public long getLong(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0L : toNumber(value).longValue();
+	}
+
+	@Override
+	public float getFloat(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0F : toNumber(value).floatValue();
+	}
+
+	@Override
+	public double getDouble(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? 0D : toNumber(value).doubleValue();
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+		return (value == null) ? null : toBigDecimal(value);
+	}
+
+	@Override
+	@Deprecated
+	public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+		BigDecimal value = getBigDecimal(columnIndex);
+		return (value == null) ? null : value.setScale(scale, RoundingMode.HALF_UP);
+	}
+
+	@Override
+	public byte[] getBytes(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null || value instanceof byte[]) {
+			return (byte[]) value;
+		}
+
+		if (value instanceof Blob) {
+			Blob blob = (Blob) value;
+			return blob.getBytes(1, (int) blob.length());
+		}
+
+		throw conversionError(value, "bytes");
+	}
+
+	@Override
+	public Date getDate(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null || value instanceof Date) {
+			return (Date) value;
+		}
+
+		if (value instanceof java.util.Date) {
+			return new Date(((java.util.Date) value).getTime());
+		}
+
+		try {
+			return Date.valueOf(value.toString().trim());
+		} catch (IllegalArgumentException e) {
+			throw conversionError(value, "date");
+		}
+	}
+
+	@Override
+	public Time getTime(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null || value instanceof Time) {
+			return (Time) value;
+		}
+
+		if (value instanceof java.util.Date) {
+			return new Time(((java.util.Date) value).getTime());
+		}
+
+		try {
+			return Time.valueOf(value.toString().trim());
+		} catch (IllegalArgumentException e) {
+			throw conversionError(value, "time");
+		}
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null || value instanceof Timestamp) {
+			return (Timestamp) value;
+		}
+
+		if (value instanceof java.util.Date) {
+			return new Timestamp(((java.util.Date) value).getTime());
+		}
+
+		try {
+			return Timestamp.valueOf(value.toString().trim());
+		} catch (IllegalArgumentException e) {
+			throw conversionError(value, "timestamp");
+		}
+	}
+
+	@Override
+	public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+		return getDate(columnIndex);
+	}
+
+	@Override
+	public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+		return getTime(columnIndex);
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+		return getTimestamp(columnIndex);
+	}
+
+	@Override
+	public InputStream getAsciiStream(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return (value == null) ? null : new ByteArrayInputStream(value.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	@Deprecated
+	public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return (value == null) ? null : new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_16BE));
+	}
+
+	@Override
+	public InputStream getBinaryStream(int columnIndex) throws SQLException {
+		byte[] value = getBytes(columnIndex);
+		return (value == null) ? null : new ByteArrayInputStream(value);
+	}
+
+	@Override
+	public Reader getCharacterStream(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return (value == null) ? null : new StringReader(value);
+	}
+
+	@Override
+	public String getNString(int columnIndex) throws SQLException {
+		return getString(columnIndex);
+	}
+
+	@Override
+	public Reader getNCharacterStream(int columnIndex) throws SQLException {
+		return getCharacterStream(columnIndex);
+	}
+
+	@Override
+	public Object getObject(int columnIndex) throws SQLException {
+		return getValue(columnIndex);
+	}
+
+	@Override
+	public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+		return getValue(columnIndex);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+		Object res;
+
+		if (type == String.class) {
+			res = getString(columnIndex);
+		} else if (type == Integer.class) {
+			res = getInt(columnIndex);
+		} else if (type == Long.class) {
+			res = getLong(columnIndex);
+		} else if (type == Short.class) {
+			res = getShort(columnIndex);
+		} else if (type == Byte.class) {
+			res = getByte(columnIndex);
+		} else if (type == Double.class) {
+			res = getDouble(columnIndex);
+		} else if (type == Float.class) {
+			res = getFloat(columnIndex);
+		} else if (type == Boolean.class) {
+			res = getBoolean(columnIndex);
+		} else if (type == BigDecimal.class) {
+			res = getBigDecimal(columnIndex);
+		} else if (type == byte[].class) {
+			res = getBytes(columnIndex);
+		} else if (type == Date.class) {
+			res = getDate(columnIndex);
+		} else if (type == Time.class) {
+			res = getTime(columnIndex);
+		} else if (type == Timestamp.class) {
+			res = getTimestamp(columnIndex);
+		} else {
+			Object value = getValue(columnIndex);
+
+			if (value != null && !type.isInstance(value)) {
+				throw conversionError(value, type.getName());
+			}
+
+			return (T) value;
+		}
+
+		return wasNull ? null : (T) res;
+	}
+
+	private <T> T getTyped(int columnIndex, Class<T> type) throws SQLException {
+		Object value = getValue(columnIndex);
+
+		if (value == null || type.isInstance(value)) {
+			return type.cast(value);
+		}
+
+		throw conversionError(value, type.getSimpleName());
+	}
+
+	@Override
+	public Ref getRef(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, Ref.class);
+	}
+
+	@Override
+	public Blob getBlob(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, Blob.class);
+	}
+
+	@Override
+	public Clob getClob(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, Clob.class);
+	}
+
+	@Override
+	public Array getArray(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, Array.class);
+	}
+
+	@Override
+	public URL getURL(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, URL.class);
+	}
+
+	@Override
+	public RowId getRowId(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, RowId.class);
+	}
+
+	@Override
+	public NClob getNClob(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, NClob.class);
+	}
+
+	@Override
+	public SQLXML getSQLXML(int columnIndex) throws SQLException {
+		return getTyped(columnIndex, SQLXML.class);
+	}
+
+	@Override
+	public int findColumn(String columnLabel) throws SQLException {
+		ensureOpen();
+
+		if (columns == null) {
+			ResultSetMetaData metaData = getMetaData();
+			Map<String, Integer> map = new HashMap<>();
+
+			for (int i = metaData.getColumnCount(); i > 0; i--) {
+				map.put(metaData.getColumnLabel(i).toUpperCase(Locale.ENGLISH), i);
+			}
+
+			columns = map;
+		}
+
+		Integer res = (columnLabel == null) ? null : columns.get(columnLabel.toUpperCase(Locale.ENGLISH));
+
+		if (res == null) {
+			throw new SQLException("Unknown column: " + columnLabel);
+		}
+
+		return res;
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		ensureOpen();
+		return readMetaData();
+	}
+
+	@Override
+	public Statement getStatement() throws SQLException {
+		return statement;
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		ensureOpen();
+		return null;
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		ensureOpen();
+	}
+
+	@Override
+	public String getCursorName() throws SQLException {
+		throw new SQLFeatureNotSupportedException("Proxy result set does not have a named cursor.");
+	}
+
+	@Override
+	public boolean isBeforeFirst() throws SQLException {
+		ensureOpen();
+		return rowNumber == 0 && !afterLast;
+	}
+
+	@Override
+	public boolean isAfterLast() throws SQLException {
+		ensureOpen();
+		return afterLast && rowNumber > 0;
+	}
+
+	@Override
+	public boolean isFirst() throws SQLException {
+		ensureOpen();
+		return rowNumber == 1 && !afterLast;
+	}
+
+	@Override
+	public boolean isLast() throws SQLException {
+		throw new SQLFeatureNotSupportedException("Proxy result set streams rows, it cannot tell whether the row is the last one.");
+	}
+
+	@Override
+	public int getRow() throws SQLException {
+		ensureOpen();
+		return afterLast ? 0 : rowNumber;
+	}
+
+	private static SQLException forwardOnly() {
+		return new SQLException("Proxy result set is forward only.");
+	}
+
+	@Override
+	public void beforeFirst() throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public void afterLast() throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public boolean first() throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public boolean last() throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public boolean absolute(int row) throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public boolean relative(int rows) throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public boolean previous() throws SQLException {
+		throw forwardOnly();
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		if (direction != FETCH_FORWARD) {
+			throw forwardOnly();
+		}
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return FETCH_FORWARD;
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		if (rows < 0) {
+			throw new SQLException("Invalid fetch size: " + rows);
+		}
+
+		fetchSize = rows;
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return fetchSize;
+	}
+
+	@Override
+	public int getType() throws SQLException {
+		return TYPE_FORWARD_ONLY;
+	}
+
+	@Override
+	public int getConcurrency() throws SQLException {
+		return CONCUR_READ_ONLY;
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return CLOSE_CURSORS_AT_COMMIT;
+	}
+
+	@Override
+	public boolean rowUpdated() throws SQLException {
+		return false;
+	}
+
+	@Override
+	public boolean rowInserted() throws SQLException {
+		return false;
+	}
+
+	@Override
+	public boolean rowDeleted() throws SQLException {
+		return false;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+
+		throw new SQLException("Proxy result set does not wrap " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public String getString(String columnLabel) throws SQLException {
+		return getString(findColumn(columnLabel));
+	}
+
+	@Override
+	public boolean getBoolean(String columnLabel) throws SQLException {
+		return getBoolean(findColumn(columnLabel));
+	}
+
+	@Override
+	public byte getByte(String columnLabel) throws SQLException {
+		return getByte(findColumn(columnLabel));
+	}
+
+	@Override
+	public short getShort(String columnLabel) throws SQLException {
+		return getShort(findColumn(columnLabel));
+	}
+
+	@Override
+	public int getInt(String columnLabel) throws SQLException {
+		return getInt(findColumn(columnLabel));
+	}
+
+	@Override
+	public long getLong(String columnLabel) throws SQLException {
+		return getLong(findColumn(columnLabel));
+	}
+
+	@Override
+	public float getFloat(String columnLabel) throws SQLException {
+		return getFloat(findColumn(columnLabel));
+	}
+
+	@Override
+	public double getDouble(String columnLabel) throws SQLException {
+		return getDouble(findColumn(columnLabel));
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+		return getBigDecimal(findColumn(columnLabel));
+	}
+
+	@Override
+	@Deprecated
+	public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+		return getBigDecimal(findColumn(columnLabel), scale);
+	}
+
+	@Override
+	public byte[] getBytes(String columnLabel) throws SQLException {
+		return getBytes(findColumn(columnLabel));
+	}
+
+	@Override
+	public Date getDate(String columnLabel) throws SQLException {
+		return getDate(findColumn(columnLabel));
+	}
+
+	@Override
+	public Time getTime(String columnLabel) throws SQLException {
+		return getTime(findColumn(columnLabel));
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel) throws SQLException {
+		return getTimestamp(findColumn(columnLabel));
+	}
+
+	@Override
+	public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+		return getDate(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+		return getTime(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+		return getTimestamp(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public InputStream getAsciiStream(String columnLabel) throws SQLException {
+		return getAsciiStream(findColumn(columnLabel));
+	}
+
+	@Override
+	@Deprecated
+	public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+		return getUnicodeStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public InputStream getBinaryStream(String columnLabel) throws SQLException {
+		return getBinaryStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public Reader getCharacterStream(String columnLabel) throws SQLException {
+		return getCharacterStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public String getNString(String columnLabel) throws SQLException {
+		return getNString(findColumn(columnLabel));
+	}
+
+	@Override
+	public Reader getNCharacterStream(String columnLabel) throws SQLException {
+		return getNCharacterStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public Object getObject(String columnLabel) throws SQLException {
+		return getObject(findColumn(columnLabel));
+	}
+
+	@Override
+	public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+		return getObject(findColumn(columnLabel), map);
+	}
+
+	@Override
+	public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+		return getObject(findColumn(columnLabel), type);
+	}
+
+	@Override
+	public Ref getRef(String columnLabel) throws SQLException {
+		return getRef(findColumn(columnLabel));
+	}
+
+	@Override
+	public Blob getBlob(String columnLabel) throws SQLException {
+		return getBlob(findColumn(columnLabel));
+	}
+
+	@Override
+	public Clob getClob(String columnLabel) throws SQLException {
+		return getClob(findColumn(columnLabel));
+	}
+
+	@Override
+	public Array getArray(String columnLabel) throws SQLException {
+		return getArray(findColumn(columnLabel));
+	}
+
+	@Override
+	public URL getURL(String columnLabel) throws SQLException {
+		return getURL(findColumn(columnLabel));
+	}
+
+	@Override
+	public RowId getRowId(String columnLabel) throws SQLException {
+		return getRowId(findColumn(columnLabel));
+	}
+
+	@Override
+	public NClob getNClob(String columnLabel) throws SQLException {
+		return getNClob(findColumn(columnLabel));
+	}
+
+	@Override
+	public SQLXML getSQLXML(String columnLabel) throws SQLException {
+		return getSQLXML(findColumn(columnLabel));
+	}
+
+	private static SQLException readOnly() {
+		return new SQLFeatureNotSupportedException("Proxy result set is read only.");
+	}
+
+	@Override
+	public void updateNull(int columnIndex) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNull(String columnLabel) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateByte(int columnIndex, byte x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateByte(String columnLabel, byte x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateShort(int columnIndex, short x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateShort(String columnLabel, short x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateInt(int columnIndex, int x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateInt(String columnLabel, int x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateLong(int columnIndex, long x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateLong(String columnLabel, long x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateFloat(int columnIndex, float x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateFloat(String columnLabel, float x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDouble(int columnIndex, double x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDouble(String columnLabel, double x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateString(int columnIndex, String x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateString(String columnLabel, String x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDate(int columnIndex, Date x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDate(String columnLabel, Date x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTime(int columnIndex, Time x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTime(String columnLabel, Time x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader x, int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(int columnIndex, Object x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(String columnLabel, Object x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRef(int columnIndex, Ref x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRef(String columnLabel, Ref x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, Blob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, Blob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Clob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Clob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateArray(int columnIndex, Array x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateArray(String columnLabel, Array x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRowId(int columnIndex, RowId x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRowId(String columnLabel, RowId x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNString(int columnIndex, String nString) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNString(String columnLabel, String nString) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, NClob nClob) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, NClob nClob) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, InputStream inputStream, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, InputStream inputStream, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Reader reader, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Reader reader, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(String columnLabel, Reader x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, InputStream inputStream) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void insertRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void refreshRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void cancelRowUpdates() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void moveToInsertRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void moveToCurrentRow() throws SQLException {
+		throw readOnly();
+	}
+}
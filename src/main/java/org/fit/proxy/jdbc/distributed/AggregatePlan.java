@@ -0,0 +1,341 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.fit.proxy.jdbc.ProxyTools;
+
+/**
+ * Plan of a distributed aggregate query. Every connection computes partial aggregates of its rows grouped by the same columns,
+ * the partial aggregates are combined by the proxy driver. COUNT, SUM, MIN and MAX are combined directly, AVG is computed
+ * from partial SUM and COUNT. COUNT(DISTINCT x) is computed from distinct values of x of every group, which connections
+ * return by grouping their rows by x too, so it can be combined only with MIN and MAX.
+ * @author Ondřej Marek
+ */
+public class AggregatePlan {
+	public static final int VALUE = 0;
+	public static final int COUNT = 1;
+	public static final int SUM = 2;
+	public static final int MIN = 3;
+	public static final int MAX = 4;
+	public static final int AVG = 5;
+	public static final int COUNT_DISTINCT = 6;
+
+	private static final Pattern AGGREGATE = Pattern.compile("^(COUNT|SUM|MIN|MAX|AVG)\\s*\\((.*)\\)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern ALIAS = Pattern.compile("^(.*?)(?:\\s+AS)?\\s+(\"[^\"]+\"|`[^`]+`|[A-Za-z_][A-Za-z0-9_]*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern IDENTIFIER = Pattern.compile("^[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)*$");
+
+	private final String shardItems;
+	private final int[] keyColumns;
+	private final int[] functions;
+	private final int[] columns;
+	private final int[] countColumns;
+	private final String[] labels;
+	private final String distinctGroupBy;
+	private final boolean approximate;
+
+	private AggregatePlan(String shardItems, int[] keyColumns, int[] functions, int[] columns, int[] countColumns, String[] labels,
+			String distinctGroupBy, boolean approximate) {
+		this.shardItems = shardItems;
+		this.keyColumns = keyColumns;
+		this.functions = functions;
+		this.columns = columns;
+		this.countColumns = countColumns;
+		this.labels = labels;
+		this.distinctGroupBy = distinctGroupBy;
+		this.approximate = approximate;
+	}
+
+	/**
+	 * Creates plan of a query
+	 * @param items items of select list
+	 * @param groupBy items of GROUP BY clause, empty when there is none
+	 * @param approximate whether COUNT(DISTINCT) is estimated by HyperLogLog sketches
+	 * @return plan or null when the query does not aggregate its rows
+	 * @throws SQLException when the query aggregates its rows in a way that cannot be distributed
+	 */
+	public static AggregatePlan create(List<String> items, List<String> groupBy, boolean approximate) throws SQLException {
+		List<Item> parsed = new ArrayList<>(items.size());
+		boolean aggregate = !groupBy.isEmpty();
+		boolean countDistinct = false;
+
+		for (String item : items) {
+			Item res = Item.parse(item);
+			parsed.add(res);
+			aggregate |= res.function != VALUE;
+			countDistinct |= res.function == COUNT_DISTINCT;
+		}
+
+		if (!aggregate) {
+			return null;
+		}
+
+		StringBuilder distinctGroupBy = countDistinct ? new StringBuilder() : null;
+
+		StringBuilder shard = new StringBuilder();
+		int count = parsed.size();
+		int[] functions = new int[count];
+		int[] columns = new int[count];
+		int[] countColumns = new int[count];
+		String[] labels = new String[count];
+		int column = 0;
+
+		for (int i = 0; i < count; i++) {
+			Item item = parsed.get(i);
+
+			if (item.expression.equals("*") || item.expression.endsWith(".*")) {
+				throw new SQLException("Distributed aggregate query cannot select all columns (*).");
+			}
+
+			if (shard.length() > 0) {
+				shard.append(", ");
+			}
+
+			functions[i] = item.function;
+			columns[i] = column++;
+			countColumns[i] = -1;
+			labels[i] = (item.alias != null) ? item.alias : item.expression;
+
+			if (countDistinct && item.function != VALUE && item.function != MIN && item.function != MAX && item.function != COUNT_DISTINCT) {
+				throw new SQLException("COUNT(DISTINCT) of distributed query can be combined only with MIN and MAX: " + item.expression);
+			}
+
+			if (item.function == AVG) {
+				shard.append("SUM(").append(item.argument).append("), COUNT(").append(item.argument).append(')');
+				countColumns[i] = column++;
+			} else if (item.function == COUNT_DISTINCT) {
+				shard.append(item.argument);
+				distinctGroupBy.append(", ").append(item.argument);
+			} else {
+				shard.append(item.text);
+			}
+		}
+
+		int[] keyColumns = new int[groupBy.size()];
+
+		for (int i = 0; i < keyColumns.length; i++) {
+			int selected = findItem(parsed, groupBy.get(i));
+
+			if (selected >= 0) {
+				keyColumns[i] = columns[selected];
+			} else {
+				//grouped by a column that is not selected, it is selected as hidden column
+				shard.append(", ").append(groupBy.get(i));
+				keyColumns[i] = column++;
+			}
+		}
+
+		return new AggregatePlan(shard.toString(), keyColumns, functions, columns, countColumns, labels,
+				countDistinct ? distinctGroupBy.substring(2) : null, approximate);
+	}
+
+	private static int findItem(List<Item> items, String expression) {
+		String target = normalize(expression);
+
+		if (Character.isDigit(target.charAt(0))) {
+			try {
+				int position = Integer.parseInt(target);
+
+				if (position >= 1 && position <= items.size()) {
+					return position - 1;
+				}
+			} catch (NumberFormatException e) {
+				//not a position
+			}
+		}
+
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+
+			if (item.function == VALUE && (target.equalsIgnoreCase(normalize(item.expression)) || target.equalsIgnoreCase(item.alias))) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static String normalize(String expression) {
+		return expression.trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * Returns select list of queries of connections
+	 * @return select list
+	 */
+	public String getShardItems() {
+		return shardItems;
+	}
+
+	/**
+	 * Returns columns of partial rows that identify a group (starting by 0)
+	 * @return key columns
+	 */
+	public int[] getKeyColumns() {
+		return keyColumns;
+	}
+
+	public int getColumnCount() {
+		return functions.length;
+	}
+
+	/**
+	 * Returns aggregate function of a selected column
+	 * @param i index of column starting by 0
+	 * @return function or VALUE when the column is not aggregated
+	 */
+	public int getFunction(int i) {
+		return functions[i];
+	}
+
+	/**
+	 * Returns column of partial rows that holds value or partial aggregate of a selected column (partial SUM for AVG)
+	 * @param i index of column starting by 0
+	 * @return column of partial rows starting by 0
+	 */
+	public int getColumn(int i) {
+		return columns[i];
+	}
+
+	/**
+	 * Returns column of partial rows that holds partial COUNT of AVG
+	 * @param i index of column starting by 0
+	 * @return column of partial rows starting by 0 or -1
+	 */
+	public int getCountColumn(int i) {
+		return countColumns[i];
+	}
+
+	public String getLabel(int i) {
+		return labels[i];
+	}
+
+	/**
+	 * Returns arguments of COUNT(DISTINCT) that connections have to group their rows by
+	 * @return comma separated expressions or null when the query has no COUNT(DISTINCT)
+	 */
+	public String getDistinctGroupBy() {
+		return distinctGroupBy;
+	}
+
+	/**
+	 * Returns whether COUNT(DISTINCT) is estimated by HyperLogLog sketches instead of exact sets of values
+	 * @return whether the count is approximate
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/**
+	 * Item of select list
+	 */
+	private static final class Item {
+		private final String text;
+		private final String expression;
+		private final String alias;
+		private final int function;
+		private final String argument;
+
+		private Item(String text, String expression, String alias, int function, String argument) {
+			this.text = text;
+			this.expression = expression;
+			this.alias = alias;
+			this.function = function;
+			this.argument = argument;
+		}
+
+		private static Item parse(String text) throws SQLException {
+			String expression = text;
+			String alias = null;
+			Matcher matcher = ALIAS.matcher(text);
+
+			if (matcher.matches() && isExpression(matcher.group(1).trim())) {
+				expression = matcher.group(1).trim();
+				alias = stripQuotes(matcher.group(2));
+			}
+
+			matcher = AGGREGATE.matcher(expression);
+
+			if (!matcher.matches() || !isSingleCall(expression)) {
+				return new Item(text, expression, alias, VALUE, null);
+			}
+
+			String argument = matcher.group(2).trim();
+			String name = matcher.group(1).toUpperCase(Locale.ENGLISH);
+			int function;
+
+			switch (name) {
+			case "COUNT": function = COUNT; break;
+			case "SUM": function = SUM; break;
+			case "MIN": function = MIN; break;
+			case "MAX": function = MAX; break;
+			default: function = AVG; break;
+			}
+
+			if (argument.regionMatches(true, 0, "DISTINCT", 0, 8) && argument.length() > 8 && !Character.isLetterOrDigit(argument.charAt(8))) {
+				argument = argument.substring(8).trim();
+
+				if (function == COUNT && ProxyTools.splitTopLevel(argument, 0, argument.length()).size() == 1) {
+					function = COUNT_DISTINCT;
+				} else if (function != MIN && function != MAX) {
+					//MIN and MAX do not depend on duplicates
+					throw new SQLException("Aggregate function with DISTINCT cannot be distributed: " + expression);
+				}
+			}
+
+			return new Item(text, expression, alias, function, argument);
+		}
+
+		/**
+		 * Returns whether the part before a possible alias is a complete expression that may have an alias
+		 */
+		private static boolean isExpression(String expression) {
+			return IDENTIFIER.matcher(expression).matches() || (expression.endsWith(")") && isSingleCall(expression));
+		}
+
+		/**
+		 * Returns whether the expression is a single function call, i.e. its first parenthesis is closed by the last character
+		 */
+		private static boolean isSingleCall(String expression) {
+			int open = expression.indexOf('(');
+
+			if (open < 0 || !expression.endsWith(")")) {
+				return false;
+			}
+
+			int depth = 0;
+			int i = open;
+
+			while (i < expression.length()) {
+				int next = ProxyTools.skipQuoted(expression, i);
+
+				if (next != i) {
+					i = next;
+					continue;
+				}
+
+				char c = expression.charAt(i);
+
+				if (c == '(') {
+					depth++;
+				} else if (c == ')' && --depth == 0) {
+					return i == expression.length() - 1;
+				}
+
+				i++;
+			}
+
+			return false;
+		}
+
+		private static String stripQuotes(String alias) {
+			char c = alias.charAt(0);
+
+			return (c == '"' || c == '`') ? alias.substring(1, alias.length() - 1) : alias;
+		}
+	}
+}
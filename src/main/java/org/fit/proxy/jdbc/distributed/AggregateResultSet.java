@@ -0,0 +1,368 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result set of an aggregate query that runs in more connections at once. Partial aggregates of connections are combined
+ * in a hash table keyed by the values of GROUP BY columns. Every group keeps its sums and counts in primitive accumulators,
+ * an integral sum that overflows is continued as a decimal number. When the query is ordered, the combined rows are sorted
+ * in memory. COUNT(DISTINCT) is counted exactly by a set of values with a memory budget, or it is estimated by a HyperLogLog
+ * sketch of every group in fixed memory.
+ * @author Ondřej Marek
+ */
+public class AggregateResultSet extends AbstractProxyResultSet {
+	private static final byte EMPTY = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte DECIMAL = 3;
+
+	private final AbstractProxyResultSet partial;
+	private final AggregatePlan plan;
+	private final ProxyResultSetMetaData metaData;
+	private final boolean[] decimalAverage;
+	private final DistinctSet values;
+	private List<Object[]> rows;
+	private Iterator<Object[]> iterator;
+
+	/**
+	 * Reads all partial rows and combines them
+	 * @param statement proxy statement that created the result set
+	 * @param partial rows of connections, they are closed when this result set is closed
+	 * @param plan plan of the query
+	 * @param keys ORDER BY keys of the query
+	 * @param budget maximal number of values of COUNT(DISTINCT) held in memory
+	 * @throws SQLException when reading of partial rows fails or a key is not a selected column
+	 */
+	public AggregateResultSet(Statement statement, AbstractProxyResultSet partial, AggregatePlan plan, List<OrderKey> keys, int budget) throws SQLException {
+		super(statement);
+
+		this.partial = partial;
+		this.plan = plan;
+		this.values = (plan.getDistinctGroupBy() != null && !plan.isApproximate()) ? new DistinctSet(budget) : null;
+
+		try {
+			Collection<Group> groups = combine();
+			int count = plan.getColumnCount();
+			int[] columns = new int[count];
+
+			for (int i = 0; i < count; i++) {
+				columns[i] = plan.getColumn(i);
+			}
+
+			ProxyResultSetMetaData source = partial.readMetaData();
+			metaData = new ProxyResultSetMetaData(source, columns);
+			decimalAverage = new boolean[count];
+
+			for (int i = 0; i < count; i++) {
+				if (plan.getFunction(i) == AggregatePlan.AVG) {
+					int type = source.getColumnType(plan.getColumn(i) + 1);
+					decimalAverage[i] = type != Types.DOUBLE && type != Types.FLOAT && type != Types.REAL;
+
+					if (decimalAverage[i]) {
+						metaData.setColumn(i + 1, plan.getLabel(i), Types.DECIMAL, "DECIMAL", BigDecimal.class.getName());
+					} else {
+						metaData.setColumn(i + 1, plan.getLabel(i), Types.DOUBLE, "DOUBLE", Double.class.getName());
+					}
+				} else if (plan.getFunction(i) == AggregatePlan.COUNT_DISTINCT) {
+					metaData.setColumn(i + 1, plan.getLabel(i), Types.BIGINT, "BIGINT", Long.class.getName());
+				}
+			}
+
+			rows = new ArrayList<>(groups.size());
+
+			for (Group group : groups) {
+				rows.add(group.result());
+			}
+
+			if (!keys.isEmpty()) {
+				Collections.sort(rows, new RowComparator(keys, metaData));
+			}
+
+			iterator = rows.iterator();
+		} catch (SQLException | RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads partial rows and adds them to their groups
+	 */
+	private Collection<Group> combine() throws SQLException {
+		Map<RowKey, Group> groups = new LinkedHashMap<>();
+		int[] keyColumns = plan.getKeyColumns();
+		int width = -1;
+
+		while (partial.next()) {
+			if (width < 0) {
+				width = partial.readMetaData().getColumnCount();
+			}
+
+			Object[] row = new Object[width];
+
+			for (int i = 0; i < row.length; i++) {
+				row[i] = partial.getObject(i + 1);
+			}
+
+			Object[] key = new Object[keyColumns.length];
+
+			for (int i = 0; i < keyColumns.length; i++) {
+				key[i] = row[keyColumns[i]];
+			}
+
+			RowKey groupKey = new RowKey(key);
+			Group group = groups.get(groupKey);
+
+			if (group == null) {
+				group = new Group(row, key, plan.getColumnCount());
+				groups.put(groupKey, group);
+			}
+
+			group.add(row);
+		}
+
+		if (values != null) {
+			//values that have been spilled are counted when all rows are read
+			Object[] spilled;
+
+			while ((spilled = values.poll()) != null) {
+				groups.get(new RowKey((Object[]) spilled[2])).counts[(Integer) spilled[0]]++;
+			}
+
+			values.close();
+		}
+
+		if (groups.isEmpty() && keyColumns.length == 0) {
+			//a query without GROUP BY returns a single row when no row matches (COUNT is 0, other aggregates are null),
+			//connections do not return it when COUNT(DISTINCT) is grouped by its values
+			Object[] key = new Object[0];
+			groups.put(new RowKey(key), new Group(new Object[partial.readMetaData().getColumnCount()], key, plan.getColumnCount()));
+		}
+
+		return groups.values();
+	}
+
+	@Override
+	protected Object[] fetchRow() throws SQLException {
+		return (iterator != null && iterator.hasNext()) ? iterator.next() : null;
+	}
+
+	@Override
+	protected ProxyResultSetMetaData readMetaData() throws SQLException {
+		return metaData;
+	}
+
+	@Override
+	protected void release() {
+		rows = null;
+		iterator = null;
+
+		if (values != null) {
+			values.close();
+		}
+
+		try {
+			partial.close();
+		} catch (SQLException e) {
+			//partial rows have been read already, nothing is lost
+		}
+	}
+
+	/**
+	 * Accumulators of a single group
+	 */
+	private final class Group {
+		private final Object[] first;
+		private final Object[] key;
+		private final long[] counts;
+		private final long[] longs;
+		private final double[] doubles;
+		private final BigDecimal[] decimals;
+		private final byte[] kinds;
+		private final Object[] extremes;
+		private HyperLogLog[] sketches;
+
+		private Group(Object[] first, Object[] key, int columns) {
+			this.first = first;
+			this.key = key;
+			this.counts = new long[columns];
+			this.longs = new long[columns];
+			this.doubles = new double[columns];
+			this.decimals = new BigDecimal[columns];
+			this.kinds = new byte[columns];
+			this.extremes = new Object[columns];
+		}
+
+		private void add(Object[] row) throws SQLException {
+			for (int i = 0; i < kinds.length; i++) {
+				Object value = row[plan.getColumn(i)];
+
+				switch (plan.getFunction(i)) {
+				case AggregatePlan.COUNT:
+					counts[i] += (value == null) ? 0L : number(value).longValue();
+					break;
+				case AggregatePlan.SUM:
+					sum(i, value);
+					break;
+				case AggregatePlan.AVG:
+					sum(i, value);
+					Object count = row[plan.getCountColumn(i)];
+					counts[i] += (count == null) ? 0L : number(count).longValue();
+					break;
+				case AggregatePlan.COUNT_DISTINCT:
+					if (value == null) {
+						break;
+					}
+
+					if (plan.isApproximate()) {
+						sketch(i).add(value);
+					} else if (values.add(new Object[] {i, value, key})) {
+						counts[i]++;
+					}
+					break;
+				case AggregatePlan.MIN:
+					if (value != null && (extremes[i] == null || RowComparator.compareValues(value, extremes[i]) < 0)) {
+						extremes[i] = value;
+					}
+					break;
+				case AggregatePlan.MAX:
+					if (value != null && (extremes[i] == null || RowComparator.compareValues(value, extremes[i]) > 0)) {
+						extremes[i] = value;
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		private HyperLogLog sketch(int i) {
+			if (sketches == null) {
+				sketches = new HyperLogLog[kinds.length];
+			}
+
+			if (sketches[i] == null) {
+				sketches[i] = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+			}
+
+			return sketches[i];
+		}
+
+		private void sum(int i, Object value) throws SQLException {
+			if (value == null) {
+				return;
+			}
+
+			Number number = number(value);
+
+			if (number instanceof BigDecimal || number instanceof BigInteger) {
+				decimals[i] = decimal(i).add((number instanceof BigDecimal) ? (BigDecimal) number : new BigDecimal((BigInteger) number));
+				kinds[i] = DECIMAL;
+			} else if (number instanceof Double || number instanceof Float) {
+				if (kinds[i] == DECIMAL) {
+					decimals[i] = decimals[i].add(BigDecimal.valueOf(number.doubleValue()));
+				} else {
+					doubles[i] = ((kinds[i] == LONG) ? longs[i] : doubles[i]) + number.doubleValue();
+					kinds[i] = DOUBLE;
+				}
+			} else if (kinds[i] == EMPTY || kinds[i] == LONG) {
+				long added = number.longValue();
+				long res = longs[i] + added;
+
+				//overflow when both operands have a different sign than the result
+				if (((longs[i] ^ res) & (added ^ res)) < 0) {
+					decimals[i] = BigDecimal.valueOf(longs[i]).add(BigDecimal.valueOf(added));
+					kinds[i] = DECIMAL;
+				} else {
+					longs[i] = res;
+					kinds[i] = LONG;
+				}
+			} else if (kinds[i] == DOUBLE) {
+				doubles[i] += number.longValue();
+			} else {
+				decimals[i] = decimals[i].add(BigDecimal.valueOf(number.longValue()));
+			}
+		}
+
+		/**
+		 * Returns the sum of a column as a decimal number
+		 */
+		private BigDecimal decimal(int i) {
+			switch (kinds[i]) {
+			case LONG: return BigDecimal.valueOf(longs[i]);
+			case DOUBLE: return BigDecimal.valueOf(doubles[i]);
+			case DECIMAL: return decimals[i];
+			default: return BigDecimal.ZERO;
+			}
+		}
+
+		private Object sumValue(int i) {
+			switch (kinds[i]) {
+			case LONG: return longs[i];
+			case DOUBLE: return doubles[i];
+			case DECIMAL: return decimals[i];
+			default: return null;
+			}
+		}
+
+		private Object[] result() {
+			Object[] res = new Object[kinds.length];
+
+			for (int i = 0; i < res.length; i++) {
+				switch (plan.getFunction(i)) {
+				case AggregatePlan.COUNT:
+					res[i] = counts[i];
+					break;
+				case AggregatePlan.COUNT_DISTINCT:
+					res[i] = (sketches != null && sketches[i] != null) ? sketches[i].estimate() : counts[i];
+					break;
+				case AggregatePlan.SUM:
+					res[i] = sumValue(i);
+					break;
+				case AggregatePlan.AVG:
+					if (counts[i] == 0L || kinds[i] == EMPTY) {
+						res[i] = null;
+					} else if (decimalAverage[i]) {
+						res[i] = decimal(i).divide(BigDecimal.valueOf(counts[i]), MathContext.DECIMAL128);
+					} else {
+						res[i] = decimal(i).doubleValue() / counts[i];
+					}
+					break;
+				case AggregatePlan.MIN:
+				case AggregatePlan.MAX:
+					res[i] = extremes[i];
+					break;
+				default:
+					res[i] = first[plan.getColumn(i)];
+					break;
+				}
+			}
+
+			return res;
+		}
+
+		private Number number(Object value) throws SQLException {
+			if (value instanceof Number) {
+				return (Number) value;
+			}
+
+			try {
+				return new BigDecimal(value.toString().trim());
+			} catch (NumberFormatException e) {
+				throw new SQLException("Partial aggregate is not a number: " + value, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result set of SELECT DISTINCT query that runs in more connections at once. Every connection returns its distinct rows,
+ * rows that are returned by more connections are removed here. Unordered rows are streamed through a set with a memory budget:
+ * rows that do not fit into the budget are spilled to temporary files and they are returned after all other rows.
+ * Ordered rows arrive sorted, so only rows with the same ORDER BY values have to be compared.
+ * @author Ondřej Marek
+ */
+public class DistinctResultSet extends AbstractProxyResultSet {
+	private final AbstractProxyResultSet partial;
+	private final RowComparator comparator;
+	private final DistinctSet distinct;
+	private Set<RowKey> run;
+	private Object[] runStart;
+	private int width = -1;
+	private boolean draining = false;
+
+	/**
+	 * Creates result set of distinct rows
+	 * @param statement proxy statement that created the result set
+	 * @param partial rows of connections, they are closed when this result set is closed
+	 * @param keys ORDER BY keys of the query, the partial rows have to be sorted by them
+	 * @param budget maximal number of rows held in memory
+	 * @throws SQLException when meta data of ordered rows cannot be read
+	 */
+	public DistinctResultSet(Statement statement, AbstractProxyResultSet partial, List<OrderKey> keys, int budget) throws SQLException {
+		super(statement);
+
+		this.partial = partial;
+
+		try {
+			this.comparator = keys.isEmpty() ? null : new RowComparator(keys, partial.readMetaData());
+		} catch (SQLException | RuntimeException e) {
+			partial.close();
+			throw e;
+		}
+
+		this.distinct = (comparator == null) ? new DistinctSet(budget) : null;
+		this.run = (comparator == null) ? null : new HashSet<RowKey>();
+	}
+
+	@Override
+	protected Object[] fetchRow() throws SQLException {
+		if (draining) {
+			return distinct.poll();
+		}
+
+		while (partial.next()) {
+			Object[] row = readRow();
+
+			if (comparator == null) {
+				if (distinct.add(row)) {
+					return row;
+				}
+			} else {
+				if (runStart == null || comparator.compare(runStart, row) != 0) {
+					run.clear();
+					runStart = row;
+				}
+
+				if (run.add(new RowKey(row))) {
+					return row;
+				}
+			}
+		}
+
+		if (distinct == null) {
+			return null;
+		}
+
+		draining = true;
+		return distinct.poll();
+	}
+
+	private Object[] readRow() throws SQLException {
+		if (width < 0) {
+			width = partial.readMetaData().getColumnCount();
+		}
+
+		Object[] res = new Object[width];
+
+		for (int i = 0; i < width; i++) {
+			res[i] = partial.getObject(i + 1);
+		}
+
+		return res;
+	}
+
+	@Override
+	protected ProxyResultSetMetaData readMetaData() throws SQLException {
+		return partial.readMetaData();
+	}
+
+	@Override
+	protected void release() {
+		if (distinct != null) {
+			distinct.close();
+		}
+
+		run = null;
+
+		try {
+			partial.close();
+		} catch (SQLException e) {
+			//the rows are not needed any more
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * Set of distinct rows with a memory budget. Rows are kept in memory until the budget is exceeded, then every row that is not
+ * in memory is written to one of temporary files that are partitioned by hash of the row. Spilled rows are deduplicated
+ * partition by partition when all rows have been added, a partition that does not fit into the budget spills again.
+ * @author Ondřej Marek
+ */
+class DistinctSet {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private static final int PARTITION_BITS = 4;
+	private static final int PARTITIONS = 1 << PARTITION_BITS;
+	private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+	/**
+	 * How often output streams forget written objects, so that they do not hold all spilled rows
+	 */
+	private static final int RESET_INTERVAL = 1024;
+
+	private final int budget;
+	private final int level;
+	private Set<RowKey> memory = new HashSet<>();
+	private File[] files;
+	private ObjectOutputStream[] outputs;
+	private long[] counts;
+	private long spilled = 0L;
+
+	private int partition = 0;
+	private ObjectInputStream input;
+	private long remaining;
+	private DistinctSet child;
+
+	/**
+	 * Creates an empty set
+	 * @param budget maximal number of rows held in memory
+	 */
+	DistinctSet(int budget) {
+		this(budget, 0);
+	}
+
+	private DistinctSet(int budget, int level) {
+		this.budget = budget;
+		this.level = level;
+	}
+
+	/**
+	 * Adds a row to the set
+	 * @param row row
+	 * @return true when the row is new and it has been kept in memory, false when the row is a duplicate or it has been spilled
+	 * (spilled rows that are new are returned by poll())
+	 * @throws SQLException when the row cannot be spilled
+	 */
+	boolean add(Object[] row) throws SQLException {
+		RowKey key = new RowKey(row);
+
+		if (memory.contains(key)) {
+			return false;
+		}
+
+		if (memory.size() < budget || level >= MAX_LEVEL) {
+			memory.add(key);
+			return true;
+		}
+
+		spill(key);
+		return false;
+	}
+
+	private void spill(RowKey key) throws SQLException {
+		if (outputs == null) {
+			log.log(Level.FINE, "Distinct rows exceeded memory budget of " + budget + " rows, spilling to temporary files.");
+
+			files = new File[PARTITIONS];
+			outputs = new ObjectOutputStream[PARTITIONS];
+			counts = new long[PARTITIONS];
+		}
+
+		int i = partition(key.hashCode());
+
+		try {
+			if (outputs[i] == null) {
+				files[i] = File.createTempFile("proxy-distinct", ".tmp");
+				files[i].deleteOnExit();
+				outputs[i] = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(files[i])));
+			}
+
+			outputs[i].writeObject(key.getValues());
+			counts[i]++;
+
+			if (++spilled % RESET_INTERVAL == 0) {
+				outputs[i].reset();
+			}
+		} catch (NotSerializableException e) {
+			close();
+			throw new SQLException("Distinct rows cannot be spilled, a value is not serializable.", e);
+		} catch (IOException e) {
+			close();
+			throw new SQLException("Distinct rows cannot be spilled to temporary file.", e);
+		}
+	}
+
+	/**
+	 * Every level uses different bits of the hash
+	 */
+	private int partition(int hash) {
+		int mixed = hash ^ (hash >>> 16);
+		mixed *= 0x85EBCA6B;
+		mixed ^= mixed >>> 13;
+		mixed *= 0xC2B2AE35;
+		mixed ^= mixed >>> 16;
+
+		return (mixed >>> (level * PARTITION_BITS)) & (PARTITIONS - 1);
+	}
+
+	/**
+	 * Returns the next spilled row that is distinct from all other rows, it has to be called after all rows have been added
+	 * @return row or null when there are no more rows
+	 * @throws SQLException when spilled rows cannot be read
+	 */
+	Object[] poll() throws SQLException {
+		if (outputs == null) {
+			return null;
+		}
+
+		try {
+			while (true) {
+				if (input != null) {
+					if (remaining > 0) {
+						remaining--;
+						Object[] row = (Object[]) input.readObject();
+
+						if (child.add(row)) {
+							return row;
+						}
+
+						continue;
+					}
+
+					input.close();
+					input = null;
+					deleteFile(partition - 1);
+				}
+
+				if (child != null) {
+					Object[] row = child.poll();
+
+					if (row != null) {
+						return row;
+					}
+
+					child.close();
+					child = null;
+				}
+
+				if (partition == 0) {
+					//rows in memory have been returned already, the partitions are read with the whole budget
+					memory = new HashSet<>();
+					finishOutputs();
+				}
+
+				if (partition >= PARTITIONS) {
+					return null;
+				}
+
+				int i = partition++;
+
+				if (files[i] != null) {
+					input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(files[i])));
+					remaining = counts[i];
+					child = new DistinctSet(budget, level + 1);
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			close();
+			throw new SQLException("Spilled distinct rows cannot be read from temporary file.", e);
+		}
+	}
+
+	private void finishOutputs() throws IOException {
+		for (int i = 0; i < PARTITIONS; i++) {
+			if (outputs[i] != null) {
+				outputs[i].close();
+				outputs[i] = null;
+			}
+		}
+	}
+
+	private void deleteFile(int i) {
+		if (files[i] != null && !files[i].delete()) {
+			log.log(Level.FINE, "Temporary file " + files[i] + " cannot be deleted.");
+		}
+
+		files[i] = null;
+	}
+
+	/**
+	 * Returns whether some rows have been spilled to temporary files
+	 * @return whether rows were spilled
+	 */
+	boolean isSpilled() {
+		return outputs != null;
+	}
+
+	/**
+	 * Releases memory and deletes temporary files
+	 */
+	void close() {
+		memory = new HashSet<>();
+
+		if (child != null) {
+			child.close();
+			child = null;
+		}
+
+		if (outputs == null) {
+			return;
+		}
+
+		try {
+			if (input != null) {
+				input.close();
+				input = null;
+			}
+		} catch (IOException e) {
+			log.log(Level.FINE, "Problem closing temporary file", e);
+		}
+
+		for (int i = 0; i < PARTITIONS; i++) {
+			try {
+				if (outputs[i] != null) {
+					outputs[i].close();
+					outputs[i] = null;
+				}
+			} catch (IOException e) {
+				log.log(Level.FINE, "Problem closing temporary file", e);
+			}
+
+			deleteFile(i);
+		}
+	}
+}
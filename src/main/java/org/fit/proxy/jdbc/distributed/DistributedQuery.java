@@ -0,0 +1,537 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.fit.proxy.jdbc.ParameterBuffer;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.ProxyTools;
+import org.fit.proxy.jdbc.configuration.ProxySettings;
+
+/**
+ * Analysis of a query that runs in more connections at once. It finds clauses that have to be applied again when rows of connections
+ * are merged (ORDER BY, LIMIT and OFFSET) and rewrites the query that is sent to every connection.
+ * LIMIT is pushed down to connections: every connection returns at most LIMIT + OFFSET rows and OFFSET is applied to merged rows only.
+ * Aggregate queries are rewritten to compute partial aggregates of every connection, ORDER BY and LIMIT are applied to combined rows.
+ * Rows of SELECT DISTINCT are deduplicated across connections.
+ * @author Ondřej Marek
+ */
+public class DistributedQuery {
+	private static final int NO_PARAMETER = 0;
+
+	/**
+	 * Hint that selects estimation of COUNT(DISTINCT) by HyperLogLog sketches
+	 */
+	public static final String APPROXIMATE_HINT = "approximate";
+
+	private final String sql;
+	private final String shardSql;
+	private final List<OrderKey> orderKeys;
+	private final long limit;
+	private final int limitParameter;
+	private final long offset;
+	private final AggregatePlan aggregate;
+	private final boolean distinct;
+
+	private DistributedQuery(String sql, String shardSql, List<OrderKey> orderKeys, long limit, int limitParameter, long offset, AggregatePlan aggregate,
+			boolean distinct) {
+		this.sql = sql;
+		this.shardSql = shardSql;
+		this.orderKeys = orderKeys;
+		this.limit = limit;
+		this.limitParameter = limitParameter;
+		this.offset = offset;
+		this.aggregate = aggregate;
+		this.distinct = distinct;
+	}
+
+	/**
+	 * Analyses a query
+	 * @param sql sql query
+	 * @return analysis
+	 * @throws SQLException when the query cannot be distributed, e.g. its OFFSET is a parameter
+	 */
+	public static DistributedQuery parse(String sql) throws SQLException {
+		int end = trimmedEnd(sql);
+		int tail = findTail(sql, end);
+		int order = findClause(sql, "ORDER", 0, tail);
+		List<OrderKey> orderKeys = parseOrderBy(sql, order, tail);
+
+		Tail clauses = new Tail(sql, tail, end);
+		clauses.parse();
+
+		if (clauses.offsetParameter != NO_PARAMETER || (clauses.limitParameter != NO_PARAMETER && clauses.offset > 0)) {
+			throw new SQLException("OFFSET of distributed query has to be a literal and it cannot be combined with parametrized LIMIT: " + sql);
+		}
+
+		int select = findSelect(sql);
+		boolean distinct = select >= 0 && isKeywordAt(sql, skipComments(sql, select + 6), "DISTINCT");
+		DistributedQuery aggregate = (select < 0) ? null : parseAggregate(sql, select, distinct, (order >= 0) ? order : tail, orderKeys, clauses);
+
+		if (aggregate != null) {
+			return aggregate;
+		}
+
+		String shardSql = sql;
+
+		if (clauses.offset > 0) {
+			StringBuilder sb = new StringBuilder(sql.length()).append(sql, 0, tail);
+
+			if (clauses.limit != AbstractProxyResultSet.NO_LIMIT) {
+				long pushed = clauses.limit + clauses.offset;
+				sb.append(clauses.fetch ? "FETCH FIRST " + pushed + " ROWS ONLY" : "LIMIT " + pushed);
+			}
+
+			shardSql = sb.append(' ').append(sql, clauses.position, end).toString().trim();
+		}
+
+		return new DistributedQuery(sql, shardSql, orderKeys, clauses.limit, clauses.limitParameter, clauses.offset, null, distinct);
+	}
+
+	/**
+	 * Returns position of the main SELECT of a query that is not compound (UNION etc.)
+	 * @return position or -1
+	 */
+	private static int findSelect(String sql) {
+		int res = ProxyTools.findTopLevelKeyword(sql, "SELECT", 0);
+
+		if (res < 0) {
+			return -1;
+		}
+
+		for (String keyword : new String[] {"UNION", "INTERSECT", "EXCEPT", "MINUS"}) {
+			if (ProxyTools.findTopLevelKeyword(sql, keyword, res) >= 0) {
+				return -1;
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Creates analysis of an aggregate query, ORDER BY and LIMIT are not sent to connections
+	 * @param select position of SELECT
+	 * @param distinct whether the query is SELECT DISTINCT
+	 * @param end position of ORDER BY or of the tail of the query
+	 * @return analysis or null when the query does not aggregate its rows
+	 */
+	private static DistributedQuery parseAggregate(String sql, int select, boolean distinct, int end, List<OrderKey> orderKeys, Tail clauses) throws SQLException {
+		int start = skipComments(sql, select + 6);
+
+		if (distinct) {
+			start = skipComments(sql, start + 8);
+		} else if (isKeywordAt(sql, start, "ALL")) {
+			start = skipComments(sql, start + 3);
+		}
+
+		int from = ProxyTools.findTopLevelKeyword(sql, "FROM", start);
+
+		if (from < 0 || from > end) {
+			return null;
+		}
+
+		int having = ProxyTools.findTopLevelKeyword(sql, "HAVING", from);
+		boolean hasHaving = having >= 0 && having < end;
+		int group = findClause(sql, "GROUP", from, end);
+		List<String> groupBy = Collections.emptyList();
+
+		if (group >= 0) {
+			groupBy = ProxyTools.splitTopLevel(sql, afterBy(sql, group + 5), hasHaving ? having : end);
+		}
+
+		AggregatePlan plan = AggregatePlan.create(ProxyTools.splitTopLevel(sql, start, from), groupBy, ProxyTools.hasHint(sql, APPROXIMATE_HINT));
+
+		if (plan == null) {
+			return null;
+		}
+
+		if (distinct || hasHaving || clauses.limitParameter != NO_PARAMETER) {
+			throw new SQLException("Distributed aggregate query cannot contain SELECT DISTINCT, HAVING or parametrized LIMIT: " + sql);
+		}
+
+		if (ProxyTools.countParameters(plan.getShardItems()) != ProxyTools.countParameters(sql.substring(start, from))) {
+			throw new SQLException("Parameters of distributed aggregate query cannot be in AVG or in columns of GROUP BY that are not selected: " + sql);
+		}
+
+		StringBuilder shardSql = new StringBuilder(sql.length()).append(sql, 0, start).append(plan.getShardItems()).append(' ').append(sql, from, end);
+
+		if (plan.getDistinctGroupBy() != null) {
+			if (ProxyTools.countParameters(plan.getDistinctGroupBy()) > 0) {
+				throw new SQLException("Parameters of distributed aggregate query cannot be in COUNT(DISTINCT): " + sql);
+			}
+
+			//connections return distinct values of every group
+			trimEnd(shardSql).append((group >= 0) ? ", " : " GROUP BY ").append(plan.getDistinctGroupBy());
+		}
+
+		return new DistributedQuery(sql, trimEnd(shardSql).toString(), orderKeys, clauses.limit, NO_PARAMETER, clauses.offset, plan, false);
+	}
+
+	private static StringBuilder trimEnd(StringBuilder sb) {
+		while (sb.length() > 0 && Character.isWhitespace(sb.charAt(sb.length() - 1))) {
+			sb.setLength(sb.length() - 1);
+		}
+
+		return sb;
+	}
+
+	private static int trimmedEnd(String sql) {
+		int res = sql.length();
+
+		while (res > 0 && (Character.isWhitespace(sql.charAt(res - 1)) || sql.charAt(res - 1) == ';')) {
+			res--;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Returns position of the first of LIMIT, OFFSET and FETCH clauses that end the query
+	 */
+	private static int findTail(String sql, int end) {
+		int res = end;
+
+		for (String keyword : new String[] {"LIMIT", "OFFSET", "FETCH"}) {
+			int position = ProxyTools.findTopLevelKeyword(sql, keyword, 0);
+
+			if (position >= 0 && position < res) {
+				res = position;
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Finds a top level clause that consists of a keyword followed by BY (ORDER BY, GROUP BY)
+	 * @return position of the keyword or -1
+	 */
+	private static int findClause(String sql, String keyword, int from, int end) {
+		int res = ProxyTools.findTopLevelKeyword(sql, keyword, from);
+
+		while (res >= 0 && res < end) {
+			if (afterBy(sql, res + keyword.length()) >= 0) {
+				return res;
+			}
+
+			res = ProxyTools.findTopLevelKeyword(sql, keyword, res + keyword.length());
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns position after BY that follows given position or -1
+	 */
+	private static int afterBy(String sql, int i) {
+		int by = skipWhitespace(sql, i);
+
+		return isKeywordAt(sql, by, "BY") ? by + 2 : -1;
+	}
+
+	private static List<OrderKey> parseOrderBy(String sql, int order, int end) {
+		if (order < 0) {
+			return Collections.emptyList();
+		}
+
+		List<OrderKey> res = new ArrayList<>();
+
+		for (String item : ProxyTools.splitTopLevel(sql, afterBy(sql, order + 5), end)) {
+			if (!item.isEmpty()) {
+				res.add(parseOrderKey(item));
+			}
+		}
+
+		return res;
+	}
+
+	private static OrderKey parseOrderKey(String item) {
+		String expression = item;
+		Boolean nullsFirst = null;
+		boolean descending = false;
+
+		String upper = expression.toUpperCase(Locale.ENGLISH);
+
+		if (upper.endsWith(" NULLS FIRST") || upper.endsWith(" NULLS LAST")) {
+			nullsFirst = upper.endsWith(" NULLS FIRST");
+			expression = expression.substring(0, upper.lastIndexOf(" NULLS ")).trim();
+			upper = expression.toUpperCase(Locale.ENGLISH);
+		}
+
+		if (upper.endsWith(" DESC")) {
+			descending = true;
+			expression = expression.substring(0, expression.length() - 5).trim();
+		} else if (upper.endsWith(" ASC")) {
+			expression = expression.substring(0, expression.length() - 4).trim();
+		}
+
+		return new OrderKey(expression, descending, nullsFirst);
+	}
+
+	private static int skipWhitespace(String sql, int i) {
+		int res = i;
+
+		while (res < sql.length() && Character.isWhitespace(sql.charAt(res))) {
+			res++;
+		}
+
+		return res;
+	}
+
+	private static int skipComments(String sql, int i) {
+		int res = skipWhitespace(sql, i);
+
+		while (res < sql.length() && ProxyTools.skipQuoted(sql, res) != res && (sql.charAt(res) == '/' || sql.charAt(res) == '-')) {
+			res = skipWhitespace(sql, ProxyTools.skipQuoted(sql, res));
+		}
+
+		return res;
+	}
+
+	private static boolean isKeywordAt(String sql, int i, String keyword) {
+		int after = i + keyword.length();
+
+		return sql.regionMatches(true, i, keyword, 0, keyword.length()) && (after >= sql.length() || !Character.isLetterOrDigit(sql.charAt(after)));
+	}
+
+	/**
+	 * Returns the query that is sent to every connection
+	 * @return sql query
+	 */
+	public String getShardSql() {
+		return shardSql;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public List<OrderKey> getOrderKeys() {
+		return orderKeys;
+	}
+
+	/**
+	 * Returns whether rows of connections have to be merged in order
+	 * @return whether the query has ORDER BY clause
+	 */
+	public boolean isOrdered() {
+		return !orderKeys.isEmpty();
+	}
+
+	/**
+	 * Returns plan of combining partial aggregates of connections
+	 * @return plan or null when the query does not aggregate its rows
+	 */
+	public AggregatePlan getAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * Returns whether rows of connections have to be deduplicated
+	 * @return whether the query is SELECT DISTINCT
+	 */
+	public boolean isDistinct() {
+		return distinct;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the maximal number of merged rows
+	 * @param parameters parameters of prepared statement, null for a statement
+	 * @return limit or NO_LIMIT
+	 * @throws SQLException when the limit is a parameter that is not set
+	 */
+	public long getLimit(ParameterBuffer parameters) throws SQLException {
+		if (limitParameter == NO_PARAMETER) {
+			return limit;
+		}
+
+		Object value = (parameters == null) ? null : parameters.getValue(parameters.getRows(), limitParameter);
+
+		if (!(value instanceof Number)) {
+			throw new SQLException("LIMIT parameter " + limitParameter + " of distributed query is not set to a number.");
+		}
+
+		return ((Number) value).longValue();
+	}
+
+	/**
+	 * Executes queries of connections and merges their rows
+	 * @param owner proxy statement that executes the query
+	 * @param queries queries of connections, they have to run the shard sql of this query
+	 * @param executor executor of proxy connection
+	 * @param settings settings of proxy connection
+	 * @param parameters parameters of prepared statement, null for a statement
+	 * @return merged result set
+	 * @throws SQLException when queries cannot be executed
+	 */
+	public ResultSet execute(Statement owner, List<? extends IShardQuery> queries, ProxyExecutor executor, ProxySettings settings, ParameterBuffer parameters) throws SQLException {
+		long rows;
+
+		try {
+			rows = getLimit(parameters);
+		} catch (SQLException e) {
+			for (IShardQuery query : queries) {
+				query.close();
+			}
+
+			throw e;
+		}
+
+		int bufferSize = settings.getScatterBuffer();
+		AbstractProxyResultSet res;
+
+		if (aggregate != null) {
+			res = new AggregateResultSet(owner, new ScatterGatherResultSet(owner, queries, executor, bufferSize), aggregate, orderKeys, settings.getDistinctMemory());
+		} else if (isOrdered()) {
+			res = new SortedMergeResultSet(owner, queries, executor, orderKeys);
+		} else {
+			res = new ScatterGatherResultSet(owner, queries, executor, bufferSize);
+		}
+
+		if (distinct) {
+			res = new DistinctResultSet(owner, res, orderKeys, settings.getDistinctMemory());
+		}
+
+		res.setRange(offset, rows);
+
+		return res;
+	}
+
+	/**
+	 * LIMIT, OFFSET and FETCH clauses at the end of the query
+	 */
+	private static final class Tail {
+		private final String sql;
+		private final int end;
+		private int position;
+		private long limit = AbstractProxyResultSet.NO_LIMIT;
+		private int limitParameter = NO_PARAMETER;
+		private long offset = 0L;
+		private int offsetParameter = NO_PARAMETER;
+		private boolean fetch = false;
+
+		private Tail(String sql, int start, int end) {
+			this.sql = sql;
+			this.position = start;
+			this.end = end;
+		}
+
+		private void parse() throws SQLException {
+			while (position < end) {
+				if (keyword("LIMIT")) {
+					if (keyword("ALL")) {
+						continue;
+					}
+
+					int parameter = parameterAt();
+					long first = value();
+
+					if (symbol(',')) {
+						offset = first;
+						offsetParameter = parameter;
+						limitParameter = parameterAt();
+						limit = value();
+					} else {
+						limit = first;
+						limitParameter = parameter;
+					}
+				} else if (keyword("OFFSET")) {
+					offsetParameter = parameterAt();
+					offset = value();
+
+					if (!keyword("ROWS")) {
+						keyword("ROW");
+					}
+				} else if (keyword("FETCH")) {
+					fetch = true;
+
+					if (!keyword("FIRST")) {
+						keyword("NEXT");
+					}
+
+					if (keyword("ROWS") || keyword("ROW")) {
+						limit = 1L;
+					} else {
+						limitParameter = parameterAt();
+						limit = value();
+
+						if (!keyword("ROWS")) {
+							keyword("ROW");
+						}
+					}
+
+					keyword("ONLY");
+				} else {
+					//other clauses (e.g. FOR UPDATE) stay as they are
+					return;
+				}
+			}
+		}
+
+		private boolean keyword(String keyword) {
+			int i = skipWhitespace(sql, position);
+
+			if (isKeywordAt(sql, i, keyword)) {
+				position = i + keyword.length();
+				return true;
+			}
+
+			return false;
+		}
+
+		private boolean symbol(char c) {
+			int i = skipWhitespace(sql, position);
+
+			if (i < sql.length() && sql.charAt(i) == c) {
+				position = i + 1;
+				return true;
+			}
+
+			return false;
+		}
+
+		private int parameterAt() {
+			int i = skipWhitespace(sql, position);
+
+			if (i < sql.length() && sql.charAt(i) == '?') {
+				return ProxyTools.countParameters(sql.substring(0, i)) + 1;
+			}
+
+			return NO_PARAMETER;
+		}
+
+		/**
+		 * Reads a number or a parameter placeholder, parameter has value 0
+		 */
+		private long value() throws SQLException {
+			int i = skipWhitespace(sql, position);
+
+			if (i < sql.length() && sql.charAt(i) == '?') {
+				position = i + 1;
+				return 0L;
+			}
+
+			int start = i;
+
+			while (i < sql.length() && Character.isDigit(sql.charAt(i))) {
+				i++;
+			}
+
+			if (start == i) {
+				throw new SQLException("Unsupported LIMIT or OFFSET value of distributed query: " + sql);
+			}
+
+			position = i;
+			return Long.parseLong(sql.substring(start, i));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog sketch that estimates the number of distinct values in fixed memory. The sketch has 2^precision registers
+ * of one byte, the standard error of the estimate is about 1.04 / sqrt(2^precision). Sketches of different streams are merged
+ * by taking the maximum of every register.
+ * @author Ondřej Marek
+ */
+public class HyperLogLog {
+	public static final int DEFAULT_PRECISION = 14;
+
+	private final int precision;
+	private final byte[] registers;
+
+	/**
+	 * Creates an empty sketch
+	 * @param precision number of bits that select a register (4 - 18)
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("Precision of HyperLogLog has to be between 4 and 18: " + precision);
+		}
+
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Adds a value to the sketch, null values are ignored
+	 * @param value value
+	 */
+	public void add(Object value) {
+		if (value == null) {
+			return;
+		}
+
+		long hash = hash(value);
+		int index = (int) (hash >>> (64 - precision));
+		//the sentinel bit limits the rank to 64 - precision + 1
+		long rest = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+
+		if (registers[index] < rank) {
+			registers[index] = rank;
+		}
+	}
+
+	/**
+	 * Merges another sketch to this one
+	 * @param other sketch of the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("Sketches of different precision cannot be merged.");
+		}
+
+		for (int i = 0; i < registers.length; i++) {
+			if (registers[i] < other.registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated number of distinct values
+	 * @return estimate
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+
+			if (register == 0) {
+				zeros++;
+			}
+		}
+
+		double alpha = 0.7213 / (1.0 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+
+		//linear counting is more precise for small cardinalities
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Returns 64 bit hash of a value, equal numbers of different classes have the same hash
+	 */
+	static long hash(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return mix(((Number) value).longValue());
+		}
+
+		if (value instanceof BigDecimal) {
+			BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+
+			if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 18) {
+				return mix(decimal.longValue());
+			}
+
+			return hashBytes(decimal.toString().getBytes(StandardCharsets.UTF_8));
+		}
+
+		if (value instanceof byte[]) {
+			return hashBytes((byte[]) value);
+		}
+
+		if (value instanceof String) {
+			String s = (String) value;
+			long res = 0xCBF29CE484222325L;
+
+			for (int i = 0; i < s.length(); i++) {
+				res = (res ^ s.charAt(i)) * 0x100000001B3L;
+			}
+
+			return mix(res);
+		}
+
+		return mix(value.hashCode());
+	}
+
+	private static long hashBytes(byte[] bytes) {
+		long res = 0xCBF29CE484222325L;
+
+		for (byte b : bytes) {
+			res = (res ^ (b & 0xFF)) * 0x100000001B3L;
+		}
+
+		return mix(res);
+	}
+
+	/**
+	 * Finalizer of 64 bit murmur hash
+	 */
+	private static long mix(long value) {
+		long res = value;
+
+		res ^= res >>> 33;
+		res *= 0xFF51AFD7ED558CCDL;
+		res ^= res >>> 33;
+		res *= 0xC4CEB9FE1A85EC53L;
+		res ^= res >>> 33;
+
+		return res;
+	}
+}
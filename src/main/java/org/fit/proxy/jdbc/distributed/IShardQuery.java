@@ -0,0 +1,35 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+
+/**
+ * Query of a distributed statement in a single connection. The query is executed by a worker thread, while it may be cancelled by other thread.
+ * @author Ondřej Marek
+ */
+public interface IShardQuery {
+	/**
+	 * Returns connection where the query runs
+	 * @return connection
+	 */
+	public ConnectionUnit getConnection();
+
+	/**
+	 * Executes the query
+	 * @return result set of the query
+	 * @throws SQLException when the query fails
+	 */
+	public ResultSet execute() throws SQLException;
+
+	/**
+	 * Cancels the query if it is running, errors are ignored
+	 */
+	public void cancel();
+
+	/**
+	 * Releases statement of the query, errors are ignored
+	 */
+	public void close();
+}
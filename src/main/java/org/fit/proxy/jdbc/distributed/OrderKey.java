@@ -0,0 +1,110 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * One item of ORDER BY clause of a distributed query. The item is resolved to a column of result set when rows are merged,
+ * so it has to be a position of column or a name (or label) of selected column.
+ * @author Ondřej Marek
+ */
+public class OrderKey {
+	private final String expression;
+	private final boolean descending;
+	private final Boolean nullsFirst;
+
+	/**
+	 * Creates an order key
+	 * @param expression expression of ORDER BY item
+	 * @param descending whether rows are sorted in descending order
+	 * @param nullsFirst whether null values are sorted first, null when the database default is used (null is the lowest value)
+	 */
+	public OrderKey(String expression, boolean descending, Boolean nullsFirst) {
+		this.expression = expression;
+		this.descending = descending;
+		this.nullsFirst = nullsFirst;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Returns whether null values are sorted before other values
+	 * @return whether nulls are first
+	 */
+	public boolean isNullsFirst() {
+		return (nullsFirst == null) ? !descending : nullsFirst;
+	}
+
+	/**
+	 * Finds the column of result set that the key sorts by
+	 * @param metaData meta data of result set
+	 * @return column index
+	 * @throws SQLException when the key is not a selected column
+	 */
+	public int resolve(ResultSetMetaData metaData) throws SQLException {
+		int count = metaData.getColumnCount();
+
+		if (Character.isDigit(expression.charAt(0))) {
+			try {
+				int res = Integer.parseInt(expression);
+
+				if (res >= 1 && res <= count) {
+					return res;
+				}
+			} catch (NumberFormatException e) {
+				//handled below
+			}
+		}
+
+		String whole = unquote(expression);
+
+		for (int i = 1; i <= count; i++) {
+			if (whole.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+				return i;
+			}
+		}
+
+		//qualified column, e.g. c.name
+		String name = (expression.indexOf('(') >= 0) ? whole : unquote(expression.substring(expression.lastIndexOf('.') + 1));
+
+		for (int i = 1; i <= count; i++) {
+			if (name.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+				return i;
+			}
+		}
+
+		for (int i = 1; i <= count; i++) {
+			if (name.equalsIgnoreCase(metaData.getColumnName(i))) {
+				return i;
+			}
+		}
+
+		String message = new StringBuilder("ORDER BY item ").append(expression).append(" of distributed query is not a selected column.").toString();
+		throw new SQLException(message);
+	}
+
+	private static String unquote(String name) {
+		String res = name.trim();
+
+		if (res.length() > 1) {
+			char c = res.charAt(0);
+
+			if (c == '"' || c == '`' || c == '[') {
+				return res.substring(1, res.length() - 1);
+			}
+		}
+
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return expression + (descending ? " DESC" : " ASC");
+	}
+}
@@ -0,0 +1,275 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Copy of result set meta data. Result set of a distributed query keeps it, so it does not depend on result sets of single connections.
+ * @author Ondřej Marek
+ */
+public class ProxyResultSetMetaData implements ResultSetMetaData {
+	private final int columnCount;
+	private final String[] names;
+	private final String[] labels;
+	private final int[] types;
+	private final String[] typeNames;
+	private final String[] classNames;
+	private final int[] precisions;
+	private final int[] scales;
+	private final int[] displaySizes;
+	private final int[] nullables;
+	private final boolean[] signed;
+	private final boolean[] autoIncrement;
+	private final boolean[] caseSensitive;
+	private final boolean[] searchable;
+	private final boolean[] currency;
+	private final String[] tableNames;
+	private final String[] schemaNames;
+	private final String[] catalogNames;
+
+	/**
+	 * Copies meta data
+	 * @param source meta data of a result set
+	 * @throws SQLException when the meta data cannot be read
+	 */
+	public ProxyResultSetMetaData(ResultSetMetaData source) throws SQLException {
+		columnCount = source.getColumnCount();
+		names = new String[columnCount];
+		labels = new String[columnCount];
+		types = new int[columnCount];
+		typeNames = new String[columnCount];
+		classNames = new String[columnCount];
+		precisions = new int[columnCount];
+		scales = new int[columnCount];
+		displaySizes = new int[columnCount];
+		nullables = new int[columnCount];
+		signed = new boolean[columnCount];
+		autoIncrement = new boolean[columnCount];
+		caseSensitive = new boolean[columnCount];
+		searchable = new boolean[columnCount];
+		currency = new boolean[columnCount];
+		tableNames = new String[columnCount];
+		schemaNames = new String[columnCount];
+		catalogNames = new String[columnCount];
+
+		for (int i = 0; i < columnCount; i++) {
+			int column = i + 1;
+
+			names[i] = source.getColumnName(column);
+			labels[i] = source.getColumnLabel(column);
+			types[i] = source.getColumnType(column);
+			typeNames[i] = source.getColumnTypeName(column);
+			classNames[i] = source.getColumnClassName(column);
+			precisions[i] = source.getPrecision(column);
+			scales[i] = source.getScale(column);
+			displaySizes[i] = source.getColumnDisplaySize(column);
+			nullables[i] = source.isNullable(column);
+			signed[i] = source.isSigned(column);
+			autoIncrement[i] = source.isAutoIncrement(column);
+			caseSensitive[i] = source.isCaseSensitive(column);
+			searchable[i] = source.isSearchable(column);
+			currency[i] = source.isCurrency(column);
+			tableNames[i] = source.getTableName(column);
+			schemaNames[i] = source.getSchemaName(column);
+			catalogNames[i] = source.getCatalogName(column);
+		}
+	}
+
+	/**
+	 * Copies chosen columns of meta data
+	 * @param source meta data
+	 * @param columns indexes of columns of the source (starting by 0) in the order of new columns
+	 */
+	ProxyResultSetMetaData(ProxyResultSetMetaData source, int[] columns) {
+		columnCount = columns.length;
+		names = new String[columnCount];
+		labels = new String[columnCount];
+		types = new int[columnCount];
+		typeNames = new String[columnCount];
+		classNames = new String[columnCount];
+		precisions = new int[columnCount];
+		scales = new int[columnCount];
+		displaySizes = new int[columnCount];
+		nullables = new int[columnCount];
+		signed = new boolean[columnCount];
+		autoIncrement = new boolean[columnCount];
+		caseSensitive = new boolean[columnCount];
+		searchable = new boolean[columnCount];
+		currency = new boolean[columnCount];
+		tableNames = new String[columnCount];
+		schemaNames = new String[columnCount];
+		catalogNames = new String[columnCount];
+
+		for (int i = 0; i < columnCount; i++) {
+			int from = columns[i];
+
+			names[i] = source.names[from];
+			labels[i] = source.labels[from];
+			types[i] = source.types[from];
+			typeNames[i] = source.typeNames[from];
+			classNames[i] = source.classNames[from];
+			precisions[i] = source.precisions[from];
+			scales[i] = source.scales[from];
+			displaySizes[i] = source.displaySizes[from];
+			nullables[i] = source.nullables[from];
+			signed[i] = source.signed[from];
+			autoIncrement[i] = source.autoIncrement[from];
+			caseSensitive[i] = source.caseSensitive[from];
+			searchable[i] = source.searchable[from];
+			currency[i] = source.currency[from];
+			tableNames[i] = source.tableNames[from];
+			schemaNames[i] = source.schemaNames[from];
+			catalogNames[i] = source.catalogNames[from];
+		}
+	}
+
+	/**
+	 * Changes description of a column that is computed by the proxy driver
+	 * @param column index of column
+	 * @param label label and name of the column
+	 * @param type sql type
+	 * @param typeName name of sql type
+	 * @param className class of values
+	 */
+	void setColumn(int column, String label, int type, String typeName, String className) {
+		int i = column - 1;
+
+		names[i] = label;
+		labels[i] = label;
+		types[i] = type;
+		typeNames[i] = typeName;
+		classNames[i] = className;
+		nullables[i] = columnNullable;
+		tableNames[i] = "";
+	}
+
+	private int index(int column) throws SQLException {
+		if (column < 1 || column > columnCount) {
+			throw new SQLException("Invalid column index: " + column);
+		}
+
+		return column - 1;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+
+		throw new SQLException("Proxy result set meta data does not wrap " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return columnCount;
+	}
+
+	@Override
+	public boolean isAutoIncrement(int column) throws SQLException {
+		return autoIncrement[index(column)];
+	}
+
+	@Override
+	public boolean isCaseSensitive(int column) throws SQLException {
+		return caseSensitive[index(column)];
+	}
+
+	@Override
+	public boolean isSearchable(int column) throws SQLException {
+		return searchable[index(column)];
+	}
+
+	@Override
+	public boolean isCurrency(int column) throws SQLException {
+		return currency[index(column)];
+	}
+
+	@Override
+	public int isNullable(int column) throws SQLException {
+		return nullables[index(column)];
+	}
+
+	@Override
+	public boolean isSigned(int column) throws SQLException {
+		return signed[index(column)];
+	}
+
+	@Override
+	public int getColumnDisplaySize(int column) throws SQLException {
+		return displaySizes[index(column)];
+	}
+
+	@Override
+	public String getColumnLabel(int column) throws SQLException {
+		return labels[index(column)];
+	}
+
+	@Override
+	public String getColumnName(int column) throws SQLException {
+		return names[index(column)];
+	}
+
+	@Override
+	public String getSchemaName(int column) throws SQLException {
+		return schemaNames[index(column)];
+	}
+
+	@Override
+	public int getPrecision(int column) throws SQLException {
+		return precisions[index(column)];
+	}
+
+	@Override
+	public int getScale(int column) throws SQLException {
+		return scales[index(column)];
+	}
+
+	@Override
+	public String getTableName(int column) throws SQLException {
+		return tableNames[index(column)];
+	}
+
+	@Override
+	public String getCatalogName(int column) throws SQLException {
+		return catalogNames[index(column)];
+	}
+
+	@Override
+	public int getColumnType(int column) throws SQLException {
+		return types[index(column)];
+	}
+
+	@Override
+	public String getColumnTypeName(int column) throws SQLException {
+		return typeNames[index(column)];
+	}
+
+	@Override
+	public boolean isReadOnly(int column) throws SQLException {
+		index(column);
+		return true;
+	}
+
+	@Override
+	public boolean isWritable(int column) throws SQLException {
+		index(column);
+		return false;
+	}
+
+	@Override
+	public boolean isDefinitelyWritable(int column) throws SQLException {
+		index(column);
+		return false;
+	}
+
+	@Override
+	public String getColumnClassName(int column) throws SQLException {
+		return classNames[index(column)];
+	}
+}
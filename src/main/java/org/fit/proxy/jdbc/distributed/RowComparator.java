@@ -0,0 +1,149 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compares rows of distributed query by ORDER BY keys. Values of different classes are compared the way databases do,
+ * numbers by their values, dates by their time and other values by their string forms.
+ * @author Ondřej Marek
+ */
+public class RowComparator implements Comparator<Object[]> {
+	private final int[] columns;
+	private final boolean[] descending;
+	private final boolean[] nullsFirst;
+
+	/**
+	 * Creates a comparator
+	 * @param keys ORDER BY keys
+	 * @param metaData meta data of rows
+	 * @throws SQLException when a key is not a selected column
+	 */
+	public RowComparator(List<OrderKey> keys, ResultSetMetaData metaData) throws SQLException {
+		columns = new int[keys.size()];
+		descending = new boolean[keys.size()];
+		nullsFirst = new boolean[keys.size()];
+
+		for (int i = 0; i < columns.length; i++) {
+			OrderKey key = keys.get(i);
+
+			columns[i] = key.resolve(metaData) - 1;
+			descending[i] = key.isDescending();
+			nullsFirst[i] = key.isNullsFirst();
+		}
+	}
+
+	@Override
+	public int compare(Object[] first, Object[] second) {
+		for (int i = 0; i < columns.length; i++) {
+			Object a = first[columns[i]];
+			Object b = second[columns[i]];
+			int res;
+
+			if (a == null || b == null) {
+				if (a == b) {
+					continue;
+				}
+
+				//null placement does not depend on direction
+				return ((a == null) == nullsFirst[i]) ? -1 : 1;
+			}
+
+			res = compareValues(a, b);
+
+			if (res != 0) {
+				return descending[i] ? -res : res;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Compares two values that are not null
+	 * @param a first value
+	 * @param b second value
+	 * @return negative number, zero or positive number as the first value is less than, equal to or greater than the second one
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static int compareValues(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number) {
+			return compareNumbers((Number) a, (Number) b);
+		}
+
+		if (a instanceof byte[] && b instanceof byte[]) {
+			return compareBytes((byte[]) a, (byte[]) b);
+		}
+
+		if (a instanceof Timestamp && b instanceof Timestamp) {
+			return ((Timestamp) a).compareTo((Timestamp) b);
+		}
+
+		if (a instanceof java.util.Date && b instanceof java.util.Date) {
+			long x = ((java.util.Date) a).getTime();
+			long y = ((java.util.Date) b).getTime();
+
+			return (x < y) ? -1 : ((x == y) ? 0 : 1);
+		}
+
+		if (a instanceof Comparable && a.getClass() == b.getClass()) {
+			return ((Comparable) a).compareTo(b);
+		}
+
+		return a.toString().compareTo(b.toString());
+	}
+
+	private static int compareNumbers(Number a, Number b) {
+		if (isIntegral(a) && isIntegral(b)) {
+			long x = a.longValue();
+			long y = b.longValue();
+
+			return (x < y) ? -1 : ((x == y) ? 0 : 1);
+		}
+
+		if ((a instanceof Double || a instanceof Float) && (b instanceof Double || b instanceof Float)) {
+			return Double.compare(a.doubleValue(), b.doubleValue());
+		}
+
+		return toBigDecimal(a).compareTo(toBigDecimal(b));
+	}
+
+	private static boolean isIntegral(Number n) {
+		return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+	}
+
+	private static BigDecimal toBigDecimal(Number n) {
+		if (n instanceof BigDecimal) {
+			return (BigDecimal) n;
+		}
+
+		if (n instanceof BigInteger) {
+			return new BigDecimal((BigInteger) n);
+		}
+
+		if (isIntegral(n)) {
+			return BigDecimal.valueOf(n.longValue());
+		}
+
+		return BigDecimal.valueOf(n.doubleValue());
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+
+		for (int i = 0; i < length; i++) {
+			int res = (a[i] & 0xFF) - (b[i] & 0xFF);
+
+			if (res != 0) {
+				return res;
+			}
+		}
+
+		return a.length - b.length;
+	}
+}
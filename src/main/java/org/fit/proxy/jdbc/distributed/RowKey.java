@@ -0,0 +1,31 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.util.Arrays;
+
+/**
+ * Values of a row (or of its columns) that are compared by value, so they can be used as a key of hash table.
+ * @author Ondřej Marek
+ */
+class RowKey {
+	private final Object[] values;
+	private final int hash;
+
+	RowKey(Object[] values) {
+		this.values = values;
+		this.hash = Arrays.deepHashCode(values);
+	}
+
+	Object[] getValues() {
+		return values;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return (obj instanceof RowKey) && hash == ((RowKey) obj).hash && Arrays.deepEquals(values, ((RowKey) obj).values);
+	}
+}
@@ -0,0 +1,261 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+
+/**
+ * Result set of a query that runs in more connections at once. Every connection has its own producer thread that reads rows
+ * of the connection to a bounded buffer, so only a limited number of rows of every connection is held in memory.
+ * Rows are returned in the order they arrive, the producer is blocked while its buffer is full.
+ * When a query fails, all other queries are cancelled and the failure is thrown by next().
+ * @author Ondřej Marek
+ */
+public class ScatterGatherResultSet extends AbstractProxyResultSet {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	/**
+	 * Marks the end of rows of a producer
+	 */
+	private static final Object[] END = new Object[0];
+
+	/**
+	 * How often a blocked producer checks whether the result set has been closed
+	 */
+	private static final long OFFER_TIMEOUT_MS = 100L;
+
+	private final Producer[] producers;
+
+	/**
+	 * One permit for every row or end mark in buffers
+	 */
+	private final Semaphore available = new Semaphore(0);
+	private final CountDownLatch metaDataReady;
+	private final AtomicInteger running;
+	private volatile ProxyResultSetMetaData metaData;
+	private volatile boolean closed = false;
+	private int finished = 0;
+	private int position = 0;
+
+	/**
+	 * Starts all queries
+	 * @param statement proxy statement that created the result set
+	 * @param queries queries of connections
+	 * @param executor executor that runs producers
+	 * @param bufferSize maximal number of buffered rows of a single connection
+	 * @throws SQLException when producers cannot be started
+	 */
+	public ScatterGatherResultSet(Statement statement, List<? extends IShardQuery> queries, ProxyExecutor executor, int bufferSize) throws SQLException {
+		super(statement);
+
+		this.producers = new Producer[queries.size()];
+		this.metaDataReady = new CountDownLatch(1);
+		this.running = new AtomicInteger(producers.length);
+
+		for (int i = 0; i < producers.length; i++) {
+			producers[i] = new Producer(queries.get(i), bufferSize);
+		}
+
+		int started = 0;
+
+		try {
+			for (Producer producer : producers) {
+				executor.stream(producer);
+				started++;
+			}
+		} finally {
+			if (started < producers.length) {
+				for (int i = started; i < producers.length; i++) {
+					producers[i].query.close();
+				}
+
+				close();
+			}
+		}
+	}
+
+	@Override
+	protected Object[] fetchRow() throws SQLException {
+		while (finished < producers.length) {
+			try {
+				available.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for rows of broadcast query.", e);
+			}
+
+			//producers are visited in turns, so a fast connection does not starve the others
+			for (int i = 0; i < producers.length; i++) {
+				Producer producer = producers[position];
+				position = (position + 1) % producers.length;
+
+				Object[] row = producer.rows.poll();
+
+				if (row == END) {
+					finished++;
+
+					if (producer.failure != null) {
+						throw fail(producer);
+					}
+
+					break;
+				}
+
+				if (row != null) {
+					return row;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private SQLException fail(Producer failed) {
+		ConnectionUnit unit = failed.query.getConnection();
+		String message = new StringBuilder("Broadcast query failed in connection ").append(unit.getName()).append('.').toString();
+
+		SQLException res = new SQLException(message, failed.failure);
+		res.setNextException((failed.failure instanceof ProxyException) ? (ProxyException) failed.failure : new ProxyException(message, failed.failure, unit));
+
+		try {
+			close();
+		} catch (SQLException e) {
+			res.setNextException(e);
+		}
+
+		ProxyExceptionUtils.logExceptions(res, Level.WARNING);
+
+		return res;
+	}
+
+	@Override
+	protected ProxyResultSetMetaData readMetaData() throws SQLException {
+		try {
+			metaDataReady.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for meta data of broadcast query.", e);
+		}
+
+		if (metaData == null) {
+			throw new SQLException("Broadcast query failed in all connections, meta data are not available.");
+		}
+
+		return metaData;
+	}
+
+	@Override
+	protected void release() {
+		closed = true;
+
+		for (Producer producer : producers) {
+			producer.query.cancel();
+			producer.rows.clear();
+		}
+	}
+
+	/**
+	 * Reads rows of a single connection to its buffer
+	 */
+	private final class Producer implements Runnable {
+		private final IShardQuery query;
+		private final ArrayBlockingQueue<Object[]> rows;
+		private volatile Exception failure;
+
+		private Producer(IShardQuery query, int bufferSize) {
+			this.query = query;
+			this.rows = new ArrayBlockingQueue<>(bufferSize);
+		}
+
+		@Override
+		public void run() {
+			ResultSet rs = null;
+
+			try {
+				if (closed) {
+					return;
+				}
+
+				rs = query.execute();
+
+				ProxyResultSetMetaData own = new ProxyResultSetMetaData(rs.getMetaData());
+				int columns = own.getColumnCount();
+
+				if (metaData == null) {
+					metaData = own;
+				}
+
+				metaDataReady.countDown();
+
+				while (!closed && rs.next()) {
+					Object[] row = new Object[columns];
+
+					for (int i = 0; i < columns; i++) {
+						row[i] = rs.getObject(i + 1);
+					}
+
+					if (!put(row)) {
+						break;
+					}
+				}
+			} catch (SQLException | RuntimeException | InterruptedException e) {
+				if (!closed) {
+					failure = e;
+				}
+			} finally {
+				closeResultSet(rs);
+				query.close();
+
+				try {
+					put(END);
+				} catch (InterruptedException e) {
+					log.log(Level.WARNING, "Producer of broadcast query was interrupted.", e);
+				}
+
+				if (running.decrementAndGet() == 0) {
+					metaDataReady.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Waits for a free slot of the buffer, returns false when the result set is closed meanwhile
+		 */
+		private boolean put(Object[] row) throws InterruptedException {
+			while (!closed) {
+				if (rows.offer(row, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					available.release();
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private void closeResultSet(ResultSet rs) {
+			if (rs == null) {
+				return;
+			}
+
+			try {
+				rs.close();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem closing result set of broadcast query", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package org.fit.proxy.jdbc.distributed;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.IConnectionTask;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+
+/**
+ * Result set of an ordered query that runs in more connections at once. Every connection sorts its own rows, the sorted result sets
+ * are merged by a heap that holds the current row of every connection. Rows are read lazily, a connection is asked for its next row
+ * only after its current row has been returned, so no connection is read further than needed.
+ * @author Ondřej Marek
+ */
+public class SortedMergeResultSet extends AbstractProxyResultSet {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private final Cursor[] cursors;
+	private final PriorityQueue<Cursor> heap;
+	private final ProxyResultSetMetaData metaData;
+
+	/**
+	 * Executes all queries concurrently and prepares the first row of every connection
+	 * @param statement proxy statement that created the result set
+	 * @param queries queries of connections, every query has to sort its rows by the same keys
+	 * @param executor executor that runs the queries
+	 * @param keys ORDER BY keys of the queries
+	 * @throws SQLException when a query fails or a key is not a selected column
+	 */
+	public SortedMergeResultSet(Statement statement, List<? extends IShardQuery> queries, ProxyExecutor executor, List<OrderKey> keys) throws SQLException {
+		super(statement);
+
+		cursors = new Cursor[queries.size()];
+
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = new Cursor(queries.get(i), i);
+		}
+
+		try {
+			List<Cursor> tasks = new ArrayList<>(cursors.length);
+
+			for (Cursor cursor : cursors) {
+				tasks.add(cursor);
+			}
+
+			List<ProxyException> failures = executor.runAll(tasks, true);
+
+			if (!failures.isEmpty()) {
+				SQLException toThrow = new SQLException("Ordered broadcast query failed.");
+
+				for (ProxyException failure : failures) {
+					toThrow.setNextException(failure);
+				}
+
+				ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+				throw toThrow;
+			}
+
+			metaData = new ProxyResultSetMetaData(cursors[0].rs.getMetaData());
+			heap = new PriorityQueue<>(cursors.length, new CursorComparator(new RowComparator(keys, metaData)));
+
+			for (Cursor cursor : cursors) {
+				if (cursor.advance()) {
+					heap.add(cursor);
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	@Override
+	protected Object[] fetchRow() throws SQLException {
+		Cursor cursor = heap.poll();
+
+		if (cursor == null) {
+			return null;
+		}
+
+		Object[] res = cursor.current;
+
+		try {
+			if (cursor.advance()) {
+				heap.add(cursor);
+			}
+		} catch (SQLException e) {
+			ConnectionUnit unit = cursor.query.getConnection();
+			String message = new StringBuilder("Ordered broadcast query failed in connection ").append(unit.getName()).append('.').toString();
+
+			SQLException toThrow = new SQLException(message, e);
+			toThrow.setNextException(new ProxyException(message, e, unit));
+			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+
+			close();
+			throw toThrow;
+		}
+
+		return res;
+	}
+
+	@Override
+	protected ProxyResultSetMetaData readMetaData() throws SQLException {
+		return metaData;
+	}
+
+	/**
+	 * Cancels queries that have not been read to the end and closes them
+	 */
+	@Override
+	protected void release() {
+		for (Cursor cursor : cursors) {
+			cursor.close();
+		}
+
+		if (heap != null) {
+			heap.clear();
+		}
+	}
+
+	/**
+	 * Result set of a single connection and its current row
+	 */
+	private static final class Cursor implements IConnectionTask {
+		private final IShardQuery query;
+		private final int index;
+		private ResultSet rs;
+		private int columns;
+		private Object[] current;
+		private boolean exhausted = false;
+		private boolean closed = false;
+
+		private Cursor(IShardQuery query, int index) {
+			this.query = query;
+			this.index = index;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return query.getConnection();
+		}
+
+		/**
+		 * Executes the query
+		 */
+		@Override
+		public void run() throws SQLException {
+			rs = query.execute();
+			columns = rs.getMetaData().getColumnCount();
+		}
+
+		private boolean advance() throws SQLException {
+			if (!rs.next()) {
+				exhausted = true;
+				current = null;
+				return false;
+			}
+
+			Object[] row = new Object[columns];
+
+			for (int i = 0; i < columns; i++) {
+				row[i] = rs.getObject(i + 1);
+			}
+
+			current = row;
+			return true;
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+
+			if (!exhausted) {
+				query.cancel();
+			}
+
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem closing result set of ordered broadcast query", e);
+			}
+
+			query.close();
+		}
+	}
+
+	/**
+	 * Orders cursors by their current rows, rows that are equal are returned in the order of connections
+	 */
+	private static final class CursorComparator implements Comparator<Cursor> {
+		private final RowComparator rows;
+
+		private CursorComparator(RowComparator rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public int compare(Cursor first, Cursor second) {
+			int res = rows.compare(first.current, second.current);
+
+			return (res != 0) ? res : first.index - second.index;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.fit.proxy.jdbc.journal;
+
+/**
+ * A record read from a journal
+ * @author Ondřej Marek
+ */
+public class JournalRecord {
+	private final long offset;
+	private final long next;
+	private final long timestamp;
+	private final byte[] payload;
+
+	public JournalRecord(long offset, long next, long timestamp, byte[] payload) {
+		this.offset = offset;
+		this.next = next;
+		this.timestamp = timestamp;
+		this.payload = payload;
+	}
+
+	/**
+	 * Returns offset of the record in the journal
+	 * @return offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns offset that follows the record, i.e. the offset of the next record when it is appended
+	 * @return next offset
+	 */
+	public long getNext() {
+		return next;
+	}
+
+	/**
+	 * Returns time when the record was appended
+	 * @return milliseconds since epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+}
@@ -0,0 +1,439 @@
+package org.fit.proxy.jdbc.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * Append-only journal of records kept in memory-mapped segment files of a directory. A record has a header (length of payload,
+ * CRC32 checksum and timestamp) and the payload. A record never crosses segments: when it does not fit into the rest of a segment,
+ * the segment is closed by a marker and the record is written to a new one. Offsets of records are global, the segment of an offset
+ * is named by its base offset.
+ * When the journal is opened, the last segment is scanned and its end is the first record whose checksum does not match, so a record
+ * that was written only partly before a crash is discarded. Records are durable when force() returns. Concurrent callers of force()
+ * share a single flush of the segments (group commit).
+ * @author Ondřej Marek
+ */
+public class MappedJournal {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int MIN_SEGMENT_SIZE = 4096;
+
+	private static final int HEADER = 16;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String SUFFIX = ".journal";
+	private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{20}\\" + SUFFIX);
+
+	private final File directory;
+	private final int segmentSize;
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private Segment tail;
+
+	/**
+	 * Offset that follows the last appended record
+	 */
+	private volatile long end;
+
+	/**
+	 * Offset up to which records are flushed to disk, guarded by forceLock
+	 */
+	private long forced;
+	private final Object forceLock = new Object();
+	private boolean closed = false;
+
+	/**
+	 * Opens a journal, the directory is created when it does not exist
+	 * @param directory directory of segment files, it must not be shared with other journals
+	 * @param segmentSize size of segment files in bytes
+	 * @throws IOException when the segments cannot be created or mapped
+	 */
+	public MappedJournal(File directory, int segmentSize) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Journal segment has to have at least " + MIN_SEGMENT_SIZE + " bytes: " + segmentSize);
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Journal directory " + directory + " cannot be created.");
+		}
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return SEGMENT_NAME.matcher(file.getName()).matches();
+			}
+		});
+
+		if (files != null) {
+			for (File file : files) {
+				long base = Long.parseLong(file.getName().substring(0, 20));
+
+				if (file.length() != segmentSize) {
+					throw new IOException("Journal segment " + file + " does not have the configured size of " + segmentSize + " bytes.");
+				}
+
+				segments.put(base, map(file, base));
+			}
+		}
+
+		if (segments.isEmpty()) {
+			tail = createSegment(0L);
+			end = 0L;
+		} else {
+			tail = segments.lastEntry().getValue();
+			end = tail.base + recover(tail);
+		}
+
+		forced = end;
+
+		log.log(Level.FINE, "Journal " + directory + " opened, " + segments.size() + " segments, offsets " + getStartOffset() + " - " + end);
+	}
+
+	/**
+	 * Finds the end of valid records in a segment and clears bytes that follow it
+	 * @return position of the end in the segment
+	 */
+	private int recover(Segment segment) {
+		ByteBuffer buffer = segment.buffer;
+		int position = 0;
+
+		while (position + HEADER <= segmentSize) {
+			int length = buffer.getInt(position);
+
+			if (length == END_OF_SEGMENT) {
+				return segmentSize;
+			}
+
+			if (length <= 0 || position + HEADER + length > segmentSize) {
+				break;
+			}
+
+			byte[] payload = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			view.position(position + HEADER);
+			view.get(payload);
+
+			if (checksum(buffer.getLong(position + 8), payload) != buffer.getInt(position + 4)) {
+				log.log(Level.WARNING, "Journal record at offset " + (segment.base + position) + " is corrupted, it is discarded with all records that follow it.");
+				break;
+			}
+
+			position += HEADER + length;
+		}
+
+		for (int i = position; i < segmentSize; i++) {
+			buffer.put(i, (byte) 0);
+		}
+
+		return position;
+	}
+
+	private Segment createSegment(long base) throws IOException {
+		File file = new File(directory, String.format("%020d", base) + SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.setLength(segmentSize);
+		} finally {
+			raf.close();
+		}
+
+		Segment res = map(file, base);
+		segments.put(base, res);
+
+		return res;
+	}
+
+	private Segment map(File file, long base) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			//the mapping stays valid when the channel is closed
+			return new Segment(file, base, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int checksum(long timestamp, byte[] payload) {
+		CRC32 crc = new CRC32();
+
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (timestamp >>> shift));
+		}
+
+		crc.update(payload);
+
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends a record. The record is visible to readers at once, it is durable when force() is called with the returned offset.
+	 * @param payload content of the record, it must not be empty
+	 * @return offset that follows the record
+	 * @throws IOException when the journal is closed, the record does not fit into a segment or a new segment cannot be created
+	 */
+	public synchronized long append(byte[] payload) throws IOException {
+		if (closed) {
+			throw new IOException("Journal " + directory + " is closed.");
+		}
+
+		if (payload.length == 0) {
+			throw new IllegalArgumentException("Journal record must not be empty.");
+		}
+
+		int size = HEADER + payload.length;
+
+		if (size > segmentSize) {
+			throw new IOException("Journal record of " + payload.length + " bytes does not fit into a segment of " + segmentSize + " bytes.");
+		}
+
+		int position = (int) (end - tail.base);
+
+		if (position + size > segmentSize) {
+			if (position + 4 <= segmentSize) {
+				tail.buffer.putInt(position, END_OF_SEGMENT);
+			}
+
+			tail = createSegment(tail.base + segmentSize);
+			position = 0;
+		}
+
+		long timestamp = System.currentTimeMillis();
+		MappedByteBuffer buffer = tail.buffer;
+		ByteBuffer view = buffer.duplicate();
+
+		view.position(position + HEADER);
+		view.put(payload);
+		buffer.putLong(position + 8, timestamp);
+		buffer.putInt(position + 4, checksum(timestamp, payload));
+		buffer.putInt(position, payload.length);
+
+		end = tail.base + position + size;
+		notifyAll();
+
+		return end;
+	}
+
+	/**
+	 * Flushes appended records to disk. When another thread is flushing, the caller waits for it and returns without a flush
+	 * of its own if the other flush covered the offset.
+	 * @param offset offset returned by append()
+	 * @throws IOException when the journal is closed
+	 */
+	public void force(long offset) throws IOException {
+		synchronized (forceLock) {
+			if (forced >= offset) {
+				return;
+			}
+
+			long target;
+			List<Segment> dirty = new ArrayList<>();
+
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("Journal " + directory + " is closed.");
+				}
+
+				target = end;
+				Long from = segments.floorKey(forced);
+
+				for (Segment segment : segments.tailMap((from == null) ? 0L : from).values()) {
+					dirty.add(segment);
+				}
+			}
+
+			for (Segment segment : dirty) {
+				segment.buffer.force();
+			}
+
+			forced = target;
+		}
+	}
+
+	/**
+	 * Reads records that follow an offset
+	 * @param offset offset of the first record
+	 * @param max maximal number of records
+	 * @return records, empty when there are no records after the offset
+	 * @throws IOException when the offset has been released or a record is corrupted
+	 */
+	public List<JournalRecord> read(long offset, int max) throws IOException {
+		long limit = end;
+		long position = offset;
+		List<JournalRecord> res = new ArrayList<>();
+
+		while (res.size() < max && position < limit) {
+			Segment segment = getSegment(position);
+			int local = (int) (position - segment.base);
+			ByteBuffer buffer = segment.buffer.duplicate();
+
+			if (local + HEADER > segmentSize || buffer.getInt(local) == END_OF_SEGMENT) {
+				position = segment.base + segmentSize;
+				continue;
+			}
+
+			int length = buffer.getInt(local);
+
+			if (length <= 0 || local + HEADER + length > segmentSize) {
+				throw new IOException("Invalid journal record at offset " + position + " of journal " + directory);
+			}
+
+			long timestamp = buffer.getLong(local + 8);
+			byte[] payload = new byte[length];
+			buffer.position(local + HEADER);
+			buffer.get(payload);
+
+			if (checksum(timestamp, payload) != buffer.getInt(local + 4)) {
+				throw new IOException("Corrupted journal record at offset " + position + " of journal " + directory);
+			}
+
+			long next = position + HEADER + length;
+			res.add(new JournalRecord(position, next, timestamp, payload));
+			position = next;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Returns timestamp of the record at an offset without reading its payload
+	 * @param offset offset of a record
+	 * @return timestamp or -1 when there is no record at the offset
+	 * @throws IOException when the offset has been released
+	 */
+	public long getTimestamp(long offset) throws IOException {
+		long position = offset;
+
+		while (position < end) {
+			Segment segment = getSegment(position);
+			int local = (int) (position - segment.base);
+
+			if (local + HEADER > segmentSize || segment.buffer.getInt(local) == END_OF_SEGMENT) {
+				position = segment.base + segmentSize;
+				continue;
+			}
+
+			return segment.buffer.getLong(local + 8);
+		}
+
+		return -1L;
+	}
+
+	private synchronized Segment getSegment(long position) throws IOException {
+		Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+
+		if (entry == null || closed) {
+			throw new IOException("Offset " + position + " of journal " + directory + " is not available.");
+		}
+
+		return entry.getValue();
+	}
+
+	/**
+	 * Waits until a record is appended after an offset
+	 * @param offset offset
+	 * @param timeout maximal time to wait in milliseconds
+	 * @throws InterruptedException when the waiting thread is interrupted
+	 */
+	public synchronized void awaitAppend(long offset, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (end <= offset && !closed) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				return;
+			}
+
+			wait(remaining);
+		}
+	}
+
+	/**
+	 * Deletes segments whose records all precede an offset, the last segment is kept
+	 * @param offset offset that is not needed any more by any reader
+	 */
+	public synchronized void release(long offset) {
+		while (segments.size() > 1) {
+			Segment first = segments.firstEntry().getValue();
+
+			if (first.base + segmentSize > offset) {
+				return;
+			}
+
+			segments.remove(first.base);
+
+			if (!first.file.delete()) {
+				log.log(Level.FINE, "Journal segment " + first.file + " cannot be deleted.");
+			}
+		}
+	}
+
+	/**
+	 * Returns the first offset that is still available
+	 * @return start offset
+	 */
+	public synchronized long getStartOffset() {
+		return segments.firstKey();
+	}
+
+	/**
+	 * Returns offset that follows the last appended record
+	 * @return end offset
+	 */
+	public long getEndOffset() {
+		return end;
+	}
+
+	/**
+	 * Flushes all records and closes the journal
+	 */
+	public void close() {
+		try {
+			force(end);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Journal " + directory + " cannot be flushed.", e);
+		}
+
+		synchronized (this) {
+			closed = true;
+			segments.clear();
+			tail = null;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return directory.toString();
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final long base;
+		private final MappedByteBuffer buffer;
+
+		private Segment(File file, long base, MappedByteBuffer buffer) {
+			this.file = file;
+			this.base = base;
+			this.buffer = buffer;
+		}
+	}
+}
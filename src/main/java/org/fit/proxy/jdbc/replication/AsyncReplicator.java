@@ -0,0 +1,445 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.Loader;
+import org.fit.proxy.jdbc.ParameterBuffer;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.journal.JournalRecord;
+import org.fit.proxy.jdbc.journal.MappedJournal;
+
+/**
+ * Write-behind replication of a replica group. Writes that have been committed in the primary are appended to a journal
+ * and background workers replay them to the other replicas in batches, one worker per replica. Every worker has its own connection
+ * and it stores the journal offset it has applied in a file next to the journal, so a replica that lags behind or was restarted
+ * continues from that offset. A batch is committed in the replica before its offset is stored, so a write may be replayed twice
+ * after a crash, but it is never lost.
+ * Proxy connections of the same configuration share one replicator, it is released when the last of them is closed.
+ * @author Ondřej Marek
+ */
+public class AsyncReplicator {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private static final long IDLE_WAIT_MILLIS = 1000L;
+	private static final long RETRY_MILLIS = 1000L;
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	private static final Map<String, AsyncReplicator> replicators = new HashMap<>();
+
+	private final String key;
+	private final String name;
+	private final MappedJournal journal;
+	private final int batchSize;
+	private final Properties properties;
+	private final Map<String, ReplicaWorker> workers = new LinkedHashMap<>();
+	private int references = 0;
+
+	private AsyncReplicator(String key, String name, MappedJournal journal, int batchSize, Properties properties) {
+		this.key = key;
+		this.name = name;
+		this.journal = journal;
+		this.batchSize = batchSize;
+		this.properties = properties;
+	}
+
+	/**
+	 * Returns the replicator of a replica group configured by properties with a prefix (journal, segment_size, replay_batch)
+	 * @param name name of replica group
+	 * @param prop proxy properties
+	 * @param prefix prefix of properties of the group
+	 * @param replicas names of replicas that replay the journal
+	 * @return replicator, it has to be closed
+	 * @throws SQLException when the properties are invalid or the journal cannot be opened
+	 */
+	public static AsyncReplicator open(String name, Properties prop, String prefix, List<String> replicas) throws SQLException {
+		String journal = prop.getProperty(prefix + "journal");
+		File directory = (journal == null) ? new File(new File(System.getProperty("java.io.tmpdir"), "proxy-journal"), name) : new File(journal.trim());
+		int segmentSize = readInt(prop, prefix + "segment_size", DEFAULT_SEGMENT_SIZE, MappedJournal.MIN_SEGMENT_SIZE);
+		int batchSize = readInt(prop, prefix + "replay_batch", DEFAULT_BATCH_SIZE, 1);
+
+		return open(name, directory, segmentSize, batchSize, prop, replicas);
+	}
+
+	private static int readInt(Properties prop, String key, int defaultValue, int minimum) throws SQLException {
+		String value = prop.getProperty(key);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			int res = Integer.parseInt(value.trim());
+
+			if (res >= minimum) {
+				return res;
+			}
+		} catch (NumberFormatException e) {
+			//handled below
+		}
+
+		throw new SQLException(new StringBuilder("Invalid value of ").append(key).append(": ").append(value).toString());
+	}
+
+	/**
+	 * Returns the replicator of a journal directory, it is created and its workers are started when the directory is not used yet
+	 * @param name name of replica group
+	 * @param directory journal directory
+	 * @param segmentSize size of journal segment files in bytes
+	 * @param batchSize maximal number of journal records replayed in one transaction
+	 * @param properties proxy properties, replicas are connected by them
+	 * @param replicas names of replicas that replay the journal
+	 * @return replicator, it has to be closed
+	 * @throws SQLException when the journal cannot be opened
+	 */
+	public static AsyncReplicator open(String name, File directory, int segmentSize, int batchSize, Properties properties, List<String> replicas) throws SQLException {
+		synchronized (replicators) {
+			String key = directory.getAbsolutePath();
+			AsyncReplicator res = replicators.get(key);
+
+			if (res == null) {
+				MappedJournal journal;
+
+				try {
+					journal = new MappedJournal(directory, segmentSize);
+				} catch (IOException e) {
+					throw new SQLException("Journal of replica group " + name + " cannot be opened in " + directory, e);
+				}
+
+				res = new AsyncReplicator(key, name, journal, batchSize, properties);
+
+				try {
+					for (String replica : replicas) {
+						res.workers.put(replica, res.new ReplicaWorker(replica, new File(directory, replica + ".offset")));
+					}
+				} catch (IOException e) {
+					journal.close();
+					throw new SQLException("Applied offsets of replica group " + name + " cannot be read from " + directory, e);
+				}
+
+				for (ReplicaWorker worker : res.workers.values()) {
+					worker.start();
+				}
+
+				replicators.put(key, res);
+				log.info("Asynchronous replication of group " + name + " started, journal " + directory + ", replicas " + replicas);
+			}
+
+			res.references++;
+
+			return res;
+		}
+	}
+
+	/**
+	 * Appends committed writes to the journal and waits until they are durable
+	 * @param entries encoded writes in the order of their execution
+	 * @throws SQLException when the journal cannot be written, the writes will not reach the replicas
+	 */
+	public void append(List<byte[]> entries) throws SQLException {
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		try {
+			long end = 0L;
+
+			for (byte[] entry : entries) {
+				end = journal.append(entry);
+			}
+
+			journal.force(end);
+		} catch (IOException e) {
+			throw new SQLException("Writes committed in the primary of replica group " + name + " cannot be appended to journal " + journal + ". Replicas will miss them.", e);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns names of replicas that replay the journal
+	 * @return names of replicas
+	 */
+	public List<String> getReplicas() {
+		return Collections.unmodifiableList(new ArrayList<>(workers.keySet()));
+	}
+
+	/**
+	 * Returns journal offset that a replica has applied
+	 * @param replica name of replica
+	 * @return offset
+	 */
+	public long getAppliedOffset(String replica) {
+		return getWorker(replica).applied;
+	}
+
+	/**
+	 * Returns journal offset that follows the last appended write, a replica whose applied offset reaches it has all committed writes
+	 * @return end offset
+	 */
+	public long getEndOffset() {
+		return journal.getEndOffset();
+	}
+
+	/**
+	 * Returns the number of journal bytes that a replica has not applied yet
+	 * @param replica name of replica
+	 * @return lag in bytes
+	 */
+	public long getLag(String replica) {
+		return Math.max(0L, journal.getEndOffset() - getWorker(replica).applied);
+	}
+
+	/**
+	 * Returns how long the oldest write that a replica has not applied yet waits
+	 * @param replica name of replica
+	 * @return lag in milliseconds, 0 when the replica is up to date
+	 */
+	public long getLagMillis(String replica) {
+		try {
+			long timestamp = journal.getTimestamp(getWorker(replica).applied);
+
+			return (timestamp < 0L) ? 0L : Math.max(0L, System.currentTimeMillis() - timestamp);
+		} catch (IOException e) {
+			return 0L;
+		}
+	}
+
+	private ReplicaWorker getWorker(String replica) {
+		ReplicaWorker res = workers.get(replica);
+
+		if (res == null) {
+			throw new IllegalArgumentException("Replica " + replica + " does not belong to asynchronous replica group " + name);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Deletes journal segments that all replicas have applied
+	 */
+	private void releaseJournal() {
+		long min = Long.MAX_VALUE;
+
+		for (ReplicaWorker worker : workers.values()) {
+			min = Math.min(min, worker.applied);
+		}
+
+		journal.release(min);
+	}
+
+	/**
+	 * Releases the replicator, the last release stops the workers and closes the journal
+	 */
+	public void close() {
+		synchronized (replicators) {
+			if (--references > 0) {
+				return;
+			}
+
+			replicators.remove(key);
+		}
+
+		for (ReplicaWorker worker : workers.values()) {
+			worker.stop();
+		}
+
+		journal.close();
+		log.info("Asynchronous replication of group " + name + " stopped.");
+	}
+
+	/**
+	 * Replays the journal to a single replica
+	 */
+	private final class ReplicaWorker implements Runnable {
+		private final String replica;
+		private final File offsetFile;
+		private final Thread thread;
+		private volatile long applied;
+		private volatile boolean running = true;
+		private Connection connection;
+
+		private ReplicaWorker(String replica, File offsetFile) throws IOException {
+			this.replica = replica;
+			this.offsetFile = offsetFile;
+			this.applied = offsetFile.exists() ? readOffset() : journal.getStartOffset();
+			this.thread = new Thread(this, "proxy-driver-replica-" + name + "-" + replica);
+			this.thread.setDaemon(true);
+		}
+
+		private void start() {
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					List<JournalRecord> records = journal.read(applied, batchSize);
+
+					if (records.isEmpty()) {
+						journal.awaitAppend(applied, IDLE_WAIT_MILLIS);
+						continue;
+					}
+
+					replay(records);
+					long next = records.get(records.size() - 1).getNext();
+					writeOffset(next);
+					applied = next;
+					releaseJournal();
+				} catch (InterruptedException e) {
+					break;
+				} catch (SQLException | IOException e) {
+					if (!running) {
+						break;
+					}
+
+					log.log(Level.WARNING, "Replica " + replica + " of group " + name + " cannot apply journal at offset " + applied + ", retrying.", e);
+					closeConnection();
+
+					try {
+						Thread.sleep(RETRY_MILLIS);
+					} catch (InterruptedException ie) {
+						break;
+					}
+				}
+			}
+
+			closeConnection();
+		}
+
+		/**
+		 * Executes records in a single transaction, consecutive records of the same statement are sent as one batch
+		 */
+		private void replay(List<JournalRecord> records) throws SQLException {
+			Connection target = getConnection();
+			PreparedStatement statement = null;
+			String statementSql = null;
+
+			try {
+				for (JournalRecord record : records) {
+					JournalEntry entry = JournalEntry.decode(record.getPayload());
+
+					if (!entry.getSql().equals(statementSql)) {
+						executeBatch(statement);
+						statement = target.prepareStatement(entry.getSql());
+						statementSql = entry.getSql();
+					}
+
+					ParameterBuffer parameters = entry.getParameters();
+
+					for (int row = 0; row < parameters.getRows(); row++) {
+						parameters.apply(statement, row, 0);
+						statement.addBatch();
+					}
+				}
+
+				executeBatch(statement);
+				statement = null;
+				target.commit();
+			} catch (SQLException e) {
+				try {
+					target.rollback();
+				} catch (SQLException ex) {
+					e.setNextException(ex);
+				}
+
+				throw e;
+			} finally {
+				if (statement != null) {
+					statement.close();
+				}
+			}
+		}
+
+		private void executeBatch(PreparedStatement statement) throws SQLException {
+			if (statement == null) {
+				return;
+			}
+
+			try {
+				statement.executeBatch();
+			} finally {
+				statement.close();
+			}
+		}
+
+		private Connection getConnection() throws SQLException {
+			if (connection != null && !connection.isValid(VALIDATION_TIMEOUT)) {
+				closeConnection();
+			}
+
+			if (connection == null) {
+				connection = Loader.openConnection(properties, replica);
+				connection.setAutoCommit(false);
+			}
+
+			return connection;
+		}
+
+		private void closeConnection() {
+			if (connection == null) {
+				return;
+			}
+
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem closing replication connection of replica " + replica, e);
+			}
+
+			connection = null;
+		}
+
+		private long readOffset() throws IOException {
+			RandomAccessFile file = new RandomAccessFile(offsetFile, "r");
+
+			try {
+				return file.readLong();
+			} finally {
+				file.close();
+			}
+		}
+
+		private void writeOffset(long offset) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(offsetFile, "rw");
+
+			try {
+				file.seek(0L);
+				file.writeLong(offset);
+				file.getChannel().force(false);
+			} finally {
+				file.close();
+			}
+		}
+
+		private void stop() {
+			running = false;
+			thread.interrupt();
+
+			try {
+				thread.join(IDLE_WAIT_MILLIS + RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.fit.proxy.jdbc.ParameterBuffer;
+
+/**
+ * A write that is replicated asynchronously: sql statement and rows of its parameters, encoded as a journal record.
+ * Parameters that are streams, LOBs or other driver specific objects cannot be encoded.
+ * @author Ondřej Marek
+ */
+public class JournalEntry {
+	private static final byte VERSION = 1;
+
+	private final String sql;
+	private final ParameterBuffer parameters;
+
+	private JournalEntry(String sql, ParameterBuffer parameters) {
+		this.sql = sql;
+		this.parameters = parameters;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Returns parameters of the write, every row is one execution
+	 * @return parameters, rows from 0 to getRows() - 1 are the rows of the write
+	 */
+	public ParameterBuffer getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Encodes a write
+	 * @param sql sql statement
+	 * @param buffer parameters or null for a statement without parameters
+	 * @param rows indexes of parameter rows of the write
+	 * @return encoded write
+	 * @throws SQLException when a parameter cannot be encoded
+	 */
+	public static byte[] encode(String sql, ParameterBuffer buffer, int[] rows) throws SQLException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(sql.length() + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeByte(VERSION);
+			writeBytes(out, sql.getBytes(StandardCharsets.UTF_8));
+
+			if (buffer == null) {
+				out.writeInt(0);
+				out.writeInt(1);
+			} else {
+				out.writeInt(buffer.getWidth());
+				out.writeInt(rows.length);
+
+				for (int row : rows) {
+					for (int i = 1; i <= buffer.getWidth(); i++) {
+						writeParameter(out, buffer, row, i);
+					}
+				}
+			}
+
+			out.flush();
+		} catch (IOException e) {
+			throw new SQLException("Write cannot be encoded for replication: " + sql, e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static void writeParameter(DataOutputStream out, ParameterBuffer buffer, int row, int parameterIndex) throws IOException, SQLException {
+		byte type = buffer.getType(row, parameterIndex);
+
+		if (type == ParameterBuffer.NULL) {
+			out.writeByte(type);
+			out.writeInt(buffer.getNullType(row, parameterIndex));
+			return;
+		}
+
+		Object value = buffer.getValue(row, parameterIndex);
+
+		if (type == ParameterBuffer.OBJECT) {
+			type = typeOf(value);
+		} else if (type == ParameterBuffer.SETTER) {
+			String message = new StringBuilder("Parameter ").append(parameterIndex).append(" is a stream, LOB or a value with calendar, it cannot be replicated asynchronously.").toString();
+			throw new SQLException(message);
+		}
+
+		out.writeByte(type);
+
+		switch (type) {
+		case ParameterBuffer.UNSET: break;
+		case ParameterBuffer.NULL: out.writeInt(Types.NULL); break;
+		case ParameterBuffer.BOOLEAN: out.writeBoolean((Boolean) value); break;
+		case ParameterBuffer.BYTE:
+		case ParameterBuffer.SHORT:
+		case ParameterBuffer.INT:
+		case ParameterBuffer.LONG: out.writeLong(((Number) value).longValue()); break;
+		case ParameterBuffer.FLOAT: out.writeFloat((Float) value); break;
+		case ParameterBuffer.DOUBLE: out.writeDouble((Double) value); break;
+		case ParameterBuffer.STRING: writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8)); break;
+		case ParameterBuffer.BIG_DECIMAL: writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8)); break;
+		case ParameterBuffer.BYTES: writeBytes(out, (byte[]) value); break;
+		case ParameterBuffer.DATE:
+		case ParameterBuffer.TIME: out.writeLong(((java.util.Date) value).getTime()); break;
+		case ParameterBuffer.TIMESTAMP:
+			out.writeLong(((Timestamp) value).getTime());
+			out.writeInt(((Timestamp) value).getNanos());
+			break;
+		default:
+			String message = new StringBuilder("Parameter ").append(parameterIndex).append(" of class ").append(value.getClass().getName()).append(" cannot be replicated asynchronously.").toString();
+			throw new SQLException(message);
+		}
+	}
+
+	/**
+	 * Returns type tag of a value set by setObject
+	 */
+	private static byte typeOf(Object value) {
+		if (value == null) {
+			return ParameterBuffer.NULL;
+		} else if (value instanceof String) {
+			return ParameterBuffer.STRING;
+		} else if (value instanceof Integer) {
+			return ParameterBuffer.INT;
+		} else if (value instanceof Long) {
+			return ParameterBuffer.LONG;
+		} else if (value instanceof Short) {
+			return ParameterBuffer.SHORT;
+		} else if (value instanceof Byte) {
+			return ParameterBuffer.BYTE;
+		} else if (value instanceof Boolean) {
+			return ParameterBuffer.BOOLEAN;
+		} else if (value instanceof Double) {
+			return ParameterBuffer.DOUBLE;
+		} else if (value instanceof Float) {
+			return ParameterBuffer.FLOAT;
+		} else if (value instanceof BigDecimal) {
+			return ParameterBuffer.BIG_DECIMAL;
+		} else if (value instanceof byte[]) {
+			return ParameterBuffer.BYTES;
+		} else if (value instanceof Timestamp) {
+			return ParameterBuffer.TIMESTAMP;
+		} else if (value instanceof Date) {
+			return ParameterBuffer.DATE;
+		} else if (value instanceof Time) {
+			return ParameterBuffer.TIME;
+		}
+
+		return ParameterBuffer.OBJECT;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	/**
+	 * Decodes a write
+	 * @param payload encoded write
+	 * @return write
+	 * @throws SQLException when the payload is not a valid write
+	 */
+	public static JournalEntry decode(byte[] payload) throws SQLException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+		try {
+			if (in.readByte() != VERSION) {
+				throw new SQLException("Unknown version of replicated write.");
+			}
+
+			String sql = new String(readBytes(in), StandardCharsets.UTF_8);
+			int width = in.readInt();
+			int rows = in.readInt();
+			ParameterBuffer parameters = new ParameterBuffer(width);
+
+			for (int row = 0; row < rows; row++) {
+				for (int i = 1; i <= width; i++) {
+					readParameter(in, parameters, i);
+				}
+
+				parameters.addRow();
+				parameters.clearParameters();
+			}
+
+			return new JournalEntry(sql, parameters);
+		} catch (IOException e) {
+			throw new SQLException("Replicated write cannot be decoded.", e);
+		}
+	}
+
+	private static void readParameter(DataInputStream in, ParameterBuffer parameters, int i) throws IOException, SQLException {
+		byte type = in.readByte();
+
+		switch (type) {
+		case ParameterBuffer.UNSET: break;
+		case ParameterBuffer.NULL: parameters.setNull(i, in.readInt()); break;
+		case ParameterBuffer.BOOLEAN: parameters.setBoolean(i, in.readBoolean()); break;
+		case ParameterBuffer.BYTE: parameters.setByte(i, (byte) in.readLong()); break;
+		case ParameterBuffer.SHORT: parameters.setShort(i, (short) in.readLong()); break;
+		case ParameterBuffer.INT: parameters.setInt(i, (int) in.readLong()); break;
+		case ParameterBuffer.LONG: parameters.setLong(i, in.readLong()); break;
+		case ParameterBuffer.FLOAT: parameters.setFloat(i, in.readFloat()); break;
+		case ParameterBuffer.DOUBLE: parameters.setDouble(i, in.readDouble()); break;
+		case ParameterBuffer.STRING: parameters.setObject(i, type, new String(readBytes(in), StandardCharsets.UTF_8)); break;
+		case ParameterBuffer.BIG_DECIMAL: parameters.setObject(i, type, new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8))); break;
+		case ParameterBuffer.BYTES: parameters.setObject(i, type, readBytes(in)); break;
+		case ParameterBuffer.DATE: parameters.setObject(i, type, new Date(in.readLong())); break;
+		case ParameterBuffer.TIME: parameters.setObject(i, type, new Time(in.readLong())); break;
+		case ParameterBuffer.TIMESTAMP:
+			Timestamp timestamp = new Timestamp(in.readLong());
+			timestamp.setNanos(in.readInt());
+			parameters.setObject(i, type, timestamp);
+			break;
+		default: throw new SQLException("Unknown type of replicated parameter: " + type);
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] res = new byte[in.readInt()];
+		in.readFully(res);
+
+		return res;
+	}
+}
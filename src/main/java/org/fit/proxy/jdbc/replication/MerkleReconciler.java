@@ -0,0 +1,314 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.IConnectionTask;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+
+/**
+ * Reconciles replicas of a table with a numeric key incrementally. The key range is split into a complete binary tree of ranges
+ * and the digest of a range is computed by a checksum query that counts and sums hashes of its rows. Trees of all connections
+ * are descended level by level, the checksum queries of a level run in all connections concurrently and only ranges
+ * whose digests differ between connections are split further. Rows of differing leaf ranges are compared by ReplicaValidator.
+ * <p>
+ * Trees are kept in a file between runs. A range whose parent has the same digest as in the previous run has not changed,
+ * so its digest is taken from the file instead of being queried again.
+ * @author Ondřej Marek
+ */
+public class MerkleReconciler {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int DEFAULT_LEAF_KEYS = 1024;
+
+	/**
+	 * Maximal depth of leaves, trees of all connections then take at most a few megabytes
+	 */
+	public static final int MAX_DEPTH = 18;
+
+	private final ProxyExecutor executor;
+	private final int bufferSize;
+
+	/**
+	 * Creates a reconciler
+	 * @param executor executor that runs checksum queries and validation producers
+	 * @param bufferSize maximal number of buffered rows of a single connection when rows of ranges are compared
+	 */
+	public MerkleReconciler(ProxyExecutor executor, int bufferSize) {
+		this.executor = executor;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Reconciles rows of a table
+	 * @param table name of the table
+	 * @param keyColumn unique numeric key column
+	 * @param rowHash sql expression that hashes a row to an integer, e.g. ORA_HASH(name || '|' || balance) in Oracle
+	 * @param minKey the lowest reconciled key (inclusive)
+	 * @param maxKey the highest reconciled key (exclusive), rows outside of the key range are not reconciled
+	 * @param connections reconciled connections
+	 * @param treeFile file that keeps the trees between runs
+	 * @param leafKeys maximal number of keys of a leaf range
+	 * @return report of different ranges and rows
+	 * @throws SQLException when a checksum or validation query fails
+	 */
+	public ReconciliationReport reconcile(String table, String keyColumn, String rowHash, long minKey, long maxKey, List<ConnectionUnit> connections, File treeFile, int leafKeys) throws SQLException {
+		if (connections.size() < 2) {
+			throw new SQLException("Reconciliation needs at least two connections: " + connections);
+		}
+
+		if (leafKeys < 1) {
+			throw new SQLException("Leaf range needs at least one key: " + leafKeys);
+		}
+
+		long span = maxKey - minKey;
+
+		if (maxKey <= minKey || span <= 0L || span >= Long.MAX_VALUE / 2) {
+			throw new SQLException(new StringBuilder("Invalid key range of reconciliation: [").append(minKey).append(", ").append(maxKey).append(").").toString());
+		}
+
+		int depth = 0;
+
+		while (depth < MAX_DEPTH && leafWidth(span, depth) > leafKeys) {
+			depth++;
+		}
+
+		List<String> names = new ArrayList<>(connections.size());
+
+		for (ConnectionUnit connection : connections) {
+			names.add(connection.getName());
+		}
+
+		String signature = new StringBuilder(table).append('|').append(keyColumn).append('|').append(rowHash).append('|').append(minKey)
+				.append('|').append(maxKey).toString();
+		Ranges ranges = new Ranges(minKey, maxKey, depth, leafWidth(span, depth));
+		MerkleTree older = MerkleTree.load(treeFile, signature, depth, names);
+		MerkleTree current = new MerkleTree(signature, depth, names);
+
+		log.log(Level.INFO, "Reconciling table " + table + " in connections " + names + ", tree depth " + depth + ((older == null) ? ", no previous tree." : ", previous tree loaded."));
+
+		ReconciliationReport report = new ReconciliationReport(new ValidationReport(names, ReplicaValidator.DEFAULT_MAX_REPORTED), depth);
+		String checksum = new StringBuilder("SELECT COUNT(*), SUM(").append(rowHash).append(") FROM ").append(table).append(" WHERE ")
+				.append(keyColumn).append(" >= ? AND ").append(keyColumn).append(" < ?").toString();
+		List<Integer> level = new ArrayList<>();
+		List<Integer> leaves = new ArrayList<>();
+		level.add(0);
+
+		while (!level.isEmpty()) {
+			computeLevel(level, current, older, ranges, checksum, connections, report);
+			List<Integer> next = new ArrayList<>();
+
+			for (int node : level) {
+				if (isConsistent(current, node)) {
+					continue;
+				}
+
+				if (current.isLeaf(node)) {
+					leaves.add(node);
+				} else {
+					next.add(2 * node + 1);
+					next.add(2 * node + 2);
+				}
+			}
+
+			level = next;
+		}
+
+		validateLeaves(leaves, ranges, table, keyColumn, rowHash, connections, report);
+
+		current.inheritAll(older);
+
+		try {
+			current.save(treeFile);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Merkle tree cannot be saved to file " + treeFile + ", next reconciliation will query all ranges.", e);
+		}
+
+		log.log(Level.INFO, report.toString());
+
+		return report;
+	}
+
+	private static long leafWidth(long span, int depth) {
+		return (span + (1L << depth) - 1L) >>> depth;
+	}
+
+	/**
+	 * Computes digests of a level of nodes in all connections, digests of unchanged and empty ranges are not queried
+	 */
+	private void computeLevel(List<Integer> level, MerkleTree current, MerkleTree older, Ranges ranges, String checksum, List<ConnectionUnit> connections, ReconciliationReport report) throws SQLException {
+		List<ChecksumTask> tasks = new ArrayList<>(connections.size());
+		int queries = 0;
+
+		for (int connection = 0; connection < connections.size(); connection++) {
+			ChecksumTask task = new ChecksumTask(connections.get(connection), connection, checksum, current, ranges);
+
+			for (int node : level) {
+				if (current.inherit(older, connection, node)) {
+					continue;
+				}
+
+				if (ranges.getLow(node) >= ranges.getHigh(node)) {
+					current.setDigest(connection, node, digest(0L, null));
+				} else {
+					task.nodes.add(node);
+				}
+			}
+
+			if (!task.nodes.isEmpty()) {
+				tasks.add(task);
+				queries += task.nodes.size();
+			}
+		}
+
+		List<ProxyException> failures = executor.runAll(tasks, true);
+
+		if (!failures.isEmpty()) {
+			SQLException toThrow = new SQLException("Checksum query of reconciliation failed: " + checksum);
+
+			for (ProxyException failure : failures) {
+				toThrow.setNextException(failure);
+			}
+
+			ProxyExceptionUtils.logExceptions(toThrow, Level.WARNING);
+			throw toThrow;
+		}
+
+		report.addChecksumQueries(queries);
+	}
+
+	private static boolean isConsistent(MerkleTree tree, int node) {
+		long digest = tree.getDigest(0, node);
+
+		for (int connection = 1; connection < tree.getConnections(); connection++) {
+			if (tree.getDigest(connection, node) != digest) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compares rows of differing leaves, adjacent leaves are compared by a single query
+	 */
+	private void validateLeaves(List<Integer> leaves, Ranges ranges, String table, String keyColumn, String rowHash, List<ConnectionUnit> connections, ReconciliationReport report) throws SQLException {
+		ReplicaValidator validator = new ReplicaValidator(executor, bufferSize, ReplicaValidator.DEFAULT_MAX_REPORTED);
+		int i = 0;
+
+		while (i < leaves.size()) {
+			long low = ranges.getLow(leaves.get(i));
+			long high = ranges.getHigh(leaves.get(i));
+			report.addRange(low, high);
+			i++;
+
+			while (i < leaves.size() && leaves.get(i) == leaves.get(i - 1) + 1) {
+				high = ranges.getHigh(leaves.get(i));
+				report.addRange(ranges.getLow(leaves.get(i)), high);
+				i++;
+			}
+
+			String sql = new StringBuilder("SELECT ").append(keyColumn).append(", ").append(rowHash).append(" FROM ").append(table)
+					.append(" WHERE ").append(keyColumn).append(" >= ").append(low).append(" AND ").append(keyColumn).append(" < ").append(high)
+					.append(" ORDER BY ").append(keyColumn).toString();
+
+			validator.validate(sql, 1, connections, report.getRows());
+		}
+	}
+
+	private static long digest(long count, String sum) {
+		byte[] bytes = new StringBuilder().append(count).append(':').append(sum).toString().getBytes(StandardCharsets.US_ASCII);
+
+		return XxHash64.hash(bytes, 0, bytes.length, 0L);
+	}
+
+	/**
+	 * Key ranges of nodes. A node of depth d covers 2^(depth - d) leaves, the last ranges may be shorter or empty.
+	 */
+	private static final class Ranges {
+		private final long minKey;
+		private final long maxKey;
+		private final int depth;
+		private final long leafWidth;
+
+		private Ranges(long minKey, long maxKey, int depth, long leafWidth) {
+			this.minKey = minKey;
+			this.maxKey = maxKey;
+			this.depth = depth;
+			this.leafWidth = leafWidth;
+		}
+
+		private long getLow(int node) {
+			int level = 31 - Integer.numberOfLeadingZeros(node + 1);
+			long position = node + 1 - (1 << level);
+
+			return Math.min(maxKey, minKey + position * (leafWidth << (depth - level)));
+		}
+
+		private long getHigh(int node) {
+			int level = 31 - Integer.numberOfLeadingZeros(node + 1);
+
+			return Math.min(maxKey, getLow(node) + (leafWidth << (depth - level)));
+		}
+	}
+
+	/**
+	 * Computes digests of nodes of a level in a single connection, all nodes share one prepared statement
+	 */
+	private static final class ChecksumTask implements IConnectionTask {
+		private final ConnectionUnit unit;
+		private final int connection;
+		private final String sql;
+		private final MerkleTree tree;
+		private final Ranges ranges;
+		private final List<Integer> nodes = new ArrayList<>();
+
+		private ChecksumTask(ConnectionUnit unit, int connection, String sql, MerkleTree tree, Ranges ranges) {
+			this.unit = unit;
+			this.connection = connection;
+			this.sql = sql;
+			this.tree = tree;
+			this.ranges = ranges;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return unit;
+		}
+
+		@Override
+		public void run() throws SQLException {
+			PreparedStatement statement = unit.getConnection().prepareStatement(sql);
+
+			try {
+				for (int node : nodes) {
+					statement.setLong(1, ranges.getLow(node));
+					statement.setLong(2, ranges.getHigh(node));
+
+					ResultSet rs = statement.executeQuery();
+
+					try {
+						rs.next();
+						tree.setDigest(connection, node, digest(rs.getLong(1), rs.getString(2)));
+					} finally {
+						rs.close();
+					}
+				}
+			} finally {
+				statement.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * Complete binary trees of range digests, one for every connection. Nodes are stored in heap order (children of node i are 2i + 1
+ * and 2i + 2), a node is known only when its digest has been computed. The file keeps only digests of known nodes,
+ * so a tree that was descended along a few paths takes a few bytes more than its bitmap of known nodes.
+ * @author Ondřej Marek
+ */
+class MerkleTree {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private static final int MAGIC = 0x504D5452;
+	private static final byte VERSION = 1;
+
+	private final String signature;
+	private final int depth;
+	private final List<String> connections;
+	private final long[][] digests;
+	private final BitSet[] known;
+
+	/**
+	 * Creates a tree without known nodes
+	 * @param signature description of table, key range and row hash that the digests belong to
+	 * @param depth depth of leaves, the root has depth 0
+	 * @param connections names of connections
+	 */
+	MerkleTree(String signature, int depth, List<String> connections) {
+		this.signature = signature;
+		this.depth = depth;
+		this.connections = connections;
+		this.digests = new long[connections.size()][getNodes()];
+		this.known = new BitSet[connections.size()];
+
+		for (int i = 0; i < known.length; i++) {
+			known[i] = new BitSet(getNodes());
+		}
+	}
+
+	int getNodes() {
+		return (1 << (depth + 1)) - 1;
+	}
+
+	int getConnections() {
+		return digests.length;
+	}
+
+	boolean isLeaf(int node) {
+		return node >= (1 << depth) - 1;
+	}
+
+	boolean isKnown(int connection, int node) {
+		return known[connection].get(node);
+	}
+
+	long getDigest(int connection, int node) {
+		return digests[connection][node];
+	}
+
+	void setDigest(int connection, int node, long digest) {
+		digests[connection][node] = digest;
+		known[connection].set(node);
+	}
+
+	/**
+	 * Takes the digest of a node from an older tree when the parent of the node has the same digest in both trees,
+	 * i.e. no row of the parent range has changed since the older tree was computed
+	 * @return whether the digest was taken
+	 */
+	boolean inherit(MerkleTree older, int connection, int node) {
+		if (older == null || node == 0 || !older.isKnown(connection, node)) {
+			return false;
+		}
+
+		int parent = (node - 1) / 2;
+
+		if (!isKnown(connection, parent) || !older.isKnown(connection, parent) || getDigest(connection, parent) != older.getDigest(connection, parent)) {
+			return false;
+		}
+
+		setDigest(connection, node, older.getDigest(connection, node));
+
+		return true;
+	}
+
+	/**
+	 * Takes digests of all unchanged subtrees from an older tree
+	 */
+	void inheritAll(MerkleTree older) {
+		if (older == null) {
+			return;
+		}
+
+		for (int connection = 0; connection < digests.length; connection++) {
+			for (int node = 1; node < getNodes(); node++) {
+				if (!isKnown(connection, node)) {
+					inherit(older, connection, node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a tree from a file
+	 * @return tree or null when the file does not exist or it belongs to other table, key range or connections
+	 */
+	static MerkleTree load(File file, String signature, int depth, List<String> connections) {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try {
+				if (in.readInt() != MAGIC || in.readByte() != VERSION || !signature.equals(in.readUTF()) || in.readInt() != depth || in.readInt() != connections.size()) {
+					log.log(Level.INFO, "Merkle tree file " + file + " belongs to other reconciliation, it is ignored.");
+					return null;
+				}
+
+				MerkleTree res = new MerkleTree(signature, depth, connections);
+
+				for (int connection = 0; connection < connections.size(); connection++) {
+					if (!connections.get(connection).equals(in.readUTF())) {
+						log.log(Level.INFO, "Merkle tree file " + file + " belongs to other connections, it is ignored.");
+						return null;
+					}
+
+					long[] words = new long[in.readInt()];
+
+					for (int i = 0; i < words.length; i++) {
+						words[i] = in.readLong();
+					}
+
+					BitSet nodes = BitSet.valueOf(words);
+
+					for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+						res.setDigest(connection, node, in.readLong());
+					}
+				}
+
+				return res;
+			} finally {
+				in.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Merkle tree file " + file + " cannot be read, it is ignored.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the tree to a file. The tree is written to a temporary file first, so the old tree stays valid when writing fails.
+	 */
+	void save(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Directory of Merkle tree file " + file + " cannot be created.");
+		}
+
+		File temporary = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(signature);
+			out.writeInt(depth);
+			out.writeInt(connections.size());
+
+			for (int connection = 0; connection < connections.size(); connection++) {
+				out.writeUTF(connections.get(connection));
+
+				long[] words = known[connection].toLongArray();
+				out.writeInt(words.length);
+
+				for (long word : words) {
+					out.writeLong(word);
+				}
+
+				BitSet nodes = known[connection];
+
+				for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+					out.writeLong(digests[connection][node]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Old Merkle tree file " + file + " cannot be replaced.");
+		}
+
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Merkle tree file " + file + " cannot be written.");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("Merkle tree of depth ").append(depth).append(", ").append(signature).append(", connections ")
+				.append(Arrays.toString(connections.toArray())).toString();
+	}
+}
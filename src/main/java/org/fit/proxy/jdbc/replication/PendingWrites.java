@@ -0,0 +1,88 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes of asynchronous replica groups that were executed in a transaction of a proxy connection and that are not committed yet.
+ * They are appended to journals of their groups when the transaction is committed.
+ * @author Ondřej Marek
+ */
+public class PendingWrites {
+	private final List<AsyncReplicator> replicators = new ArrayList<>();
+	private final List<byte[]> entries = new ArrayList<>();
+
+	/**
+	 * Adds a write
+	 * @param replicator replicator of the group of the write
+	 * @param entry encoded write
+	 */
+	public void add(AsyncReplicator replicator, byte[] entry) {
+		replicators.add(replicator);
+		entries.add(entry);
+	}
+
+	/**
+	 * Returns the number of pending writes, the number is used to forget writes that were rolled back to a savepoint
+	 * @return number of writes
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Forgets writes that were added after the number of writes was equal to size
+	 * @param size number of writes that are kept
+	 */
+	public void truncate(int size) {
+		for (int i = entries.size() - 1; i >= size; i--) {
+			replicators.remove(i);
+			entries.remove(i);
+		}
+	}
+
+	public void clear() {
+		truncate(0);
+	}
+
+	/**
+	 * Appends the writes to journals of their groups in the order of execution and forgets them
+	 * @throws SQLException when a journal cannot be written, the other journals are written anyway
+	 */
+	public void publish() throws SQLException {
+		Map<AsyncReplicator, List<byte[]>> journals = new LinkedHashMap<>();
+
+		for (int i = 0; i < entries.size(); i++) {
+			List<byte[]> journal = journals.get(replicators.get(i));
+
+			if (journal == null) {
+				journal = new ArrayList<>();
+				journals.put(replicators.get(i), journal);
+			}
+
+			journal.add(entries.get(i));
+		}
+
+		clear();
+		SQLException toThrow = null;
+
+		for (Map.Entry<AsyncReplicator, List<byte[]>> journal : journals.entrySet()) {
+			try {
+				journal.getKey().append(journal.getValue());
+			} catch (SQLException e) {
+				if (toThrow == null) {
+					toThrow = e;
+				} else {
+					toThrow.setNextException(e);
+				}
+			}
+		}
+
+		if (toThrow != null) {
+			throw toThrow;
+		}
+	}
+}
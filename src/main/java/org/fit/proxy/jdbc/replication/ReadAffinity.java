@@ -0,0 +1,116 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * Routing of queries of replica groups that read from replicas, so that a proxy connection reads its own writes. Replicas
+ * of a synchronous group execute writes in the same transaction, so they need no affinity. After a write to an asynchronous group,
+ * queries of the group go to the primary until the transaction ends. Then a replica gets queries again when the affinity window
+ * of the group has passed since the commit or when the replica has applied the journal up to the committed writes.
+ * @author Ondřej Marek
+ */
+public class ReadAffinity {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	/**
+	 * Groups written in the current transaction
+	 */
+	private final Set<ReplicaGroup> written = new HashSet<>();
+
+	/**
+	 * Groups with committed writes that replicas may not have applied yet
+	 */
+	private final Map<ReplicaGroup, Affinity> committed = new HashMap<>();
+
+	/**
+	 * Records a write to an asynchronous group
+	 * @param group replica group of the write
+	 * @param autoCommit whether the write is already committed
+	 */
+	public synchronized void recordWrite(ReplicaGroup group, boolean autoCommit) {
+		if (!group.isReadReplicas() || !group.isAsync()) {
+			return;
+		}
+
+		if (autoCommit) {
+			bind(group);
+		} else {
+			written.add(group);
+		}
+	}
+
+	/**
+	 * Records that the transaction was committed, writes of asynchronous groups have to be appended to their journals already
+	 */
+	public synchronized void commit() {
+		for (ReplicaGroup group : written) {
+			bind(group);
+		}
+
+		written.clear();
+	}
+
+	/**
+	 * Records that the transaction was rolled back, its writes do not bind queries to primaries any more
+	 */
+	public synchronized void rollback() {
+		written.clear();
+	}
+
+	private void bind(ReplicaGroup group) {
+		long position = group.getReplicator().getEndOffset();
+		committed.put(group, new Affinity(System.currentTimeMillis() + group.getAffinityMillis(), position));
+	}
+
+	/**
+	 * Returns the connection that answers a query of a group
+	 * @param group replica group of the query
+	 * @return the next replica or the primary when the replica may not have the writes of this connection
+	 */
+	public synchronized ConnectionUnit getReader(ReplicaGroup group) {
+		if (!group.isReadReplicas() || written.contains(group)) {
+			return group.getPrimary();
+		}
+
+		ConnectionUnit replica = group.nextReplica();
+		Affinity affinity = committed.get(group);
+
+		if (affinity == null) {
+			return replica;
+		}
+
+		if (System.currentTimeMillis() >= affinity.until) {
+			committed.remove(group);
+			return replica;
+		}
+
+		if (group.getReplicator().getAppliedOffset(replica.getName()) >= affinity.position) {
+			return replica;
+		}
+
+		log.fine(new StringBuilder("Replica ").append(replica.getName()).append(" of group ").append(group.getName())
+				.append(" has not applied writes of this connection yet, query is sent to the primary.").toString());
+
+		return group.getPrimary();
+	}
+
+	/**
+	 * Committed writes of an asynchronous group
+	 */
+	private static final class Affinity {
+		private final long until;
+		private final long position;
+
+		private Affinity(long until, long position) {
+			this.until = until;
+			this.position = position;
+		}
+	}
+}
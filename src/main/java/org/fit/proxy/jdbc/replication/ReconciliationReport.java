@@ -0,0 +1,72 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of an incremental reconciliation of replicas: key ranges whose digests differ, rows of those ranges that differ
+ * and the number of checksum queries it took.
+ * @author Ondřej Marek
+ */
+public class ReconciliationReport {
+	private final ValidationReport rows;
+	private final int depth;
+	private final List<long[]> ranges = new ArrayList<>();
+	private int checksumQueries = 0;
+
+	ReconciliationReport(ValidationReport rows, int depth) {
+		this.rows = rows;
+		this.depth = depth;
+	}
+
+	void addChecksumQueries(int count) {
+		checksumQueries += count;
+	}
+
+	void addRange(long low, long high) {
+		ranges.add(new long[] {low, high});
+	}
+
+	/**
+	 * Returns mismatched rows of ranges whose digests differ
+	 * @return row report
+	 */
+	public ValidationReport getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns leaf ranges whose digests differ, every range is an array of its lower (inclusive) and upper (exclusive) key
+	 * @return ranges in the order of keys
+	 */
+	public List<long[]> getRanges() {
+		return Collections.unmodifiableList(ranges);
+	}
+
+	/**
+	 * Returns the number of range checksum queries that were executed in all connections together
+	 * @return number of queries
+	 */
+	public int getChecksumQueries() {
+		return checksumQueries;
+	}
+
+	/**
+	 * Returns depth of leaves of the trees
+	 * @return depth
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public boolean isConsistent() {
+		return ranges.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("Reconciliation: ").append(ranges.size()).append(" different ranges, ").append(checksumQueries)
+				.append(" checksum queries. ").append(rows).toString();
+	}
+}
@@ -0,0 +1,212 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.exception.ProxyException;
+
+/**
+ * This class describes one replicated table (or a set of tables). Writes that match the regular expression of the group are executed
+ * in all connections of the group, queries are sent to the primary connection, which is the first one.
+ * An asynchronous group executes writes only in the primary, committed writes are replayed to the other replicas by its replicator.
+ * @author Ondřej Marek
+ */
+public class ReplicaGroup {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private final String name;
+	private final Pattern pattern;
+	private final ConnectionUnit[] connections;
+	private final AsyncReplicator replicator;
+	private final boolean readReplicas;
+	private final long affinityMillis;
+
+	/**
+	 * Position of the next replica that answers a query
+	 */
+	private final AtomicInteger nextReader = new AtomicInteger(new Random().nextInt(1024));
+
+	public static final long DEFAULT_AFFINITY_MILLIS = 1000L;
+
+	/**
+	 * Creates a synchronous group
+	 * @param name name of the group
+	 * @param regexp regular expression of sql statements that belong to the group
+	 * @param connections replicas, the first one is the primary
+	 */
+	public ReplicaGroup(String name, String regexp, List<ConnectionUnit> connections) {
+		this(name, regexp, connections, null);
+	}
+
+	/**
+	 * Creates a group
+	 * @param name name of the group
+	 * @param regexp regular expression of sql statements that belong to the group
+	 * @param connections replicas, the first one is the primary
+	 * @param replicator replicator of the other replicas or null when writes are executed in all replicas synchronously
+	 */
+	public ReplicaGroup(String name, String regexp, List<ConnectionUnit> connections, AsyncReplicator replicator) {
+		this(name, regexp, connections, replicator, false, DEFAULT_AFFINITY_MILLIS);
+	}
+
+	/**
+	 * Creates a group
+	 * @param name name of the group
+	 * @param regexp regular expression of sql statements that belong to the group
+	 * @param connections replicas, the first one is the primary
+	 * @param replicator replicator of the other replicas or null when writes are executed in all replicas synchronously
+	 * @param readReplicas whether queries are spread over replicas instead of the primary
+	 * @param affinityMillis how long after a commit queries of the connection that wrote to the group stay on the primary,
+	 * unless the replica has applied the writes
+	 */
+	public ReplicaGroup(String name, String regexp, List<ConnectionUnit> connections, AsyncReplicator replicator, boolean readReplicas, long affinityMillis) {
+		this.name = name;
+		this.pattern = Pattern.compile(regexp);
+		this.connections = connections.toArray(new ConnectionUnit[connections.size()]);
+		this.replicator = replicator;
+		this.readReplicas = readReplicas && connections.size() > 1;
+		this.affinityMillis = affinityMillis;
+
+		log.info("Replica group " + name + " set up" + ((replicator == null) ? "" : " asynchronously") + ". Replicas: " + connections);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the sql statement belongs to the group
+	 * @param sql sql statement
+	 * @return whether the statement matches
+	 */
+	public boolean matches(String sql) {
+		return pattern.matcher(sql).find();
+	}
+
+	/**
+	 * Returns the connection that answers queries of the group
+	 * @return primary connection
+	 */
+	public ConnectionUnit getPrimary() {
+		return connections[0];
+	}
+
+	/**
+	 * Returns all replicas, the primary is the first one
+	 * @return connections of the group
+	 */
+	public List<ConnectionUnit> getConnections() {
+		return Collections.unmodifiableList(Arrays.asList(connections));
+	}
+
+	/**
+	 * Returns connections where writes of the group are executed by the proxy
+	 * @return all replicas or only the primary when the group is asynchronous
+	 */
+	public List<ConnectionUnit> getWriteConnections() {
+		return isAsync() ? Collections.singletonList(connections[0]) : getConnections();
+	}
+
+	/**
+	 * Returns whether queries of the group are spread over replicas
+	 * @return whether replicas answer queries
+	 */
+	public boolean isReadReplicas() {
+		return readReplicas;
+	}
+
+	public long getAffinityMillis() {
+		return affinityMillis;
+	}
+
+	/**
+	 * Returns the replica that answers the next query, replicas other than the primary take turns
+	 * @return replica
+	 */
+	public ConnectionUnit nextReplica() {
+		int index = (nextReader.getAndIncrement() & Integer.MAX_VALUE) % (connections.length - 1);
+
+		return connections[index + 1];
+	}
+
+	public boolean isAsync() {
+		return replicator != null;
+	}
+
+	/**
+	 * Returns replicator of an asynchronous group
+	 * @return replicator or null when the group is synchronous
+	 */
+	public AsyncReplicator getReplicator() {
+		return replicator;
+	}
+
+	/**
+	 * Releases the replicator of the group
+	 */
+	public void close() {
+		if (replicator != null) {
+			replicator.close();
+		}
+	}
+
+	/**
+	 * Checks that all replicas report the same update counts as the primary. Counts without information (SUCCESS_NO_INFO)
+	 * agree with any count.
+	 * @param sql sql statement that was executed
+	 * @param replicas replicas where the statement was executed, the primary is the first one
+	 * @param counts update counts of replicas in the order of replicas
+	 * @throws ProxyException when some replicas disagree, it lists the disagreeing replicas as next exceptions
+	 */
+	public static void checkUpdateCounts(String sql, List<ConnectionUnit> replicas, int[][] counts) throws ProxyException {
+		ProxyException toThrow = null;
+
+		for (int i = 1; i < counts.length; i++) {
+			if (agree(counts[0], counts[i])) {
+				continue;
+			}
+
+			ConnectionUnit replica = replicas.get(i);
+
+			if (toThrow == null) {
+				String message = new StringBuilder("Replicas disagree on update counts of sql statement: ").append(sql)
+						.append(". Primary ").append(replicas.get(0).getName()).append(" reported ").append(Arrays.toString(counts[0])).toString();
+				toThrow = new ProxyException(message, replicas.get(0));
+			}
+
+			String message = new StringBuilder("Replica ").append(replica.getName()).append(" reported update counts ").append(Arrays.toString(counts[i])).toString();
+			toThrow.setNextException(new ProxyException(message, replica));
+		}
+
+		if (toThrow != null) {
+			throw toThrow;
+		}
+	}
+
+	private static boolean agree(int[] primary, int[] replica) {
+		if (primary.length != replica.length) {
+			return false;
+		}
+
+		for (int i = 0; i < primary.length; i++) {
+			if (primary[i] != replica[i] && primary[i] != Statement.SUCCESS_NO_INFO && replica[i] != Statement.SUCCESS_NO_INFO) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return name + ", " + pattern;
+	}
+}
@@ -0,0 +1,452 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.distributed.RowComparator;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+
+/**
+ * Validates that connections hold the same rows. The same query, ordered by its key columns, runs in all connections concurrently.
+ * Every connection has a producer thread that reduces its rows to keys and 64-bit digests of all columns and passes them in blocks
+ * through a bounded buffer, so the validation needs the same memory for any number of rows. Streams of connections are merged
+ * in lockstep by their keys and a key is reported when a connection does not have it or its digest differs.
+ * Values are digested by their string forms, so replicas should run databases of the same kind.
+ * @author Ondřej Marek
+ */
+public class ReplicaValidator {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int DEFAULT_MAX_REPORTED = 1000;
+
+	/**
+	 * Number of rows in a block passed from a producer to the validating thread
+	 */
+	private static final int BLOCK_SIZE = 512;
+
+	/**
+	 * How often a blocked producer checks whether the validation has been stopped
+	 */
+	private static final long OFFER_TIMEOUT_MS = 100L;
+
+	private final ProxyExecutor executor;
+	private final int bufferedBlocks;
+	private final int maxReported;
+
+	/**
+	 * Creates a validator
+	 * @param executor executor that runs producers
+	 * @param bufferSize maximal number of buffered rows of a single connection
+	 * @param maxReported maximal number of mismatched keys kept in report
+	 */
+	public ReplicaValidator(ProxyExecutor executor, int bufferSize, int maxReported) {
+		this.executor = executor;
+		this.bufferedBlocks = Math.max(2, bufferSize / BLOCK_SIZE);
+		this.maxReported = maxReported;
+	}
+
+	/**
+	 * Validates rows of connections
+	 * @param sql query whose rows are compared, it has to be ordered by its first keyColumns columns and the keys have to be unique
+	 * @param keyColumns number of key columns
+	 * @param connections validated connections
+	 * @return report of mismatched keys
+	 * @throws SQLException when the query fails in a connection or its rows are not ordered by unique keys
+	 */
+	public ValidationReport validate(String sql, int keyColumns, List<ConnectionUnit> connections) throws SQLException {
+		if (keyColumns < 1) {
+			throw new SQLException("Validation needs at least one key column: " + keyColumns);
+		}
+
+		if (connections.size() < 2) {
+			throw new SQLException("Validation needs at least two connections: " + connections);
+		}
+
+		List<String> names = new ArrayList<>(connections.size());
+
+		for (ConnectionUnit connection : connections) {
+			names.add(connection.getName());
+		}
+
+		log.log(Level.INFO, "Validating connections " + names + " by query: " + sql);
+		ValidationReport report = new ValidationReport(names, maxReported);
+		validate(sql, keyColumns, connections, report);
+		log.log(Level.INFO, report.toString());
+
+		return report;
+	}
+
+	/**
+	 * Validates rows of connections and adds keys and mismatches to an existing report
+	 */
+	void validate(String sql, int keyColumns, List<ConnectionUnit> connections, ValidationReport report) throws SQLException {
+		DigestStream[] streams = new DigestStream[connections.size()];
+
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new DigestStream(connections.get(i), sql, keyColumns);
+		}
+
+		try {
+			for (DigestStream stream : streams) {
+				executor.stream(stream);
+				stream.started = true;
+			}
+
+			compare(streams, report);
+		} finally {
+			for (DigestStream stream : streams) {
+				stream.stop();
+			}
+		}
+	}
+
+	private void compare(DigestStream[] streams, ValidationReport report) throws SQLException {
+		boolean[] present = new boolean[streams.length];
+
+		for (DigestStream stream : streams) {
+			stream.advance();
+		}
+
+		while (true) {
+			Object[] key = null;
+
+			for (DigestStream stream : streams) {
+				if (stream.hasRow() && (key == null || compareKeys(stream.getKey(), key) < 0)) {
+					key = stream.getKey();
+				}
+			}
+
+			if (key == null) {
+				return;
+			}
+
+			List<String> missing = null;
+			List<String> different = null;
+			boolean found = false;
+			long digest = 0L;
+
+			for (int i = 0; i < streams.length; i++) {
+				DigestStream stream = streams[i];
+				present[i] = stream.hasRow() && compareKeys(stream.getKey(), key) == 0;
+
+				if (!present[i]) {
+					missing = add(missing, stream.unit.getName());
+				} else if (!found) {
+					found = true;
+					digest = stream.getDigest();
+				} else if (stream.getDigest() != digest) {
+					different = add(different, stream.unit.getName());
+				}
+			}
+
+			report.addKey();
+
+			if (missing != null || different != null) {
+				report.addMismatch(key, (missing == null) ? new ArrayList<String>() : missing, (different == null) ? new ArrayList<String>() : different);
+			}
+
+			for (int i = 0; i < streams.length; i++) {
+				if (present[i]) {
+					streams[i].advance();
+				}
+			}
+		}
+	}
+
+	private static List<String> add(List<String> list, String name) {
+		List<String> res = (list == null) ? new ArrayList<String>() : list;
+		res.add(name);
+
+		return res;
+	}
+
+	/**
+	 * Compares keys the way ordered broadcast queries are merged, nulls are the lowest values
+	 */
+	private static int compareKeys(Object[] first, Object[] second) {
+		for (int i = 0; i < first.length; i++) {
+			Object a = first[i];
+			Object b = second[i];
+
+			if (a == null || b == null) {
+				if (a == b) {
+					continue;
+				}
+
+				return (a == null) ? -1 : 1;
+			}
+
+			int res = RowComparator.compareValues(a, b);
+
+			if (res != 0) {
+				return res;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Keys and digests of consecutive rows of a connection
+	 */
+	private static final class Block {
+		private final Object[][] keys;
+		private final long[] digests;
+		private int size = 0;
+		private final boolean end;
+		private final Exception failure;
+
+		private Block(int capacity, boolean end, Exception failure) {
+			this.keys = new Object[capacity][];
+			this.digests = new long[capacity];
+			this.end = end;
+			this.failure = failure;
+		}
+
+		private boolean isFull() {
+			return size == keys.length;
+		}
+	}
+
+	/**
+	 * Runs the query in a single connection and digests its rows. The validating thread reads the stream by advance().
+	 */
+	private final class DigestStream implements Runnable {
+		private final ConnectionUnit unit;
+		private final String sql;
+		private final int keyColumns;
+		private final ArrayBlockingQueue<Block> blocks = new ArrayBlockingQueue<>(bufferedBlocks);
+		private volatile boolean stopped = false;
+		private volatile Statement statement;
+		private boolean started = false;
+
+		/**
+		 * Current block of the validating thread and position of the current row in it
+		 */
+		private Block block;
+		private int position = 0;
+		private Object[] previous;
+
+		private DigestStream(ConnectionUnit unit, String sql, int keyColumns) {
+			this.unit = unit;
+			this.sql = sql;
+			this.keyColumns = keyColumns;
+		}
+
+		@Override
+		public void run() {
+			Exception failure = null;
+
+			try {
+				statement = unit.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				statement.setFetchSize(BLOCK_SIZE);
+
+				ResultSet rs = statement.executeQuery(sql);
+				int columns = rs.getMetaData().getColumnCount();
+
+				if (columns < keyColumns) {
+					throw new SQLException(new StringBuilder("Validation query has ").append(columns).append(" columns, it cannot have ").append(keyColumns).append(" key columns.").toString());
+				}
+
+				RowDigest digest = new RowDigest();
+				Block current = new Block(BLOCK_SIZE, false, null);
+
+				while (!stopped && rs.next()) {
+					Object[] key = new Object[keyColumns];
+
+					for (int i = 0; i < keyColumns; i++) {
+						key[i] = rs.getObject(i + 1);
+					}
+
+					current.keys[current.size] = key;
+					current.digests[current.size] = digest.digest(rs, columns);
+					current.size++;
+
+					if (current.isFull()) {
+						put(current);
+						current = new Block(BLOCK_SIZE, false, null);
+					}
+				}
+
+				if (current.size > 0) {
+					put(current);
+				}
+			} catch (SQLException | RuntimeException | InterruptedException e) {
+				failure = e;
+			} finally {
+				close();
+			}
+
+			try {
+				put(new Block(0, true, failure));
+			} catch (InterruptedException e) {
+				log.log(Level.FINE, "Validation producer of connection " + unit.getName() + " interrupted.", e);
+			}
+		}
+
+		private void put(Block value) throws InterruptedException {
+			while (!stopped) {
+				if (blocks.offer(value, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+		}
+
+		private void close() {
+			Statement own = statement;
+
+			if (own == null) {
+				return;
+			}
+
+			try {
+				own.close();
+			} catch (SQLException e) {
+				log.log(Level.FINE, "Problem closing validation statement of connection " + unit.getName(), e);
+			}
+		}
+
+		/**
+		 * Moves to the next row, the current row is not available when the stream ended
+		 */
+		private void advance() throws SQLException {
+			if (block != null && block.end) {
+				return;
+			}
+
+			position++;
+
+			if (block == null || position >= block.size) {
+				try {
+					block = blocks.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for rows of validation query.", e);
+				}
+
+				position = 0;
+
+				if (block.end) {
+					if (block.failure != null) {
+						throw fail(block.failure);
+					}
+
+					return;
+				}
+			}
+
+			Object[] key = getKey();
+
+			if (previous != null && compareKeys(previous, key) >= 0) {
+				String message = new StringBuilder("Rows of validation query are not ordered by unique keys in connection ").append(unit.getName()).append(": ").append(sql).toString();
+				throw new ProxyException(message, unit);
+			}
+
+			previous = key;
+		}
+
+		private SQLException fail(Exception failure) {
+			String message = new StringBuilder("Validation query failed in connection ").append(unit.getName()).append(": ").append(sql).toString();
+
+			SQLException res = new SQLException(message, failure);
+			res.setNextException(new ProxyException(message, failure, unit));
+			ProxyExceptionUtils.logExceptions(res, Level.WARNING);
+
+			return res;
+		}
+
+		private boolean hasRow() {
+			return !block.end;
+		}
+
+		private Object[] getKey() {
+			return block.keys[position];
+		}
+
+		private long getDigest() {
+			return block.digests[position];
+		}
+
+		/**
+		 * Stops the producer when the validation ends early
+		 */
+		private void stop() {
+			stopped = true;
+
+			if (!started) {
+				return;
+			}
+
+			Statement own = statement;
+
+			if (own != null) {
+				try {
+					own.cancel();
+				} catch (SQLException e) {
+					log.log(Level.FINE, "Problem cancelling validation query", e);
+				}
+			}
+
+			blocks.clear();
+		}
+	}
+
+	/**
+	 * Digests rows by hashing string forms of their columns, the buffer of bytes is reused for all rows
+	 */
+	private static final class RowDigest {
+		private byte[] buffer = new byte[256];
+		private int size;
+
+		private long digest(ResultSet rs, int columns) throws SQLException {
+			size = 0;
+
+			for (int i = 1; i <= columns; i++) {
+				String value = rs.getString(i);
+
+				if (value == null) {
+					writeInt(-1);
+					continue;
+				}
+
+				writeInt(value.length());
+				ensure(value.length() * 2);
+
+				for (int j = 0; j < value.length(); j++) {
+					char c = value.charAt(j);
+					buffer[size++] = (byte) c;
+					buffer[size++] = (byte) (c >>> 8);
+				}
+			}
+
+			return XxHash64.hash(buffer, 0, size, 0L);
+		}
+
+		private void writeInt(int value) {
+			ensure(4);
+			buffer[size++] = (byte) value;
+			buffer[size++] = (byte) (value >>> 8);
+			buffer[size++] = (byte) (value >>> 16);
+			buffer[size++] = (byte) (value >>> 24);
+		}
+
+		private void ensure(int bytes) {
+			if (size + bytes > buffer.length) {
+				byte[] larger = new byte[Math.max(buffer.length * 2, size + bytes)];
+				System.arraycopy(buffer, 0, larger, 0, size);
+				buffer = larger;
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.fit.proxy.jdbc.replication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a consistency validation of replicas. It counts all compared keys and mismatches, but it keeps only a limited number
+ * of mismatched keys, so the report stays small even when replicas differ completely.
+ * @author Ondřej Marek
+ */
+public class ValidationReport {
+	private final List<String> connections;
+	private final int maxReported;
+	private final List<Mismatch> mismatches = new ArrayList<>();
+	private long keys = 0L;
+	private long mismatchCount = 0L;
+
+	ValidationReport(List<String> connections, int maxReported) {
+		this.connections = Collections.unmodifiableList(new ArrayList<>(connections));
+		this.maxReported = maxReported;
+	}
+
+	void addKey() {
+		keys++;
+	}
+
+	void addMismatch(Object[] key, List<String> missing, List<String> different) {
+		mismatchCount++;
+
+		if (mismatches.size() < maxReported) {
+			mismatches.add(new Mismatch(key, missing, different));
+		}
+	}
+
+	/**
+	 * Returns names of validated connections in the order of validation
+	 * @return names of connections
+	 */
+	public List<String> getConnections() {
+		return connections;
+	}
+
+	/**
+	 * Returns the number of distinct keys found in any of the connections
+	 * @return number of keys
+	 */
+	public long getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Returns the number of keys whose rows are missing in a connection or differ between connections
+	 * @return number of mismatched keys
+	 */
+	public long getMismatchCount() {
+		return mismatchCount;
+	}
+
+	/**
+	 * Returns mismatched keys in the order of keys, at most the configured number of them
+	 * @return mismatches
+	 */
+	public List<Mismatch> getMismatches() {
+		return Collections.unmodifiableList(mismatches);
+	}
+
+	/**
+	 * Returns whether some mismatches were counted but not kept
+	 * @return whether the list of mismatches is incomplete
+	 */
+	public boolean isTruncated() {
+		return mismatchCount > mismatches.size();
+	}
+
+	public boolean isConsistent() {
+		return mismatchCount == 0L;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("Validation of ").append(connections).append(": ").append(keys).append(" keys, ")
+				.append(mismatchCount).append(" mismatches").toString();
+	}
+
+	/**
+	 * A key whose rows do not agree. Rows of connections are compared to the row of the first connection that has the key.
+	 */
+	public static final class Mismatch {
+		private final Object[] key;
+		private final List<String> missing;
+		private final List<String> different;
+
+		private Mismatch(Object[] key, List<String> missing, List<String> different) {
+			this.key = key;
+			this.missing = Collections.unmodifiableList(missing);
+			this.different = Collections.unmodifiableList(different);
+		}
+
+		/**
+		 * Returns values of key columns
+		 * @return key
+		 */
+		public Object[] getKey() {
+			return key.clone();
+		}
+
+		/**
+		 * Returns connections that do not have a row of the key
+		 * @return names of connections
+		 */
+		public List<String> getMissing() {
+			return missing;
+		}
+
+		/**
+		 * Returns connections whose row differs from the row of the first connection that has the key
+		 * @return names of connections
+		 */
+		public List<String> getDifferent() {
+			return different;
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder("Key ").append(Arrays.toString(key)).append(", missing in ").append(missing)
+					.append(", different in ").append(different).toString();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.fit.proxy.jdbc.replication;
+
+/**
+ * 64-bit xxHash of byte arrays. It is fast and well distributed, so it is used to compare rows of replicas by their digests.
+ * @author Ondřej Marek
+ */
+public final class XxHash64 {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private XxHash64() {
+	}
+
+	/**
+	 * Hashes a part of a byte array
+	 * @param data bytes
+	 * @param offset position of the first byte
+	 * @param length number of bytes
+	 * @param seed seed of the hash
+	 * @return hash
+	 */
+	public static long hash(byte[] data, int offset, int length, long seed) {
+		int position = offset;
+		int end = offset + length;
+		long res;
+
+		if (length >= 32) {
+			long v1 = seed + PRIME1 + PRIME2;
+			long v2 = seed + PRIME2;
+			long v3 = seed;
+			long v4 = seed - PRIME1;
+
+			do {
+				v1 = round(v1, readLong(data, position));
+				v2 = round(v2, readLong(data, position + 8));
+				v3 = round(v3, readLong(data, position + 16));
+				v4 = round(v4, readLong(data, position + 24));
+				position += 32;
+			} while (position <= end - 32);
+
+			res = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			res = mergeRound(res, v1);
+			res = mergeRound(res, v2);
+			res = mergeRound(res, v3);
+			res = mergeRound(res, v4);
+		} else {
+			res = seed + PRIME5;
+		}
+
+		res += length;
+
+		while (position <= end - 8) {
+			res ^= round(0L, readLong(data, position));
+			res = Long.rotateLeft(res, 27) * PRIME1 + PRIME4;
+			position += 8;
+		}
+
+		if (position <= end - 4) {
+			res ^= (readInt(data, position) & 0xFFFFFFFFL) * PRIME1;
+			res = Long.rotateLeft(res, 23) * PRIME2 + PRIME3;
+			position += 4;
+		}
+
+		while (position < end) {
+			res ^= (data[position] & 0xFFL) * PRIME5;
+			res = Long.rotateLeft(res, 11) * PRIME1;
+			position++;
+		}
+
+		res ^= res >>> 33;
+		res *= PRIME2;
+		res ^= res >>> 29;
+		res *= PRIME3;
+		res ^= res >>> 32;
+
+		return res;
+	}
+
+	private static long round(long acc, long input) {
+		return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		return (acc ^ round(0L, value)) * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] data, int i) {
+		return (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16 | (data[i + 3] & 0xFFL) << 24
+				| (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40 | (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+	}
+
+	private static int readInt(byte[] data, int i) {
+		return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+	}
+}
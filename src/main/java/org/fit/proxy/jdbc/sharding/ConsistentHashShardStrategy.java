@@ -0,0 +1,76 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+
+/**
+ * This strategy places every shard on a hash ring many times (virtual nodes). A key belongs to the first virtual node that follows the hash of the key.
+ * Positions of virtual nodes depend on names of connections only, so adding a shard moves only about 1/N of keys to the new shard.
+ * The ring is kept in a sorted primitive array, so the lookup is a binary search that does not create any objects.
+ * @author Ondřej Marek
+ */
+public class ConsistentHashShardStrategy implements IShardStrategy {
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	private final long[] points;
+	private final int[] owners;
+
+	/**
+	 * Creates a ring
+	 * @param connections shards
+	 * @param virtualNodes number of virtual nodes of every shard
+	 */
+	public ConsistentHashShardStrategy(List<ConnectionUnit> connections, int virtualNodes) {
+		int size = connections.size() * virtualNodes;
+		final long[] unsorted = new long[size];
+		Integer[] order = new Integer[size];
+
+		for (int shard = 0; shard < connections.size(); shard++) {
+			String name = connections.get(shard).getName();
+
+			for (int node = 0; node < virtualNodes; node++) {
+				int i = shard * virtualNodes + node;
+
+				unsorted[i] = ShardKeys.mix(ShardKeys.hash(new StringBuilder(name).append('#').append(node).toString()));
+				order[i] = i;
+			}
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				long p1 = unsorted[o1];
+				long p2 = unsorted[o2];
+
+				return (p1 < p2) ? -1 : ((p1 == p2) ? 0 : 1);
+			}
+		});
+
+		points = new long[size];
+		owners = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			points[i] = unsorted[order[i]];
+			owners[i] = order[i] / virtualNodes;
+		}
+	}
+
+	@Override
+	public int getShardIndex(long key) {
+		int i = Arrays.binarySearch(points, ShardKeys.mix(key));
+
+		if (i < 0) {
+			i = -i - 1;
+		}
+
+		return owners[(i == points.length) ? 0 : i];
+	}
+
+	@Override
+	public void close() {
+		//nothing to release
+	}
+}
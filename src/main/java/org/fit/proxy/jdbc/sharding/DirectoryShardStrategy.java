@@ -0,0 +1,243 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.Loader;
+import org.fit.proxy.jdbc.ProxyDriver;
+
+/**
+ * This strategy looks keys up in a directory table that maps keys to names of shards. The table is kept in a database,
+ * the strategy keeps a copy of it in a bounded primitive map which is reloaded in background, so the lookup never queries the database.
+ * Keys that are not present in the directory are routed by a fallback strategy.
+ * Proxy connections with the same directory configuration share one strategy, so the directory is loaded and refreshed once.
+ * @author Ondřej Marek
+ */
+public class DirectoryShardStrategy implements IShardStrategy {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+	private final static AtomicInteger threadCounter = new AtomicInteger();
+
+	public static final String DEFAULT_QUERY = "SELECT shard_key, shard_name FROM shard_directory";
+	public static final int DEFAULT_SIZE = 100000;
+	public static final int DEFAULT_REFRESH = 60;
+
+	private static final int MISSING = -1;
+
+	private static final Map<String, DirectoryShardStrategy> strategies = new HashMap<>();
+
+	/**
+	 * Key of the strategy in shared strategies, null when the strategy is not shared
+	 */
+	private final String key;
+	private final Connection directory;
+	private final String query;
+	private final List<String> names;
+	private final int size;
+	private final IShardStrategy fallback;
+	private final ScheduledExecutorService refresher;
+	private int references = 1;
+
+	/**
+	 * Current copy of the directory, replaced as a whole on refresh
+	 */
+	private volatile LongIntMap cache;
+
+	/**
+	 * Creates a strategy and loads the directory
+	 * @param directory connection to database with directory table, it is owned and closed by the strategy
+	 * @param query query that returns key and name of shard in its first two columns
+	 * @param connections shards
+	 * @param size maximal number of cached keys
+	 * @param refreshSeconds period of reloading the directory, 0 means never
+	 * @param fallback strategy of keys that are not present in the directory
+	 * @throws SQLException when the directory cannot be loaded
+	 */
+	public DirectoryShardStrategy(Connection directory, String query, List<ConnectionUnit> connections, int size, int refreshSeconds, IShardStrategy fallback) throws SQLException {
+		this(null, directory, query, getNames(connections), size, refreshSeconds, fallback);
+	}
+
+	private DirectoryShardStrategy(String key, Connection directory, String query, List<String> names, int size, int refreshSeconds, IShardStrategy fallback) throws SQLException {
+		this.key = key;
+		this.directory = directory;
+		this.query = query;
+		this.names = names;
+		this.size = size;
+		this.fallback = fallback;
+
+		refresh();
+
+		if (refreshSeconds > 0) {
+			refresher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "proxy-driver-directory-" + threadCounter.incrementAndGet());
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+
+			refresher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refresh();
+					} catch (SQLException e) {
+						log.log(Level.WARNING, "Unable to refresh shard directory, the previous one is used.", e);
+					}
+				}
+			}, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+		} else {
+			refresher = null;
+		}
+	}
+
+	/**
+	 * Returns the strategy of a directory configuration, it is created and the directory is loaded when the configuration is not used yet
+	 * @param prop proxy properties, the directory database is connected by them
+	 * @param database name of database with directory table
+	 * @param query query that returns key and name of shard in its first two columns
+	 * @param connections shards
+	 * @param size maximal number of cached keys
+	 * @param refreshSeconds period of reloading the directory, 0 means never
+	 * @return strategy, it has to be closed
+	 * @throws SQLException when the directory cannot be connected or loaded
+	 */
+	public static DirectoryShardStrategy open(Properties prop, String database, String query, List<ConnectionUnit> connections, int size, int refreshSeconds) throws SQLException {
+		List<String> names = getNames(connections);
+		String key = new StringBuilder(Loader.getDatabaseUrl(prop, database)).append('\n').append(query).append('\n').append(names)
+			.append('\n').append(size).append('\n').append(refreshSeconds).toString();
+
+		synchronized (strategies) {
+			DirectoryShardStrategy res = strategies.get(key);
+
+			if (res != null) {
+				res.references++;
+				return res;
+			}
+
+			Connection directory = Loader.openConnection(prop, database);
+			IShardStrategy fallback = new ConsistentHashShardStrategy(connections, ConsistentHashShardStrategy.DEFAULT_VIRTUAL_NODES);
+
+			try {
+				res = new DirectoryShardStrategy(key, directory, query, names, size, refreshSeconds, fallback);
+			} catch (SQLException e) {
+				try {
+					directory.close();
+				} catch (SQLException ex) {
+					e.setNextException(ex);
+				}
+
+				throw e;
+			}
+
+			strategies.put(key, res);
+			log.info(new StringBuilder("Shard directory of database ").append(database).append(" loaded.").toString());
+
+			return res;
+		}
+	}
+
+	private static List<String> getNames(List<ConnectionUnit> connections) {
+		List<String> res = new ArrayList<>(connections.size());
+
+		for (ConnectionUnit connection : connections) {
+			res.add(connection.getName());
+		}
+
+		return res;
+	}
+
+	/**
+	 * Reloads the directory from database
+	 * @throws SQLException when the directory cannot be loaded
+	 */
+	public void refresh() throws SQLException {
+		LongIntMap loaded = new LongIntMap(size);
+		Statement statement = directory.createStatement();
+		boolean full = false;
+
+		try {
+			ResultSet rs = statement.executeQuery(query);
+
+			while (rs.next()) {
+				String name = rs.getString(2);
+				int shard = indexOf(name);
+
+				if (shard == MISSING) {
+					log.warning(new StringBuilder("Unknown shard ").append(name).append(" in shard directory.").toString());
+					continue;
+				}
+
+				if (!loaded.put(ShardKeys.keyOf(rs.getObject(1)), shard)) {
+					full = true;
+				}
+			}
+		} finally {
+			statement.close();
+		}
+
+		if (full) {
+			log.warning(new StringBuilder("Shard directory has more than ").append(size).append(" keys. Keys over the limit are routed by fallback strategy.").toString());
+		}
+
+		cache = loaded;
+		log.fine(new StringBuilder("Shard directory loaded, keys: ").append(loaded.size()).toString());
+	}
+
+	private int indexOf(String name) {
+		int res = names.indexOf(name);
+
+		return (res < 0) ? MISSING : res;
+	}
+
+	@Override
+	public int getShardIndex(long key) throws SQLException {
+		int shard = cache.get(key, MISSING);
+
+		return (shard == MISSING) ? fallback.getShardIndex(key) : shard;
+	}
+
+	/**
+	 * Releases the strategy, the last release stops the refresh and closes the connection to the directory
+	 */
+	@Override
+	public void close() {
+		synchronized (strategies) {
+			if (--references > 0) {
+				return;
+			}
+
+			if (key != null) {
+				strategies.remove(key);
+			}
+		}
+
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+
+		fallback.close();
+
+		try {
+			directory.close();
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem closing connection to shard directory.", e);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.fit.proxy.jdbc.sharding;
+
+/**
+ * This strategy spreads keys over shards by hash of the key modulo number of shards.
+ * @author Ondřej Marek
+ */
+public class HashShardStrategy implements IShardStrategy {
+	private final int shards;
+
+	public HashShardStrategy(int shards) {
+		this.shards = shards;
+	}
+
+	@Override
+	public int getShardIndex(long key) {
+		return (int) ((ShardKeys.mix(key) >>> 1) % shards);
+	}
+
+	@Override
+	public void close() {
+		//nothing to release
+	}
+}
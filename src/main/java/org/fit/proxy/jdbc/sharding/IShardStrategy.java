@@ -0,0 +1,23 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.sql.SQLException;
+
+/**
+ * Class that implements this interface decides which shard holds a given shard key.
+ * Keys are normalized to long values by ShardKeys, so the lookup does not need to create any objects.
+ * @author Ondřej Marek
+ */
+public interface IShardStrategy {
+	/**
+	 * Returns index of the shard that holds given key
+	 * @param key normalized shard key
+	 * @return index of shard, from 0 to number of shards - 1
+	 * @throws SQLException when no shard holds the key
+	 */
+	public int getShardIndex(long key) throws SQLException;
+
+	/**
+	 * Releases resources held by the strategy (connections, threads)
+	 */
+	public void close();
+}
@@ -0,0 +1,408 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.fit.proxy.jdbc.ProxyTools;
+
+/**
+ * Finds values of shard key column in WHERE clause of sql query. Equality predicates (key = value, value = key) and IN lists
+ * (key IN (values)) restrict the key, predicates joined by OR restrict it to all their values and predicates joined by AND
+ * to the values of the most restrictive one. Any other predicate (e.g. NOT, range or a subquery) does not restrict the key.
+ * Values of INSERT ... VALUES statement are the values of shard key column in all its rows.
+ * Number literals are normalized like bound numbers (3.0 is key 3), a number that is not integral does not restrict the key.
+ * @author Ondřej Marek
+ */
+public class KeyAnalyzer {
+	private static final String VALUE = "\\?|'(?:[^']|'')*'|[-+]?\\d+(?:\\.\\d+)?";
+
+	/**
+	 * Clauses that may follow WHERE clause
+	 */
+	private static final String[] CLAUSES = {"GROUP", "HAVING", "ORDER", "LIMIT", "OFFSET", "FETCH", "FOR", "WINDOW", "RETURNING"};
+
+	private static final String[] COMPOUND = {"UNION", "INTERSECT", "EXCEPT", "MINUS"};
+
+	private final Pattern keyEqualsValue;
+	private final Pattern valueEqualsKey;
+	private final Pattern keyIn;
+	private final Pattern keyAssignment;
+	private final Pattern columnName;
+
+	/**
+	 * Creates analyzer of a column
+	 * @param column name of shard key column
+	 */
+	public KeyAnalyzer(String column) {
+		String key = "(?:(?:[A-Za-z_][\\w$]*|\"[^\"]+\"|`[^`]+`)\\.)?[\"`]?" + Pattern.quote(column) + "[\"`]?";
+		int flags = Pattern.CASE_INSENSITIVE | Pattern.DOTALL;
+
+		keyEqualsValue = Pattern.compile("^" + key + "\\s*=\\s*(" + VALUE + ")$", flags);
+		valueEqualsKey = Pattern.compile("^(" + VALUE + ")\\s*=\\s*" + key + "$", flags);
+		keyIn = Pattern.compile("^" + key + "\\s+IN\\s*\\((.*)\\)$", flags);
+		keyAssignment = Pattern.compile("^" + key + "\\s*=", flags);
+		columnName = Pattern.compile("^[\"`\\[]?" + Pattern.quote(column) + "[\"`\\]]?$", flags);
+	}
+
+	/**
+	 * Finds values that restrict shard key in WHERE clause of sql query or values of shard key of inserted rows
+	 * @param sql sql query
+	 * @return restriction or null when the query is not restricted to some values of shard key
+	 */
+	public KeyRestriction analyze(String sql) {
+		if (ProxyTools.isStatement(sql, "INSERT")) {
+			return analyzeInsert(sql);
+		}
+
+		int where = ProxyTools.findTopLevelKeyword(sql, "WHERE", 0);
+
+		if (where < 0) {
+			return null;
+		}
+
+		for (String keyword : COMPOUND) {
+			if (ProxyTools.findTopLevelKeyword(sql, keyword, 0) >= 0) {
+				return null;
+			}
+		}
+
+		int end = sql.length();
+
+		while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == ';')) {
+			end--;
+		}
+
+		for (String keyword : CLAUSES) {
+			int position = ProxyTools.findTopLevelKeyword(sql, keyword, where);
+
+			if (position >= 0 && position < end) {
+				end = position;
+			}
+		}
+
+		return analyze(sql, where + 5, end);
+	}
+
+	/**
+	 * Returns whether UPDATE statement assigns a value to shard key column
+	 * @param sql sql statement
+	 * @return whether the statement changes shard key
+	 */
+	public boolean isKeyAssigned(String sql) {
+		if (!ProxyTools.isStatement(sql, "UPDATE")) {
+			return false;
+		}
+
+		int set = ProxyTools.findTopLevelKeyword(sql, "SET", 0);
+
+		if (set < 0) {
+			return false;
+		}
+
+		int end = ProxyTools.findTopLevelKeyword(sql, "WHERE", set);
+
+		for (String item : ProxyTools.splitTopLevel(sql, set + 3, (end < 0) ? sql.length() : end)) {
+			if (keyAssignment.matcher(item).find()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds values of shard key in all rows of INSERT ... VALUES statement, the statement has to name its columns
+	 */
+	private KeyRestriction analyzeInsert(String sql) {
+		int values = ProxyTools.findTopLevelKeyword(sql, "VALUES", 0);
+		int open = sql.indexOf('(');
+
+		if (values < 0 || open < 0 || open > values) {
+			return null;
+		}
+
+		int close = findClosing(sql, open, values);
+
+		if (close < 0) {
+			return null;
+		}
+
+		List<String> columns = ProxyTools.splitTopLevel(sql, open + 1, close);
+		int position = -1;
+
+		for (int i = 0; i < columns.size(); i++) {
+			if (columnName.matcher(columns.get(i)).matches()) {
+				position = i;
+			}
+		}
+
+		if (position < 0) {
+			return null;
+		}
+
+		KeyRestriction res = new KeyRestriction();
+		int i = values + "VALUES".length();
+
+		while (true) {
+			while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+				i++;
+			}
+
+			if (i == sql.length() || sql.charAt(i) != '(') {
+				return null;
+			}
+
+			int end = findClosing(sql, i, sql.length());
+
+			if (end < 0 || !addTupleValue(res, sql, i + 1, end, position)) {
+				return null;
+			}
+
+			i = end + 1;
+
+			while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+				i++;
+			}
+
+			if (i == sql.length() || sql.charAt(i) != ',') {
+				return res;
+			}
+
+			i++;
+		}
+	}
+
+	/**
+	 * Adds the value of a row tuple at given position, the value has to be a literal or a parameter
+	 * @return whether the value was added
+	 */
+	private static boolean addTupleValue(KeyRestriction restriction, String sql, int start, int end, int position) {
+		int item = 0;
+		int from = start;
+		int depth = 0;
+		int i = start;
+
+		while (i <= end) {
+			int next = (i < end) ? ProxyTools.skipQuoted(sql, i) : i;
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			char c = (i < end) ? sql.charAt(i) : ',';
+
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				if (item == position) {
+					String value = sql.substring(from, i).trim();
+
+					if (!value.matches(VALUE)) {
+						return false;
+					}
+
+					return add(restriction, sql, sql.indexOf(value, from), value);
+				}
+
+				item++;
+				from = i + 1;
+			}
+
+			i++;
+		}
+
+		return false;
+	}
+
+	private KeyRestriction analyze(String sql, int from, int to) {
+		int start = from;
+		int end = to;
+
+		//strips whitespace and parentheses around the whole expression
+		while (true) {
+			while (start < end && Character.isWhitespace(sql.charAt(start))) {
+				start++;
+			}
+
+			while (end > start && Character.isWhitespace(sql.charAt(end - 1))) {
+				end--;
+			}
+
+			if (start < end && sql.charAt(start) == '(' && findClosing(sql, start, end) == end - 1) {
+				start++;
+				end--;
+			} else {
+				break;
+			}
+		}
+
+		List<int[]> or = split(sql, start, end, "OR");
+
+		if (or.size() > 1) {
+			KeyRestriction res = new KeyRestriction();
+
+			for (int[] part : or) {
+				KeyRestriction values = analyze(sql, part[0], part[1]);
+
+				if (values == null) {
+					return null;
+				}
+
+				res.addAll(values);
+			}
+
+			return res;
+		}
+
+		List<int[]> and = split(sql, start, end, "AND");
+
+		if (and.size() > 1) {
+			KeyRestriction res = null;
+
+			for (int[] part : and) {
+				KeyRestriction values = analyze(sql, part[0], part[1]);
+
+				if (values != null && (res == null || values.size() < res.size())) {
+					res = values;
+				}
+			}
+
+			return res;
+		}
+
+		return predicate(sql, start, end);
+	}
+
+	/**
+	 * Splits expression by a top level keyword
+	 * @return start and end positions of parts
+	 */
+	private static List<int[]> split(String sql, int start, int end, String keyword) {
+		List<int[]> res = new ArrayList<>();
+		int part = start;
+		int i = ProxyTools.findTopLevelKeyword(sql, keyword, start);
+
+		while (i >= 0 && i < end) {
+			//AND of BETWEEN x AND y does not join predicates
+			boolean between = keyword.equals("AND") && count(sql, part, i, "BETWEEN") > count(sql, part, i, "AND");
+
+			if (!between) {
+				res.add(new int[] {part, i});
+				part = i + keyword.length();
+			}
+
+			i = ProxyTools.findTopLevelKeyword(sql, keyword, i + keyword.length());
+		}
+
+		res.add(new int[] {part, end});
+
+		return res;
+	}
+
+	private static int count(String sql, int start, int end, String keyword) {
+		int res = 0;
+		int i = ProxyTools.findTopLevelKeyword(sql, keyword, start);
+
+		while (i >= 0 && i < end) {
+			res++;
+			i = ProxyTools.findTopLevelKeyword(sql, keyword, i + keyword.length());
+		}
+
+		return res;
+	}
+
+	private static int findClosing(String sql, int open, int end) {
+		int depth = 0;
+		int i = open;
+
+		while (i < end) {
+			int next = ProxyTools.skipQuoted(sql, i);
+
+			if (next != i) {
+				i = next;
+				continue;
+			}
+
+			char c = sql.charAt(i);
+
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return i;
+			}
+
+			i++;
+		}
+
+		return -1;
+	}
+
+	private KeyRestriction predicate(String sql, int start, int end) {
+		String text = sql.substring(start, end);
+		Matcher matcher = keyEqualsValue.matcher(text);
+
+		if (!matcher.matches()) {
+			matcher = valueEqualsKey.matcher(text);
+		}
+
+		if (matcher.matches()) {
+			KeyRestriction res = new KeyRestriction();
+
+			return add(res, sql, start + matcher.start(1), matcher.group(1)) ? res : null;
+		}
+
+		matcher = keyIn.matcher(text);
+
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		int listStart = start + matcher.start(1);
+		List<String> items = ProxyTools.splitTopLevel(sql, listStart, start + matcher.end(1));
+		KeyRestriction res = new KeyRestriction();
+		int position = listStart;
+
+		for (String item : items) {
+			if (!item.matches(VALUE)) {
+				return null;
+			}
+
+			position = sql.indexOf(item, position);
+
+			if (!add(res, sql, position, item)) {
+				return null;
+			}
+
+			position += item.length();
+		}
+
+		return res;
+	}
+
+	/**
+	 * Adds a value to restriction
+	 * @return whether the value was added, false when it is a number that cannot be normalized to a key
+	 */
+	private static boolean add(KeyRestriction restriction, String sql, int position, String value) {
+		if (value.equals("?")) {
+			restriction.addParameter(ProxyTools.countParameters(sql.substring(0, position)) + 1);
+		} else if (value.charAt(0) == '\'') {
+			restriction.addLiteral(value.substring(1, value.length() - 1).replace("''", "'"));
+		} else {
+			try {
+				//the database compares numbers by value, so 3.0 has to be found in the shard of key 3
+				restriction.addLiteral(Long.toString(new BigDecimal(value).longValueExact()));
+			} catch (ArithmeticException e) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
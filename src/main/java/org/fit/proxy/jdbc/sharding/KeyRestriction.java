@@ -0,0 +1,101 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fit.proxy.jdbc.ParameterBuffer;
+
+/**
+ * Values of shard key that rows of a query are restricted to by its WHERE clause. The values are literals of sql query
+ * or parameters of prepared statement, which are known only when the statement is executed.
+ * @author Ondřej Marek
+ */
+public class KeyRestriction {
+	private final List<String> literals = new ArrayList<>();
+	private final List<Integer> parameters = new ArrayList<>();
+
+	void addLiteral(String literal) {
+		literals.add(literal);
+	}
+
+	void addParameter(int parameterIndex) {
+		parameters.add(parameterIndex);
+	}
+
+	void addAll(KeyRestriction other) {
+		literals.addAll(other.literals);
+		parameters.addAll(other.parameters);
+	}
+
+	/**
+	 * Returns the number of values, values may repeat
+	 * @return number of values
+	 */
+	public int size() {
+		return literals.size() + parameters.size();
+	}
+
+	/**
+	 * Returns whether some values are parameters of prepared statement
+	 * @return whether the shards are known only on execution
+	 */
+	public boolean hasParameters() {
+		return !parameters.isEmpty();
+	}
+
+	public List<String> getLiterals() {
+		return literals;
+	}
+
+	public List<Integer> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Returns shards that hold the values. Parameters that are set to null are skipped, because no row matches them.
+	 * @param rule shard rule of the query
+	 * @param buffer parameters of prepared statement, null for a statement
+	 * @return flags of shards indexed by shard
+	 * @throws SQLException when a parameter is not set or no shard holds a value
+	 */
+	public boolean[] getShards(ShardRule rule, ParameterBuffer buffer) throws SQLException {
+		return getShards(rule, buffer, (buffer == null) ? 0 : buffer.getRows());
+	}
+
+	/**
+	 * Returns shards that hold the values when parameters are taken from a row of batch
+	 * @param rule shard rule of the query
+	 * @param buffer parameters of prepared statement, null for a statement
+	 * @param row row of parameters, the current parameters are the row after the last batched one
+	 * @return flags of shards indexed by shard
+	 * @throws SQLException when a parameter is not set or no shard holds a value
+	 */
+	public boolean[] getShards(ShardRule rule, ParameterBuffer buffer, int row) throws SQLException {
+		boolean[] res = new boolean[rule.getShardCount()];
+
+		for (String literal : literals) {
+			res[rule.getShardIndex(literal)] = true;
+		}
+
+		for (int parameter : parameters) {
+			if (buffer == null || buffer.getType(row, parameter) == ParameterBuffer.UNSET) {
+				String message = new StringBuilder("Shard key parameter ").append(parameter).append(" of shard rule ").append(rule.getName()).append(" is not set.").toString();
+				throw new SQLException(message);
+			}
+
+			Object value = buffer.getValue(row, parameter);
+
+			if (value != null) {
+				res[rule.getShardIndex(value)] = true;
+			}
+		}
+
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "literals " + literals + ", parameters " + parameters;
+	}
+}
@@ -0,0 +1,82 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to non negative int values with open addressing. Keys and values are kept in primitive arrays,
+ * so neither put nor get creates any objects. The map has a fixed capacity and is not thread safe, it is meant to be filled
+ * once and then only read.
+ * @author Ondřej Marek
+ */
+public class LongIntMap {
+	private static final int EMPTY = -1;
+
+	private final long[] keys;
+	private final int[] values;
+	private final int mask;
+	private final int capacity;
+	private int size = 0;
+
+	/**
+	 * Creates a map
+	 * @param capacity maximal number of entries
+	 */
+	public LongIntMap(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+
+		this.capacity = capacity;
+		this.keys = new long[slots];
+		this.values = new int[slots];
+		this.mask = slots - 1;
+
+		Arrays.fill(values, EMPTY);
+	}
+
+	private int slot(long key) {
+		int i = (int) ShardKeys.mix(key) & mask;
+
+		while (values[i] != EMPTY && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Puts an entry to the map
+	 * @param key key
+	 * @param value value, must not be negative
+	 * @return false when the map is full and the key is not present in it
+	 */
+	public boolean put(long key, int value) {
+		int i = slot(key);
+
+		if (values[i] == EMPTY) {
+			if (size == capacity) {
+				return false;
+			}
+
+			size++;
+			keys[i] = key;
+		}
+
+		values[i] = value;
+		return true;
+	}
+
+	/**
+	 * Returns value of a key
+	 * @param key key
+	 * @param missing value returned when the key is not present
+	 * @return value
+	 */
+	public int get(long key, int missing) {
+		int value = values[slot(key)];
+
+		return (value == EMPTY) ? missing : value;
+	}
+
+	public int size() {
+		return size;
+	}
+}
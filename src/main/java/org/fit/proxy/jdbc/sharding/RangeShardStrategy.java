@@ -0,0 +1,32 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.util.Arrays;
+
+/**
+ * This strategy maps ranges of keys to shards. Range of shard i starts at bound i - 1 (inclusive) and ends at bound i (exclusive),
+ * the first shard holds all keys lower than the first bound and the last shard all keys from the last bound.
+ * @author Ondřej Marek
+ */
+public class RangeShardStrategy implements IShardStrategy {
+	private final long[] bounds;
+
+	/**
+	 * Creates a strategy
+	 * @param bounds ascending bounds of ranges, one less than the number of shards
+	 */
+	public RangeShardStrategy(long[] bounds) {
+		this.bounds = bounds;
+	}
+
+	@Override
+	public int getShardIndex(long key) {
+		int i = Arrays.binarySearch(bounds, key);
+
+		return (i >= 0) ? i + 1 : -i - 1;
+	}
+
+	@Override
+	public void close() {
+		//nothing to release
+	}
+}
@@ -0,0 +1,123 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * This class normalizes values of shard keys to long values. Integral numbers, decimal and floating numbers with an integral value
+ * and strings that contain an integral number are kept as they are, so a bound parameter 42 (or 42.0) and sql literal '42' give the same key.
+ * Other values are hashed.
+ * @author Ondřej Marek
+ */
+public class ShardKeys {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private ShardKeys() {
+	}
+
+	/**
+	 * Returns normalized shard key
+	 * @param value value of shard key
+	 * @return normalized key
+	 * @throws SQLException when the value is null
+	 */
+	public static long keyOf(Object value) throws SQLException {
+		if (value == null) {
+			throw new SQLException("Shard key must not be null.");
+		}
+
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+
+		if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+			return ((BigInteger) value).longValue();
+		}
+
+		if (value instanceof BigDecimal) {
+			try {
+				return ((BigDecimal) value).longValueExact();
+			} catch (ArithmeticException e) {
+				return hash(value.toString());
+			}
+		}
+
+		if (value instanceof Double || value instanceof Float) {
+			double number = ((Number) value).doubleValue();
+
+			//decimal string of the value keeps integral values exact, e.g. 3.0 is key 3
+			return (Double.isNaN(number) || Double.isInfinite(number)) ? hash(value.toString()) : keyOf(new BigDecimal(value.toString()));
+		}
+
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+
+		return keyOf(value.toString());
+	}
+
+	/**
+	 * Returns normalized shard key of a string
+	 * @param value string value
+	 * @return the number when the string contains an integral number, hash of the string otherwise
+	 */
+	public static long keyOf(String value) {
+		String trimmed = value.trim();
+		int length = trimmed.length();
+		int start = (length > 0 && trimmed.charAt(0) == '-') ? 1 : 0;
+
+		if (length == start || length - start > 18) {
+			return hash(trimmed);
+		}
+
+		long res = 0L;
+
+		for (int i = start; i < length; i++) {
+			char c = trimmed.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return hash(trimmed);
+			}
+
+			res = res * 10 + (c - '0');
+		}
+
+		return (start == 1) ? -res : res;
+	}
+
+	/**
+	 * Returns 64 bit FNV-1a hash of a string
+	 * @param value string
+	 * @return hash
+	 */
+	public static long hash(String value) {
+		long res = FNV_OFFSET;
+
+		for (int i = 0; i < value.length(); i++) {
+			res ^= value.charAt(i);
+			res *= FNV_PRIME;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Mixes bits of a key, so that consecutive keys are spread evenly (finalizer of MurmurHash3)
+	 * @param key key
+	 * @return mixed key
+	 */
+	public static long mix(long key) {
+		long res = key;
+
+		res ^= res >>> 33;
+		res *= 0xff51afd7ed558ccdL;
+		res ^= res >>> 33;
+		res *= 0xc4ceb9fe1a85ec53L;
+		res ^= res >>> 33;
+
+		return res;
+	}
+}
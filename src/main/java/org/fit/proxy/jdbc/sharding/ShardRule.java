@@ -0,0 +1,286 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyTools;
+
+/**
+ * This class describes one sharded table. Sql queries that match the regular expression of the rule are routed to one of the connections
+ * of the rule according to the value of shard key.
+ * @author Ondřej Marek
+ */
+public class ShardRule {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int NO_PARAMETER = 0;
+
+	private final String name;
+	private final Pattern pattern;
+	private final int parameterIndex;
+	private final String column;
+	private final IShardStrategy strategy;
+	private final ConnectionUnit[] connections;
+	private final boolean broadcast;
+	private final KeyAnalyzer analyzer;
+
+	/**
+	 * Number of queries by the number of shards they were sent to
+	 */
+	private final AtomicLongArray fanOut;
+
+	/**
+	 * Creates a rule
+	 * @param name name of the rule
+	 * @param regexp regular expression of sql queries that belong to the rule
+	 * @param parameterIndex index of prepared statement parameter that holds the shard key, NO_PARAMETER if there is none
+	 * @param column name of the column that holds the shard key, may be null
+	 * @param strategy strategy that decides the shard
+	 * @param connections shards
+	 */
+	public ShardRule(String name, String regexp, int parameterIndex, String column, IShardStrategy strategy, List<ConnectionUnit> connections) {
+		this(name, regexp, parameterIndex, column, strategy, connections, true);
+	}
+
+	/**
+	 * Creates a rule
+	 * @param name name of the rule
+	 * @param regexp regular expression of sql queries that belong to the rule
+	 * @param parameterIndex index of prepared statement parameter that holds the shard key, NO_PARAMETER if there is none
+	 * @param column name of the column that holds the shard key, may be null
+	 * @param strategy strategy that decides the shard
+	 * @param connections shards
+	 * @param broadcast whether statements that span more shards are sent to all of them
+	 */
+	public ShardRule(String name, String regexp, int parameterIndex, String column, IShardStrategy strategy, List<ConnectionUnit> connections, boolean broadcast) {
+		this.name = name;
+		this.pattern = Pattern.compile(regexp);
+		this.parameterIndex = parameterIndex;
+		this.column = column;
+		this.strategy = strategy;
+		this.connections = connections.toArray(new ConnectionUnit[connections.size()]);
+		this.broadcast = broadcast;
+		this.analyzer = (column == null) ? null : new KeyAnalyzer(column);
+		this.fanOut = new AtomicLongArray(this.connections.length + 1);
+
+		log.info("Shard rule " + name + " set up. Shards: " + connections);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the sql query belongs to the rule
+	 * @param sql sql query
+	 * @return whether the query matches
+	 */
+	public boolean matches(String sql) {
+		return pattern.matcher(sql).find();
+	}
+
+	/**
+	 * Returns index of prepared statement parameter that holds shard key
+	 * @return parameter index or NO_PARAMETER
+	 */
+	public int getParameterIndex() {
+		return parameterIndex;
+	}
+
+	public String getColumn() {
+		return column;
+	}
+
+	/**
+	 * Returns index of prepared statement parameter that holds shard key in given sql query. The configured index is used when it is set,
+	 * otherwise the query has to be restricted to a single parameter of the shard key column (see {@link #findKeys(String)}).
+	 * @param sql sql query
+	 * @return parameter index or NO_PARAMETER if the shard key is not a single parameter
+	 */
+	public int findParameterIndex(String sql) {
+		KeyRestriction keys = findKeys(sql);
+
+		if (keys == null || keys.size() != 1 || !keys.hasParameters()) {
+			return NO_PARAMETER;
+		}
+
+		return keys.getParameters().get(0);
+	}
+
+	/**
+	 * Returns the literal that restricts shard key of given sql query to a single value (see {@link #findKeys(String)})
+	 * @param sql sql query
+	 * @return literal without quotes or null if the shard key is not restricted to a single literal
+	 */
+	public String findLiteral(String sql) {
+		KeyRestriction keys = findKeys(sql);
+
+		if (keys == null || keys.size() != 1 || keys.hasParameters()) {
+			return null;
+		}
+
+		return keys.getLiterals().get(0);
+	}
+
+	/**
+	 * Returns values of shard key that the query is restricted to by equality predicates and IN lists of its top level WHERE clause,
+	 * or values of shard key of all rows of INSERT ... VALUES statement. When the rule has a configured parameter index,
+	 * the query is restricted to that parameter.
+	 * @param sql sql query
+	 * @return restriction or null when the query is not restricted
+	 */
+	public KeyRestriction findKeys(String sql) {
+		if (parameterIndex != NO_PARAMETER) {
+			KeyRestriction res = new KeyRestriction();
+			res.addParameter(parameterIndex);
+
+			return res;
+		}
+
+		return (analyzer == null) ? null : analyzer.analyze(sql);
+	}
+
+	/**
+	 * Returns whether a statement of a shard rule is routed by its shard key: a query, insert, update or delete. Other statements
+	 * (e.g. DDL) are routed by regular expressions of connections.
+	 * @param sql sql statement
+	 * @return whether the statement is routed by shard key
+	 */
+	public static boolean isRoutedByKey(String sql) {
+		return ProxyTools.isQuery(sql) || ProxyTools.isStatement(sql, "INSERT") || ProxyTools.isStatement(sql, "UPDATE") || ProxyTools.isStatement(sql, "DELETE");
+	}
+
+	/**
+	 * Checks that a write can be routed by its shard key. An insert has to contain shard key of all its rows and an update must not assign
+	 * shard key, because the row would stay in the shard of its old key.
+	 * @param sql sql statement
+	 * @param keys shard key restriction of the statement
+	 * @throws SQLException when the write cannot be routed
+	 */
+	public void checkWrite(String sql, KeyRestriction keys) throws SQLException {
+		if (keys == null && ProxyTools.isStatement(sql, "INSERT")) {
+			throw new SQLException(new StringBuilder("Shard key of rows inserted by sql statement of shard rule ").append(name).append(" cannot be found. Name the columns and insert literals or parameters: ").append(sql).toString());
+		}
+
+		if (analyzer != null && analyzer.isKeyAssigned(sql)) {
+			throw new SQLException(new StringBuilder("Sql statement of shard rule ").append(name).append(" updates shard key, the rows would stay in their old shards: ").append(sql).toString());
+		}
+	}
+
+	/**
+	 * Returns exception of a statement that needs more shards of the rule than it may be sent to
+	 * @param sql sql statement
+	 * @param shards number of shards the statement needs
+	 * @return exception to throw
+	 */
+	public SQLException createSpanException(String sql, int shards) {
+		StringBuilder sb = new StringBuilder("Sql statement spans ").append(shards).append(" shards of shard rule ").append(name);
+
+		if (ProxyTools.isStatement(sql, "INSERT")) {
+			sb.append(", rows of different shards have to be inserted separately: ");
+		} else {
+			sb.append(" and the rule does not allow broadcasting: ");
+		}
+
+		return new SQLException(sb.append(sql).toString());
+	}
+
+	/**
+	 * Returns whether queries, updates and deletes that span more shards are sent to all of them
+	 * @return whether statements spanning shards are broadcast
+	 */
+	public boolean isBroadcast() {
+		return broadcast;
+	}
+
+	public IShardStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Returns index of the shard that holds given value of shard key
+	 * @param value value of shard key
+	 * @return shard index
+	 * @throws SQLException when the value is null or no shard holds it
+	 */
+	public int getShardIndex(Object value) throws SQLException {
+		return strategy.getShardIndex(ShardKeys.keyOf(value));
+	}
+
+	public int getShardCount() {
+		return connections.length;
+	}
+
+	public ConnectionUnit getConnection(int index) {
+		return connections[index];
+	}
+
+	public List<ConnectionUnit> getConnections() {
+		return Collections.unmodifiableList(Arrays.asList(connections));
+	}
+
+	/**
+	 * Returns chosen shards
+	 * @param shards flags of shards indexed by shard
+	 * @return connections of chosen shards
+	 */
+	public List<ConnectionUnit> getConnections(boolean[] shards) {
+		List<ConnectionUnit> res = new ArrayList<>(connections.length);
+
+		for (int i = 0; i < connections.length; i++) {
+			if (shards[i]) {
+				res.add(connections[i]);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Records that a query of the rule was sent to given number of shards
+	 * @param shards number of shards
+	 */
+	public void recordFanOut(int shards) {
+		fanOut.incrementAndGet(Math.min(shards, connections.length));
+
+		if (log.isLoggable(Level.FINE)) {
+			log.fine(new StringBuilder("Query of shard rule ").append(name).append(" was sent to ").append(shards).append(" of ").append(connections.length).append(" shards.").toString());
+		}
+	}
+
+	/**
+	 * Returns statistics of queries of the rule: the number of queries by the number of shards they were sent to. Queries that are sent
+	 * to all shards are counted at the last index.
+	 * @return numbers of queries indexed by the number of shards
+	 */
+	public long[] getFanOut() {
+		long[] res = new long[fanOut.length()];
+
+		for (int i = 0; i < res.length; i++) {
+			res[i] = fanOut.get(i);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Releases resources held by the strategy of the rule
+	 */
+	public void close() {
+		strategy.close();
+	}
+
+	@Override
+	public String toString() {
+		return name + ", " + pattern;
+	}
+}
@@ -0,0 +1,114 @@
+package org.fit.proxy.jdbc.sharding;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+
+/**
+ * This class creates shard strategies by their names used in proxy properties
+ * @author Ondřej Marek
+ */
+public class ShardStrategyFactory {
+	public static final String HASH = "hash";
+	public static final String CONSISTENT_HASH = "consistent_hash";
+	public static final String RANGE = "range";
+	public static final String DIRECTORY = "directory";
+
+	private ShardStrategyFactory() {
+	}
+
+	/**
+	 * Creates a strategy
+	 * @param strategy name of strategy, hash when null
+	 * @param connections shards
+	 * @param prop proxy properties
+	 * @param prefix prefix of properties of the shard rule (e.g. shard0_)
+	 * @return strategy
+	 * @throws SQLException when the strategy is unknown or its settings are invalid
+	 */
+	public static IShardStrategy createStrategy(String strategy, List<ConnectionUnit> connections, Properties prop, String prefix) throws SQLException {
+		String name = (strategy == null) ? HASH : strategy.trim().toLowerCase();
+
+		if (HASH.equals(name)) {
+			return new HashShardStrategy(connections.size());
+		}
+
+		if (CONSISTENT_HASH.equals(name)) {
+			int virtualNodes = readInt(prop, prefix + "virtual_nodes", ConsistentHashShardStrategy.DEFAULT_VIRTUAL_NODES, 1);
+
+			return new ConsistentHashShardStrategy(connections, virtualNodes);
+		}
+
+		if (RANGE.equals(name)) {
+			return new RangeShardStrategy(readBounds(prop, prefix + "ranges", connections.size()));
+		}
+
+		if (DIRECTORY.equals(name)) {
+			String database = prop.getProperty(prefix + "directory");
+
+			if (database == null) {
+				throw new SQLException(new StringBuilder("Missing ").append(prefix).append("directory setting of directory shard strategy.").toString());
+			}
+
+			String query = prop.getProperty(prefix + "directory_query", DirectoryShardStrategy.DEFAULT_QUERY);
+			int size = readInt(prop, prefix + "directory_size", DirectoryShardStrategy.DEFAULT_SIZE, 1);
+			int refresh = readInt(prop, prefix + "directory_refresh", DirectoryShardStrategy.DEFAULT_REFRESH, 0);
+
+			return DirectoryShardStrategy.open(prop, database.trim(), query, connections, size, refresh);
+		}
+
+		throw new SQLException(new StringBuilder("Unknown shard strategy: ").append(strategy).toString());
+	}
+
+	private static long[] readBounds(Properties prop, String key, int shards) throws SQLException {
+		String value = prop.getProperty(key);
+
+		if (value == null) {
+			throw new SQLException(new StringBuilder("Missing ").append(key).append(" setting of range shard strategy.").toString());
+		}
+
+		String[] parts = value.split(",");
+
+		if (parts.length != shards - 1) {
+			throw new SQLException(new StringBuilder("Range shard strategy needs ").append(shards - 1).append(" bounds in ").append(key).append(": ").append(value).toString());
+		}
+
+		long[] res = new long[parts.length];
+
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				res[i] = Long.parseLong(parts[i].trim());
+			} catch (NumberFormatException e) {
+				throw new SQLException(new StringBuilder("Invalid bound of range shard strategy: ").append(parts[i]).toString());
+			}
+
+			if (i > 0 && res[i] <= res[i - 1]) {
+				throw new SQLException(new StringBuilder("Bounds of range shard strategy must be ascending: ").append(value).toString());
+			}
+		}
+
+		return res;
+	}
+
+	private static int readInt(Properties prop, String key, int defaultValue, int minimum) throws SQLException {
+		String value = prop.getProperty(key);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			int res = Integer.parseInt(value.trim());
+
+			if (res >= minimum) {
+				return res;
+			}
+		} catch (NumberFormatException e) {
+			//handled below
+		}
+
+		throw new SQLException(new StringBuilder("Invalid value of ").append(key).append(": ").append(value).toString());
+	}
+}
@@ -0,0 +1,100 @@
+package org.fit.proxy.jdbc.xa;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * Identifier of a transaction branch. All branches of a proxy transaction share the global identifier, the branch qualifier
+ * is the name of the connection, so a branch found in a database by recovery can be matched to the transaction log.
+ * @author Ondřej Marek
+ */
+public class ProxyXid implements Xid {
+	/**
+	 * Format of identifiers created by the proxy, recovery ignores branches of other formats
+	 */
+	public static final int FORMAT_ID = 0x50584131;
+
+	private final byte[] globalId;
+	private final byte[] branch;
+
+	public ProxyXid(byte[] globalId, byte[] branch) {
+		this.globalId = globalId.clone();
+		this.branch = branch.clone();
+	}
+
+	/**
+	 * Creates identifier of the branch of a connection
+	 * @param globalId global transaction identifier
+	 * @param connection name of connection
+	 * @return branch identifier
+	 * @throws SQLException when the name is too long for a branch qualifier
+	 */
+	public static ProxyXid branch(byte[] globalId, String connection) throws SQLException {
+		byte[] qualifier = connection.getBytes(StandardCharsets.UTF_8);
+
+		if (qualifier.length > MAXBQUALSIZE) {
+			throw new SQLException(new StringBuilder("Name of connection ").append(connection).append(" is longer than ").append(MAXBQUALSIZE)
+					.append(" bytes, it cannot qualify a transaction branch.").toString());
+		}
+
+		return new ProxyXid(globalId, qualifier);
+	}
+
+	@Override
+	public int getFormatId() {
+		return FORMAT_ID;
+	}
+
+	@Override
+	public byte[] getGlobalTransactionId() {
+		return globalId.clone();
+	}
+
+	@Override
+	public byte[] getBranchQualifier() {
+		return branch.clone();
+	}
+
+	/**
+	 * Formats bytes of an identifier as hexadecimal string
+	 * @param bytes identifier
+	 * @return hexadecimal string
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder res = new StringBuilder(bytes.length * 2);
+
+		for (byte b : bytes) {
+			res.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return res.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(globalId) + Arrays.hashCode(branch);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+
+		if (!(obj instanceof Xid)) {
+			return false;
+		}
+
+		Xid other = (Xid) obj;
+
+		return other.getFormatId() == FORMAT_ID && Arrays.equals(globalId, other.getGlobalTransactionId()) && Arrays.equals(branch, other.getBranchQualifier());
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(toHex(globalId)).append('/').append(new String(branch, StandardCharsets.UTF_8)).toString();
+	}
+}
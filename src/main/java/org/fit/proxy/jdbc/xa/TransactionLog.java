@@ -0,0 +1,414 @@
+package org.fit.proxy.jdbc.xa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.journal.JournalRecord;
+import org.fit.proxy.jdbc.journal.MappedJournal;
+
+/**
+ * Log of commit decisions of two-phase commits, kept in a memory-mapped journal. A transaction is committed when its commit record
+ * is durable, concurrent transactions share a single flush of the journal. When all branches of a transaction are committed, a done
+ * record is appended without a flush: a transaction whose done record was lost is only committed again by recovery.
+ * <p>
+ * Global identifiers start with an identifier of the log, so recovery resolves only branches of its own transactions. Branches
+ * without a commit record are rolled back (presumed abort). Proxy connections of the same log directory share one log,
+ * recovery runs when the log is opened for the first time.
+ * @author Ondřej Marek
+ */
+public class TransactionLog {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	private static final byte COMMIT = 1;
+	private static final byte DONE = 2;
+	private static final int GLOBAL_ID_SIZE = 16;
+	private static final int READ_BATCH = 1000;
+	/**
+	 * Size of the header of a journal record, offset of a record precedes its end by the header and the payload
+	 */
+	private static final int RECORD_HEADER = 16;
+	private static final String ID_FILE = "coordinator.id";
+
+	private static final Map<String, TransactionLog> logs = new HashMap<>();
+
+	private final String key;
+	private final MappedJournal journal;
+	private final long coordinatorId;
+	private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000L);
+
+	/**
+	 * Offsets of commit records of transactions that have not been finished, by hexadecimal global identifiers
+	 */
+	private final Map<String, Long> unfinished = new LinkedHashMap<>();
+	private int references = 0;
+	private boolean recovered = false;
+
+	private TransactionLog(String key, MappedJournal journal, long coordinatorId) {
+		this.key = key;
+		this.journal = journal;
+		this.coordinatorId = coordinatorId;
+	}
+
+	/**
+	 * Returns the log configured by properties xa_log and xa_segment_size
+	 * @param prop proxy properties
+	 * @return log, it has to be closed
+	 * @throws SQLException when the properties are invalid or the log cannot be opened
+	 */
+	public static TransactionLog open(Properties prop) throws SQLException {
+		String directory = prop.getProperty("xa_log");
+		String segmentSize = prop.getProperty("xa_segment_size");
+		int size = DEFAULT_SEGMENT_SIZE;
+
+		if (segmentSize != null) {
+			try {
+				size = Integer.parseInt(segmentSize.trim());
+			} catch (NumberFormatException e) {
+				size = -1;
+			}
+
+			if (size < MappedJournal.MIN_SEGMENT_SIZE) {
+				throw new SQLException("Invalid value of xa_segment_size: " + segmentSize);
+			}
+		}
+
+		return open((directory == null) ? new File(System.getProperty("java.io.tmpdir"), "proxy-xa-log") : new File(directory.trim()), size);
+	}
+
+	/**
+	 * Returns the log of a directory, it is opened and its unfinished transactions are read when the directory is not used yet
+	 * @param directory directory of the log, it must not be shared with other journals
+	 * @param segmentSize size of log segment files in bytes
+	 * @return log, it has to be closed
+	 * @throws SQLException when the log cannot be opened
+	 */
+	public static TransactionLog open(File directory, int segmentSize) throws SQLException {
+		synchronized (logs) {
+			String key = directory.getAbsolutePath();
+			TransactionLog res = logs.get(key);
+
+			if (res == null) {
+				MappedJournal journal = null;
+
+				try {
+					journal = new MappedJournal(directory, segmentSize);
+					res = new TransactionLog(key, journal, readCoordinatorId(new File(directory, ID_FILE)));
+					res.load();
+				} catch (IOException e) {
+					if (journal != null) {
+						journal.close();
+					}
+
+					throw new SQLException("Transaction log cannot be opened in " + directory, e);
+				}
+
+				logs.put(key, res);
+				log.info("Transaction log " + directory + " opened, unfinished transactions: " + res.unfinished.size());
+			}
+
+			res.references++;
+
+			return res;
+		}
+	}
+
+	private static long readCoordinatorId(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			if (raf.length() >= 8L) {
+				return raf.readLong();
+			}
+
+			long id = new SecureRandom().nextLong();
+			raf.writeLong(id);
+			raf.getFD().sync();
+
+			return id;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads commit and done records of the journal
+	 */
+	private void load() throws IOException {
+		long offset = journal.getStartOffset();
+
+		while (true) {
+			List<JournalRecord> records = journal.read(offset, READ_BATCH);
+
+			if (records.isEmpty()) {
+				return;
+			}
+
+			for (JournalRecord record : records) {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+				byte type = in.readByte();
+				byte[] globalId = new byte[GLOBAL_ID_SIZE];
+				in.readFully(globalId);
+
+				if (type == COMMIT) {
+					unfinished.put(ProxyXid.toHex(globalId), record.getOffset());
+				} else {
+					unfinished.remove(ProxyXid.toHex(globalId));
+				}
+
+				offset = record.getNext();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new global transaction identifier
+	 * @return identifier
+	 */
+	public byte[] newGlobalId() {
+		byte[] res = new byte[GLOBAL_ID_SIZE];
+		writeLong(res, 0, coordinatorId);
+		writeLong(res, 8, sequence.incrementAndGet());
+
+		return res;
+	}
+
+	private static void writeLong(byte[] bytes, int position, long value) {
+		for (int i = 0; i < 8; i++) {
+			bytes[position + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+
+	/**
+	 * Returns whether a branch belongs to a transaction of this log
+	 * @param xid branch identifier
+	 * @return whether the branch is own
+	 */
+	public boolean isOwn(Xid xid) {
+		byte[] globalId = xid.getGlobalTransactionId();
+
+		if (xid.getFormatId() != ProxyXid.FORMAT_ID || globalId.length != GLOBAL_ID_SIZE) {
+			return false;
+		}
+
+		byte[] prefix = new byte[8];
+		writeLong(prefix, 0, coordinatorId);
+
+		return Arrays.equals(prefix, Arrays.copyOf(globalId, 8));
+	}
+
+	/**
+	 * Records the decision to commit a transaction and waits until it is durable. Concurrent callers share one flush.
+	 * @param globalId global transaction identifier
+	 * @param branches names of connections whose branches are committed
+	 * @throws IOException when the decision cannot be written, the transaction has to be rolled back
+	 */
+	public void logCommit(byte[] globalId, List<String> branches) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(COMMIT);
+		out.write(globalId);
+		out.writeInt(branches.size());
+
+		for (String branch : branches) {
+			out.writeUTF(branch);
+		}
+
+		out.flush();
+
+		long end;
+
+		synchronized (this) {
+			end = journal.append(bytes.toByteArray());
+			unfinished.put(ProxyXid.toHex(globalId), end - bytes.size() - RECORD_HEADER);
+		}
+
+		journal.force(end);
+	}
+
+	/**
+	 * Records that all branches of a committed transaction are committed. The record is not flushed.
+	 * @param globalId global transaction identifier
+	 * @throws IOException when the record cannot be written
+	 */
+	public void logDone(byte[] globalId) throws IOException {
+		byte[] payload = new byte[1 + GLOBAL_ID_SIZE];
+		payload[0] = DONE;
+		System.arraycopy(globalId, 0, payload, 1, GLOBAL_ID_SIZE);
+
+		synchronized (this) {
+			long end = journal.append(payload);
+			unfinished.remove(ProxyXid.toHex(globalId));
+			journal.release(unfinished.isEmpty() ? end : unfinished.values().iterator().next());
+		}
+	}
+
+	/**
+	 * Returns whether the commit of a transaction was decided and its branches have not been all committed yet
+	 * @param globalId global transaction identifier
+	 * @return whether the transaction is committed
+	 */
+	public synchronized boolean isCommitted(byte[] globalId) {
+		return unfinished.containsKey(ProxyXid.toHex(globalId));
+	}
+
+	/**
+	 * Returns the number of committed transactions whose branches have not been all committed yet
+	 * @return number of transactions
+	 */
+	public synchronized int getUnfinished() {
+		return unfinished.size();
+	}
+
+	/**
+	 * Resolves in-doubt branches of own transactions in databases, it is done only once after the log has been opened
+	 * @param connections connections of databases
+	 */
+	public void recover(List<ConnectionUnit> connections) {
+		synchronized (this) {
+			if (recovered) {
+				return;
+			}
+
+			recovered = true;
+		}
+
+		resolve(connections);
+	}
+
+	/**
+	 * Commits in-doubt branches of committed transactions and rolls back the other in-doubt branches of own transactions.
+	 * Committed transactions without failed branches are finished.
+	 * @param connections connections of databases
+	 */
+	void resolve(List<ConnectionUnit> connections) {
+		Set<String> failed = new HashSet<>();
+		int resolved = 0;
+
+		for (ConnectionUnit connection : connections) {
+			Xid[] xids;
+			XAResource resource;
+
+			try {
+				resource = connection.getXAResource();
+
+				if (resource == null) {
+					continue;
+				}
+
+				xids = resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+			} catch (XAException | SQLException e) {
+				log.log(Level.WARNING, "In-doubt transactions of connection " + connection.getName() + " cannot be recovered.", e);
+
+				synchronized (this) {
+					failed.addAll(unfinished.keySet());
+				}
+
+				continue;
+			}
+
+			for (Xid xid : (xids == null) ? new Xid[0] : xids) {
+				if (!isOwn(xid)) {
+					continue;
+				}
+
+				boolean commit = isCommitted(xid.getGlobalTransactionId());
+				String id = ProxyXid.toHex(xid.getGlobalTransactionId());
+
+				try {
+					if (commit) {
+						resource.commit(xid, false);
+					} else {
+						resource.rollback(xid);
+					}
+
+					resolved++;
+					log.info("In-doubt branch of transaction " + id + " in connection " + connection.getName() + (commit ? " committed." : " rolled back."));
+				} catch (XAException e) {
+					log.log(Level.WARNING, "In-doubt branch of transaction " + id + " in connection " + connection.getName() + " cannot be resolved, error code " + e.errorCode, e);
+
+					if (commit) {
+						failed.add(id);
+					}
+				}
+			}
+		}
+
+		List<String> finished = new ArrayList<>();
+
+		synchronized (this) {
+			for (String id : unfinished.keySet()) {
+				if (!failed.contains(id)) {
+					finished.add(id);
+				}
+			}
+		}
+
+		for (String id : finished) {
+			try {
+				logDone(fromHex(id));
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Recovered transaction " + id + " cannot be marked as finished.", e);
+			}
+		}
+
+		log.info("Recovery of transaction log resolved " + resolved + " in-doubt branches, finished " + finished.size() + " transactions.");
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] res = new byte[hex.length() / 2];
+
+		for (int i = 0; i < res.length; i++) {
+			res[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Releases the log, the journal is closed when the last proxy connection releases it
+	 */
+	public void close() {
+		synchronized (logs) {
+			if (--references > 0) {
+				return;
+			}
+
+			logs.remove(key);
+		}
+
+		journal.close();
+		log.info("Transaction log " + key + " closed.");
+	}
+
+	@Override
+	public String toString() {
+		return "Transaction log " + key;
+	}
+}
@@ -0,0 +1,288 @@
+package org.fit.proxy.jdbc.xa;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.IConnectionTask;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.ProxyExecutor;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
+
+/**
+ * Two-phase commit of a transaction of a proxy connection. A connection becomes a branch of the transaction when a statement
+ * is executed in it, the branches are ended, prepared and committed concurrently. A transaction of a single branch is committed
+ * in one phase. The decision to commit is written to the transaction log before any branch is committed, a branch that fails
+ * to commit after that is left to recovery.
+ * @author Ondřej Marek
+ */
+public class XaCoordinator {
+	private final static Logger log = Logger.getLogger(ProxyDriver.class.getName());
+
+	private final TransactionLog transactionLog;
+	private final ProxyExecutor executor;
+
+	private final Map<ConnectionUnit, ProxyXid> branches = new LinkedHashMap<>();
+	private byte[] globalId;
+
+	public XaCoordinator(TransactionLog transactionLog, ProxyExecutor executor) {
+		this.transactionLog = transactionLog;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts a branch of the transaction in a connection, the transaction begins with its first branch
+	 * @param connection connection where a statement is executed
+	 * @throws SQLException when the connection is not an XA connection or the branch cannot be started
+	 */
+	public synchronized void enlist(ConnectionUnit connection) throws SQLException {
+		if (branches.containsKey(connection)) {
+			return;
+		}
+
+		XAResource resource = connection.getXAResource();
+
+		if (resource == null) {
+			throw new ProxyException("Connection " + connection.getName() + " is not an XA connection, it cannot take part in a distributed transaction.", connection);
+		}
+
+		if (globalId == null) {
+			globalId = transactionLog.newGlobalId();
+		}
+
+		ProxyXid xid = ProxyXid.branch(globalId, connection.getName());
+
+		try {
+			resource.start(xid, XAResource.TMNOFLAGS);
+		} catch (XAException e) {
+			throw new ProxyException("Transaction branch " + xid + " cannot be started, error code " + e.errorCode, e, connection);
+		}
+
+		branches.put(connection, xid);
+		log.log(Level.FINE, "Transaction branch " + xid + " started.");
+	}
+
+	/**
+	 * Returns whether a transaction has a branch
+	 * @return whether the transaction is active
+	 */
+	public synchronized boolean isActive() {
+		return !branches.isEmpty();
+	}
+
+	/**
+	 * Returns connections of branches of the transaction
+	 * @return connections in the order of their first statement
+	 */
+	public synchronized List<ConnectionUnit> getBranches() {
+		return new ArrayList<>(branches.keySet());
+	}
+
+	/**
+	 * Commits the transaction. When a branch fails to end or to prepare, all branches are rolled back.
+	 * @throws SQLException when the transaction is rolled back, failures of branches are chained
+	 */
+	public synchronized void commit() throws SQLException {
+		try {
+			List<BranchTask> ends = createTasks(BranchTask.END);
+			List<ProxyException> failures = executor.runAll(ends, true);
+
+			if (!failures.isEmpty()) {
+				rollbackAll();
+				throw createException("Unable to end transaction branches, the transaction is rolled back.", failures);
+			}
+
+			if (branches.size() == 1) {
+				failures = executor.runAll(createTasks(BranchTask.COMMIT_ONE_PHASE), true);
+
+				if (!failures.isEmpty()) {
+					throw createException("Unable to commit transaction.", failures);
+				}
+
+				return;
+			}
+
+			List<BranchTask> prepares = createTasks(BranchTask.PREPARE);
+			failures = executor.runAll(prepares, true);
+
+			if (!failures.isEmpty()) {
+				rollbackAll();
+				throw createException("Unable to prepare transaction branches, the transaction is rolled back.", failures);
+			}
+
+			List<BranchTask> commits = new ArrayList<>(prepares.size());
+			List<String> names = new ArrayList<>(prepares.size());
+
+			for (BranchTask prepare : prepares) {
+				//read-only branches are finished by prepare
+				if (prepare.getVote() == XAResource.XA_OK) {
+					commits.add(new BranchTask(prepare.getConnection(), prepare.getXid(), BranchTask.COMMIT));
+					names.add(prepare.getConnection().getName());
+				}
+			}
+
+			if (commits.isEmpty()) {
+				return;
+			}
+
+			try {
+				transactionLog.logCommit(globalId, names);
+			} catch (IOException e) {
+				rollbackAll();
+				throw new SQLException("Commit of transaction " + ProxyXid.toHex(globalId) + " cannot be logged, the transaction is rolled back.", e);
+			}
+
+			failures = executor.runAll(commits, true);
+
+			if (!failures.isEmpty()) {
+				SQLException toLog = createException(new StringBuilder("Transaction ").append(ProxyXid.toHex(globalId))
+						.append(" is committed, but some of its branches failed to commit. They are committed by recovery.").toString(), failures);
+				ProxyExceptionUtils.logExceptions(toLog, Level.SEVERE);
+
+				return;
+			}
+
+			try {
+				transactionLog.logDone(globalId);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Transaction " + ProxyXid.toHex(globalId) + " cannot be marked as finished, it is finished by recovery.", e);
+			}
+		} finally {
+			clear();
+		}
+	}
+
+	/**
+	 * Rolls back all branches of the transaction
+	 * @throws SQLException when a branch fails to roll back, failures are chained
+	 */
+	public synchronized void rollback() throws SQLException {
+		try {
+			executor.runAll(createTasks(BranchTask.END), true);
+			List<ProxyException> failures = executor.runAll(createTasks(BranchTask.ROLLBACK), true);
+
+			if (!failures.isEmpty()) {
+				throw createException("Unable to rollback transaction branches.", failures);
+			}
+		} finally {
+			clear();
+		}
+	}
+
+	private void rollbackAll() throws SQLException {
+		List<ProxyException> failures = executor.runAll(createTasks(BranchTask.ROLLBACK), true);
+
+		if (!failures.isEmpty()) {
+			ProxyExceptionUtils.logExceptions(createException("Unable to rollback transaction branches, they are rolled back by recovery.", failures), Level.WARNING);
+		}
+	}
+
+	private void clear() {
+		branches.clear();
+		globalId = null;
+	}
+
+	private List<BranchTask> createTasks(int operation) {
+		List<BranchTask> res = new ArrayList<>(branches.size());
+
+		for (Entry<ConnectionUnit, ProxyXid> entry : branches.entrySet()) {
+			res.add(new BranchTask(entry.getKey(), entry.getValue(), operation));
+		}
+
+		return res;
+	}
+
+	private static SQLException createException(String message, List<ProxyException> failures) {
+		SQLException res = new SQLException(message);
+
+		for (ProxyException failure : failures) {
+			res.setNextException(failure);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Operation of the two-phase commit in a single branch
+	 */
+	private static final class BranchTask implements IConnectionTask {
+		static final int END = 0;
+		static final int PREPARE = 1;
+		static final int COMMIT = 2;
+		static final int COMMIT_ONE_PHASE = 3;
+		static final int ROLLBACK = 4;
+
+		private final ConnectionUnit connection;
+		private final ProxyXid xid;
+		private final int operation;
+		private volatile int vote = XAResource.XA_OK;
+
+		BranchTask(ConnectionUnit connection, ProxyXid xid, int operation) {
+			this.connection = connection;
+			this.xid = xid;
+			this.operation = operation;
+		}
+
+		@Override
+		public ConnectionUnit getConnection() {
+			return connection;
+		}
+
+		ProxyXid getXid() {
+			return xid;
+		}
+
+		int getVote() {
+			return vote;
+		}
+
+		@Override
+		public void run() throws SQLException {
+			XAResource resource = connection.getXAResource();
+
+			try {
+				switch (operation) {
+				case END:
+					resource.end(xid, XAResource.TMSUCCESS);
+					break;
+				case PREPARE:
+					vote = resource.prepare(xid);
+					break;
+				case COMMIT:
+					resource.commit(xid, false);
+					break;
+				case COMMIT_ONE_PHASE:
+					resource.commit(xid, true);
+					break;
+				default:
+					rollback(resource);
+				}
+			} catch (XAException e) {
+				throw new ProxyException(new StringBuilder("Operation on transaction branch ").append(xid).append(" failed, error code ")
+						.append(e.errorCode).toString(), e, connection);
+			}
+		}
+
+		private void rollback(XAResource resource) throws XAException {
+			try {
+				resource.rollback(xid);
+			} catch (XAException e) {
+				//the branch is already rolled back by the database
+				if (e.errorCode != XAException.XAER_NOTA && (e.errorCode < XAException.XA_RBBASE || e.errorCode > XAException.XA_RBEND)) {
+					throw e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.fit.proxy.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class TestConnectionValidation {
+
+	@Test
+	public void testValidation() throws Exception {
+		ProxyConnection proxy = connect("0");
+
+		try {
+			assertTrue(proxy.isValid(1));
+			assertTrue(proxy.getInvalidConnections().isEmpty());
+
+			//only the closed connection is reported
+			ConnectionUnit database2 = proxy.getConnectionByName("database2");
+			database2.getConnection().close();
+
+			assertFalse(proxy.isValid(1));
+			assertEquals(Collections.singletonList(database2), proxy.getInvalidConnections());
+
+			try {
+				proxy.isValid(-1);
+				fail("Expected SQLException - timeout is negative.");
+			} catch (SQLException e) {
+				//expected
+			}
+		} finally {
+			close(proxy);
+		}
+
+		assertFalse(proxy.isValid(1));
+	}
+
+	@Test
+	public void testRecentTraffic() throws Exception {
+		ProxyConnection proxy = connect("60000");
+
+		try {
+			assertTrue(proxy.isValid(0));
+
+			//connections validated within the window are not checked again
+			proxy.getConnectionByName("database2").getConnection().close();
+			assertTrue(proxy.isValid(1));
+		} finally {
+			close(proxy);
+		}
+	}
+
+	@Test
+	public void testOnlyStatementsAreTraffic() throws Exception {
+		ProxyConnection proxy = connect("60000");
+
+		try {
+			//a session action does not reach the databases when nothing changes
+			proxy.setAutoCommit(true);
+
+			Statement statement = proxy.createStatement();
+			statement.executeQuery("SELECT 1").close();
+			statement.close();
+
+			//the database of the statement is not checked again, the other one is
+			ConnectionUnit database2 = proxy.getConnectionByName("database2");
+			proxy.getConnectionByName("database1").getConnection().close();
+			database2.getConnection().close();
+
+			assertFalse(proxy.isValid(1));
+			assertEquals(Collections.singletonList(database2), proxy.getInvalidConnections());
+		} finally {
+			close(proxy);
+		}
+	}
+
+	private static ProxyConnection connect(String window) throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("validation_window", window);
+
+		return (ProxyConnection) new ProxyDriver().connect(null, p);
+	}
+
+	private static void close(ProxyConnection proxy) {
+		try {
+			proxy.close();
+		} catch (SQLException e) {
+			//connections were closed by the test
+		}
+	}
+}
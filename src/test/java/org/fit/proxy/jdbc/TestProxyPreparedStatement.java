@@ -0,0 +1,204 @@
+package org.fit.proxy.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestProxyPreparedStatement {
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+
+		TestUtils.executeInAll(proxy, "CREATE TABLE items (ID INT PRIMARY KEY, name VARCHAR(32))");
+		TestUtils.executeInAll(proxy, "INSERT INTO items VALUES (1, 'first')");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE items");
+		proxy.close();
+	}
+
+	@Test
+	public void testQuery() throws Exception {
+		PreparedStatement statement = proxy.prepareStatement("SELECT name FROM items WHERE ID = ?");
+		statement.setInt(1, 1);
+
+		ResultSet rs = statement.executeQuery();
+		assertTrue(rs.next());
+		assertEquals("first", rs.getString(1));
+		assertSame(proxy, statement.getConnection());
+
+		statement.close();
+		assertTrue(statement.isClosed());
+	}
+
+	@Test
+	public void testBatchedInsert() throws Exception {
+		int[] res = insertRows(proxy, 2, 5);
+
+		assertArrayEquals(new int[] {1, 1, 1, 1, 1}, res);
+		assertEquals(6, TestUtils.countRows(proxy.getConnectionByName("database3"), "items"));
+	}
+
+	@Test
+	public void testMultiRowInsert() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("multi_row_insert", "true");
+		ProxyConnection multiRow = (ProxyConnection) new ProxyDriver().connect(null, p);
+
+		int[] res = insertRows(multiRow, 2, 5);
+
+		assertArrayEquals(new int[] {1, 1, 1, 1, 1}, res);
+		assertEquals(6, TestUtils.countRows(multiRow.getConnectionByName("database3"), "items"));
+
+		Statement check = multiRow.getConnectionByName("database3").getConnection().createStatement();
+		ResultSet rs = check.executeQuery("SELECT name FROM items WHERE ID = 6");
+		assertTrue(rs.next());
+		assertEquals("row6", rs.getString(1));
+		check.close();
+
+		multiRow.close();
+	}
+
+	@Test
+	public void testFailedChunk() throws Exception {
+		PreparedStatement statement = proxy.prepareStatement("INSERT INTO items VALUES (?, ?)");
+
+		addRow(statement, 2);
+		addRow(statement, 3);
+		addRow(statement, 4);
+
+		try {
+			addRow(statement, 1);
+			fail("Expected BatchUpdateException - duplicate primary key.");
+		} catch (BatchUpdateException e) {
+			assertArrayEquals(new int[] {1, 1, Statement.EXECUTE_FAILED, Statement.EXECUTE_FAILED}, e.getUpdateCounts());
+		} finally {
+			statement.close();
+		}
+
+		//failed chunk has been rolled back as a whole
+		assertEquals(3, TestUtils.countRows(proxy.getConnectionByName("database3"), "items"));
+		assertTrue(proxy.getConnectionByName("database3").getConnection().getAutoCommit());
+		assertEquals(Boolean.TRUE, proxy.getConnectionByName("database3").getSessionState(ProxyProperty.AUTO_COMMIT));
+	}
+
+	@Test
+	public void testShardedStatement() throws Exception {
+		TestUtils.executeInAll(proxy, "CREATE TABLE customers (ID INT PRIMARY KEY, name VARCHAR(32))");
+
+		try {
+			PreparedStatement insert = proxy.prepareStatement("INSERT INTO customers (ID, name) VALUES (?, ?)");
+
+			for (int i = 1; i <= 30; i++) {
+				addRow(insert, i);
+			}
+
+			int[] res = insert.executeBatch();
+			insert.close();
+
+			assertEquals(30, res.length);
+
+			ShardRule rule = proxy.getShardRule("SELECT name FROM customers WHERE ID = ?");
+			int total = 0;
+
+			for (ConnectionUnit unit : rule.getConnections()) {
+				total += TestUtils.countRows(unit, "customers");
+			}
+
+			assertEquals(30, total);
+
+			PreparedStatement select = proxy.prepareStatement("SELECT name FROM customers WHERE ID = ?");
+
+			for (int i = 1; i <= 30; i++) {
+				select.setInt(1, i);
+
+				ResultSet rs = select.executeQuery();
+				assertTrue(rs.next());
+				assertEquals("row" + i, rs.getString(1));
+				rs.close();
+			}
+
+			//floating and decimal keys with an integral value go to the shard of the integer
+			insert = proxy.prepareStatement("INSERT INTO customers (ID, name) VALUES (?, ?)");
+			insert.setDouble(1, 31.0);
+			insert.setString(2, "row31");
+			insert.executeUpdate();
+			insert.setBigDecimal(1, new BigDecimal("32.00"));
+			insert.setString(2, "row32");
+			insert.executeUpdate();
+			insert.close();
+
+			for (int i = 31; i <= 32; i++) {
+				select.setLong(1, i);
+
+				ResultSet rs = select.executeQuery();
+				assertTrue(rs.next());
+				assertEquals("row" + i, rs.getString(1));
+				rs.close();
+			}
+
+			select.setDouble(1, 5.0);
+			ResultSet rs = select.executeQuery();
+			assertTrue(rs.next());
+			assertEquals("row5", rs.getString(1));
+			rs.close();
+
+			select.close();
+
+			Statement literal = proxy.createStatement();
+			rs = literal.executeQuery("SELECT name FROM customers WHERE ID = 17");
+			assertTrue(rs.next());
+			assertEquals("row17", rs.getString(1));
+			literal.close();
+		} finally {
+			TestUtils.executeInAll(proxy, "DROP TABLE customers");
+		}
+	}
+
+	@Test(expected = SQLException.class)
+	public void testMissingShardKey() throws Exception {
+		PreparedStatement select = proxy.prepareStatement("SELECT name FROM customers WHERE ID = ?");
+
+		try {
+			select.executeQuery();
+		} finally {
+			select.close();
+		}
+	}
+
+	private static int[] insertRows(ProxyConnection connection, int from, int count) throws Exception {
+		PreparedStatement statement = connection.prepareStatement("INSERT INTO items (ID, name) VALUES (?, ?)");
+
+		for (int i = from; i < from + count; i++) {
+			addRow(statement, i);
+		}
+
+		int[] res = statement.executeBatch();
+		statement.close();
+
+		return res;
+	}
+
+	private static void addRow(PreparedStatement statement, int id) throws Exception {
+		statement.setInt(1, id);
+		statement.setString(2, "row" + id);
+		statement.addBatch();
+	}
+}
@@ -0,0 +1,71 @@
+package org.fit.proxy.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestProxyProperiesHelper {
+	private ProxyProperiesHelper helper;
+
+	@Before
+	public void setUp() {
+		helper = new ProxyProperiesHelper(new IConnectionEnsure() {
+			@Override
+			public void ensureConnectionIsAlive() throws SQLException {
+				//always alive
+			}
+		});
+	}
+
+	@Test
+	public void testTypedValues() throws SQLException {
+		helper.setBoolean(ProxyProperty.AUTO_COMMIT, true);
+		helper.setBoolean(ProxyProperty.READ_ONLY, false);
+		helper.setInt(ProxyProperty.NETWORK_TIMEOUT, 250);
+		helper.setObject(ProxyProperty.SCHEMA, "public");
+
+		assertTrue(helper.getBoolean(ProxyProperty.AUTO_COMMIT));
+		assertFalse(helper.getBoolean(ProxyProperty.READ_ONLY));
+		assertEquals(250, helper.getInt(ProxyProperty.NETWORK_TIMEOUT));
+		assertEquals("public", helper.getObject(ProxyProperty.SCHEMA));
+		assertEquals(Boolean.TRUE, helper.getPropertyValue(ProxyProperty.AUTO_COMMIT));
+		assertFalse(helper.isPropertySet(ProxyProperty.CATALOG));
+	}
+
+	@Test
+	public void testUnsetKeepsInitiated() {
+		helper.setProperty(ProxyProperty.TYPE_MAP, null);
+		helper.unsetProperty(ProxyProperty.TYPE_MAP);
+
+		assertFalse(helper.isPropertySet(ProxyProperty.TYPE_MAP));
+		assertTrue(helper.isPropertyInitiated(ProxyProperty.TYPE_MAP));
+	}
+
+	@Test
+	public void testClear() {
+		helper.setInt(ProxyProperty.MAX_ROWS, 10);
+		helper.setBoolean(ProxyProperty.POOLABLE, true);
+		helper.clear();
+
+		assertTrue(helper.isEmpty());
+		assertFalse(helper.isPropertyInitiated(ProxyProperty.MAX_ROWS));
+	}
+
+	@Test(expected=SQLException.class)
+	public void testNotSet() throws SQLException {
+		helper.getInt(ProxyProperty.FETCH_SIZE);
+
+		fail("Expected SQLException - property has not been set.");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWrongType() {
+		helper.setInt(ProxyProperty.AUTO_COMMIT, 1);
+
+		fail("Expected IllegalArgumentException - auto commit is boolean property.");
+	}
+}
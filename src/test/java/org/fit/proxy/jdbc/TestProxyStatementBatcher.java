@@ -0,0 +1,110 @@
+package org.fit.proxy.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.BatchUpdateException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestProxyStatementBatcher {
+	private ProxyConnection proxy;
+	
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+		
+		TestUtils.executeInAll(proxy, "CREATE TABLE items (ID INT PRIMARY KEY, name VARCHAR(32))");
+		TestUtils.executeInAll(proxy, "INSERT INTO items VALUES (1, 'first')");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE items");
+		proxy.close();
+	}
+	
+	@Test
+	public void testGroupedBatch() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.addBatch("INSERT INTO items VALUES (2, 'second')");
+		statement.addBatch("UPDATE items SET name = 'changed'");
+		statement.addBatch("INSERT INTO items VALUES (3, 'third')");
+		statement.addBatch("INSERT INTO items VALUES (4, 'fourth')");
+		statement.addBatch("UPDATE items SET name = 'none' WHERE ID = 100");
+		
+		int[] res = statement.executeBatch();
+		statement.close();
+		
+		assertArrayEquals(new int[] {1, 1, 1, 1, 0}, res);
+		assertEquals(1, TestUtils.countRows(proxy.getConnectionByName("database2"), "items"));
+		assertEquals(4, TestUtils.countRows(proxy.getConnectionByName("database3"), "items"));
+	}
+	
+	@Test
+	public void testFailedBatch() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.addBatch("UPDATE items SET name = 'changed'");
+		statement.addBatch("INSERT INTO items VALUES (1, 'duplicate')");
+		
+		try {
+			statement.executeBatch();
+			fail("Expected BatchUpdateException - duplicate primary key.");
+		} catch (BatchUpdateException e) {
+			int[] counts = e.getUpdateCounts();
+			
+			assertEquals(2, counts.length);
+			assertEquals(1, counts[0]);
+			assertEquals(Statement.EXECUTE_FAILED, counts[1]);
+		} finally {
+			statement.close();
+		}
+	}
+	
+	@Test
+	public void testParallelBatch() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("parallel_batch", "true");
+		ProxyConnection parallel = (ProxyConnection) new ProxyDriver().connect(null, p);
+		
+		Statement statement = parallel.createStatement();
+		statement.addBatch("INSERT INTO items VALUES (5, 'fifth')");
+		statement.addBatch("UPDATE items SET name = 'changed'");
+		statement.addBatch("INSERT INTO items VALUES (1, 'duplicate')");
+		statement.addBatch("UPDATE items SET name = 'again'");
+		
+		try {
+			statement.executeBatch();
+			fail("Expected BatchUpdateException - duplicate primary key.");
+		} catch (BatchUpdateException e) {
+			int[] counts = e.getUpdateCounts();
+			
+			assertEquals(1, counts[0]);
+			assertEquals(1, counts[1]);
+			assertEquals(Statement.EXECUTE_FAILED, counts[2]);
+			assertEquals(1, counts[3]);
+			assertEquals("database3", ((ProxyException) e.getNextException()).getFailConnection().getName());
+		} finally {
+			statement.close();
+		}
+		
+		assertEquals("again", queryName(parallel.getConnectionByName("database2")));
+		parallel.close();
+	}
+	
+	private static String queryName(ConnectionUnit unit) throws Exception {
+		Statement statement = unit.getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("SELECT name FROM items WHERE ID = 1");
+		rs.next();
+		String res = rs.getString(1);
+		statement.close();
+		
+		return res;
+	}
+}
@@ -0,0 +1,287 @@
+package org.fit.proxy.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTransactions {
+	private ProxyConnection proxy;
+	private ConnectionUnit database2;
+	private ConnectionUnit database3;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+		TestUtils.executeInAll(proxy, "CREATE TABLE items (ID INT PRIMARY KEY, name VARCHAR(20))");
+		database2 = proxy.getConnectionByName("database2");
+		database3 = proxy.getConnectionByName("database3");
+
+		proxy.setAutoCommit(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		proxy.setAutoCommit(true);
+		TestUtils.executeInAll(proxy, "DROP TABLE items");
+		proxy.close();
+	}
+
+	@Test
+	public void testCommitTouchedOnly() throws Exception {
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+		statement.close();
+
+		assertEquals(Collections.singletonList(database3), proxy.getTouchedConnections());
+
+		//a change made outside of the proxy is not committed by it
+		Connection raw = database2.getConnection();
+		Statement rawStatement = raw.createStatement();
+		rawStatement.execute("INSERT INTO items VALUES (2, 'second')");
+		rawStatement.close();
+
+		proxy.commit();
+
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+
+		raw.rollback();
+		assertEquals(0, TestUtils.countRows(database2, "items"));
+
+		//callable statements join the transaction too
+		CallableStatement call = proxy.prepareCall("INSERT INTO items VALUES (5, 'called')");
+		call.executeUpdate();
+		call.close();
+
+		assertEquals(Collections.singletonList(database3), proxy.getTouchedConnections());
+		proxy.commit();
+
+		assertEquals(2, TestUtils.countRows(database3, "items"));
+	}
+
+	@Test
+	public void testPrepareDoesNotTouch() throws Exception {
+		PreparedStatement statement = proxy.prepareStatement("INSERT INTO items VALUES (?, ?)");
+		statement.setQueryTimeout(5);
+		statement.setMaxRows(10);
+
+		assertEquals(10, statement.getMaxRows());
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+
+		statement.setInt(1, 1);
+		statement.setString(2, "first");
+		statement.executeUpdate();
+		statement.close();
+
+		assertEquals(Collections.singletonList(database3), proxy.getTouchedConnections());
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+		statement.close();
+		proxy.commit();
+
+		statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (2, 'second')");
+		statement.close();
+
+		PreparedStatement update = proxy.prepareStatement("UPDATE items SET name = ? WHERE ID = 1");
+		update.setString(1, "changed");
+		update.executeUpdate();
+
+		assertEquals(Arrays.asList(database3, database2), proxy.getTouchedConnections());
+
+		proxy.rollback();
+
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+
+		//a prepared statement touches its connection again in the next transaction
+		update.setString(1, "again");
+		update.executeUpdate();
+		update.close();
+		assertEquals(Collections.singletonList(database2), proxy.getTouchedConnections());
+		proxy.commit();
+	}
+
+	@Test
+	public void testRollbackToSavepoint() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+
+		Savepoint savepoint = proxy.setSavepoint("first");
+		statement.execute("INSERT INTO items VALUES (2, 'second')");
+		statement.close();
+
+		proxy.rollback(savepoint);
+		proxy.commit();
+
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+	}
+
+	@Test
+	public void testLazySavepoints() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+
+		ProxySavepoint first = (ProxySavepoint) proxy.setSavepoint("first");
+		assertTrue(first.getSavepoints().isEmpty());
+
+		statement.execute("UPDATE items SET name = 'none'");
+		ProxySavepoint second = (ProxySavepoint) proxy.setSavepoint("second");
+		statement.execute("UPDATE items SET name = 'other'");
+
+		//only the connection used after the savepoints has them
+		assertEquals(Collections.singleton(database2), first.getSavepoints().keySet());
+		assertEquals(Collections.singleton(database2), second.getSavepoints().keySet());
+
+		statement.execute("INSERT INTO items VALUES (2, 'second')");
+		assertEquals(Arrays.asList(database2, database3), new ArrayList<>(first.getSavepoints().keySet()));
+
+		proxy.rollback(first);
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+
+		try {
+			proxy.releaseSavepoint(second);
+			fail("Expected SQLException - savepoint was discarded by the rollback.");
+		} catch (SQLException e) {
+			//expected
+		}
+
+		proxy.releaseSavepoint(first);
+		statement.close();
+		proxy.commit();
+
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+	}
+
+	@Test
+	public void testDeferredActions() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("deferred_actions", "true");
+		ProxyConnection deferred = (ProxyConnection) new ProxyDriver().connect(null, p);
+		
+		try {
+			Connection raw2 = deferred.getConnectionByName("database2").getConnection();
+			Connection raw3 = deferred.getConnectionByName("database3").getConnection();
+			
+			deferred.setAutoCommit(false);
+			assertFalse(deferred.getAutoCommit());
+			assertTrue(raw3.getAutoCommit());
+			
+			//only the connection of the statement gets the recorded value
+			Statement statement = deferred.createStatement();
+			statement.execute("INSERT INTO items VALUES (1, 'first')");
+			
+			assertFalse(raw3.getAutoCommit());
+			assertTrue(raw2.getAutoCommit());
+			assertEquals(0, TestUtils.countRows(database3, "items"));
+			
+			//enabling auto commit commits the open transaction at once
+			deferred.setAutoCommit(true);
+			assertEquals(1, TestUtils.countRows(database3, "items"));
+			assertFalse(raw3.getAutoCommit());
+			
+			statement.execute("INSERT INTO items VALUES (2, 'second')");
+			statement.close();
+			
+			assertTrue(raw3.getAutoCommit());
+			assertEquals(2, TestUtils.countRows(database3, "items"));
+		} finally {
+			deferred.close();
+		}
+	}
+	
+	@Test
+	public void testDeferredAutoCommitOnFreshConnection() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("deferred_actions", "true");
+		ProxyConnection deferred = (ProxyConnection) new ProxyDriver().connect(null, p);
+		
+		try {
+			//a pool resets a borrowed connection before anything else is called
+			deferred.setAutoCommit(true);
+			assertTrue(deferred.getAutoCommit());
+			
+			Statement statement = deferred.createStatement();
+			statement.execute("INSERT INTO items VALUES (1, 'first')");
+			statement.close();
+			
+			assertEquals(1, TestUtils.countRows(database3, "items"));
+		} finally {
+			deferred.close();
+		}
+	}
+	
+	@Test
+	public void testParallelCommit() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("parallel_commit", "true");
+		ProxyConnection parallel = (ProxyConnection) new ProxyDriver().connect(null, p);
+
+		try {
+			parallel.setAutoCommit(false);
+
+			Statement statement = parallel.createStatement();
+			statement.execute("INSERT INTO items VALUES (1, 'first')");
+			statement.execute("UPDATE items SET name = 'none'");
+			statement.close();
+
+			assertEquals(2, parallel.getTouchedConnections().size());
+			parallel.commit();
+			assertEquals(1, TestUtils.countRows(parallel.getConnectionByName("database3"), "items"));
+
+			statement = parallel.createStatement();
+			statement.execute("INSERT INTO items VALUES (2, 'second')");
+			statement.execute("UPDATE items SET name = 'none'");
+			statement.close();
+
+			//both commits fail, both failures are reported
+			for (String name : Arrays.asList("database2", "database3")) {
+				Connection raw = parallel.getConnectionByName(name).getConnection();
+				raw.rollback();
+				raw.close();
+			}
+
+			try {
+				parallel.commit();
+				fail("Expected SQLException - connections are closed.");
+			} catch (SQLException e) {
+				ProxyException first = (ProxyException) e.getNextException();
+				ProxyException second = (ProxyException) first.getNextException();
+
+				assertNotNull(first.getFailConnection());
+				assertNotNull(second.getFailConnection());
+				assertNotEquals(first.getFailConnection(), second.getFailConnection());
+			}
+
+			assertEquals(2, parallel.getTouchedConnections().size());
+		} finally {
+			try {
+				parallel.close();
+			} catch (SQLException e) {
+				//connections were closed by the test
+			}
+		}
+	}
+}
@@ -9,7 +9,9 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +65,37 @@ public class TestUtils {
 		return properties;
 	}
 	
+	public static Properties loadProperties(String file) throws IOException {
+		Properties properties = new Properties();
+		InputStream is = TestUtils.class.getClassLoader().getResourceAsStream(file);
+		
+		try {
+			properties.load(is);
+		} finally {
+			is.close();
+		}
+		
+		return properties;
+	}
+	
+	public static void executeInAll(ProxyConnection connection, String sql) throws SQLException {
+		for (ConnectionUnit unit : connection.getConnectionList()) {
+			Statement statement = unit.getConnection().createStatement();
+			statement.execute(sql);
+			statement.close();
+		}
+	}
+	
+	public static int countRows(ConnectionUnit unit, String table) throws SQLException {
+		Statement statement = unit.getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table);
+		rs.next();
+		int res = rs.getInt(1);
+		statement.close();
+		
+		return res;
+	}
+	
 	public static void closeConnections(List<ConnectionUnit> connections) throws SQLException {
 		for (ConnectionUnit connection : connections) {
 			connection.getConnection().close();
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.Random;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
 import org.fit.proxy.jdbc.configuration.TestConstants;
 
 /**
@@ -84,7 +85,7 @@ public class DummyAction implements IAction {
 	}
 
 	@Override
-	public String getPropertyName() {
+	public ProxyProperty getProperty() {
 		return TestConstants.DUMMY_ACTION;
 	}
 
@@ -4,16 +4,22 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.fit.proxy.jdbc.ConnectionUnit;
 import org.fit.proxy.jdbc.ProxyConnectionEngine;
 import org.fit.proxy.jdbc.Switcher;
+import org.fit.proxy.jdbc.configuration.ProxyProperty;
+import org.fit.proxy.jdbc.exception.ProxyException;
 import org.fit.proxy.jdbc.exception.ProxyExceptionUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -27,6 +33,7 @@ public class TestIAction {
 	private static final int FAKE_CONNECTIONS = 17;
 	
 	private static ProxyConnectionEngine ENGINE;
+	private static ProxyConnectionEngine PARALLEL_ENGINE;
 	private static List<ConnectionUnit> fakeConnections = new LinkedList<>();
 	
 	@BeforeClass
@@ -42,6 +49,10 @@ public class TestIAction {
 		}
 		
 		ENGINE = new ProxyConnectionEngine(new Switcher(switcherMap, null, null));
+		
+		Properties properties = new Properties();
+		properties.setProperty("parallel_actions", "true");
+		PARALLEL_ENGINE = new ProxyConnectionEngine(new Switcher(switcherMap, null, properties));
 	}
 
 	/**
@@ -99,6 +110,98 @@ public class TestIAction {
 		assertNotEquals(action.getValueMap(), initiateValues);
 	}
 	
+	/**
+	 * Action runs concurrently and fails in one connection, all saved values are recovered concurrently
+	 * @throws Exception
+	 */
+	@Test
+	public void runParallelFail() throws Exception {
+		ConnectionUnit failing = fakeConnections.get(FAKE_CONNECTIONS / 2);
+		ConcurrentAction action = new ConcurrentAction(null);
+		
+		PARALLEL_ENGINE.runAction(action);
+		assertEquals(FAKE_CONNECTIONS, action.getValueMap().size());
+		assertFalse(action.getValueMap().containsValue(0));
+		
+		Map<ConnectionUnit, Integer> initiateValues = new HashMap<>(action.getValueMap());
+		action = new ConcurrentAction(failing);
+		action.getValueMap().putAll(initiateValues);
+		
+		try {
+			PARALLEL_ENGINE.runAction(action);
+			fail("Expected SQLException - action fails in " + failing.getName());
+		} catch (ProxyException e) {
+			assertEquals(failing, e.getFailConnection());
+			assertNull(e.getNextException());
+		}
+		
+		assertEquals(initiateValues, action.getValueMap());
+	}
 	
-
+	/**
+	 * Session action is not sent to connections with a known value of the attribute
+	 * @throws Exception
+	 */
+	@Test
+	public void runCachedSessionState() throws Exception {
+		Map<String, ConnectionUnit> switcherMap = new HashMap<>();
+		
+		for (int i = 0; i < FAKE_CONNECTIONS; i++) {
+			String name = new StringBuilder("Cached_connection_").append(i).toString();
+			ConnectionUnit fake = new ConnectionUnit(name, "^*$", null);
+			fake.setSessionState(ProxyProperty.READ_ONLY, false);
+			
+			switcherMap.put(name, fake);
+		}
+		
+		//fake units have no connection, any call of the database would fail
+		ProxyConnectionEngine engine = new ProxyConnectionEngine(new Switcher(switcherMap, null, null));
+		engine.runAction(new ReadOnlyAction(false));
+		
+		assertFalse(engine.getPropertiesHelper().getBoolean(ProxyProperty.READ_ONLY));
+		assertEquals(Boolean.FALSE, switcherMap.get("Cached_connection_0").getSessionState(ProxyProperty.READ_ONLY));
+	}
+	
+	/**
+	 * Thread safe action that sets a value in every connection and fails in one of them
+	 */
+	private static final class ConcurrentAction extends DummyAction {
+		private final ConnectionUnit failConnection;
+		private final Map<ConnectionUnit, Integer> values = new ConcurrentHashMap<>();
+		
+		private ConcurrentAction(ConnectionUnit failConnection) {
+			super(false, false);
+			this.failConnection = failConnection;
+		}
+		
+		@Override
+		public void runAction(ConnectionUnit connection) throws SQLException {
+			values.put(connection, 0);
+			
+			if (connection == failConnection) {
+				throw new SQLException("Dummy exception");
+			}
+			
+			values.put(connection, connection.getName().hashCode() | 1);
+		}
+		
+		@Override
+		public void runReverseAction(ConnectionUnit connection, Object value) throws SQLException {
+			if (value == null) {
+				values.remove(connection);
+			} else {
+				values.put(connection, (Integer) value);
+			}
+		}
+		
+		@Override
+		public Object getSaveValue(ConnectionUnit connection) throws SQLException {
+			return values.get(connection);
+		}
+		
+		@Override
+		public Map<ConnectionUnit, Integer> getValueMap() {
+			return values;
+		}
+	}
 }
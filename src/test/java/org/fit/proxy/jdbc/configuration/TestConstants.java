@@ -5,7 +5,7 @@ package org.fit.proxy.jdbc.configuration;
  * @author Ondřej Marek
  */
 public class TestConstants {
-	public static String DUMMY_ACTION = "dummyAction";
+	public static ProxyProperty DUMMY_ACTION = ProxyProperty.READ_ONLY;
 	public static String DUMMY_OK = "Dummy action finished OK.";
 	public static String DUMMY_FAIL = "Dummy action failed.";
 }
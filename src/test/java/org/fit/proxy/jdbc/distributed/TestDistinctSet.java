@@ -0,0 +1,58 @@
+package org.fit.proxy.jdbc.distributed;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestDistinctSet {
+
+	@Test
+	public void testSpill() throws Exception {
+		DistinctSet distinct = new DistinctSet(10);
+		Set<Integer> returned = new HashSet<>();
+
+		for (int i = 0; i < 3000; i++) {
+			Object[] row = new Object[] {i % 500, "value" + (i % 500)};
+
+			if (distinct.add(row)) {
+				assertTrue(returned.add((Integer) row[0]));
+			}
+		}
+
+		assertTrue(distinct.isSpilled());
+
+		Object[] row;
+
+		while ((row = distinct.poll()) != null) {
+			assertTrue(returned.add((Integer) row[0]));
+		}
+
+		assertEquals(500, returned.size());
+		distinct.close();
+	}
+
+	@Test
+	public void testHyperLogLog() {
+		HyperLogLog first = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+		HyperLogLog second = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+
+		for (int i = 0; i < 60000; i++) {
+			first.add("user" + i);
+			second.add("user" + (i + 40000));
+		}
+
+		assertEquals(60000, first.estimate(), 60000 * 0.03);
+
+		first.merge(second);
+		assertEquals(100000, first.estimate(), 100000 * 0.03);
+
+		HyperLogLog small = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+		small.add(1);
+		small.add(1L);
+		small.add(null);
+		assertEquals(1L, small.estimate());
+	}
+}
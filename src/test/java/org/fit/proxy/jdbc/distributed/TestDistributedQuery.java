@@ -0,0 +1,115 @@
+package org.fit.proxy.jdbc.distributed;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+public class TestDistributedQuery {
+
+	@Test
+	public void testOrderBy() throws Exception {
+		DistributedQuery query = DistributedQuery.parse("SELECT c.ID, name FROM customers c WHERE ID IN (SELECT ID FROM t ORDER BY 1) ORDER BY c.ID DESC, name NULLS LAST");
+
+		assertTrue(query.isOrdered());
+		assertEquals(2, query.getOrderKeys().size());
+
+		OrderKey first = query.getOrderKeys().get(0);
+		assertEquals("c.ID", first.getExpression());
+		assertTrue(first.isDescending());
+		assertFalse(first.isNullsFirst());
+
+		OrderKey second = query.getOrderKeys().get(1);
+		assertEquals("name", second.getExpression());
+		assertFalse(second.isDescending());
+		assertFalse(second.isNullsFirst());
+
+		assertFalse(DistributedQuery.parse("SELECT ID FROM customers").isOrdered());
+	}
+
+	@Test
+	public void testLimitPushdown() throws Exception {
+		DistributedQuery query = DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID LIMIT 10");
+		assertEquals("SELECT ID FROM customers ORDER BY ID LIMIT 10", query.getShardSql());
+		assertEquals(10L, query.getLimit(null));
+		assertEquals(0L, query.getOffset());
+
+		query = DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID LIMIT 10 OFFSET 20;");
+		assertEquals("SELECT ID FROM customers ORDER BY ID LIMIT 30", query.getShardSql());
+		assertEquals(10L, query.getLimit(null));
+		assertEquals(20L, query.getOffset());
+
+		query = DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID LIMIT 20, 10");
+		assertEquals("SELECT ID FROM customers ORDER BY ID LIMIT 30", query.getShardSql());
+
+		query = DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID OFFSET 5 ROWS FETCH FIRST 10 ROWS ONLY");
+		assertEquals("SELECT ID FROM customers ORDER BY ID FETCH FIRST 15 ROWS ONLY", query.getShardSql());
+
+		query = DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID OFFSET 5");
+		assertEquals("SELECT ID FROM customers ORDER BY ID", query.getShardSql());
+		assertEquals(AbstractProxyResultSet.NO_LIMIT, query.getLimit(null));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testParameterOffset() throws Exception {
+		DistributedQuery.parse("SELECT ID FROM customers ORDER BY ID LIMIT 10 OFFSET ?");
+	}
+
+	@Test
+	public void testAggregate() throws Exception {
+		DistributedQuery query = DistributedQuery.parse("SELECT /*+ broadcast */ status, COUNT(*) AS c, AVG(amount) avg_amount FROM orders WHERE amount > ? GROUP BY status, region ORDER BY c DESC LIMIT 5");
+		AggregatePlan plan = query.getAggregate();
+
+		assertNotNull(plan);
+		assertEquals("SELECT /*+ broadcast */ status, COUNT(*) AS c, SUM(amount), COUNT(amount), region FROM orders WHERE amount > ? GROUP BY status, region", query.getShardSql());
+		assertArrayEquals(new int[] {0, 4}, plan.getKeyColumns());
+		assertEquals(AggregatePlan.AVG, plan.getFunction(2));
+		assertEquals(2, plan.getColumn(2));
+		assertEquals(3, plan.getCountColumn(2));
+		assertEquals("avg_amount", plan.getLabel(2));
+		assertEquals(5L, query.getLimit(null));
+
+		assertNotNull(DistributedQuery.parse("SELECT MAX(amount) FROM orders").getAggregate());
+		assertNull(DistributedQuery.parse("SELECT status, amount FROM orders").getAggregate());
+		assertNull(DistributedQuery.parse("SELECT ID FROM orders WHERE amount > (SELECT AVG(amount) FROM orders)").getAggregate());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testAggregateHaving() throws Exception {
+		DistributedQuery.parse("SELECT status, COUNT(*) FROM orders GROUP BY status HAVING COUNT(*) > 1");
+	}
+
+	@Test
+	public void testCountDistinct() throws Exception {
+		DistributedQuery query = DistributedQuery.parse("SELECT status, COUNT(DISTINCT user_id) AS users, MAX(amount) FROM orders GROUP BY status");
+		assertEquals("SELECT status, user_id, MAX(amount) FROM orders GROUP BY status, user_id", query.getShardSql());
+		assertEquals(AggregatePlan.COUNT_DISTINCT, query.getAggregate().getFunction(1));
+		assertFalse(query.getAggregate().isApproximate());
+
+		query = DistributedQuery.parse("SELECT /*+ approximate */ COUNT(DISTINCT user_id) FROM orders WHERE amount > 10;");
+		assertEquals("SELECT /*+ approximate */ user_id FROM orders WHERE amount > 10 GROUP BY user_id", query.getShardSql());
+		assertTrue(query.getAggregate().isApproximate());
+
+		query = DistributedQuery.parse("SELECT DISTINCT status FROM orders ORDER BY status");
+		assertTrue(query.isDistinct());
+		assertNull(query.getAggregate());
+		assertFalse(DistributedQuery.parse("SELECT status FROM orders").isDistinct());
+
+		try {
+			DistributedQuery.parse("SELECT SUM(amount), COUNT(DISTINCT user_id) FROM orders");
+			fail("Expected SQLException - SUM cannot be combined with COUNT(DISTINCT).");
+		} catch (SQLException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testCompareValues() {
+		assertTrue(RowComparator.compareValues(1, 2L) < 0);
+		assertTrue(RowComparator.compareValues(new java.math.BigDecimal("2.5"), 2) > 0);
+		assertEquals(0, RowComparator.compareValues(3.0, new java.math.BigDecimal("3")));
+		assertTrue(RowComparator.compareValues("a", "b") < 0);
+		assertTrue(RowComparator.compareValues(new byte[] {1, (byte) 200}, new byte[] {1, 2}) > 0);
+	}
+}
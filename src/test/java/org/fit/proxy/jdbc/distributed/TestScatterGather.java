@@ -0,0 +1,462 @@
+package org.fit.proxy.jdbc.distributed;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.fit.proxy.jdbc.sharding.ShardRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestScatterGather {
+	private static final int ROWS = 300;
+
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		proxy = connect(TestUtils.loadProperties("memory.properties"));
+
+		TestUtils.executeInAll(proxy, "CREATE TABLE customers (ID INT PRIMARY KEY, name VARCHAR(32))");
+		insertCustomers(proxy);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE customers");
+		proxy.close();
+	}
+
+	@Test
+	public void testShardedSelect() throws Exception {
+		Statement statement = proxy.createStatement();
+		ResultSet rs = statement.executeQuery("SELECT ID, name FROM customers");
+
+		assertEquals(2, rs.getMetaData().getColumnCount());
+		assertSame(statement, rs.getStatement());
+
+		Set<Integer> ids = new HashSet<>();
+
+		while (rs.next()) {
+			int id = rs.getInt("ID");
+			assertEquals("row" + id, rs.getString("name"));
+			assertTrue(ids.add(id));
+		}
+
+		assertEquals(ROWS, ids.size());
+		statement.close();
+		assertTrue(rs.isClosed());
+	}
+
+	@Test
+	public void testPreparedBroadcast() throws Exception {
+		PreparedStatement statement = proxy.prepareStatement("SELECT ID FROM customers WHERE name <> ?");
+		statement.setString(1, "row1");
+
+		assertTrue(statement.execute());
+		assertEquals(ROWS - 1, count(statement.getResultSet()));
+		assertEquals(-1, statement.getUpdateCount());
+
+		statement.setString(1, "none");
+		assertEquals(ROWS, count(statement.executeQuery()));
+
+		statement.close();
+	}
+
+	@Test
+	public void testBoundedBuffer() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("scatter_buffer", "2");
+		ProxyConnection small = connect(p);
+
+		Statement statement = small.createStatement();
+		assertEquals(ROWS, count(statement.executeQuery("SELECT ID FROM customers")));
+
+		//producers blocked by full buffers are released when the result set is closed early
+		ResultSet rs = statement.executeQuery("SELECT ID FROM customers");
+		assertTrue(rs.next());
+		rs.close();
+
+		statement.close();
+		small.close();
+	}
+
+	@Test
+	public void testHint() throws Exception {
+		TestUtils.executeInAll(proxy, "CREATE TABLE items (ID INT PRIMARY KEY)");
+
+		try {
+			TestUtils.executeInAll(proxy, "INSERT INTO items VALUES (1)");
+			Statement statement = proxy.createStatement();
+
+			assertEquals(1, count(statement.executeQuery("SELECT ID FROM items")));
+			assertEquals(3, count(statement.executeQuery("SELECT /*+ broadcast */ ID FROM items")));
+
+			statement.close();
+		} finally {
+			TestUtils.executeInAll(proxy, "DROP TABLE items");
+		}
+	}
+
+	@Test
+	public void testOrderedMerge() throws Exception {
+		Statement statement = proxy.createStatement();
+		ResultSet rs = statement.executeQuery("SELECT ID, name FROM customers ORDER BY ID DESC");
+
+		for (int i = ROWS; i > 0; i--) {
+			assertTrue(rs.next());
+			assertEquals(i, rs.getInt(1));
+		}
+
+		assertFalse(rs.next());
+		statement.close();
+	}
+
+	@Test
+	public void testLimit() throws Exception {
+		Statement statement = proxy.createStatement();
+		ResultSet rs = statement.executeQuery("SELECT ID FROM customers ORDER BY ID LIMIT 5 OFFSET 10");
+
+		for (int i = 11; i <= 15; i++) {
+			assertTrue(rs.next());
+			assertEquals(i, rs.getInt("ID"));
+		}
+
+		assertFalse(rs.next());
+		statement.close();
+
+		PreparedStatement prepared = proxy.prepareStatement("SELECT name FROM customers ORDER BY name DESC LIMIT ?");
+		prepared.setInt(1, 3);
+		rs = prepared.executeQuery();
+
+		assertTrue(rs.next());
+		assertEquals("row99", rs.getString(1));
+		assertTrue(rs.next());
+		assertEquals("row98", rs.getString(1));
+		assertTrue(rs.next());
+		assertEquals("row97", rs.getString(1));
+		assertFalse(rs.next());
+
+		prepared.close();
+	}
+
+	@Test
+	public void testAggregate() throws Exception {
+		Statement statement = proxy.createStatement();
+		ResultSet rs = statement.executeQuery("SELECT COUNT(*), SUM(ID), AVG(ID), MIN(name), MAX(ID) FROM customers");
+
+		assertTrue(rs.next());
+		assertEquals(ROWS, rs.getInt(1));
+		assertEquals(45150L, rs.getLong(2));
+		assertEquals(new BigDecimal("150.5"), rs.getBigDecimal(3));
+		assertEquals("row1", rs.getString(4));
+		assertEquals(ROWS, rs.getInt(5));
+		assertFalse(rs.next());
+
+		rs = statement.executeQuery("SELECT MOD(ID, 3) AS bucket, COUNT(*) AS c, SUM(ID) total, AVG(ID) FROM customers GROUP BY MOD(ID, 3) ORDER BY bucket");
+		assertEquals("AVG(ID)", rs.getMetaData().getColumnLabel(4));
+
+		long[] totals = {15150L, 14950L, 15050L};
+		String[] averages = {"151.5", "149.5", "150.5"};
+
+		for (int bucket = 0; bucket < 3; bucket++) {
+			assertTrue(rs.next());
+			assertEquals(bucket, rs.getInt("bucket"));
+			assertEquals(ROWS / 3, rs.getInt("c"));
+			assertEquals(totals[bucket], rs.getLong("total"));
+			assertEquals(0, new BigDecimal(averages[bucket]).compareTo(rs.getBigDecimal(4)));
+		}
+
+		assertFalse(rs.next());
+
+		//grouped by a column that is not selected
+		rs = statement.executeQuery("SELECT COUNT(*) FROM customers GROUP BY MOD(ID, 2) ORDER BY 1 DESC LIMIT 1");
+		assertTrue(rs.next());
+		assertEquals(ROWS / 2, rs.getInt(1));
+		assertFalse(rs.next());
+
+		statement.close();
+	}
+
+	@Test
+	public void testEmptyAggregate() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.executeUpdate("DELETE FROM customers");
+
+		//an aggregate query without GROUP BY returns a single row even when there are no rows
+		ResultSet rs = statement.executeQuery("SELECT COUNT(DISTINCT name), MIN(ID), MAX(name) FROM customers");
+		assertTrue(rs.next());
+		assertEquals(0L, rs.getLong(1));
+		assertNull(rs.getObject(2));
+		assertNull(rs.getObject(3));
+		assertFalse(rs.next());
+
+		rs = statement.executeQuery("SELECT /*+ approximate */ COUNT(DISTINCT name) FROM customers");
+		assertTrue(rs.next());
+		assertEquals(0L, rs.getLong(1));
+		assertFalse(rs.next());
+
+		rs = statement.executeQuery("SELECT COUNT(*), SUM(ID), AVG(ID) FROM customers");
+		assertTrue(rs.next());
+		assertEquals(0L, rs.getLong(1));
+		assertNull(rs.getObject(2));
+		assertNull(rs.getObject(3));
+		assertFalse(rs.next());
+
+		assertEquals(0, count(statement.executeQuery("SELECT name, COUNT(DISTINCT ID) FROM customers GROUP BY name")));
+		statement.close();
+	}
+
+	@Test
+	public void testDistinct() throws Exception {
+		Statement statement = proxy.createStatement();
+		assertEquals(7, count(statement.executeQuery("SELECT DISTINCT MOD(ID, 7) FROM customers")));
+
+		ResultSet rs = statement.executeQuery("SELECT DISTINCT MOD(ID, 7) AS r FROM customers ORDER BY r");
+
+		for (int i = 0; i < 7; i++) {
+			assertTrue(rs.next());
+			assertEquals(i, rs.getInt(1));
+		}
+
+		assertFalse(rs.next());
+
+		rs = statement.executeQuery("SELECT MOD(ID, 2), COUNT(DISTINCT MOD(ID, 7)) AS c, MAX(ID) FROM customers GROUP BY MOD(ID, 2) ORDER BY 1");
+		assertTrue(rs.next());
+		assertEquals(7, rs.getLong("c"));
+		assertEquals(ROWS, rs.getInt(3));
+		assertTrue(rs.next());
+		assertEquals(7, rs.getLong("c"));
+		assertFalse(rs.next());
+
+		rs = statement.executeQuery("SELECT /*+ approximate */ COUNT(DISTINCT name) FROM customers");
+		assertTrue(rs.next());
+		assertEquals(ROWS, rs.getLong(1), ROWS * 0.05);
+
+		statement.close();
+	}
+
+	@Test
+	public void testDistinctSpill() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("distinct_memory", "10");
+		ProxyConnection small = connect(p);
+
+		Statement statement = small.createStatement();
+		assertEquals(ROWS / 2, count(statement.executeQuery("SELECT DISTINCT name FROM customers WHERE MOD(ID, 2) = 0")));
+
+		ResultSet rs = statement.executeQuery("SELECT COUNT(DISTINCT name) FROM customers");
+		assertTrue(rs.next());
+		assertEquals(ROWS, rs.getLong(1));
+
+		statement.close();
+		small.close();
+	}
+
+	@Test
+	public void testPruning() throws Exception {
+		ShardRule rule = proxy.getShardRule("SELECT ID FROM customers");
+		boolean[] shards = new boolean[rule.getShardCount()];
+		int expected = 0;
+
+		for (int id : new int[] {1, 2, 3}) {
+			if (!shards[rule.getShardIndex(id)]) {
+				shards[rule.getShardIndex(id)] = true;
+				expected++;
+			}
+		}
+
+		Statement statement = proxy.createStatement();
+		long before = rule.getFanOut()[expected];
+		assertEquals(3, count(statement.executeQuery("SELECT ID FROM customers WHERE ID IN (1, 2, 3)")));
+		assertEquals(before + 1L, rule.getFanOut()[expected]);
+
+		assertEquals(2, count(statement.executeQuery("SELECT ID FROM customers WHERE ID = 1 OR ID = 2")));
+		assertEquals(1, count(statement.executeQuery("SELECT ID FROM customers WHERE ID = 3.0")));
+		assertEquals(2, count(statement.executeQuery("SELECT ID FROM customers WHERE ID IN (4.00, 5)")));
+
+		before = rule.getFanOut()[rule.getShardCount()];
+		assertEquals(ROWS, count(statement.executeQuery("SELECT ID FROM customers WHERE ID > 0")));
+		assertEquals(before + 1L, rule.getFanOut()[rule.getShardCount()]);
+		statement.close();
+
+		PreparedStatement prepared = proxy.prepareStatement("SELECT name FROM customers WHERE ID IN (?, ?) ORDER BY name");
+		prepared.setInt(1, 10);
+		prepared.setInt(2, 20);
+
+		ResultSet rs = prepared.executeQuery();
+		assertTrue(rs.next());
+		assertEquals("row10", rs.getString(1));
+		assertTrue(rs.next());
+		assertEquals("row20", rs.getString(1));
+		assertFalse(rs.next());
+
+		before = rule.getFanOut()[1];
+		prepared.setInt(2, 10);
+		assertEquals(1, count(prepared.executeQuery()));
+		assertEquals(before + 1L, rule.getFanOut()[1]);
+
+		prepared.close();
+	}
+
+	@Test
+	public void testShardedWrites() throws Exception {
+		Statement statement = proxy.createStatement();
+
+		assertEquals(2, count(statement.executeQuery("SELECT ID FROM customers WHERE ID = 1 OR name = 'row2'")));
+		assertEquals(1, count(statement.executeQuery("SELECT ID FROM customers WHERE ID = 4 + 1")));
+		assertEquals(4, statement.executeUpdate("DELETE FROM customers WHERE ID = 1 OR ID = 2 OR ID = 3 OR ID = 4"));
+		assertEquals(4, statement.getUpdateCount());
+		assertEquals(ROWS - 4, count(statement.executeQuery("SELECT ID FROM customers")));
+
+		PreparedStatement prepared = proxy.prepareStatement("UPDATE customers SET name = ? WHERE ID IN (?, ?, ?)");
+		prepared.setString(1, "changed");
+		prepared.setInt(2, 10);
+		prepared.setInt(3, 11);
+		prepared.setInt(4, 12);
+
+		assertEquals(3, prepared.executeUpdate());
+		assertEquals(3, prepared.getUpdateCount());
+		assertEquals(3, count(statement.executeQuery("SELECT ID FROM customers WHERE name = 'changed'")));
+		prepared.close();
+
+		try {
+			statement.executeUpdate("UPDATE customers SET ID = 1000 WHERE ID = 20");
+			fail("Expected SQLException - shard key cannot be updated.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("updates shard key"));
+		}
+
+		ShardRule rule = proxy.getShardRule("SELECT ID FROM customers");
+		int other = 1001;
+
+		while (rule.getShardIndex(other) == rule.getShardIndex(1000)) {
+			other++;
+		}
+
+		try {
+			statement.executeUpdate("INSERT INTO customers (ID, name) VALUES (1000, 'a'), (" + other + ", 'b')");
+			fail("Expected SQLException - inserted rows belong to different shards.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("spans 2 shards"));
+		}
+
+		try {
+			statement.executeUpdate("INSERT INTO customers VALUES (1000, 'a')");
+			fail("Expected SQLException - shard key of inserted row cannot be found.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("cannot be found"));
+		}
+
+		assertEquals(ROWS - 4, count(statement.executeQuery("SELECT ID FROM customers")));
+		statement.close();
+	}
+
+	@Test
+	public void testSpanWithoutBroadcast() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("shard0_broadcast", "false");
+		ProxyConnection strict = connect(p);
+
+		ShardRule rule = strict.getShardRule("SELECT ID FROM customers");
+		int other = 2;
+
+		while (rule.getShardIndex(other) == rule.getShardIndex(1)) {
+			other++;
+		}
+
+		Statement statement = strict.createStatement();
+		assertEquals(1, count(statement.executeQuery("SELECT ID FROM customers WHERE ID = 1 AND name = 'row1'")));
+
+		try {
+			statement.executeQuery("SELECT ID FROM customers WHERE ID IN (1, " + other + ")");
+			fail("Expected SQLException - query spans two shards.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("spans 2 shards"));
+		}
+
+		try {
+			statement.executeUpdate("DELETE FROM customers WHERE name = 'row1'");
+			fail("Expected SQLException - delete spans all shards.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("spans " + rule.getShardCount() + " shards"));
+		}
+
+		PreparedStatement prepared = strict.prepareStatement("DELETE FROM customers WHERE ID = ? OR ID = ?");
+		prepared.setInt(1, 1);
+		prepared.setInt(2, 1);
+		assertEquals(1, prepared.executeUpdate());
+
+		prepared.setInt(2, other);
+
+		try {
+			prepared.executeUpdate();
+			fail("Expected SQLException - delete spans two shards.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("spans 2 shards"));
+		}
+
+		prepared.close();
+		statement.close();
+		strict.close();
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		Statement statement = proxy.getConnectionByName("database2").getConnection().createStatement();
+		statement.execute("CREATE TABLE items (ID INT PRIMARY KEY)");
+		statement.close();
+
+		Statement broadcast = proxy.createStatement();
+
+		try {
+			count(broadcast.executeQuery("SELECT /*+ broadcast */ ID FROM items"));
+			fail("Expected SQLException - table is missing in two databases.");
+		} catch (SQLException e) {
+			assertNotNull(e.getNextException());
+		} finally {
+			broadcast.close();
+			proxy.getConnectionByName("database2").getConnection().createStatement().execute("DROP TABLE items");
+		}
+	}
+
+	private static ProxyConnection connect(Properties p) throws SQLException {
+		return (ProxyConnection) new ProxyDriver().connect(null, p);
+	}
+
+	private static void insertCustomers(ProxyConnection connection) throws SQLException {
+		PreparedStatement insert = connection.prepareStatement("INSERT INTO customers (ID, name) VALUES (?, ?)");
+
+		for (int i = 1; i <= ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, "row" + i);
+			insert.addBatch();
+		}
+
+		insert.executeBatch();
+		insert.close();
+	}
+
+	private static int count(ResultSet rs) throws SQLException {
+		int res = 0;
+
+		while (rs.next()) {
+			res++;
+		}
+
+		rs.close();
+
+		return res;
+	}
+}
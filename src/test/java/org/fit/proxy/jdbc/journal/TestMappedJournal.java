@@ -0,0 +1,112 @@
+package org.fit.proxy.jdbc.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMappedJournal {
+	private static final int SEGMENT_SIZE = MappedJournal.MIN_SEGMENT_SIZE;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+		MappedJournal journal = new MappedJournal(folder.getRoot(), SEGMENT_SIZE);
+
+		long first = journal.append(bytes("first"));
+		long second = journal.append(bytes("second"));
+		journal.force(second);
+
+		List<JournalRecord> records = journal.read(0L, 10);
+		assertEquals(2, records.size());
+		assertEquals("first", string(records.get(0).getPayload()));
+		assertEquals(first, records.get(0).getNext());
+		assertEquals(first, records.get(1).getOffset());
+		assertEquals("second", string(records.get(1).getPayload()));
+		assertEquals(second, journal.getEndOffset());
+
+		assertEquals(1, journal.read(0L, 1).size());
+		assertTrue(journal.read(second, 10).isEmpty());
+		assertTrue(journal.getTimestamp(0L) > 0L);
+		assertEquals(-1L, journal.getTimestamp(second));
+
+		journal.close();
+	}
+
+	@Test
+	public void testSegmentsAndRelease() throws Exception {
+		MappedJournal journal = new MappedJournal(folder.getRoot(), SEGMENT_SIZE);
+		byte[] payload = new byte[1100];
+		long[] ends = new long[10];
+
+		for (int i = 0; i < ends.length; i++) {
+			Arrays.fill(payload, (byte) i);
+			ends[i] = journal.append(payload);
+		}
+
+		List<JournalRecord> records = journal.read(0L, 100);
+		assertEquals(ends.length, records.size());
+
+		for (int i = 0; i < ends.length; i++) {
+			assertEquals(ends[i], records.get(i).getNext());
+			assertEquals((byte) i, records.get(i).getPayload()[1099]);
+		}
+
+		//four records of 1116 bytes do not fit into a segment, so every segment holds three of them
+		assertEquals(4, segments());
+
+		journal.release(ends[6]);
+		assertEquals(2, segments());
+		assertEquals(2L * SEGMENT_SIZE, journal.getStartOffset());
+		assertEquals(3, journal.read(ends[6], 100).size());
+
+		journal.close();
+	}
+
+	@Test
+	public void testRecovery() throws Exception {
+		MappedJournal journal = new MappedJournal(folder.getRoot(), SEGMENT_SIZE);
+		long first = journal.append(bytes("committed"));
+		journal.append(bytes("torn"));
+		journal.close();
+
+		//damages payload of the second record as if it was written only partly
+		RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), String.format("%020d", 0) + ".journal"), "rw");
+		file.seek(first + 16);
+		file.write('X');
+		file.close();
+
+		journal = new MappedJournal(folder.getRoot(), SEGMENT_SIZE);
+		assertEquals(first, journal.getEndOffset());
+
+		long next = journal.append(bytes("again"));
+		List<JournalRecord> records = journal.read(0L, 10);
+		assertEquals(2, records.size());
+		assertEquals("committed", string(records.get(0).getPayload()));
+		assertEquals("again", string(records.get(1).getPayload()));
+		assertEquals(next, records.get(1).getNext());
+
+		journal.close();
+	}
+
+	private int segments() {
+		return folder.getRoot().list().length;
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] value) {
+		return new String(value, StandardCharsets.UTF_8);
+	}
+}
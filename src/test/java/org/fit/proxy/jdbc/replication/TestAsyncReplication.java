@@ -0,0 +1,202 @@
+package org.fit.proxy.jdbc.replication;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestAsyncReplication {
+	private static final long TIMEOUT = 15000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Properties properties;
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		properties = TestUtils.loadProperties("memory.properties");
+		properties.setProperty("replicas", "1");
+		properties.setProperty("replica0_name", "accounts");
+		properties.setProperty("replica0_regexp", "accounts");
+		properties.setProperty("replica0_connections", "database2,database1,database3");
+		properties.setProperty("replica0_mode", "async");
+		properties.setProperty("replica0_journal", folder.getRoot().getAbsolutePath());
+		properties.setProperty("replica0_segment_size", "4096");
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, properties);
+		TestUtils.executeInAll(proxy, "CREATE TABLE accounts (ID INT PRIMARY KEY, balance INT)");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE accounts");
+		proxy.close();
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		Statement statement = proxy.createStatement();
+		assertEquals(1, statement.executeUpdate("INSERT INTO accounts VALUES (1, 100)"));
+		statement.close();
+
+		PreparedStatement insert = proxy.prepareStatement("INSERT INTO accounts VALUES (?, ?)");
+
+		for (int i = 2; i <= 6; i++) {
+			insert.setInt(1, i);
+			insert.setInt(2, 10);
+			insert.addBatch();
+		}
+
+		insert.executeBatch();
+		insert.close();
+
+		PreparedStatement update = proxy.prepareStatement("UPDATE accounts SET balance = balance + ? WHERE ID = ?");
+		update.setInt(1, 50);
+		update.setInt(2, 1);
+		assertEquals(1, update.executeUpdate());
+		update.close();
+
+		//the primary has the writes at once
+		assertEquals(200, sum("database2"));
+
+		awaitSum("database1", 200);
+		awaitSum("database3", 200);
+
+		//the offset is stored after the replica commits
+		awaitCaughtUp("database1");
+		awaitCaughtUp("database3");
+		assertEquals(0L, getReplicator().getLagMillis("database3"));
+	}
+
+	@Test
+	public void testTransaction() throws Exception {
+		AsyncReplicator replicator = getReplicator();
+		long end = replicator.getAppliedOffset("database1");
+
+		proxy.setAutoCommit(false);
+		Statement statement = proxy.createStatement();
+		statement.executeUpdate("INSERT INTO accounts VALUES (1, 5)");
+		Thread.sleep(200L);
+
+		//nothing is journaled before commit
+		assertEquals(0L, replicator.getLag("database1"));
+		assertEquals(end, replicator.getAppliedOffset("database1"));
+
+		proxy.commit();
+		statement.executeUpdate("INSERT INTO accounts VALUES (2, 5)");
+		proxy.setAutoCommit(true);
+		statement.close();
+
+		awaitSum("database1", 10);
+		awaitSum("database3", 10);
+	}
+
+	@Test
+	public void testLaggingReplica() throws Exception {
+		execute("database3", "ALTER TABLE accounts RENAME TO accounts_offline");
+
+		Statement statement = proxy.createStatement();
+		statement.executeUpdate("INSERT INTO accounts VALUES (1, 7)");
+		statement.executeUpdate("INSERT INTO accounts VALUES (2, 7)");
+		statement.close();
+
+		awaitSum("database1", 14);
+		awaitCaughtUp("database1");
+
+		AsyncReplicator replicator = getReplicator();
+		assertTrue(replicator.getLag("database3") > 0L);
+		assertTrue(replicator.getAppliedOffset("database3") < replicator.getAppliedOffset("database1"));
+
+		execute("database3", "ALTER TABLE accounts_offline RENAME TO accounts");
+		awaitSum("database3", 14);
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		//keeps in-memory databases open when the proxy connection is closed
+		ProxyConnection holder = (ProxyConnection) new ProxyDriver().connect(null, TestUtils.loadProperties("memory.properties"));
+
+		try {
+			Statement statement = proxy.createStatement();
+			statement.executeUpdate("INSERT INTO accounts VALUES (1, 1)");
+			statement.close();
+
+			awaitSum("database3", 1);
+			awaitCaughtUp("database3");
+			long applied = getReplicator().getAppliedOffset("database3");
+			proxy.close();
+
+			proxy = (ProxyConnection) new ProxyDriver().connect(null, properties);
+			assertEquals(applied, getReplicator().getAppliedOffset("database3"));
+
+			statement = proxy.createStatement();
+			statement.executeUpdate("INSERT INTO accounts VALUES (2, 2)");
+			statement.close();
+
+			//a write replayed twice would violate the primary key
+			awaitSum("database3", 3);
+			awaitSum("database1", 3);
+		} finally {
+			holder.close();
+		}
+	}
+
+	private AsyncReplicator getReplicator() throws SQLException {
+		return proxy.getSwitcher().getReplicaGroups().get(0).getReplicator();
+	}
+
+	private void awaitCaughtUp(String name) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (getReplicator().getLag(name) > 0L) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Replica " + name + " did not catch up, lag " + getReplicator().getLag(name));
+			}
+
+			Thread.sleep(20L);
+		}
+	}
+
+	private void awaitSum(String name, int expected) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (sum(name) != expected) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Replica " + name + " did not reach sum " + expected + ", it has " + sum(name));
+			}
+
+			Thread.sleep(20L);
+		}
+	}
+
+	private int sum(String name) throws SQLException {
+		Statement statement = proxy.getConnectionByName(name).getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("SELECT COALESCE(SUM(balance), 0) FROM accounts");
+		assertTrue(rs.next());
+
+		int res = rs.getInt(1);
+		statement.close();
+
+		return res;
+	}
+
+	private void execute(String name, String sql) throws SQLException {
+		Statement statement = proxy.getConnectionByName(name).getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+	}
+}
@@ -0,0 +1,185 @@
+package org.fit.proxy.jdbc.replication;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMerkleReconciler {
+	private static final String ROW_HASH = "ID * 7 + balance";
+	private static final int ROWS = 5000;
+	private static final int LEAF_KEYS = 64;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ProxyConnection proxy;
+	private MerkleReconciler reconciler;
+	private File treeFile;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("replicas", "1");
+		p.setProperty("replica0_name", "accounts");
+		p.setProperty("replica0_regexp", "accounts");
+		p.setProperty("replica0_connections", "database2,database1,database3");
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+		TestUtils.executeInAll(proxy, "CREATE TABLE accounts (ID INT PRIMARY KEY, balance INT)");
+
+		PreparedStatement insert = proxy.prepareStatement("INSERT INTO accounts VALUES (?, ?)");
+
+		for (int i = 1; i <= ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setInt(2, i * 10);
+			insert.addBatch();
+		}
+
+		insert.executeBatch();
+		insert.close();
+
+		reconciler = new MerkleReconciler(proxy.getExecutor(), 1000);
+		treeFile = new File(folder.getRoot(), "accounts.tree");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE accounts");
+		proxy.close();
+	}
+
+	@Test
+	public void testConsistent() throws Exception {
+		ReconciliationReport report = reconcile();
+
+		assertTrue(report.isConsistent());
+		assertTrue(report.getRows().isConsistent());
+		assertEquals(7, report.getDepth());
+		//only roots are queried
+		assertEquals(3, report.getChecksumQueries());
+		assertTrue(treeFile.isFile());
+	}
+
+	@Test
+	public void testMismatches() throws Exception {
+		execute("database3", "UPDATE accounts SET balance = 0 WHERE ID = 1000");
+		execute("database1", "DELETE FROM accounts WHERE ID = 4321");
+
+		ReconciliationReport report = reconcile();
+
+		assertFalse(report.isConsistent());
+		assertEquals(2, report.getRanges().size());
+		assertEquals(2, report.getRows().getMismatchCount());
+
+		ValidationReport.Mismatch updated = report.getRows().getMismatches().get(0);
+		assertEquals(1000, ((Number) updated.getKey()[0]).intValue());
+		assertEquals(Arrays.asList("database3"), updated.getDifferent());
+
+		ValidationReport.Mismatch deleted = report.getRows().getMismatches().get(1);
+		assertEquals(4321, ((Number) deleted.getKey()[0]).intValue());
+		assertEquals(Arrays.asList("database1"), deleted.getMissing());
+
+		//two paths from the root to leaves instead of all 255 nodes
+		assertTrue("Too many checksum queries: " + report.getChecksumQueries(), report.getChecksumQueries() <= 3 * (1 + 2 * 2 * report.getDepth()));
+		assertRows(report.getRows().getKeys());
+	}
+
+	@Test
+	public void testIncremental() throws Exception {
+		execute("database2", "UPDATE accounts SET balance = 1 WHERE ID = 42");
+		ReconciliationReport first = reconcile();
+		assertEquals(1, first.getRows().getMismatchCount());
+
+		//nothing has changed, all digests below the roots are taken from the file
+		ReconciliationReport second = reconcile();
+		assertEquals(3, second.getChecksumQueries());
+		assertEquals(1, second.getRows().getMismatchCount());
+
+		//the repaired row changes a single path of a single connection
+		execute("database2", "UPDATE accounts SET balance = 420 WHERE ID = 42");
+		ReconciliationReport third = reconcile();
+		assertTrue(third.isConsistent());
+		assertEquals(3, third.getChecksumQueries());
+
+		execute("database1", "UPDATE accounts SET balance = 2 WHERE ID = 50");
+		ReconciliationReport fourth = reconcile();
+		assertEquals(1, fourth.getRows().getMismatchCount());
+		//database3 reuses the path of the first run, database2 was queried only at its root when it was repaired
+		assertEquals(3 + 2 * 2 * fourth.getDepth(), fourth.getChecksumQueries());
+	}
+
+	@Test
+	public void testOtherTreeFile() throws Exception {
+		execute("database3", "DELETE FROM accounts WHERE ID = 10");
+		reconcile();
+		assertEquals(3, reconcile().getChecksumQueries());
+
+		//a tree of another key range is not used
+		ReconciliationReport report = reconciler.reconcile("accounts", "ID", ROW_HASH, 1, ROWS + 1, connections(), treeFile, LEAF_KEYS);
+		assertEquals(1, report.getRows().getMismatchCount());
+		assertTrue(report.getChecksumQueries() > 3);
+
+		report = proxy.reconcileReplicas("accounts", "ID", ROW_HASH, 0, ROWS + 1, new File(folder.getRoot(), "default.tree"));
+		assertEquals(1, report.getRows().getMismatchCount());
+		assertEquals(3, report.getDepth());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		try {
+			reconciler.reconcile("accounts", "ID", ROW_HASH, 10, 10, connections(), treeFile, LEAF_KEYS);
+			fail("Expected SQLException - empty key range.");
+		} catch (SQLException e) {
+			//expected
+		}
+
+		try {
+			reconciler.reconcile("accounts_missing", "ID", ROW_HASH, 0, 100, connections(), treeFile, LEAF_KEYS);
+			fail("Expected SQLException - table does not exist.");
+		} catch (SQLException e) {
+			assertNotNull(e.getNextException());
+		}
+
+		try {
+			proxy.reconcileReplicas("customers", "ID", ROW_HASH, 0, 100, treeFile);
+			fail("Expected SQLException - table is not replicated.");
+		} catch (SQLException e) {
+			//expected
+		}
+	}
+
+	private ReconciliationReport reconcile() throws SQLException {
+		return reconciler.reconcile("accounts", "ID", ROW_HASH, 0, ROWS + 1, connections(), treeFile, LEAF_KEYS);
+	}
+
+	private List<ConnectionUnit> connections() throws SQLException {
+		return Arrays.asList(proxy.getConnectionByName("database1"), proxy.getConnectionByName("database2"), proxy.getConnectionByName("database3"));
+	}
+
+	private void assertRows(long keys) {
+		assertTrue("Too many compared rows: " + keys, keys <= 2 * LEAF_KEYS);
+	}
+
+	private void execute(String name, String sql) throws SQLException {
+		ConnectionUnit unit = proxy.getConnectionByName(name);
+		Statement statement = unit.getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+	}
+}
@@ -0,0 +1,178 @@
+package org.fit.proxy.jdbc.replication;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestReadAffinity {
+	private static final long TIMEOUT = 15000L;
+	private static final String QUERY = "SELECT COUNT(*) FROM accounts";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		proxy = connect("60000");
+		TestUtils.executeInAll(proxy, "CREATE TABLE accounts (ID INT PRIMARY KEY, balance INT)");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE accounts");
+		proxy.close();
+	}
+
+	@Test
+	public void testSpreadReads() throws Exception {
+		Set<String> readers = new HashSet<>();
+
+		for (int i = 0; i < 4; i++) {
+			readers.add(proxy.getConnectionBySql(QUERY).getName());
+		}
+
+		//replicas take turns, the primary gets only writes
+		assertEquals(2, readers.size());
+		assertFalse(readers.contains("database2"));
+		assertEquals("database2", proxy.getConnectionBySql("UPDATE accounts SET balance = 0").getName());
+	}
+
+	@Test
+	public void testReadYourWrites() throws Exception {
+		//replicas cannot apply the journal and they cannot answer queries
+		execute("database1", "ALTER TABLE accounts RENAME TO accounts_offline");
+		execute("database3", "ALTER TABLE accounts RENAME TO accounts_offline");
+
+		Statement statement = proxy.createStatement();
+		statement.executeUpdate("INSERT INTO accounts VALUES (1, 10)");
+
+		assertEquals(1, count(statement.executeQuery(QUERY)));
+
+		PreparedStatement query = proxy.prepareStatement(QUERY);
+		assertEquals(1, count(query.executeQuery()));
+
+		//a write in a transaction binds queries to the primary until commit
+		proxy.setAutoCommit(false);
+		statement.executeUpdate("INSERT INTO accounts VALUES (2, 10)");
+		assertEquals(2, count(query.executeQuery()));
+		proxy.commit();
+		assertEquals(2, count(query.executeQuery()));
+		proxy.setAutoCommit(true);
+
+		execute("database1", "ALTER TABLE accounts_offline RENAME TO accounts");
+		execute("database3", "ALTER TABLE accounts_offline RENAME TO accounts");
+		awaitCaughtUp("database1");
+		awaitCaughtUp("database3");
+
+		//replicas that applied the writes answer queries again
+		assertFalse("database2".equals(proxy.getConnectionBySql(QUERY).getName()));
+		assertEquals(2, count(query.executeQuery()));
+
+		query.close();
+		statement.close();
+	}
+
+	@Test
+	public void testAffinityWindow() throws Exception {
+		ProxyConnection expiring = connect("0");
+
+		try {
+			execute("database3", "ALTER TABLE accounts RENAME TO accounts_offline");
+
+			Statement statement = expiring.createStatement();
+			statement.executeUpdate("INSERT INTO accounts VALUES (1, 10)");
+			statement.close();
+
+			ReplicaGroup group = expiring.getSwitcher().getReplicaGroups().get(0);
+			Set<String> readers = new HashSet<>();
+
+			//the lagging replica gets queries once the window has passed
+			for (int i = 0; i < 4; i++) {
+				readers.add(expiring.getReplicaReader(group).getName());
+			}
+
+			assertTrue(readers.contains("database3"));
+		} finally {
+			execute("database3", "ALTER TABLE accounts_offline RENAME TO accounts");
+			expiring.close();
+		}
+	}
+
+	@Test
+	public void testPrimaryReads() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("replicas", "1");
+		p.setProperty("replica0_name", "accounts");
+		p.setProperty("replica0_regexp", "accounts");
+		p.setProperty("replica0_connections", "database2,database1,database3");
+
+		ProxyConnection primary = (ProxyConnection) new ProxyDriver().connect(null, p);
+
+		try {
+			ConnectionUnit reader = primary.getConnectionBySql(QUERY);
+			assertEquals("database2", reader.getName());
+			assertNull(primary.getReplicaReadGroup(QUERY));
+		} finally {
+			primary.close();
+		}
+	}
+
+	private ProxyConnection connect(String window) throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("replicas", "1");
+		p.setProperty("replica0_name", "accounts");
+		p.setProperty("replica0_regexp", "accounts");
+		p.setProperty("replica0_connections", "database2,database1,database3");
+		p.setProperty("replica0_mode", "async");
+		p.setProperty("replica0_journal", folder.getRoot().getAbsolutePath());
+		p.setProperty("replica0_read_replicas", "true");
+		p.setProperty("replica0_affinity_window", window);
+
+		return (ProxyConnection) new ProxyDriver().connect(null, p);
+	}
+
+	private static int count(ResultSet rs) throws SQLException {
+		assertTrue(rs.next());
+		int res = rs.getInt(1);
+		rs.close();
+
+		return res;
+	}
+
+	private void awaitCaughtUp(String name) throws Exception {
+		AsyncReplicator replicator = proxy.getSwitcher().getReplicaGroups().get(0).getReplicator();
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (replicator.getLag(name) > 0L) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Replica " + name + " did not catch up, lag " + replicator.getLag(name));
+			}
+
+			Thread.sleep(20L);
+		}
+	}
+
+	private void execute(String name, String sql) throws SQLException {
+		Statement statement = proxy.getConnectionByName(name).getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+	}
+}
@@ -0,0 +1,152 @@
+package org.fit.proxy.jdbc.replication;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestReplicaValidator {
+	private static final String QUERY = "SELECT ID, name, balance FROM accounts ORDER BY ID";
+	private static final int ROWS = 3000;
+
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("replicas", "1");
+		p.setProperty("replica0_name", "accounts");
+		p.setProperty("replica0_regexp", "accounts");
+		p.setProperty("replica0_connections", "database2,database1,database3");
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+		TestUtils.executeInAll(proxy, "CREATE TABLE accounts (ID INT PRIMARY KEY, name VARCHAR(20), balance INT)");
+
+		PreparedStatement insert = proxy.prepareStatement("INSERT INTO accounts VALUES (?, ?, ?)");
+
+		for (int i = 1; i <= ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, (i % 7 == 0) ? null : "name" + i);
+			insert.setInt(3, i * 10);
+			insert.addBatch();
+		}
+
+		insert.executeBatch();
+		insert.close();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE accounts");
+		proxy.close();
+	}
+
+	@Test
+	public void testConsistent() throws Exception {
+		ValidationReport report = proxy.validateReplicas(QUERY, 1);
+
+		assertTrue(report.isConsistent());
+		assertEquals(ROWS, report.getKeys());
+		assertEquals(Arrays.asList("database2", "database1", "database3"), report.getConnections());
+	}
+
+	@Test
+	public void testMismatches() throws Exception {
+		execute("database3", "UPDATE accounts SET balance = 0 WHERE ID = 1000");
+		execute("database3", "UPDATE accounts SET name = 'x' WHERE ID = 7");
+		execute("database1", "DELETE FROM accounts WHERE ID = 2000");
+		execute("database2", "DELETE FROM accounts WHERE ID = 1");
+		execute("database2", "INSERT INTO accounts VALUES (" + (ROWS + 1) + ", 'extra', 0)");
+
+		ValidationReport report = proxy.validateReplicas(QUERY, 1);
+
+		assertFalse(report.isConsistent());
+		assertFalse(report.isTruncated());
+		assertEquals(ROWS + 1, report.getKeys());
+		assertEquals(5, report.getMismatchCount());
+
+		ValidationReport.Mismatch first = report.getMismatches().get(0);
+		assertEquals(1, ((Number) first.getKey()[0]).intValue());
+		assertEquals(Arrays.asList("database2"), first.getMissing());
+		assertTrue(first.getDifferent().isEmpty());
+
+		ValidationReport.Mismatch nullName = report.getMismatches().get(1);
+		assertEquals(7, ((Number) nullName.getKey()[0]).intValue());
+		assertEquals(Arrays.asList("database3"), nullName.getDifferent());
+
+		assertEquals(Arrays.asList("database3"), report.getMismatches().get(2).getDifferent());
+		assertEquals(Arrays.asList("database1"), report.getMismatches().get(3).getMissing());
+
+		ValidationReport.Mismatch extra = report.getMismatches().get(4);
+		assertEquals(ROWS + 1, ((Number) extra.getKey()[0]).intValue());
+		assertEquals(Arrays.asList("database1", "database3"), extra.getMissing());
+	}
+
+	@Test
+	public void testUnordered() throws Exception {
+		try {
+			proxy.validateReplicas("SELECT ID, balance FROM accounts ORDER BY balance DESC", 1);
+			fail("Expected ProxyException - rows are not ordered by key.");
+		} catch (ProxyException e) {
+			assertNotNull(e.getFailConnection());
+		}
+
+		//the connection still works after the validation was stopped
+		assertTrue(proxy.validateReplicas(QUERY, 1).isConsistent());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		try {
+			proxy.validateReplicas("SELECT ID FROM accounts_missing ORDER BY ID", 1, proxy.getConnectionList());
+			fail("Expected SQLException - table does not exist.");
+		} catch (SQLException e) {
+			assertTrue(e.getNextException() instanceof ProxyException);
+		}
+
+		try {
+			proxy.validateReplicas("SELECT * FROM customers ORDER BY ID", 1);
+			fail("Expected SQLException - query does not belong to a replica group.");
+		} catch (SQLException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testXxHash() {
+		byte[] empty = new byte[0];
+		assertEquals(0xEF46DB3751D8E999L, XxHash64.hash(empty, 0, 0, 0L));
+		assertEquals(0xD24EC4F1A98C6E5BL, XxHash64.hash("a".getBytes(StandardCharsets.US_ASCII), 0, 1, 0L));
+
+		byte[] data = new byte[100];
+
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		byte[] shifted = new byte[101];
+		System.arraycopy(data, 0, shifted, 1, data.length);
+		assertEquals(XxHash64.hash(data, 0, data.length, 7L), XxHash64.hash(shifted, 1, data.length, 7L));
+		assertNotEquals(XxHash64.hash(data, 0, data.length, 7L), XxHash64.hash(data, 0, data.length, 8L));
+	}
+
+	private void execute(String name, String sql) throws SQLException {
+		ConnectionUnit unit = proxy.getConnectionByName(name);
+		Statement statement = unit.getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+	}
+}
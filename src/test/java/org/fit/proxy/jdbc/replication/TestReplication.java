@@ -0,0 +1,159 @@
+package org.fit.proxy.jdbc.replication;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.fit.proxy.jdbc.exception.ProxyException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestReplication {
+	private static final String[] REPLICAS = {"database1", "database2", "database3"};
+
+	private ProxyConnection proxy;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("replicas", "1");
+		p.setProperty("replica0_name", "accounts");
+		p.setProperty("replica0_regexp", "accounts");
+		p.setProperty("replica0_connections", "database2,database1,database3");
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, p);
+		TestUtils.executeInAll(proxy, "CREATE TABLE accounts (ID INT PRIMARY KEY, balance INT)");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.executeInAll(proxy, "DROP TABLE accounts");
+		proxy.close();
+	}
+
+	@Test
+	public void testStatement() throws Exception {
+		Statement statement = proxy.createStatement();
+
+		assertEquals(1, statement.executeUpdate("INSERT INTO accounts VALUES (1, 100)"));
+		assertEquals(1, statement.executeUpdate("INSERT INTO accounts VALUES (2, 100)"));
+		assertFalse(statement.execute("UPDATE accounts SET balance = balance + 1"));
+		assertEquals(2, statement.getUpdateCount());
+
+		for (String name : REPLICAS) {
+			assertEquals(202, sum(name));
+		}
+
+		//queries are answered by the primary
+		ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM accounts");
+		assertTrue(rs.next());
+		assertEquals(2, rs.getInt(1));
+		assertEquals("database2", proxy.getConnectionBySql("SELECT * FROM accounts").getName());
+
+		statement.close();
+	}
+
+	@Test
+	public void testPrepared() throws Exception {
+		PreparedStatement insert = proxy.prepareStatement("INSERT INTO accounts VALUES (?, ?)");
+
+		insert.setInt(1, 1);
+		insert.setInt(2, 10);
+		assertEquals(1, insert.executeUpdate());
+
+		for (int i = 2; i <= 5; i++) {
+			insert.setInt(1, i);
+			insert.setInt(2, 10);
+			insert.addBatch();
+		}
+
+		assertArrayEquals(new int[] {1, 1, 1, 1}, insert.executeBatch());
+		insert.close();
+
+		for (String name : REPLICAS) {
+			assertEquals(50, sum(name));
+		}
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		Statement statement = proxy.createStatement();
+		statement.addBatch("INSERT INTO accounts VALUES (1, 5)");
+		statement.addBatch("INSERT INTO accounts VALUES (2, 5)");
+		statement.addBatch("UPDATE accounts SET balance = 7");
+
+		assertArrayEquals(new int[] {1, 1, 2}, statement.executeBatch());
+		statement.close();
+
+		for (String name : REPLICAS) {
+			assertEquals(14, sum(name));
+		}
+	}
+
+	@Test
+	public void testDisagreement() throws Exception {
+		execute("database3", "INSERT INTO accounts VALUES (9, 0)");
+
+		Statement statement = proxy.createStatement();
+
+		try {
+			statement.executeUpdate("DELETE FROM accounts");
+			fail("Expected ProxyException - database3 deletes one more row.");
+		} catch (ProxyException e) {
+			assertEquals("database2", e.getFailConnection().getName());
+
+			ProxyException replica = (ProxyException) e.getNextException();
+			assertEquals("database3", replica.getFailConnection().getName());
+			assertNull(replica.getNextException());
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		execute("database1", "INSERT INTO accounts VALUES (1, 0)");
+
+		Statement statement = proxy.createStatement();
+
+		try {
+			statement.executeUpdate("INSERT INTO accounts VALUES (1, 0)");
+			fail("Expected SQLException - duplicate key in database1.");
+		} catch (SQLException e) {
+			ProxyException failure = (ProxyException) e.getNextException();
+			assertEquals("database1", failure.getFailConnection().getName());
+		} finally {
+			statement.close();
+		}
+
+		assertEquals(0, sum("database3"));
+		assertEquals(1, TestUtils.countRows(proxy.getConnectionByName("database3"), "accounts"));
+	}
+
+	private int sum(String name) throws SQLException {
+		ConnectionUnit unit = proxy.getConnectionByName(name);
+		Statement statement = unit.getConnection().createStatement();
+		ResultSet rs = statement.executeQuery("SELECT COALESCE(SUM(balance), 0) FROM accounts");
+		assertTrue(rs.next());
+
+		int res = rs.getInt(1);
+		statement.close();
+
+		return res;
+	}
+
+	private void execute(String name, String sql) throws SQLException {
+		Statement statement = proxy.getConnectionByName(name).getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+	}
+}
@@ -0,0 +1,78 @@
+package org.fit.proxy.jdbc.sharding;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestKeyAnalyzer {
+	private final KeyAnalyzer analyzer = new KeyAnalyzer("ID");
+
+	@Test
+	public void testEquality() {
+		KeyRestriction keys = analyzer.analyze("SELECT * FROM customers c WHERE c.ID = 42 AND name = 'x'");
+		assertEquals(Arrays.asList("42"), keys.getLiterals());
+
+		keys = analyzer.analyze("SELECT * FROM customers WHERE '7' = ID ORDER BY name");
+		assertEquals(Arrays.asList("7"), keys.getLiterals());
+
+		keys = analyzer.analyze("SELECT * FROM customers WHERE ID IN (3.0, +4, -5.00)");
+		assertEquals(Arrays.asList("3", "4", "-5"), keys.getLiterals());
+
+		//a number that is not integral cannot be mapped to a key
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID = 3.5"));
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID IN (1, 2.5)"));
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID = 99999999999999999999"));
+
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE CUSTOMER_ID = 1"));
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID > 1"));
+		assertNull(analyzer.analyze("SELECT * FROM customers"));
+	}
+
+	@Test
+	public void testInAndOr() {
+		KeyRestriction keys = analyzer.analyze("SELECT * FROM customers WHERE ID IN (1, 2, 'it''s') AND name LIKE 'a%'");
+		assertEquals(Arrays.asList("1", "2", "it's"), keys.getLiterals());
+
+		keys = analyzer.analyze("SELECT * FROM customers WHERE (ID = 1 OR ID = 5) AND ID IN (1, 5, 9)");
+		assertEquals(Arrays.asList("1", "5"), keys.getLiterals());
+
+		keys = analyzer.analyze("SELECT * FROM customers WHERE amount BETWEEN 1 AND 10 AND ID = 3 GROUP BY name");
+		assertEquals(Arrays.asList("3"), keys.getLiterals());
+
+		//a branch of OR that does not restrict the key may return any row
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID = 1 OR name = 'x'"));
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID IN (SELECT ID FROM orders)"));
+		assertNull(analyzer.analyze("SELECT * FROM customers WHERE ID = 1 UNION SELECT * FROM customers"));
+	}
+
+	@Test
+	public void testParameters() {
+		KeyRestriction keys = analyzer.analyze("SELECT * FROM customers WHERE name = ? AND ID IN (?, 3, ?)");
+
+		assertTrue(keys.hasParameters());
+		assertEquals(Arrays.asList(2, 3), keys.getParameters());
+		assertEquals(Arrays.asList("3"), keys.getLiterals());
+		assertEquals(3, keys.size());
+	}
+
+	@Test
+	public void testWrites() {
+		KeyRestriction keys = analyzer.analyze("INSERT INTO customers (name, ID) VALUES ('a', 1), ('b', ?), ('c, d', 'x')");
+		assertEquals(Arrays.asList("1", "x"), keys.getLiterals());
+		assertEquals(Arrays.asList(1), keys.getParameters());
+
+		assertNull(analyzer.analyze("INSERT INTO customers VALUES (1, 'a')"));
+		assertNull(analyzer.analyze("INSERT INTO customers (ID, name) VALUES (1 + 1, 'a')"));
+		assertNull(analyzer.analyze("INSERT INTO customers (ID, name) SELECT ID, name FROM old"));
+
+		keys = analyzer.analyze("UPDATE customers SET ID = 5 WHERE ID = 1");
+		assertEquals(Arrays.asList("1"), keys.getLiterals());
+		assertTrue(analyzer.isKeyAssigned("UPDATE customers SET ID = 5 WHERE ID = 1"));
+		assertFalse(analyzer.isKeyAssigned("UPDATE customers SET name = 'ID = 1' WHERE ID = 1"));
+
+		assertNull(analyzer.analyze("DELETE FROM customers WHERE ID = 42 + 1"));
+		assertNull(analyzer.analyze("DELETE FROM customers WHERE ID = (SELECT MAX(ID) FROM customers)"));
+	}
+}
@@ -0,0 +1,174 @@
+package org.fit.proxy.jdbc.sharding;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.junit.Test;
+
+public class TestShardStrategies {
+	private static final int KEYS = 100000;
+
+	@Test
+	public void testRingBalance() throws Exception {
+		IShardStrategy ring = new ConsistentHashShardStrategy(createUnits(4), ConsistentHashShardStrategy.DEFAULT_VIRTUAL_NODES);
+		int[] counts = new int[4];
+
+		for (long key = 0; key < KEYS; key++) {
+			counts[ring.getShardIndex(key)]++;
+		}
+
+		for (int count : counts) {
+			assertTrue("Unbalanced ring: " + count, count > KEYS / 8 && count < KEYS * 3 / 8);
+		}
+	}
+
+	@Test
+	public void testRingRebalance() throws Exception {
+		IShardStrategy before = new ConsistentHashShardStrategy(createUnits(4), ConsistentHashShardStrategy.DEFAULT_VIRTUAL_NODES);
+		IShardStrategy after = new ConsistentHashShardStrategy(createUnits(5), ConsistentHashShardStrategy.DEFAULT_VIRTUAL_NODES);
+		int moved = 0;
+
+		for (long key = 0; key < KEYS; key++) {
+			int oldShard = before.getShardIndex(key);
+			int newShard = after.getShardIndex(key);
+
+			if (oldShard != newShard) {
+				assertEquals("Key moved between old shards.", 4, newShard);
+				moved++;
+			}
+		}
+
+		assertTrue("Too many keys moved: " + moved, moved > KEYS / 10 && moved < KEYS * 3 / 10);
+	}
+
+	@Test
+	public void testKeys() throws Exception {
+		assertEquals(42L, ShardKeys.keyOf((Object) 42));
+		assertEquals(42L, ShardKeys.keyOf("42"));
+		assertEquals(-42L, ShardKeys.keyOf((Object) "-42"));
+		assertEquals(ShardKeys.hash("abc"), ShardKeys.keyOf("abc"));
+
+		assertEquals(3L, ShardKeys.keyOf((Object) 3.0));
+		assertEquals(3L, ShardKeys.keyOf((Object) 3.0f));
+		assertEquals(3L, ShardKeys.keyOf((Object) new BigDecimal("3.00")));
+		assertEquals(10000000000L, ShardKeys.keyOf((Object) 1e10));
+		assertEquals(ShardKeys.keyOf((Object) new BigDecimal("3.5")), ShardKeys.keyOf((Object) 3.5));
+	}
+
+	@Test
+	public void testKeyLocation() throws Exception {
+		ShardRule rule = new ShardRule("test", "customers", ShardRule.NO_PARAMETER, "ID", new HashShardStrategy(2), createUnits(2));
+
+		assertEquals("42", rule.findLiteral("SELECT name FROM customers WHERE ID = 42"));
+		assertEquals("it's", rule.findLiteral("SELECT name FROM customers c WHERE c.ID='it''s'"));
+		assertNull(rule.findLiteral("SELECT ID FROM customers WHERE ID > 5"));
+		assertEquals(2, rule.findParameterIndex("SELECT name FROM customers WHERE name = ? AND ID = ?"));
+		assertEquals(2, rule.findParameterIndex("INSERT INTO customers (name, ID) VALUES (?, ?)"));
+		assertEquals("7", rule.findLiteral("INSERT INTO customers (name, ID) VALUES ('a, b', 7)"));
+		assertEquals(ShardRule.NO_PARAMETER, rule.findParameterIndex("INSERT INTO customers VALUES (?, ?)"));
+	}
+
+	@Test
+	public void testRange() throws Exception {
+		IShardStrategy range = new RangeShardStrategy(new long[] {1000L, 5000L});
+
+		assertEquals(0, range.getShardIndex(-5L));
+		assertEquals(0, range.getShardIndex(999L));
+		assertEquals(1, range.getShardIndex(1000L));
+		assertEquals(1, range.getShardIndex(4999L));
+		assertEquals(2, range.getShardIndex(5000L));
+	}
+
+	@Test
+	public void testDirectory() throws Exception {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:shardDirectory");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE shard_directory (shard_key BIGINT PRIMARY KEY, shard_name VARCHAR(32))");
+		statement.execute("INSERT INTO shard_directory VALUES (7, 'database2'), (8, 'database0'), (9, 'unknown')");
+
+		List<ConnectionUnit> units = createUnits(3);
+		IShardStrategy fallback = new RangeShardStrategy(new long[] {100L, 200L});
+		DirectoryShardStrategy directory = new DirectoryShardStrategy(connection, DirectoryShardStrategy.DEFAULT_QUERY, units, 2, 0, fallback);
+
+		assertEquals(2, directory.getShardIndex(7L));
+		assertEquals(0, directory.getShardIndex(8L));
+		assertEquals(1, directory.getShardIndex(150L));
+
+		statement.execute("UPDATE shard_directory SET shard_name = 'database1' WHERE shard_key = 7");
+		assertEquals(2, directory.getShardIndex(7L));
+
+		directory.refresh();
+		assertEquals(1, directory.getShardIndex(7L));
+
+		statement.close();
+		directory.close();
+		assertTrue(connection.isClosed());
+	}
+
+	@Test
+	public void testSharedDirectory() throws Exception {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:sharedDirectory");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE shard_directory (shard_key BIGINT PRIMARY KEY, shard_name VARCHAR(32))");
+		statement.execute("INSERT INTO shard_directory VALUES (7, 'database2')");
+		statement.close();
+
+		Properties p = new Properties();
+		p.setProperty("items", "1");
+		p.setProperty("db0_driver", "org.h2.Driver");
+		p.setProperty("db0_url", "jdbc:h2:mem:sharedDirectory");
+		p.setProperty("db0_name", "directory");
+
+		List<ConnectionUnit> units = createUnits(3);
+		DirectoryShardStrategy first = DirectoryShardStrategy.open(p, "directory", DirectoryShardStrategy.DEFAULT_QUERY, units, 10, 0);
+		DirectoryShardStrategy second = DirectoryShardStrategy.open(p, "directory", DirectoryShardStrategy.DEFAULT_QUERY, createUnits(3), 10, 0);
+		assertSame(first, second);
+
+		//the directory stays loaded until the last user releases it
+		first.close();
+		second.refresh();
+		assertEquals(2, second.getShardIndex(7L));
+		second.close();
+
+		DirectoryShardStrategy third = DirectoryShardStrategy.open(p, "directory", DirectoryShardStrategy.DEFAULT_QUERY, units, 10, 0);
+		assertNotSame(first, third);
+		third.close();
+
+		connection.close();
+	}
+
+	@Test
+	public void testLongIntMap() {
+		LongIntMap map = new LongIntMap(3);
+
+		assertTrue(map.put(Long.MIN_VALUE, 1));
+		assertTrue(map.put(0L, 2));
+		assertTrue(map.put(Long.MAX_VALUE, 3));
+		assertTrue(map.put(0L, 4));
+		assertFalse(map.put(5L, 5));
+
+		assertEquals(1, map.get(Long.MIN_VALUE, -1));
+		assertEquals(4, map.get(0L, -1));
+		assertEquals(3, map.get(Long.MAX_VALUE, -1));
+		assertEquals(-1, map.get(5L, -1));
+		assertEquals(3, map.size());
+	}
+
+	private static List<ConnectionUnit> createUnits(int count) {
+		List<ConnectionUnit> res = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			res.add(new ConnectionUnit("database" + i, "^SELECT*", null));
+		}
+
+		return res;
+	}
+}
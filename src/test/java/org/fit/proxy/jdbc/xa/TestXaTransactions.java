@@ -0,0 +1,198 @@
+package org.fit.proxy.jdbc.xa;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.transaction.xa.XAResource;
+
+import org.fit.proxy.jdbc.ConnectionUnit;
+import org.fit.proxy.jdbc.ProxyConnection;
+import org.fit.proxy.jdbc.ProxyDriver;
+import org.fit.proxy.jdbc.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestXaTransactions {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Properties properties;
+	private ProxyConnection proxy;
+	private ConnectionUnit database2;
+	private ConnectionUnit database3;
+
+	@Before
+	public void setUp() throws Exception {
+		properties = TestUtils.loadProperties("memory.properties");
+
+		for (int i = 0; i < 3; i++) {
+			properties.setProperty("db" + i + "_xa_datasource", "org.h2.jdbcx.JdbcDataSource");
+		}
+
+		properties.setProperty("xa", "true");
+		properties.setProperty("xa_log", new File(folder.getRoot(), "log").getPath());
+
+		proxy = (ProxyConnection) new ProxyDriver().connect(null, properties);
+		TestUtils.executeInAll(proxy, "CREATE TABLE items (ID INT PRIMARY KEY, name VARCHAR(20))");
+		database2 = proxy.getConnectionByName("database2");
+		database3 = proxy.getConnectionByName("database3");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		proxy.setAutoCommit(true);
+		TestUtils.executeInAll(proxy, "DROP TABLE items");
+		proxy.close();
+	}
+
+	@Test
+	public void testAutoCommitByDefault() throws Exception {
+		//a fresh connection is in auto-commit mode, its statements do not start branches
+		assertTrue(proxy.getAutoCommit());
+
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+		statement.close();
+
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+		assertEquals(0, proxy.getSwitcher().getTransactionLog().getUnfinished());
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		assertTrue(database2.isXA());
+		assertNotNull(proxy.getSwitcher().getTransactionLog());
+
+		proxy.setAutoCommit(false);
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+		statement.execute("UPDATE items SET name = 'none'");
+		statement.close();
+
+		assertEquals(Arrays.asList(database3, database2), proxy.getTouchedConnections());
+		proxy.commit();
+
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+		assertEquals(1, TestUtils.countRows(database3, "items"));
+		assertEquals(0, proxy.getSwitcher().getTransactionLog().getUnfinished());
+
+		//the next transaction starts new branches
+		statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (2, 'second')");
+		statement.close();
+		proxy.commit();
+
+		assertEquals(2, TestUtils.countRows(database3, "items"));
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		proxy.setAutoCommit(false);
+		Statement statement = proxy.createStatement();
+		statement.execute("INSERT INTO items VALUES (1, 'first')");
+		statement.execute("UPDATE items SET name = 'none'");
+		statement.close();
+
+		proxy.rollback();
+
+		assertTrue(proxy.getTouchedConnections().isEmpty());
+		assertEquals(0, TestUtils.countRows(database3, "items"));
+	}
+
+	@Test
+	public void testLogReopen() throws Exception {
+		File directory = folder.newFolder("reopen");
+		TransactionLog log = TransactionLog.open(directory, TransactionLog.DEFAULT_SEGMENT_SIZE);
+		byte[] committed = log.newGlobalId();
+		byte[] finished = log.newGlobalId();
+
+		log.logCommit(committed, Arrays.asList("database2", "database3"));
+		log.logCommit(finished, Collections.singletonList("database2"));
+		log.logDone(finished);
+		assertEquals(1, log.getUnfinished());
+		log.close();
+
+		log = TransactionLog.open(directory, TransactionLog.DEFAULT_SEGMENT_SIZE);
+
+		try {
+			assertEquals(1, log.getUnfinished());
+			assertTrue(log.isCommitted(committed));
+			assertFalse(log.isCommitted(finished));
+
+			//identifiers of the reopened log belong to the same coordinator
+			assertTrue(log.isOwn(ProxyXid.branch(log.newGlobalId(), "database2")));
+			assertTrue(log.isOwn(ProxyXid.branch(committed, "database2")));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void testRecovery() throws Exception {
+		TransactionLog log = proxy.getSwitcher().getTransactionLog();
+		byte[] committed = log.newGlobalId();
+		byte[] undecided = log.newGlobalId();
+
+		prepare(database2, ProxyXid.branch(committed, "database2"), "UPDATE items SET name = 'x'");
+		prepare(database3, ProxyXid.branch(committed, "database3"), "INSERT INTO items VALUES (1, 'committed')");
+		log.logCommit(committed, Arrays.asList("database2", "database3"));
+
+		//the coordinator failed before the decision of the other transaction
+		prepare(proxy.getConnectionByName("database1"), ProxyXid.branch(undecided, "database1"), "INSERT INTO items VALUES (2, 'undecided')");
+
+		ProxyConnection recovering = (ProxyConnection) new ProxyDriver().connect(null, properties);
+
+		try {
+			List<ConnectionUnit> units = Arrays.asList(recovering.getConnectionByName("database1"), recovering.getConnectionByName("database2"),
+					recovering.getConnectionByName("database3"));
+			log.resolve(units);
+
+			assertEquals(0, log.getUnfinished());
+			assertEquals(1, TestUtils.countRows(units.get(2), "items"));
+			assertEquals(0, TestUtils.countRows(units.get(0), "items"));
+
+			for (ConnectionUnit unit : units) {
+				assertEquals(0, unit.getXAResource().recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN).length);
+			}
+		} finally {
+			recovering.close();
+		}
+	}
+
+	@Test
+	public void testNotXA() throws Exception {
+		Properties p = TestUtils.loadProperties("memory.properties");
+		p.setProperty("db0_xa_datasource", "org.h2.jdbcx.JdbcDataSource");
+		p.setProperty("xa", "true");
+		p.setProperty("xa_log", new File(folder.getRoot(), "log").getPath());
+
+		try {
+			new ProxyDriver().connect(null, p);
+			fail("Expected SQLException - database2 has no XA data source.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("XA"));
+		}
+	}
+
+	private static void prepare(ConnectionUnit unit, ProxyXid xid, String sql) throws Exception {
+		XAResource resource = unit.getXAResource();
+		resource.start(xid, XAResource.TMNOFLAGS);
+
+		Statement statement = unit.getConnection().createStatement();
+		statement.execute(sql);
+		statement.close();
+
+		resource.end(xid, XAResource.TMSUCCESS);
+		assertEquals(XAResource.XA_OK, resource.prepare(xid));
+	}
+}